@@ -2,9 +2,15 @@ package com.trafficx;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.context.annotation.Bean;
-import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SpringBootApplication
 @EnableScheduling
@@ -14,8 +20,23 @@ public class SmartTrafficXApplication {
         SpringApplication.run(SmartTrafficXApplication.class, args);
     }
 
-    @Bean
-    RestTemplate restTemplate() {
-        return new RestTemplate();
+    /**
+     * Bounded pool for fanning out upstream calls (e.g. route flow sampling).
+     * Work beyond the queue is rejected rather than run on the caller's thread.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    ExecutorService upstreamExecutor(@Value("${upstream.executor.threads:32}") int threads,
+                                     @Value("${upstream.executor.queue-size:1000}") int queueSize) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(queueSize),
+            runnable -> {
+                Thread thread = new Thread(runnable, "upstream-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 }
\ No newline at end of file
@@ -0,0 +1,261 @@
+package com.trafficx.config;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-provider request budgets enforced in front of every upstream call.
+ * Each provider's quota (e.g. 2,500/day) refills a token bucket continuously, so the
+ * allowance is spread across the period instead of being spent in the first hour; the
+ * bucket holds at most one burst window's worth. Background work may only spend tokens
+ * above a reserve, which keeps the rest of the budget for interactive requests.
+ */
+public class UpstreamBudget implements ClientHttpRequestInterceptor {
+
+    public enum Priority { INTERACTIVE, BACKGROUND }
+
+    private static final ThreadLocal<Priority> PRIORITY = ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+
+    // Calls prepaid by withReservation for the task running on this thread
+    private static final ThreadLocal<Reservation> RESERVATION = new ThreadLocal<>();
+
+    private final Map<String, Bucket> buckets = new LinkedHashMap<>();
+    private final double backgroundReserve;
+
+    public UpstreamBudget(Map<String, String> quotas, Duration burstWindow, double backgroundReserve) {
+        this.backgroundReserve = backgroundReserve;
+        quotas.forEach((provider, quota) -> {
+            if (quota != null && !quota.isBlank()) {
+                buckets.put(provider, Bucket.parse(provider, quota.trim(), burstWindow));
+            }
+        });
+    }
+
+    /**
+     * Wrap a task so every upstream call it makes, on whichever thread runs it, uses the given priority
+     */
+    public static <T> Callable<T> withPriority(Priority priority, Callable<T> task) {
+        return () -> {
+            Priority previous = PRIORITY.get();
+            PRIORITY.set(priority);
+            try {
+                return task.call();
+            } finally {
+                PRIORITY.set(previous);
+            }
+        };
+    }
+
+    public static Priority currentPriority() {
+        return PRIORITY.get();
+    }
+
+    /**
+     * Take calls tokens from provider's budget in one step, at the current thread's priority, and
+     * run task: its calls to provider on this thread spend the reservation first, and whatever it
+     * leaves unspent is refunded. Throws UpstreamBudgetExceededException, taking nothing and not
+     * running task, if the budget cannot cover every call.
+     */
+    public <T> T withReservation(String provider, int calls, Callable<T> task) throws Exception {
+        Bucket bucket = buckets.get(provider);
+        if (bucket == null) {
+            return task.call();
+        }
+        if (!bucket.tryAcquire(PRIORITY.get(), backgroundReserve, calls)) {
+            throw new UpstreamBudgetExceededException(provider, PRIORITY.get());
+        }
+        Reservation previous = RESERVATION.get();
+        Reservation reservation = new Reservation(provider, calls);
+        RESERVATION.set(reservation);
+        try {
+            return task.call();
+        } finally {
+            RESERVATION.set(previous);
+            bucket.refund(reservation.remaining);
+        }
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        String provider = providerFor(request.getURI().getHost());
+        Bucket bucket = provider == null ? null : buckets.get(provider);
+        Reservation reservation = RESERVATION.get();
+        if (reservation != null && reservation.provider.equals(provider) && reservation.remaining > 0) {
+            reservation.remaining--;
+        } else if (bucket != null && !bucket.tryAcquire(PRIORITY.get(), backgroundReserve, 1)) {
+            throw new UpstreamBudgetExceededException(provider, PRIORITY.get());
+        }
+        return execution.execute(request, body);
+    }
+
+    /**
+     * Calls the current thread's priority could make to this provider right now;
+     * Integer.MAX_VALUE when the provider has no configured budget.
+     */
+    public int available(String provider) {
+        Bucket bucket = buckets.get(provider);
+        return bucket == null ? Integer.MAX_VALUE : bucket.available(PRIORITY.get(), backgroundReserve);
+    }
+
+    /**
+     * Calls per second background work can sustain against provider: the share of its quota
+     * above the background reserve; infinite when the provider has no configured budget.
+     */
+    public double backgroundRate(String provider) {
+        Bucket bucket = buckets.get(provider);
+        return bucket == null ? Double.POSITIVE_INFINITY : bucket.tokensPerNano * 1e9 * (1 - backgroundReserve);
+    }
+
+    public List<BudgetStats> getStats() {
+        List<BudgetStats> stats = new ArrayList<>();
+        for (Bucket bucket : buckets.values()) {
+            stats.add(bucket.snapshot());
+        }
+        return stats;
+    }
+
+    static String providerFor(String host) {
+        if (host == null) {
+            return null;
+        }
+        if (host.equals("api.tomtom.com")) {
+            return "tomtom";
+        } else if (host.endsWith("hereapi.com")) {
+            return "here";
+        } else if (host.equals("api.openrouteservice.org")) {
+            return "ors";
+        } else if (host.equals("generativelanguage.googleapis.com")) {
+            return "gemini";
+        } else if (host.equals("nominatim.openstreetmap.org")) {
+            return "nominatim";
+        }
+        return null;
+    }
+
+    private static class Bucket {
+        final String provider;
+        final String quota;
+        final double capacity;
+        final double tokensPerNano;
+        final AtomicLong granted = new AtomicLong();
+        final AtomicLong deniedInteractive = new AtomicLong();
+        final AtomicLong deniedBackground = new AtomicLong();
+        double tokens;
+        long refilledAt;
+
+        Bucket(String provider, String quota, long limit, Duration period, Duration burstWindow) {
+            this.provider = provider;
+            this.quota = quota;
+            this.tokensPerNano = (double) limit / period.toNanos();
+            this.capacity = Math.max(1, Math.min(limit, tokensPerNano * burstWindow.toNanos()));
+            this.tokens = capacity;
+            this.refilledAt = System.nanoTime();
+        }
+
+        /**
+         * Parse "2500/day", "60/minute", "1/second" or "8000/hour"
+         */
+        static Bucket parse(String provider, String quota, Duration burstWindow) {
+            int slash = quota.indexOf('/');
+            if (slash < 0) {
+                throw new IllegalArgumentException("Upstream budget for " + provider + " must look like 2500/day: " + quota);
+            }
+            long limit = Long.parseLong(quota.substring(0, slash).trim());
+            Duration period = switch (quota.substring(slash + 1).trim().toLowerCase(Locale.ROOT)) {
+                case "second" -> Duration.ofSeconds(1);
+                case "minute" -> Duration.ofMinutes(1);
+                case "hour" -> Duration.ofHours(1);
+                case "day" -> Duration.ofDays(1);
+                case "month" -> Duration.ofDays(30);
+                default -> throw new IllegalArgumentException("Unknown budget period for " + provider + ": " + quota);
+            };
+            return new Bucket(provider, quota, limit, period, burstWindow);
+        }
+
+        synchronized boolean tryAcquire(Priority priority, double reserve, int calls) {
+            refill();
+            if (tokens - calls < floor(priority, reserve)) {
+                (priority == Priority.BACKGROUND ? deniedBackground : deniedInteractive).incrementAndGet();
+                return false;
+            }
+            tokens -= calls;
+            granted.addAndGet(calls);
+            return true;
+        }
+
+        synchronized void refund(int calls) {
+            refill();
+            tokens = Math.min(capacity, tokens + calls);
+            granted.addAndGet(-calls);
+        }
+
+        synchronized int available(Priority priority, double reserve) {
+            refill();
+            return (int) Math.max(0, Math.floor(tokens - floor(priority, reserve)));
+        }
+
+        private double floor(Priority priority, double reserve) {
+            return priority == Priority.BACKGROUND ? capacity * reserve : 0;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+        }
+
+        synchronized BudgetStats snapshot() {
+            refill();
+            return new BudgetStats(provider, quota, capacity, tokens, granted.get(),
+                deniedInteractive.get(), deniedBackground.get());
+        }
+    }
+
+    private static final class Reservation {
+        final String provider;
+        int remaining;
+
+        Reservation(String provider, int remaining) {
+            this.provider = provider;
+            this.remaining = remaining;
+        }
+    }
+
+    public static class BudgetStats {
+        private final String provider;
+        private final String quota;
+        private final double capacity;
+        private final double available;
+        private final long granted;
+        private final long deniedInteractive;
+        private final long deniedBackground;
+
+        public BudgetStats(String provider, String quota, double capacity, double available, long granted,
+                           long deniedInteractive, long deniedBackground) {
+            this.provider = provider;
+            this.quota = quota;
+            this.capacity = capacity;
+            this.available = available;
+            this.granted = granted;
+            this.deniedInteractive = deniedInteractive;
+            this.deniedBackground = deniedBackground;
+        }
+
+        public String getProvider() { return provider; }
+        public String getQuota() { return quota; }
+        public double getCapacity() { return capacity; }
+        public double getAvailable() { return available; }
+        public long getGranted() { return granted; }
+        public long getDeniedInteractive() { return deniedInteractive; }
+        public long getDeniedBackground() { return deniedBackground; }
+    }
+}
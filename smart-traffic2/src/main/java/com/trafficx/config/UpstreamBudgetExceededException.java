@@ -0,0 +1,22 @@
+package com.trafficx.config;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Thrown instead of making an upstream call the provider's budget cannot cover
+ */
+public class UpstreamBudgetExceededException extends RestClientException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String provider;
+
+    public UpstreamBudgetExceededException(String provider, UpstreamBudget.Priority priority) {
+        super("Upstream budget exhausted for " + provider + " (" + priority.name().toLowerCase() + " request)");
+        this.provider = provider;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+}
@@ -0,0 +1,201 @@
+package com.trafficx.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-host connection limits and pool metrics for upstream calls.
+ * A permit is held from request start until the response is closed, so the limit
+ * bounds open connections per host including time spent streaming the body.
+ */
+public class UpstreamHostMetrics implements ClientHttpRequestInterceptor {
+
+    private final int maxConnectionsPerHost;
+    private final long acquireTimeoutNanos;
+    private final Map<String, HostPool> pools = new ConcurrentHashMap<>();
+
+    public UpstreamHostMetrics(int maxConnectionsPerHost, Duration acquireTimeout) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        String host = request.getURI().getHost();
+        HostPool pool = pools.computeIfAbsent(host, h -> new HostPool(h, maxConnectionsPerHost));
+
+        long waitStarted = System.nanoTime();
+        try {
+            if (!pool.permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                pool.acquireTimeouts.incrementAndGet();
+                throw new ResourceAccessException("Upstream connection limit reached for " + host);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted waiting for upstream connection to " + host);
+        }
+        pool.waitNanos.addAndGet(System.nanoTime() - waitStarted);
+        pool.requests.incrementAndGet();
+
+        long started = System.nanoTime();
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            if (response.getStatusCode().isError()) {
+                pool.errors.incrementAndGet();
+            }
+            return new TrackedResponse(response, pool, started);
+        } catch (IOException | RuntimeException e) {
+            pool.errors.incrementAndGet();
+            pool.release(started);
+            throw e;
+        }
+    }
+
+    public List<HostStats> getStats() {
+        List<HostStats> stats = new ArrayList<>();
+        for (HostPool pool : pools.values()) {
+            stats.add(pool.snapshot());
+        }
+        stats.sort(Comparator.comparing(HostStats::getHost));
+        return stats;
+    }
+
+    private static class HostPool {
+        final String host;
+        final int maxConnections;
+        final Semaphore permits;
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong acquireTimeouts = new AtomicLong();
+        final AtomicLong waitNanos = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong maxBusyNanos = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+
+        HostPool(String host, int maxConnections) {
+            this.host = host;
+            this.maxConnections = maxConnections;
+            this.permits = new Semaphore(maxConnections);
+        }
+
+        void release(long started) {
+            long elapsed = System.nanoTime() - started;
+            busyNanos.addAndGet(elapsed);
+            maxBusyNanos.accumulateAndGet(elapsed, Math::max);
+            completed.incrementAndGet();
+            permits.release();
+        }
+
+        HostStats snapshot() {
+            long done = completed.get();
+            long total = requests.get();
+            return new HostStats(host, maxConnections, maxConnections - permits.availablePermits(),
+                permits.getQueueLength(), total, errors.get(), acquireTimeouts.get(),
+                total == 0 ? 0 : waitNanos.get() / 1_000_000.0 / total,
+                done == 0 ? 0 : busyNanos.get() / 1_000_000.0 / done,
+                maxBusyNanos.get() / 1_000_000.0);
+        }
+    }
+
+    /**
+     * Releases the host permit once the body has been consumed and the response closed
+     */
+    private static class TrackedResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private final HostPool pool;
+        private final long started;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        TrackedResponse(ClientHttpResponse delegate, HostPool pool, long started) {
+            this.delegate = delegate;
+            this.pool = pool;
+            this.started = started;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    pool.release(started);
+                }
+            }
+        }
+    }
+
+    public static class HostStats {
+        private final String host;
+        private final int maxConnections;
+        private final int activeConnections;
+        private final int waiting;
+        private final long requests;
+        private final long errors;
+        private final long acquireTimeouts;
+        private final double averageWaitMillis;
+        private final double averageRequestMillis;
+        private final double maxRequestMillis;
+
+        public HostStats(String host, int maxConnections, int activeConnections, int waiting, long requests,
+                         long errors, long acquireTimeouts, double averageWaitMillis,
+                         double averageRequestMillis, double maxRequestMillis) {
+            this.host = host;
+            this.maxConnections = maxConnections;
+            this.activeConnections = activeConnections;
+            this.waiting = waiting;
+            this.requests = requests;
+            this.errors = errors;
+            this.acquireTimeouts = acquireTimeouts;
+            this.averageWaitMillis = averageWaitMillis;
+            this.averageRequestMillis = averageRequestMillis;
+            this.maxRequestMillis = maxRequestMillis;
+        }
+
+        public String getHost() { return host; }
+        public int getMaxConnections() { return maxConnections; }
+        public int getActiveConnections() { return activeConnections; }
+        public int getWaiting() { return waiting; }
+        public long getRequests() { return requests; }
+        public long getErrors() { return errors; }
+        public long getAcquireTimeouts() { return acquireTimeouts; }
+        public double getAverageWaitMillis() { return averageWaitMillis; }
+        public double getAverageRequestMillis() { return averageRequestMillis; }
+        public double getMaxRequestMillis() { return maxRequestMillis; }
+    }
+}
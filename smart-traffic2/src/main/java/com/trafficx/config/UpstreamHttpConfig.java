@@ -0,0 +1,96 @@
+package com.trafficx.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The one HTTP client every upstream provider goes through (TomTom, HERE, ORS, Gemini, Nominatim).
+ * Backed by the JDK HttpClient, which keeps connections alive and reuses them per host,
+ * with connect/read timeouts so a hung upstream cannot pin a request thread.
+ */
+@Configuration
+public class UpstreamHttpConfig {
+
+    @Value("${upstream.http.connect-timeout-ms:3000}")
+    private long connectTimeoutMs;
+
+    @Value("${upstream.http.read-timeout-ms:10000}")
+    private long readTimeoutMs;
+
+    @Value("${upstream.http.http2:true}")
+    private boolean http2;
+
+    @Value("${upstream.http.max-connections-per-host:16}")
+    private int maxConnectionsPerHost;
+
+    @Value("${upstream.http.acquire-timeout-ms:2000}")
+    private long acquireTimeoutMs;
+
+    @Value("${upstream.budget.tomtom:2500/day}")
+    private String tomtomBudget;
+
+    @Value("${upstream.budget.here:8000/day}")
+    private String hereBudget;
+
+    @Value("${upstream.budget.ors:2000/day}")
+    private String orsBudget;
+
+    @Value("${upstream.budget.gemini:60/minute}")
+    private String geminiBudget;
+
+    @Value("${upstream.budget.nominatim:1/second}")
+    private String nominatimBudget;
+
+    @Value("${upstream.budget.burst-window-minutes:60}")
+    private long budgetBurstWindowMinutes;
+
+    @Value("${upstream.budget.background-reserve:0.5}")
+    private double budgetBackgroundReserve;
+
+    @Bean
+    UpstreamBudget upstreamBudget() {
+        Map<String, String> quotas = new LinkedHashMap<>();
+        quotas.put("tomtom", tomtomBudget);
+        quotas.put("here", hereBudget);
+        quotas.put("ors", orsBudget);
+        quotas.put("gemini", geminiBudget);
+        quotas.put("nominatim", nominatimBudget);
+        return new UpstreamBudget(quotas, Duration.ofMinutes(budgetBurstWindowMinutes), budgetBackgroundReserve);
+    }
+
+    @Bean
+    UpstreamHostMetrics upstreamHostMetrics() {
+        return new UpstreamHostMetrics(maxConnectionsPerHost, Duration.ofMillis(acquireTimeoutMs));
+    }
+
+    @Bean
+    HttpClient upstreamHttpClient() {
+        return HttpClient.newBuilder()
+            .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+    }
+
+    @Bean
+    RestTemplate restTemplate(HttpClient upstreamHttpClient, UpstreamBudget upstreamBudget,
+                              UpstreamHostMetrics upstreamHostMetrics) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(upstreamHttpClient);
+        requestFactory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        // Budget is checked before a connection permit is taken; metrics wrap the whole
+        // exchange; gzip sits closest to the wire
+        restTemplate.setInterceptors(List.of(upstreamBudget, upstreamHostMetrics, new GzipResponseInterceptor()));
+        return restTemplate;
+    }
+}
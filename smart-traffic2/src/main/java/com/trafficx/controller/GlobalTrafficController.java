@@ -3,9 +3,34 @@ package com.trafficx.controller;
 import com.trafficx.service.TrafficApiService;
 import com.trafficx.service.RoutingApiService;
 import com.trafficx.service.AIAnalysisService;
+import com.trafficx.service.CityCatalog;
+import com.trafficx.service.IncidentStreamService;
+import com.trafficx.service.RoadNetworkService;
+import com.trafficx.service.RouteCacheService;
+import com.trafficx.service.SpeedProfileService;
+import com.trafficx.service.TrafficSnapshotService;
+import com.trafficx.config.UpstreamBudget;
+import com.trafficx.config.UpstreamBudgetExceededException;
+import com.trafficx.config.UpstreamHostMetrics;
+import com.trafficx.util.BoundingBox;
+import com.trafficx.util.GeoUtils;
+import com.trafficx.util.SpatialGridIndex;
+import com.trafficx.util.TtlCache;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
 import java.util.*;
 
 @RestController
@@ -15,52 +40,407 @@ public class GlobalTrafficController {
     private final TrafficApiService trafficApiService;
     private final RoutingApiService routingApiService;
     private final AIAnalysisService aiAnalysisService;
+    private final CityCatalog cityCatalog;
+    private final TrafficSnapshotService trafficSnapshotService;
+    private final IncidentStreamService incidentStreamService;
+    private final RoadNetworkService roadNetworkService;
+    private final RouteCacheService routeCacheService;
+    private final SpeedProfileService speedProfileService;
+    private final RestTemplate restTemplate;
+    private final UpstreamHostMetrics upstreamHostMetrics;
+    private final UpstreamBudget upstreamBudget;
 
     public GlobalTrafficController(TrafficApiService trafficApiService,
                                     RoutingApiService routingApiService,
-                                    AIAnalysisService aiAnalysisService) {
+                                    AIAnalysisService aiAnalysisService,
+                                    CityCatalog cityCatalog,
+                                    TrafficSnapshotService trafficSnapshotService,
+                                    IncidentStreamService incidentStreamService,
+                                    RoadNetworkService roadNetworkService,
+                                    RouteCacheService routeCacheService,
+                                    SpeedProfileService speedProfileService,
+                                    RestTemplate restTemplate,
+                                    UpstreamHostMetrics upstreamHostMetrics,
+                                    UpstreamBudget upstreamBudget) {
         this.trafficApiService = trafficApiService;
         this.routingApiService = routingApiService;
         this.aiAnalysisService = aiAnalysisService;
+        this.cityCatalog = cityCatalog;
+        this.trafficSnapshotService = trafficSnapshotService;
+        this.incidentStreamService = incidentStreamService;
+        this.roadNetworkService = roadNetworkService;
+        this.routeCacheService = routeCacheService;
+        this.speedProfileService = speedProfileService;
+        this.restTemplate = restTemplate;
+        this.upstreamHostMetrics = upstreamHostMetrics;
+        this.upstreamBudget = upstreamBudget;
     }
 
     /**
-     * Get traffic incidents with timestamps
+     * Get traffic incidents with timestamps.
+     * Served from the background snapshot when the bbox lies inside a known city; those
+     * responses carry an ETag and X-Incidents-Version, and since=<version> returns only
+     * the incidents added, updated or removed after that version.
      */
     @GetMapping("/incidents")
-    public ResponseEntity<List<TrafficApiService.TrafficIncident>> getIncidents(
-            @RequestParam String bbox) {
-        List<TrafficApiService.TrafficIncident> incidents = trafficApiService.getTrafficIncidents(bbox);
+    public ResponseEntity<?> getIncidents(
+            @RequestParam String bbox,
+            @RequestParam(required = false) Long since,
+            ServletWebRequest request) {
+        BoundingBox box = BoundingBox.parse(bbox);
+        Optional<TrafficSnapshotService.CitySnapshot> city = box == null
+            ? Optional.empty() : trafficSnapshotService.findCity(box);
+
+        if (city.isEmpty()) {
+            List<TrafficApiService.TrafficIncident> incidents;
+            try {
+                incidents = trafficApiService.getTrafficIncidents(bbox);
+            } catch (RestClientException e) {
+                return upstreamFailure(e);
+            }
+            if (since != null) {
+                return ResponseEntity.ok(new TrafficSnapshotService.IncidentDelta(
+                    null, 0, since, true, incidents, List.of(), List.of()));
+            }
+            return ResponseEntity.ok(incidents);
+        }
+
+        TrafficSnapshotService.CitySnapshot snapshot = city.get();
+        // A since= delta is a different body from the full listing at the same version
+        String etag = "\"" + snapshot.getCity().replace(' ', '_') + "-" + snapshot.getIncidentVersion()
+            + (since != null ? "-since-" + since : "") + "\"";
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .header("X-Incidents-Version", String.valueOf(snapshot.getIncidentVersion()))
+                .build();
+        }
+
+        Object body = since != null
+            ? trafficSnapshotService.incidentDelta(snapshot, box, since)
+            : snapshot.getIndex().query(box);
+        return ResponseEntity.ok()
+            .eTag(etag)
+            .header("X-Incidents-Version", String.valueOf(snapshot.getIncidentVersion()))
+            .body(body);
+    }
+
+    /**
+     * Server-Sent Events stream of incident and flow updates for one predefined city.
+     * The first "update" event is the full state; later ones are deltas.
+     */
+    @GetMapping(value = "/stream", produces = "text/event-stream")
+    public ResponseEntity<SseEmitter> streamCity(@RequestParam String city) {
+        Optional<CityCatalog.CityInfo> info = cityCatalog.findCity(city);
+        if (info.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return incidentStreamService.subscribe(info.get().getName())
+            .map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+
+    /**
+     * Incidents within a radius (meters) of a point, nearest first
+     */
+    @GetMapping("/incidents/nearby")
+    public ResponseEntity<List<TrafficApiService.TrafficIncident>> getNearbyIncidents(
+            @RequestParam double lat,
+            @RequestParam double lon,
+            @RequestParam(defaultValue = "1000") double radius) {
+        try {
+            List<TrafficApiService.TrafficIncident> incidents = trafficSnapshotService.findNearby(lat, lon, radius)
+                .orElseGet(() -> {
+                    double dLat = radius / GeoUtils.METERS_PER_DEGREE;
+                    double dLon = dLat / Math.max(0.01, Math.cos(Math.toRadians(lat)));
+                    String bbox = new BoundingBox(lon - dLon, lat - dLat, lon + dLon, lat + dLat).toParam();
+                    List<TrafficApiService.TrafficIncident> inBox = trafficApiService.getTrafficIncidents(bbox);
+                    return SpatialGridIndex.build(inBox,
+                        TrafficApiService.TrafficIncident::getLatitude,
+                        TrafficApiService.TrafficIncident::getLongitude).withinRadius(lat, lon, radius);
+                });
+            return ResponseEntity.ok(incidents);
+        } catch (RestClientException e) {
+            return upstreamFailure(e);
+        }
+    }
+
+    /**
+     * The n incidents nearest to a point inside one of the predefined cities
+     */
+    @GetMapping("/incidents/nearest")
+    public ResponseEntity<List<TrafficApiService.TrafficIncident>> getNearestIncidents(
+            @RequestParam double lat,
+            @RequestParam double lon,
+            @RequestParam(defaultValue = "5") int n) {
+        List<TrafficApiService.TrafficIncident> incidents = trafficSnapshotService.findNearest(lat, lon, n)
+            .orElseGet(ArrayList::new);
         return ResponseEntity.ok(incidents);
     }
 
     /**
-     * Get traffic flow for a specific point
+     * Version and per-city freshness of the background traffic snapshot
+     */
+    @GetMapping("/snapshot")
+    public ResponseEntity<Map<String, Object>> getSnapshot() {
+        TrafficSnapshotService.TrafficSnapshot snapshot = trafficSnapshotService.getSnapshot();
+
+        List<Map<String, Object>> cities = new ArrayList<>();
+        for (TrafficSnapshotService.CitySnapshot city : snapshot.getCities().values()) {
+            Map<String, Object> info = new HashMap<>();
+            info.put("city", city.getCity());
+            info.put("incidents", city.getIncidents().size());
+            info.put("flows", city.getFlows().size());
+            info.put("fetchedAt", new Date(city.getFetchedAt()).toString());
+            cities.add(info);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("version", snapshot.getVersion());
+        result.put("createdAt", new Date(snapshot.getCreatedAt()).toString());
+        result.put("cities", cities);
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Upstream cache statistics (hit rate, load time, evictions)
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<List<TtlCache.Stats>> getCacheStats() {
+        return ResponseEntity.ok(trafficApiService.getCacheStats());
+    }
+
+    /**
+     * Live stream subscriber counts, deliveries and slow-consumer evictions
+     */
+    @GetMapping("/stream/stats")
+    public ResponseEntity<IncidentStreamService.StreamStats> getStreamStats() {
+        return ResponseEntity.ok(incidentStreamService.getStats());
+    }
+
+    /**
+     * Per-host upstream connection pool metrics
+     */
+    @GetMapping("/upstream/stats")
+    public ResponseEntity<List<UpstreamHostMetrics.HostStats>> getUpstreamStats() {
+        return ResponseEntity.ok(upstreamHostMetrics.getStats());
+    }
+
+    /**
+     * Remaining per-provider request budget and denied calls
+     */
+    @GetMapping("/upstream/budget")
+    public ResponseEntity<List<UpstreamBudget.BudgetStats>> getUpstreamBudget() {
+        return ResponseEntity.ok(upstreamBudget.getStats());
+    }
+
+    /**
+     * Get traffic flow for a specific point; 429 when the provider budget is spent,
+     * 503 when the provider cannot answer
      */
     @GetMapping("/flow")
     public ResponseEntity<TrafficApiService.TrafficFlow> getFlow(
             @RequestParam double lat,
             @RequestParam double lon) {
-        TrafficApiService.TrafficFlow flow = trafficApiService.getTrafficFlow(lat, lon);
-        return ResponseEntity.ok(flow);
+        try {
+            TrafficApiService.TrafficFlow flow = trafficApiService.getTrafficFlow(lat, lon);
+            return ResponseEntity.ok(flow);
+        } catch (RestClientException e) {
+            return upstreamFailure(e);
+        }
+    }
+
+    /**
+     * 429 when the provider budget is spent, 503 when the provider itself failed
+     */
+    private static <T> ResponseEntity<T> upstreamFailure(RestClientException e) {
+        return ResponseEntity.status(e instanceof UpstreamBudgetExceededException
+            ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE).build();
     }
 
     /**
-     * Get optimal route with traffic consideration and rerouting
+     * Get optimal route with traffic consideration and rerouting. format=polyline returns the
+     * geometry as an encoded polyline string instead of a coordinate array. With departAt ("now",
+     * an ISO-8601 date-time, or a local one in routing.profiles.time-zone) the route is the
+     * fastest for that departure under learned weekly speed profiles instead.
      */
     @GetMapping("/route")
-    public ResponseEntity<RoutingApiService.RouteResult> getRoute(
+    public ResponseEntity<?> getRoute(
             @RequestParam double startLat,
             @RequestParam double startLon,
             @RequestParam double endLat,
             @RequestParam double endLon,
-            @RequestParam(defaultValue = "true") boolean avoidTraffic) {
+            @RequestParam(defaultValue = "true") boolean avoidTraffic,
+            @RequestParam(defaultValue = RoadNetworkService.AUTO) String algorithm,
+            @RequestParam(defaultValue = "coordinates") String format,
+            @RequestParam(required = false) String departAt) {
+        // Checked before the route cache, which keys on algorithm
+        algorithm = algorithm.toLowerCase(Locale.ROOT);
+        if (!RoadNetworkService.ROUTE_ALGORITHMS.contains(algorithm)
+                || (!format.equals("coordinates") && !format.equals("polyline"))) {
+            return ResponseEntity.badRequest().build();
+        }
         
-        RoutingApiService.RouteResult route = routingApiService.getOptimalRoute(
-            startLat, startLon, endLat, endLon, avoidTraffic);
+        RoutingApiService.RouteResult route;
+        if (departAt != null) {
+            Optional<ZonedDateTime> departure = speedProfileService.parseDeparture(departAt);
+            if (departure.isEmpty()) {
+                return ResponseEntity.badRequest().build();
+            }
+            route = routingApiService.getRouteDepartingAt(startLat, startLon, endLat, endLon,
+                departure.get(), avoidTraffic, algorithm);
+        } else {
+            route = routingApiService.getOptimalRoute(startLat, startLon, endLat, endLon, avoidTraffic, algorithm);
+        }
+        if (format.equals("polyline") && route != null) {
+            return ResponseEntity.ok(new RoutingApiService.PolylineRouteResult(route));
+        }
         return ResponseEntity.ok(route);
     }
 
+    /**
+     * Up to k meaningfully different routes, best first, each with its stretch (cost relative
+     * to the best) and overlap with the routes before it
+     */
+    @GetMapping("/route/alternatives")
+    public ResponseEntity<List<?>> getRouteAlternatives(
+            @RequestParam double startLat,
+            @RequestParam double startLon,
+            @RequestParam double endLat,
+            @RequestParam double endLon,
+            @RequestParam(defaultValue = "3") int k,
+            @RequestParam(defaultValue = "coordinates") String format) {
+        if (k < 1 || k > roadNetworkService.getAlternativesMaxK() || (!format.equals("coordinates") && !format.equals("polyline"))) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<RoutingApiService.RouteResult> routes =
+            routingApiService.getAlternatives(startLat, startLon, endLat, endLon, k);
+        if (format.equals("polyline")) {
+            return ResponseEntity.ok(routes.stream().map(RoutingApiService.PolylineRouteResult::new).toList());
+        }
+        return ResponseEntity.ok(routes);
+    }
+
+    /**
+     * What the weekly speed profiles behind departAt routes have learned, and what they cost in memory
+     */
+    @GetMapping("/route/profiles")
+    public ResponseEntity<SpeedProfileService.ProfileStats> getSpeedProfileStats() {
+        return ResponseEntity.ok(speedProfileService.getStats());
+    }
+
+    /**
+     * Route cache hit rate and how many cached routes each traffic change invalidated
+     */
+    @GetMapping("/route/cache/stats")
+    public ResponseEntity<RouteCacheService.RouteCacheStats> getRouteCacheStats() {
+        return ResponseEntity.ok(routeCacheService.getStats());
+    }
+
+    /**
+     * Travel time (seconds) and distance (meters) from every origin to every destination on
+     * the local road network, streamed as one NDJSON line per origin as soon as it is done:
+     * {"origin": i, "durations": [...], "distances": [...]}. Unreachable or unsnapped pairs are null.
+     */
+    @PostMapping("/matrix")
+    public ResponseEntity<StreamingResponseBody> getMatrix(@RequestBody MatrixRequest request) {
+        List<double[]> origins = request.getOrigins();
+        List<double[]> destinations = request.getDestinations();
+        if (origins == null || destinations == null || origins.isEmpty() || destinations.isEmpty()
+                || origins.size() > roadNetworkService.getMatrixMaxPoints()
+                || destinations.size() > roadNetworkService.getMatrixMaxPoints()) {
+            return ResponseEntity.badRequest().build();
+        }
+        Optional<RoadNetworkService.MatrixQuery> query = roadNetworkService.matrix(origins, destinations);
+        if (query.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        StreamingResponseBody body = out -> {
+            long started = System.currentTimeMillis();
+            query.get().run((origin, seconds, meters) -> writeMatrixRow(out, origin, seconds, meters));
+            System.out.println("Matrix " + origins.size() + "x" + destinations.size() + " in "
+                + (System.currentTimeMillis() - started) + " ms (" + query.get().getUnsnappedOrigins() + " origins, "
+                + query.get().getUnsnappedDestinations() + " destinations off the network)");
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Areas reachable within each of minutes (comma separated) from each origin, under current
+     * traffic unless traffic=false. Repeat lat and lon for several origins; they are computed in
+     * parallel. Each band lists polygons as rings of [lat, lon]: the outer ring, then its holes.
+     */
+    @GetMapping("/isochrone")
+    public ResponseEntity<List<RoadNetworkService.IsochroneResult>> getIsochrone(
+            @RequestParam List<Double> lat,
+            @RequestParam List<Double> lon,
+            @RequestParam(defaultValue = "5,10,15") List<Double> minutes,
+            @RequestParam(defaultValue = "true") boolean traffic) {
+        double[] bands = minutes.stream().mapToDouble(Double::doubleValue).sorted().distinct().toArray();
+        if (lat.isEmpty() || lat.size() != lon.size() || lat.size() > roadNetworkService.getIsochroneMaxOrigins()
+                || bands.length == 0 || bands.length > roadNetworkService.getIsochroneMaxBands()
+                || bands[0] <= 0 || bands[bands.length - 1] > roadNetworkService.getIsochroneMaxMinutes()) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<double[]> origins = new ArrayList<>(lat.size());
+        for (int i = 0; i < lat.size(); i++) {
+            origins.add(new double[]{lat.get(i), lon.get(i)});
+        }
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] *= 60;
+        }
+        return roadNetworkService.isochrones(origins, bands, traffic)
+            .map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+
+    private static void writeMatrixRow(OutputStream out, int origin, double[] seconds, double[] meters) {
+        StringBuilder line = new StringBuilder(16 + seconds.length * 16);
+        line.append("{\"origin\":").append(origin).append(",\"durations\":[");
+        for (int j = 0; j < seconds.length; j++) {
+            if (j > 0) {
+                line.append(',');
+            }
+            if (Double.isInfinite(seconds[j])) {
+                line.append("null");
+            } else {
+                line.append(Math.round(seconds[j] * 10) / 10.0);
+            }
+        }
+        line.append("],\"distances\":[");
+        for (int j = 0; j < meters.length; j++) {
+            if (j > 0) {
+                line.append(',');
+            }
+            if (Double.isInfinite(meters[j])) {
+                line.append("null");
+            } else {
+                line.append(Math.round(meters[j]));
+            }
+        }
+        line.append("]}\n");
+        byte[] bytes = line.toString().getBytes(StandardCharsets.US_ASCII);
+        // Rows finish on several threads at once; each line goes out whole
+        synchronized (out) {
+            try {
+                out.write(bytes);
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Size and load time of the local road network used for routing, plus contraction
+     * hierarchy size and per-algorithm query latency
+     */
+    @GetMapping("/network")
+    public ResponseEntity<RoadNetworkService.NetworkStats> getNetwork() {
+        return ResponseEntity.ok(roadNetworkService.getStats());
+    }
+
     /**
      * Chat with AI about traffic
      */
@@ -122,20 +502,8 @@ public class GlobalTrafficController {
      * Get predefined city locations
      */
     @GetMapping("/cities")
-    public ResponseEntity<List<CityInfo>> getCities() {
-        List<CityInfo> cities = Arrays.asList(
-            new CityInfo("New York", 40.7128, -74.0060, "40.4774,-74.2591,41.0074,-73.7004"),
-            new CityInfo("London", 51.5074, -0.1278, "51.2867,-0.5103,51.6919,0.3340"),
-            new CityInfo("Paris", 48.8566, 2.3522, "48.8155,2.2241,48.9022,2.4699"),
-            new CityInfo("Dubai", 25.2048, 55.2708, "25.0657,55.1713,25.3587,55.5472"),
-            new CityInfo("Tokyo", 35.6762, 139.6503, "35.5175,139.4976,35.8167,139.9199"),
-            new CityInfo("Berlin", 52.5200, 13.4050, "52.3382,13.0883,52.6755,13.7611"),
-            new CityInfo("Sydney", -33.8688, 151.2093, "-34.1183,150.5210,-33.5781,151.3430"),
-            new CityInfo("Singapore", 1.3521, 103.8198, "1.1304,103.6920,1.4710,104.0120"),
-            new CityInfo("Mumbai", 19.0760, 72.8777, "18.8947,72.7760,19.2703,72.9786"),
-            new CityInfo("Toronto", 43.6532, -79.3832, "43.5810,-79.6391,43.8554,-79.1168")
-        );
-        return ResponseEntity.ok(cities);
+    public ResponseEntity<List<CityCatalog.CityInfo>> getCities() {
+        return ResponseEntity.ok(cityCatalog.getCities());
     }
 
     /**
@@ -163,7 +531,7 @@ public class GlobalTrafficController {
             org.springframework.http.HttpEntity<String> entity = 
                 new org.springframework.http.HttpEntity<>(headers);
             
-            ResponseEntity<String> response = new org.springframework.web.client.RestTemplate()
+            ResponseEntity<String> response = restTemplate
                 .exchange(url, org.springframework.http.HttpMethod.GET, entity, String.class);
             
             org.json.JSONArray results = new org.json.JSONArray(response.getBody());
@@ -224,22 +592,13 @@ public class GlobalTrafficController {
         public void setFlows(List<TrafficApiService.TrafficFlow> flows) { this.flows = flows; }
     }
 
-    public static class CityInfo {
-        private String name;
-        private double latitude;
-        private double longitude;
-        private String bbox;
-
-        public CityInfo(String name, double latitude, double longitude, String bbox) {
-            this.name = name;
-            this.latitude = latitude;
-            this.longitude = longitude;
-            this.bbox = bbox;
-        }
+    public static class MatrixRequest {
+        private List<double[]> origins;
+        private List<double[]> destinations;
 
-        public String getName() { return name; }
-        public double getLatitude() { return latitude; }
-        public double getLongitude() { return longitude; }
-        public String getBbox() { return bbox; }
+        public List<double[]> getOrigins() { return origins; }
+        public void setOrigins(List<double[]> origins) { this.origins = origins; }
+        public List<double[]> getDestinations() { return destinations; }
+        public void setDestinations(List<double[]> destinations) { this.destinations = destinations; }
     }
 }
\ No newline at end of file
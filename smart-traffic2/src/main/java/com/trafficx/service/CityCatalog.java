@@ -0,0 +1,55 @@
+package com.trafficx.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Predefined cities served to the UI and refreshed by the background snapshot poller.
+ * Bboxes use the "minLon,minLat,maxLon,maxLat" order the traffic providers expect.
+ */
+@Component
+public class CityCatalog {
+
+    private static final List<CityInfo> CITIES = List.of(
+        new CityInfo("New York", 40.7128, -74.0060, "-74.2591,40.4774,-73.7004,41.0074"),
+        new CityInfo("London", 51.5074, -0.1278, "-0.5103,51.2867,0.3340,51.6919"),
+        new CityInfo("Paris", 48.8566, 2.3522, "2.2241,48.8155,2.4699,48.9022"),
+        new CityInfo("Dubai", 25.2048, 55.2708, "55.1713,25.0657,55.5472,25.3587"),
+        new CityInfo("Tokyo", 35.6762, 139.6503, "139.4976,35.5175,139.9199,35.8167"),
+        new CityInfo("Berlin", 52.5200, 13.4050, "13.0883,52.3382,13.7611,52.6755"),
+        new CityInfo("Sydney", -33.8688, 151.2093, "150.5210,-34.1183,151.3430,-33.5781"),
+        new CityInfo("Singapore", 1.3521, 103.8198, "103.6920,1.1304,104.0120,1.4710"),
+        new CityInfo("Mumbai", 19.0760, 72.8777, "72.7760,18.8947,72.9786,19.2703"),
+        new CityInfo("Toronto", 43.6532, -79.3832, "-79.6391,43.5810,-79.1168,43.8554")
+    );
+
+    public List<CityInfo> getCities() {
+        return CITIES;
+    }
+
+    public Optional<CityInfo> findCity(String name) {
+        return CITIES.stream()
+            .filter(city -> city.getName().equalsIgnoreCase(name))
+            .findFirst();
+    }
+
+    public static class CityInfo {
+        private final String name;
+        private final double latitude;
+        private final double longitude;
+        private final String bbox;
+
+        public CityInfo(String name, double latitude, double longitude, String bbox) {
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.bbox = bbox;
+        }
+
+        public String getName() { return name; }
+        public double getLatitude() { return latitude; }
+        public double getLongitude() { return longitude; }
+        public String getBbox() { return bbox; }
+    }
+}
@@ -0,0 +1,346 @@
+package com.trafficx.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes per-city incident and flow updates to browsers over Server-Sent Events.
+ * Each change is serialized once and the same payload is queued for every subscriber
+ * of that city; a small pool drains the queues, and a subscriber whose queue fills up
+ * or whose socket write outlives the write deadline (a slow or stalled client) is
+ * disconnected instead of holding up the others.
+ */
+@Service
+public class IncidentStreamService {
+
+    private final TrafficSnapshotService trafficSnapshotService;
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    // Latest full update per city, rebuilt when the city's snapshot changes
+    private final Map<String, StreamEvent> latestFull = new ConcurrentHashMap<>();
+
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private ExecutorService sendExecutor;
+
+    @Value("${traffic.stream.max-subscribers:5000}")
+    private int maxSubscribers;
+
+    @Value("${traffic.stream.queue-size:16}")
+    private int queueSize;
+
+    @Value("${traffic.stream.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${traffic.stream.send-threads:4}")
+    private int sendThreads;
+
+    @Value("${traffic.stream.write-timeout-ms:5000}")
+    private long writeTimeoutMs;
+
+    public IncidentStreamService(TrafficSnapshotService trafficSnapshotService, ObjectMapper objectMapper) {
+        this.trafficSnapshotService = trafficSnapshotService;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    void init() {
+        AtomicInteger counter = new AtomicInteger();
+        sendExecutor = Executors.newFixedThreadPool(sendThreads, runnable -> {
+            Thread thread = new Thread(runnable, "sse-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        trafficSnapshotService.addListener(this::onSnapshot);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        sendExecutor.shutdownNow();
+        subscribers.values().forEach(set -> set.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    /**
+     * Open a stream for one city. The first event is the city's full current state;
+     * later events carry only what changed. Empty when the node is at capacity.
+     */
+    public Optional<SseEmitter> subscribe(String city) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            rejected.incrementAndGet();
+            return Optional.empty();
+        }
+
+        Subscriber subscriber = new Subscriber(city, new SseEmitter(timeoutMs), queueSize);
+        subscriber.emitter.onCompletion(() -> remove(subscriber));
+        subscriber.emitter.onTimeout(() -> remove(subscriber));
+        subscriber.emitter.onError(error -> remove(subscriber));
+        subscribers.computeIfAbsent(city, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+
+        TrafficSnapshotService.CitySnapshot snapshot = trafficSnapshotService.getSnapshot().getCities().get(city);
+        if (snapshot != null) {
+            enqueue(subscriber, fullEvent(snapshot));
+        }
+        return Optional.of(subscriber.emitter);
+    }
+
+    /**
+     * Keep idle connections open through proxies and find clients that went away
+     */
+    @Scheduled(fixedDelayString = "${traffic.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        subscribers.values().forEach(set -> set.forEach(subscriber -> enqueue(subscriber, StreamEvent.HEARTBEAT)));
+    }
+
+    /**
+     * Disconnect subscribers whose current write has been blocked past the write deadline,
+     * so a client that stopped reading cannot pin one of the few send threads
+     */
+    @Scheduled(fixedDelayString = "${traffic.stream.write-check-ms:1000}")
+    public void evictStalledWriters() {
+        long now = System.nanoTime();
+        long deadline = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs);
+        subscribers.values().forEach(set -> set.forEach(subscriber -> {
+            long started = subscriber.writeStartedAt;
+            if (started != 0 && now - started > deadline) {
+                evict(subscriber, "stalled");
+            }
+        }));
+    }
+
+    public StreamStats getStats() {
+        Map<String, Integer> perCity = new TreeMap<>();
+        subscribers.forEach((city, set) -> {
+            if (!set.isEmpty()) {
+                perCity.put(city, set.size());
+            }
+        });
+        return new StreamStats(subscriberCount.get(), perCity, published.get(), delivered.get(),
+            evicted.get(), rejected.get());
+    }
+
+    private void onSnapshot(TrafficSnapshotService.TrafficSnapshot previous, TrafficSnapshotService.TrafficSnapshot next) {
+        for (TrafficSnapshotService.CitySnapshot city : next.getCities().values()) {
+            TrafficSnapshotService.CitySnapshot before = previous.getCities().get(city.getCity());
+            if (before == city) {
+                continue; // Refresh failed; nothing new for this city
+            }
+            latestFull.remove(city.getCity());
+
+            Set<Subscriber> audience = subscribers.get(city.getCity());
+            if (audience == null || audience.isEmpty()) {
+                continue;
+            }
+            StreamEvent event = before == null || city.getBounds() == null ? fullEvent(city) : deltaEvent(before, city);
+            published.incrementAndGet();
+            audience.forEach(subscriber -> enqueue(subscriber, event));
+        }
+    }
+
+    private StreamEvent fullEvent(TrafficSnapshotService.CitySnapshot city) {
+        StreamEvent cached = latestFull.get(city.getCity());
+        if (cached != null && cached.source == city) {
+            return cached;
+        }
+        TrafficSnapshotService.IncidentDelta incidents = new TrafficSnapshotService.IncidentDelta(
+            city.getCity(), city.getIncidentVersion(), 0, true, city.getIncidents(), List.of(), List.of());
+        StreamEvent event = toEvent(city, incidents);
+        latestFull.put(city.getCity(), event);
+        return event;
+    }
+
+    private StreamEvent deltaEvent(TrafficSnapshotService.CitySnapshot before, TrafficSnapshotService.CitySnapshot city) {
+        TrafficSnapshotService.IncidentDelta incidents = trafficSnapshotService.incidentDelta(
+            city, city.getBounds(), before.getIncidentVersion());
+        return toEvent(city, incidents);
+    }
+
+    private StreamEvent toEvent(TrafficSnapshotService.CitySnapshot city, TrafficSnapshotService.IncidentDelta incidents) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("city", city.getCity());
+        payload.put("version", city.getIncidentVersion());
+        payload.put("incidents", incidents);
+        payload.put("flows", city.getFlows());
+        payload.put("fetchedAt", city.getFetchedAt());
+        try {
+            return new StreamEvent(city, String.valueOf(city.getIncidentVersion()),
+                objectMapper.writeValueAsString(payload));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize update for " + city.getCity(), e);
+        }
+    }
+
+    private void enqueue(Subscriber subscriber, StreamEvent event) {
+        if (!subscriber.queue.offer(event)) {
+            evict(subscriber, "slow");
+            return;
+        }
+        scheduleDrain(subscriber);
+    }
+
+    /**
+     * Drop a subscriber without blocking the caller. The emitter serializes complete() behind
+     * any send in progress, so closing is left to the drain task; a write that is still
+     * blocked gets interrupted so its thread comes back to the pool.
+     */
+    private void evict(Subscriber subscriber, String reason) {
+        if (subscriber.removed.get()) {
+            return;
+        }
+        evicted.incrementAndGet();
+        System.err.println("Disconnecting " + reason + " stream subscriber for " + subscriber.city);
+        remove(subscriber);
+        synchronized (subscriber) {
+            if (subscriber.writer != null) {
+                subscriber.writer.interrupt();
+            }
+        }
+        scheduleDrain(subscriber);
+    }
+
+    private void scheduleDrain(Subscriber subscriber) {
+        if (!subscriber.draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            sendExecutor.execute(() -> drain(subscriber));
+        } catch (RejectedExecutionException e) {
+            subscriber.draining.set(false);
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        synchronized (subscriber) {
+            subscriber.writer = Thread.currentThread();
+        }
+        try {
+            StreamEvent event;
+            while (!subscriber.removed.get() && (event = subscriber.queue.poll()) != null) {
+                subscriber.writeStartedAt = System.nanoTime();
+                subscriber.emitter.send(event.toBuilder());
+                subscriber.writeStartedAt = 0;
+                if (event != StreamEvent.HEARTBEAT) {
+                    delivered.incrementAndGet();
+                }
+            }
+            if (subscriber.removed.get() && subscriber.closed.compareAndSet(false, true)) {
+                subscriber.emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            // Client went away; the emitter's completion callback may not fire for a broken pipe
+            subscriber.closed.set(true);
+            remove(subscriber);
+            return;
+        } finally {
+            subscriber.writeStartedAt = 0;
+            synchronized (subscriber) {
+                subscriber.writer = null;
+            }
+            // Clear an interrupt aimed at this subscriber's write before the thread serves another
+            Thread.interrupted();
+            subscriber.draining.set(false);
+        }
+        // An event (or an eviction) may have arrived after the last check but before draining was cleared
+        if (subscriber.removed.get() ? !subscriber.closed.get() : !subscriber.queue.isEmpty()) {
+            scheduleDrain(subscriber);
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        if (subscriber.removed.compareAndSet(false, true)) {
+            subscriberCount.decrementAndGet();
+            Set<Subscriber> set = subscribers.get(subscriber.city);
+            if (set != null) {
+                set.remove(subscriber);
+            }
+            subscriber.queue.clear();
+        }
+    }
+
+    private static final class Subscriber {
+        final String city;
+        final SseEmitter emitter;
+        final BlockingQueue<StreamEvent> queue;
+        final AtomicBoolean draining = new AtomicBoolean();
+        final AtomicBoolean removed = new AtomicBoolean();
+        final AtomicBoolean closed = new AtomicBoolean();
+        // Set while a send is in progress; read by the stalled-writer sweep
+        volatile long writeStartedAt;
+        Thread writer;
+
+        Subscriber(String city, SseEmitter emitter, int queueSize) {
+            this.city = city;
+            this.emitter = emitter;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+    }
+
+    /**
+     * One serialized update, shared by every subscriber it is queued for
+     */
+    private static final class StreamEvent {
+        static final StreamEvent HEARTBEAT = new StreamEvent(null, null, null);
+
+        final TrafficSnapshotService.CitySnapshot source;
+        final String id;
+        final String json;
+
+        StreamEvent(TrafficSnapshotService.CitySnapshot source, String id, String json) {
+            this.source = source;
+            this.id = id;
+            this.json = json;
+        }
+
+        SseEmitter.SseEventBuilder toBuilder() {
+            if (json == null) {
+                return SseEmitter.event().comment("keepalive");
+            }
+            return SseEmitter.event().name("update").id(id).data(json, MediaType.APPLICATION_JSON);
+        }
+    }
+
+    public static class StreamStats {
+        private final int subscribers;
+        private final Map<String, Integer> subscribersByCity;
+        private final long published;
+        private final long delivered;
+        private final long evicted;
+        private final long rejected;
+
+        public StreamStats(int subscribers, Map<String, Integer> subscribersByCity, long published,
+                           long delivered, long evicted, long rejected) {
+            this.subscribers = subscribers;
+            this.subscribersByCity = subscribersByCity;
+            this.published = published;
+            this.delivered = delivered;
+            this.evicted = evicted;
+            this.rejected = rejected;
+        }
+
+        public int getSubscribers() { return subscribers; }
+        public Map<String, Integer> getSubscribersByCity() { return subscribersByCity; }
+        public long getPublished() { return published; }
+        public long getDelivered() { return delivered; }
+        public long getEvicted() { return evicted; }
+        public long getRejected() { return rejected; }
+    }
+}
@@ -0,0 +1,637 @@
+package com.trafficx.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.trafficx.util.PackedPolyline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Pull-parser decoding of provider responses straight from the HTTP body stream.
+ * Only the fields we map are materialised; everything else is skipped token by token,
+ * so large incident payloads never become an intermediate JSON tree or String.
+ */
+final class ProviderResponseParser {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter
+        .ofPattern("MMM dd, yyyy HH:mm")
+        .withZone(ZoneId.systemDefault());
+
+    private ProviderResponseParser() {
+    }
+
+    /**
+     * TomTom incidentDetails: {"incidents":[{"properties":{...},"geometry":{...}}]}
+     */
+    static List<TrafficApiService.TrafficIncident> parseTomTomIncidents(InputStream body) throws IOException {
+        List<TrafficApiService.TrafficIncident> incidents = new ArrayList<>();
+        try (JsonParser p = JSON.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return incidents;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                if (p.nextToken() == JsonToken.START_ARRAY && field.equals("incidents")) {
+                    while (p.nextToken() == JsonToken.START_OBJECT) {
+                        TrafficApiService.TrafficIncident incident = readTomTomIncident(p);
+                        if (incident.getLatitude() != 0 && incident.getLongitude() != 0) {
+                            incidents.add(incident);
+                        }
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return incidents;
+    }
+
+    private static TrafficApiService.TrafficIncident readTomTomIncident(JsonParser p) throws IOException {
+        TrafficApiService.TrafficIncident incident = new TrafficApiService.TrafficIncident();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken token = p.nextToken();
+            if (token == JsonToken.START_OBJECT && field.equals("properties")) {
+                readTomTomProperties(p, incident);
+            } else if (token == JsonToken.START_OBJECT && field.equals("geometry")) {
+                readGeometryAnchor(p, incident);
+            } else {
+                p.skipChildren();
+            }
+        }
+        return incident;
+    }
+
+    private static void readTomTomProperties(JsonParser p, TrafficApiService.TrafficIncident incident) throws IOException {
+        String from = null;
+        String to = null;
+        boolean sawEvent = false;
+        incident.setSeverity(1);
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken token = p.nextToken();
+            switch (field) {
+                case "id":
+                    incident.setId(text(p, null));
+                    break;
+                case "events":
+                    if (token == JsonToken.START_ARRAY) {
+                        while (p.nextToken() == JsonToken.START_OBJECT) {
+                            if (!sawEvent) {
+                                readTomTomEvent(p, incident);
+                                sawEvent = true;
+                            } else {
+                                p.skipChildren();
+                            }
+                        }
+                    } else {
+                        p.skipChildren();
+                    }
+                    break;
+                case "delay":
+                    incident.setDelay(p.getValueAsInt(0));
+                    break;
+                case "length":
+                    incident.setLength(p.getValueAsInt(0));
+                    break;
+                case "magnitudeOfDelay":
+                    incident.setSeverity(p.getValueAsInt(1));
+                    break;
+                case "startTime":
+                    String start = text(p, null);
+                    if (start != null && !start.isEmpty()) {
+                        incident.setStartTime(formatIsoTimestamp(start));
+                    }
+                    break;
+                case "endTime":
+                    String end = text(p, null);
+                    if (end != null && !end.isEmpty()) {
+                        incident.setEndTime(formatIsoTimestamp(end));
+                    }
+                    break;
+                case "from":
+                    from = text(p, "Unknown Road");
+                    break;
+                case "to":
+                    to = text(p, "Unknown Road");
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+
+        if (!sawEvent) {
+            incident.setDescription("Traffic incident");
+            incident.setType("UNKNOWN");
+        }
+        if (from != null) {
+            incident.setRoadName(from);
+        } else if (to != null) {
+            incident.setRoadName(to);
+        }
+    }
+
+    private static void readTomTomEvent(JsonParser p, TrafficApiService.TrafficIncident incident) throws IOException {
+        incident.setDescription("Traffic incident");
+        incident.setType("UNKNOWN");
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            if (field.equals("description")) {
+                incident.setDescription(text(p, "Traffic incident"));
+            } else if (field.equals("iconCategory")) {
+                incident.setType(text(p, "UNKNOWN"));
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * GeoJSON geometry; the incident is anchored at the first coordinate of a point or line
+     */
+    private static void readGeometryAnchor(JsonParser p, TrafficApiService.TrafficIncident incident) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken token = p.nextToken();
+            if (token == JsonToken.START_ARRAY && field.equals("coordinates")) {
+                JsonToken first = p.nextToken();
+                if (first == JsonToken.START_ARRAY) {
+                    p.nextToken();
+                    incident.setLongitude(p.getValueAsDouble());
+                    p.nextToken();
+                    incident.setLatitude(p.getValueAsDouble());
+                    skipToArrayEnd(p);
+                    skipToArrayEnd(p);
+                } else if (first != JsonToken.END_ARRAY) {
+                    incident.setLongitude(p.getValueAsDouble());
+                    p.nextToken();
+                    incident.setLatitude(p.getValueAsDouble());
+                    skipToArrayEnd(p);
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * HERE v7 incidents: {"results":[{"location":{"shape":{"links":[{"points":[{"lat","lng"}]}]}}, ...}]}
+     */
+    static List<TrafficApiService.TrafficIncident> parseHereIncidents(InputStream body) throws IOException {
+        List<TrafficApiService.TrafficIncident> incidents = new ArrayList<>();
+        try (JsonParser p = JSON.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return incidents;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                if (p.nextToken() == JsonToken.START_ARRAY && field.equals("results")) {
+                    while (p.nextToken() == JsonToken.START_OBJECT) {
+                        incidents.add(readHereIncident(p));
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return incidents;
+    }
+
+    private static TrafficApiService.TrafficIncident readHereIncident(JsonParser p) throws IOException {
+        TrafficApiService.TrafficIncident incident = new TrafficApiService.TrafficIncident();
+        incident.setDescription("Traffic incident");
+        incident.setType("UNKNOWN");
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken token = p.nextToken();
+            switch (field) {
+                case "description":
+                    incident.setDescription(textOrValue(p, "Traffic incident"));
+                    break;
+                case "incidentDetails":
+                    if (token == JsonToken.START_OBJECT) {
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            String detailField = p.currentName();
+                            p.nextToken();
+                            if (detailField.equals("id")) {
+                                incident.setId(text(p, null));
+                            } else {
+                                p.skipChildren();
+                            }
+                        }
+                    } else {
+                        p.skipChildren();
+                    }
+                    break;
+                case "type":
+                    incident.setType(textOrValue(p, "UNKNOWN"));
+                    break;
+                case "startTime":
+                    incident.setStartTime(formatIsoTimestamp(text(p, null)));
+                    break;
+                case "endTime":
+                    incident.setEndTime(formatIsoTimestamp(text(p, null)));
+                    break;
+                case "location":
+                    if (token == JsonToken.START_OBJECT) {
+                        readHereLocation(p, incident);
+                    } else {
+                        p.skipChildren();
+                    }
+                    break;
+                case "impact":
+                    if (token == JsonToken.START_OBJECT) {
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            String impactField = p.currentName();
+                            p.nextToken();
+                            if (impactField.equals("criticality")) {
+                                incident.setSeverity(Math.min(4, p.getValueAsInt(1)));
+                            } else {
+                                p.skipChildren();
+                            }
+                        }
+                    } else {
+                        p.skipChildren();
+                    }
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+        return incident;
+    }
+
+    private static void readHereLocation(JsonParser p, TrafficApiService.TrafficIncident incident) throws IOException {
+        // location.shape.links[0].points[0]
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken token = p.nextToken();
+            if (token != JsonToken.START_OBJECT || !field.equals("shape")) {
+                p.skipChildren();
+                continue;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String shapeField = p.currentName();
+                JsonToken linksToken = p.nextToken();
+                if (linksToken != JsonToken.START_ARRAY || !shapeField.equals("links")) {
+                    p.skipChildren();
+                    continue;
+                }
+                boolean first = true;
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    if (!first) {
+                        p.skipChildren();
+                        continue;
+                    }
+                    first = false;
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String linkField = p.currentName();
+                        JsonToken pointsToken = p.nextToken();
+                        if (pointsToken == JsonToken.START_ARRAY && linkField.equals("points")) {
+                            if (p.nextToken() == JsonToken.START_OBJECT) {
+                                readLatLng(p, incident);
+                                skipToArrayEnd(p);
+                            }
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void readLatLng(JsonParser p, TrafficApiService.TrafficIncident incident) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            if (field.equals("lat")) {
+                incident.setLatitude(p.getValueAsDouble());
+            } else if (field.equals("lng")) {
+                incident.setLongitude(p.getValueAsDouble());
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * TomTom flowSegmentData: {"flowSegmentData":{"currentSpeed","freeFlowSpeed","confidence","frc"}};
+     * null if the response has no flowSegmentData
+     */
+    static TrafficApiService.TrafficFlow parseTomTomFlow(InputStream body, double lat, double lon) throws IOException {
+        TrafficApiService.TrafficFlow flow = new TrafficApiService.TrafficFlow();
+        flow.setLatitude(lat);
+        flow.setLongitude(lon);
+        boolean found = false;
+
+        try (JsonParser p = JSON.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                if (p.nextToken() == JsonToken.START_OBJECT && field.equals("flowSegmentData")) {
+                    found = true;
+                    flow.setCurrentSpeed(50);
+                    flow.setFreeFlowSpeed(50);
+                    flow.setConfidence(0.8);
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String dataField = p.currentName();
+                        p.nextToken();
+                        switch (dataField) {
+                            case "currentSpeed":
+                                flow.setCurrentSpeed(p.getValueAsInt(50));
+                                break;
+                            case "freeFlowSpeed":
+                                flow.setFreeFlowSpeed(p.getValueAsInt(50));
+                                break;
+                            case "confidence":
+                                flow.setConfidence(p.getValueAsDouble(0.8));
+                                break;
+                            case "frc":
+                                flow.setRoadName(text(p, "Unknown Road"));
+                                break;
+                            default:
+                                p.skipChildren();
+                        }
+                    }
+
+                    // Calculate congestion percentage
+                    int congestion = 100 - (int) ((flow.getCurrentSpeed() / (double) flow.getFreeFlowSpeed()) * 100);
+                    flow.setCongestion(Math.max(0, Math.min(100, congestion)));
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return found ? flow : null;
+    }
+
+    /**
+     * HERE v7 flow: {"results":[{"currentFlow":{"speed","freeFlow","jamFactor","confidence"}}]};
+     * null if the first result has no currentFlow
+     */
+    static TrafficApiService.TrafficFlow parseHereFlow(InputStream body, double lat, double lon) throws IOException {
+        TrafficApiService.TrafficFlow flow = new TrafficApiService.TrafficFlow();
+        flow.setLatitude(lat);
+        flow.setLongitude(lon);
+        boolean found = false;
+
+        try (JsonParser p = JSON.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                if (p.nextToken() != JsonToken.START_ARRAY || !field.equals("results")) {
+                    p.skipChildren();
+                    continue;
+                }
+                if (p.nextToken() == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String resultField = p.currentName();
+                        if (p.nextToken() == JsonToken.START_OBJECT && resultField.equals("currentFlow")) {
+                            readHereCurrentFlow(p, flow);
+                            found = true;
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                    skipToArrayEnd(p);
+                }
+            }
+        }
+        return found ? flow : null;
+    }
+
+    private static void readHereCurrentFlow(JsonParser p, TrafficApiService.TrafficFlow flow) throws IOException {
+        flow.setCurrentSpeed(50);
+        flow.setFreeFlowSpeed(50);
+        flow.setConfidence(0.8);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "speed":
+                    flow.setCurrentSpeed((int) p.getValueAsDouble(50));
+                    break;
+                case "freeFlow":
+                    flow.setFreeFlowSpeed((int) p.getValueAsDouble(50));
+                    break;
+                case "jamFactor":
+                    flow.setCongestion((int) (p.getValueAsDouble(0) * 100));
+                    break;
+                case "confidence":
+                    flow.setConfidence(p.getValueAsDouble(0.8));
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * OpenRouteService GeoJSON: features[0].geometry.coordinates and features[0].properties.summary
+     */
+    static RoutingApiService.RouteResult parseOrsRoute(InputStream body) throws IOException {
+        RoutingApiService.RouteResult result = new RoutingApiService.RouteResult();
+        try (JsonParser p = JSON.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return result;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                if (p.nextToken() != JsonToken.START_ARRAY || !field.equals("features")) {
+                    p.skipChildren();
+                    continue;
+                }
+                if (p.nextToken() == JsonToken.START_OBJECT) {
+                    readOrsFeature(p, result);
+                    skipToArrayEnd(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void readOrsFeature(JsonParser p, RoutingApiService.RouteResult result) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken token = p.nextToken();
+            if (token == JsonToken.START_OBJECT && field.equals("geometry")) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String geometryField = p.currentName();
+                    if (p.nextToken() == JsonToken.START_ARRAY && geometryField.equals("coordinates")) {
+                        PackedPolyline.Builder coordinates = new PackedPolyline.Builder();
+                        while (p.nextToken() == JsonToken.START_ARRAY) {
+                            p.nextToken();
+                            double lon = p.getValueAsDouble();
+                            p.nextToken();
+                            double lat = p.getValueAsDouble();
+                            skipToArrayEnd(p);
+                            coordinates.add(lat, lon);
+                        }
+                        result.setCoordinates(coordinates.build());
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            } else if (token == JsonToken.START_OBJECT && field.equals("properties")) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String propertyField = p.currentName();
+                    if (p.nextToken() == JsonToken.START_OBJECT && propertyField.equals("summary")) {
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            String summaryField = p.currentName();
+                            p.nextToken();
+                            if (summaryField.equals("distance")) {
+                                result.setDistance(p.getValueAsDouble(0));
+                            } else if (summaryField.equals("duration")) {
+                                result.setDuration(p.getValueAsDouble(0));
+                            } else {
+                                p.skipChildren();
+                            }
+                        }
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * HERE routing v8: {"routes":[{"sections":[{"polyline","summary":{"length","duration"}}]}]};
+     * one result per route in the provider's order, its sections joined
+     */
+    static List<RoutingApiService.RouteResult> parseHereRoutes(InputStream body) throws IOException {
+        List<RoutingApiService.RouteResult> routes = new ArrayList<>();
+        try (JsonParser p = JSON.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return routes;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                if (p.nextToken() != JsonToken.START_ARRAY || !field.equals("routes")) {
+                    p.skipChildren();
+                    continue;
+                }
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    routes.add(readHereRoute(p));
+                }
+            }
+        }
+        return routes;
+    }
+
+    private static RoutingApiService.RouteResult readHereRoute(JsonParser p) throws IOException {
+        RoutingApiService.RouteResult result = new RoutingApiService.RouteResult();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            if (p.nextToken() != JsonToken.START_ARRAY || !field.equals("sections")) {
+                p.skipChildren();
+                continue;
+            }
+            PackedPolyline.Builder coordinates = new PackedPolyline.Builder();
+            double distance = 0;
+            double duration = 0;
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String sectionField = p.currentName();
+                    JsonToken token = p.nextToken();
+                    if (token == JsonToken.VALUE_STRING && sectionField.equals("polyline")) {
+                        PackedPolyline.decodeInto(p.getText(), coordinates);
+                    } else if (token == JsonToken.START_OBJECT && sectionField.equals("summary")) {
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            String summaryField = p.currentName();
+                            p.nextToken();
+                            if (summaryField.equals("length")) {
+                                distance += p.getValueAsDouble(0);
+                            } else if (summaryField.equals("duration")) {
+                                duration += p.getValueAsDouble(0);
+                            } else {
+                                p.skipChildren();
+                            }
+                        }
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            }
+            result.setCoordinates(coordinates.build());
+            result.setDistance(distance);
+            result.setDuration(duration);
+        }
+        return result;
+    }
+
+    /**
+     * Format an ISO-8601 instant for display, or "Unknown" if it cannot be parsed
+     */
+    static String formatIsoTimestamp(String isoTime) {
+        try {
+            if (isoTime == null || isoTime.isEmpty()) {
+                return "Unknown";
+            }
+            return DISPLAY_FORMAT.format(Instant.parse(isoTime));
+        } catch (Exception e) {
+            System.err.println("Error parsing timestamp: " + isoTime + " - " + e.getMessage());
+            return "Unknown";
+        }
+    }
+
+    private static String text(JsonParser p, String defaultValue) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return defaultValue;
+        }
+        if (token.isStructStart()) {
+            p.skipChildren();
+            return defaultValue;
+        }
+        return p.getText();
+    }
+
+    /**
+     * HERE wraps some strings as {"value": "..."}; accept either form
+     */
+    private static String textOrValue(JsonParser p, String defaultValue) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            return text(p, defaultValue);
+        }
+        String value = defaultValue;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            if (field.equals("value")) {
+                value = text(p, defaultValue);
+            } else {
+                p.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Consume tokens until the END_ARRAY closing the array we are currently inside
+     */
+    private static void skipToArrayEnd(JsonParser p) throws IOException {
+        JsonToken token;
+        while ((token = p.nextToken()) != null && token != JsonToken.END_ARRAY) {
+            p.skipChildren();
+        }
+    }
+}
@@ -0,0 +1,914 @@
+package com.trafficx.service;
+
+import com.trafficx.util.BidirectionalAStar;
+import com.trafficx.util.ContractionHierarchy;
+import com.trafficx.util.CustomizableContractionHierarchy;
+import com.trafficx.util.Dijkstra;
+import com.trafficx.util.Isochrone;
+import com.trafficx.util.OsmRoadNetworkLoader;
+import com.trafficx.util.PackedPolyline;
+import com.trafficx.util.PlateauAlternatives;
+import com.trafficx.util.RoadGraph;
+import com.trafficx.util.RoadNetwork;
+import com.trafficx.util.RoadNetworkFile;
+import com.trafficx.util.SpeedProfiles;
+import com.trafficx.util.TimeDependentAStar;
+import com.trafficx.util.TravelTimeMatrix;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * Local road network, so routes can be computed in-process instead of calling ORS/HERE.
+ * A graph file written by RoadNetworkConverter (routing.graph.file) is memory-mapped at
+ * startup, hierarchy included; otherwise an OSM extract (routing.osm.file) is parsed in
+ * the background. Preparing A* landmarks and any missing hierarchies then runs in the
+ * background too; until a network is available getNetwork() is empty.
+ *
+ * With routing.live.enabled, each traffic snapshot is mapped onto the network as live edge
+ * weights (flow speeds slow the edges around each sample, CLOSED_ROAD incidents close the
+ * edges leaving nearby nodes) and the customizable hierarchy is re-customized for just the
+ * edges that changed, so "cch" routes account for traffic in a single query. Made-up demo
+ * flows and incidents are left out; without provider data the weights stay at free flow.
+ */
+@Service
+public class RoadNetworkService {
+
+    public static final String AUTO = "auto";
+    public static final String DIJKSTRA = "dijkstra";
+    public static final String ASTAR = "astar";
+    public static final String CH = "ch";
+    public static final String CCH = "cch";
+    public static final String PLATEAU = "plateau";
+    public static final String ISOCHRONE = "isochrone";
+    public static final String TD_DIJKSTRA = "td-dijkstra";
+    public static final String TD_ASTAR = "td-astar";
+    // Values route() accepts for its algorithm argument
+    public static final Set<String> ROUTE_ALGORITHMS = Set.of(AUTO, CCH, CH, ASTAR, DIJKSTRA);
+
+    private static final String CLOSED_ROAD = "CLOSED_ROAD";
+
+    private final TrafficSnapshotService trafficSnapshotService;
+
+    private volatile RoadNetwork network;
+    private volatile BidirectionalAStar astar;
+    private volatile PlateauAlternatives plateauAlternatives;
+    private volatile ContractionHierarchy hierarchy;
+    private volatile CustomizableContractionHierarchy liveHierarchy;
+    private volatile TravelTimeMatrix travelTimeMatrix;
+    // Edge weights from the latest snapshot applied to the live hierarchy
+    private volatile float[] liveWeights;
+    private volatile LiveStats liveStats = new LiveStats(false, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    private volatile String loadedFrom;
+    private volatile boolean mapped;
+    private volatile long loadedAt;
+    private volatile long loadMillis;
+
+    private final Map<String, QueryStats> queryStats = new LinkedHashMap<>();
+
+    // Latest snapshot waiting to be applied; live weights are computed off the snapshot thread
+    private final AtomicReference<TrafficSnapshotService.TrafficSnapshot> pendingTraffic = new AtomicReference<>();
+    private ExecutorService liveExecutor;
+    private ForkJoinPool matrixPool;
+    private ForkJoinPool isochronePool;
+
+    @Value("${routing.osm.file:}")
+    private String osmFile;
+
+    @Value("${routing.graph.file:}")
+    private String graphFile;
+
+    @Value("${routing.graph.verify-checksum:true}")
+    private boolean verifyChecksum;
+
+    @Value("${routing.osm.parallelism:0}")
+    private int parallelism;
+
+    @Value("${routing.local.max-snap-meters:500}")
+    private double maxSnapMeters;
+
+    @Value("${routing.alt.landmarks:8}")
+    private int landmarkCount;
+
+    @Value("${routing.ch.enabled:true}")
+    private boolean hierarchyEnabled;
+
+    @Value("${routing.live.enabled:true}")
+    private boolean liveEnabled;
+
+    @Value("${routing.live.flow-radius-meters:250}")
+    private double flowRadiusMeters;
+
+    @Value("${routing.live.closure-radius-meters:60}")
+    private double closureRadiusMeters;
+
+    @Value("${routing.alternatives.max-stretch:1.3}")
+    private double alternativesMaxStretch;
+
+    @Value("${routing.alternatives.max-overlap:0.6}")
+    private double alternativesMaxOverlap;
+
+    @Value("${routing.alternatives.min-plateau:0.1}")
+    private double alternativesMinPlateau;
+
+    @Value("${routing.alternatives.max-k:5}")
+    private int alternativesMaxK;
+
+    @Value("${routing.matrix.max-points:1000}")
+    private int matrixMaxPoints;
+
+    @Value("${routing.matrix.parallelism:0}")
+    private int matrixParallelism;
+
+    @Value("${routing.isochrone.max-minutes:60}")
+    private double isochroneMaxMinutes;
+
+    @Value("${routing.isochrone.max-bands:6}")
+    private int isochroneMaxBands;
+
+    @Value("${routing.isochrone.max-origins:20}")
+    private int isochroneMaxOrigins;
+
+    @Value("${routing.isochrone.cell-meters:100}")
+    private double isochroneCellMeters;
+
+    @Value("${routing.isochrone.parallelism:0}")
+    private int isochroneParallelism;
+
+    public RoadNetworkService(TrafficSnapshotService trafficSnapshotService) {
+        this.trafficSnapshotService = trafficSnapshotService;
+    }
+
+    @PostConstruct
+    void init() {
+        queryStats.put(DIJKSTRA, new QueryStats());
+        queryStats.put(ASTAR, new QueryStats());
+        queryStats.put(CH, new QueryStats());
+        queryStats.put(CCH, new QueryStats());
+        queryStats.put(PLATEAU, new QueryStats());
+        queryStats.put(ISOCHRONE, new QueryStats());
+        queryStats.put(TD_DIJKSTRA, new QueryStats());
+        queryStats.put(TD_ASTAR, new QueryStats());
+        matrixPool = new ForkJoinPool(matrixParallelism > 0 ? matrixParallelism : Runtime.getRuntime().availableProcessors());
+        isochronePool = new ForkJoinPool(isochroneParallelism > 0 ? isochroneParallelism
+            : Runtime.getRuntime().availableProcessors());
+
+        // A converted graph file is mapped right here, since that takes milliseconds;
+        // an OSM extract is parsed in the background
+        boolean opened = graphFile != null && !graphFile.isBlank() && openGraphFile(Path.of(graphFile.trim()));
+        Path osmPath = null;
+        if (!opened) {
+            if (osmFile == null || osmFile.isBlank()) {
+                return;
+            }
+            osmPath = Path.of(osmFile.trim());
+            if (!Files.isReadable(osmPath)) {
+                System.err.println("Road network file not readable: " + osmPath);
+                return;
+            }
+        }
+        Path osm = osmPath;
+        Thread loader = new Thread(() -> load(osm), "road-network-loader");
+        loader.setDaemon(true);
+        loader.start();
+
+        if (liveEnabled) {
+            liveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "live-weights");
+                thread.setDaemon(true);
+                return thread;
+            });
+            trafficSnapshotService.addListener((previous, next) -> scheduleLiveWeights(next));
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (liveExecutor != null) {
+            liveExecutor.shutdownNow();
+        }
+        matrixPool.shutdownNow();
+        isochronePool.shutdownNow();
+    }
+
+    private boolean openGraphFile(Path path) {
+        if (!Files.isReadable(path)) {
+            System.err.println("Road network graph file not readable: " + path);
+            return false;
+        }
+        long started = System.currentTimeMillis();
+        try {
+            RoadNetworkFile file = RoadNetworkFile.open(path, verifyChecksum);
+            network = file.getNetwork();
+            hierarchy = file.getHierarchy();
+            loadedFrom = path.toString();
+            mapped = true;
+            loadedAt = System.currentTimeMillis();
+            loadMillis = loadedAt - started;
+            System.out.println("Mapped road network from " + path + " in " + loadMillis + " ms ("
+                + network.nodeCount() + " nodes, " + network.edgeCount() + " edges"
+                + (hierarchy != null ? ", " + hierarchy.getShortcutCount() + " shortcuts" : "") + ")");
+            return true;
+        } catch (Exception e) {
+            System.err.println("Error opening road network graph file " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Parse the OSM extract if one is given (nothing was mapped), then prepare the searches
+     */
+    private void load(Path osm) {
+        long started = System.currentTimeMillis();
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        if (osm != null) {
+            try {
+                network = OsmRoadNetworkLoader.load(osm, threads);
+                loadedFrom = osm.toString();
+                loadedAt = System.currentTimeMillis();
+                loadMillis = loadedAt - started;
+            } catch (Exception e) {
+                System.err.println("Error loading road network from " + osm + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        network.buildSpatialIndex();
+        System.out.println("Built spatial index in " + network.getSpatialIndexMillis() + " ms ("
+            + network.spatialIndexBytes() / 1024 + " KB)");
+
+        try {
+            BidirectionalAStar built = BidirectionalAStar.create(network, landmarkCount, threads);
+            astar = built;
+            plateauAlternatives = new PlateauAlternatives(built);
+            if (built.getLandmarks() != null) {
+                System.out.println("Selected " + built.getLandmarks().count() + " ALT landmarks in "
+                    + built.getLandmarks().getBuildMillis() + " ms");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error preparing A* landmarks: " + e.getMessage());
+        }
+
+        if (hierarchyEnabled && hierarchy == null) {
+            try {
+                ContractionHierarchy built = ContractionHierarchy.build(network.getGraph(), threads);
+                hierarchy = built;
+                System.out.println("Built contraction hierarchy in " + built.getBuildMillis() + " ms ("
+                    + built.getShortcutCount() + " shortcuts, " + built.memoryBytes() / (1024 * 1024) + " MB)");
+            } catch (RuntimeException e) {
+                System.err.println("Error building contraction hierarchy: " + e.getMessage());
+            }
+        }
+        if (hierarchy != null) {
+            long matrixStarted = System.currentTimeMillis();
+            travelTimeMatrix = new TravelTimeMatrix(hierarchy, network);
+            System.out.println("Prepared many-to-many matrix in " + (System.currentTimeMillis() - matrixStarted) + " ms");
+        }
+
+        if (liveEnabled) {
+            try {
+                CustomizableContractionHierarchy built = CustomizableContractionHierarchy.build(network);
+                RoadGraph graph = network.getGraph();
+                float[] freeFlow = new float[graph.edgeCount()];
+                for (int e = 0; e < freeFlow.length; e++) {
+                    freeFlow[e] = graph.weight(e);
+                }
+                built.customize(freeFlow);
+                liveHierarchy = built;
+                System.out.println("Built customizable hierarchy in " + built.getBuildMillis() + " ms ("
+                    + built.arcCount() + " arcs, customized in " + built.getLastCustomizeMillis() + " ms)");
+                scheduleLiveWeights(trafficSnapshotService.getSnapshot());
+            } catch (RuntimeException e) {
+                System.err.println("Error building customizable hierarchy: " + e.getMessage());
+            }
+        }
+    }
+
+    private void scheduleLiveWeights(TrafficSnapshotService.TrafficSnapshot snapshot) {
+        // Only the newest snapshot matters; an already queued task picks it up
+        if (liveExecutor != null && pendingTraffic.getAndSet(snapshot) == null) {
+            liveExecutor.execute(() -> applyLiveWeights(pendingTraffic.getAndSet(null)));
+        }
+    }
+
+    /**
+     * Map a snapshot onto edge weights and re-customize the live hierarchy for the edges
+     * whose weight changed
+     */
+    private void applyLiveWeights(TrafficSnapshotService.TrafficSnapshot snapshot) {
+        RoadNetwork current = network;
+        CustomizableContractionHierarchy live = liveHierarchy;
+        if (snapshot == null || current == null || live == null) {
+            return;
+        }
+        RoadGraph graph = current.getGraph();
+        float[] weights = new float[graph.edgeCount()];
+        for (int e = 0; e < weights.length; e++) {
+            weights[e] = graph.weight(e);
+        }
+
+        int[] slowed = {0};
+        int[] closed = {0};
+        int samples = 0;
+        for (TrafficSnapshotService.CitySnapshot city : snapshot.getCities().values()) {
+            for (TrafficApiService.TrafficFlow flow : city.getFlows()) {
+                if (!fromProvider(flow.getSource())) {
+                    continue;
+                }
+                samples++;
+                if (flow.getFreeFlowSpeed() <= 0 || flow.getCurrentSpeed() <= 0
+                        || flow.getCurrentSpeed() >= flow.getFreeFlowSpeed()) {
+                    continue;
+                }
+                // Never faster than free flow, so A* bounds and landmarks stay valid
+                float ratio = Math.max(0.05f, (float) flow.getCurrentSpeed() / flow.getFreeFlowSpeed());
+                current.forEachNodeWithin(flow.getLatitude(), flow.getLongitude(), flowRadiusMeters, node -> {
+                    for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++) {
+                        float slowedWeight = graph.weight(e) / ratio;
+                        if (slowedWeight > weights[e]) {
+                            if (weights[e] == graph.weight(e)) {
+                                slowed[0]++;
+                            }
+                            weights[e] = slowedWeight;
+                        }
+                    }
+                });
+            }
+            for (TrafficApiService.TrafficIncident incident : city.getIncidents()) {
+                if (!fromProvider(incident.getSource())) {
+                    continue;
+                }
+                samples++;
+                if (!CLOSED_ROAD.equals(incident.getType())) {
+                    continue;
+                }
+                current.forEachNodeWithin(incident.getLatitude(), incident.getLongitude(), closureRadiusMeters, node -> {
+                    for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++) {
+                        if (weights[e] != Float.POSITIVE_INFINITY) {
+                            closed[0]++;
+                            weights[e] = Float.POSITIVE_INFINITY;
+                        }
+                    }
+                });
+            }
+        }
+
+        try {
+            int arcs = live.update(weights);
+            liveWeights = weights;
+            liveStats = new LiveStats(true, live.arcCount(), live.getBuildMillis(), snapshot.getVersion(), samples,
+                slowed[0], closed[0], arcs, live.getLastCustomizeMillis(), System.currentTimeMillis());
+            System.out.println("Applied live weights from snapshot v" + snapshot.getVersion() + ": " + samples
+                + " provider samples, " + slowed[0] + " slowed, " + closed[0] + " closed, " + arcs + " arcs re-customized in "
+                + live.getLastCustomizeMillis() + " ms");
+        } catch (RuntimeException e) {
+            System.err.println("Error applying live weights: " + e.getMessage());
+        }
+    }
+
+    // Demo flows and incidents are made up, and flows without a source were never checked
+    private static boolean fromProvider(String source) {
+        return source != null && !source.equals("demo");
+    }
+
+    public Optional<RoadNetwork> getNetwork() {
+        return Optional.ofNullable(network);
+    }
+
+    /**
+     * Shortest-time path between two points, each snapped to the nearer end of the closest
+     * road (RoadNetwork.snapNode), or empty when there is no network, either point is farther
+     * than routing.local.max-snap-meters from a road, or the two are not connected. algorithm
+     * is "dijkstra", "astar", "ch", "cch" (live weights) or "auto" (the best one prepared so
+     * far: live weights, then the static hierarchy, then A*, then plain Dijkstra). A requested
+     * algorithm that is not ready yet falls back the same way. Only "cch" routes reflect traffic,
+     * and only once weights from a snapshot with provider data have been applied.
+     * Any other algorithm is rejected with IllegalArgumentException.
+     */
+    public Optional<LocalRoute> route(double startLat, double startLon, double endLat, double endLon, String algorithm) {
+        if (algorithm != null && !ROUTE_ALGORITHMS.contains(algorithm)) {
+            throw new IllegalArgumentException("Unknown routing algorithm: " + algorithm);
+        }
+        RoadNetwork current = network;
+        if (current == null) {
+            return Optional.empty();
+        }
+        int source = current.snapNode(startLat, startLon, maxSnapMeters);
+        int target = current.snapNode(endLat, endLon, maxSnapMeters);
+        if (source < 0 || target < 0) {
+            return Optional.empty();
+        }
+
+        CustomizableContractionHierarchy cch = liveHierarchy;
+        ContractionHierarchy ch = hierarchy;
+        BidirectionalAStar aStar = astar;
+        String used;
+        if (cch != null && (CCH.equals(algorithm) || AUTO.equals(algorithm) || algorithm == null)) {
+            used = CCH;
+        } else if (ch != null && !DIJKSTRA.equals(algorithm) && !ASTAR.equals(algorithm)) {
+            used = CH;
+        } else if (aStar != null && !DIJKSTRA.equals(algorithm)) {
+            used = ASTAR;
+        } else {
+            used = DIJKSTRA;
+        }
+
+        // Read before the query: the hierarchy swaps in new weights before the stats say so
+        boolean trafficAware = used.equals(CCH) && liveStats.hasTraffic();
+        long started = System.nanoTime();
+        Dijkstra.Path path = switch (used) {
+            case CCH -> cch.route(source, target);
+            case CH -> ch.route(source, target);
+            case ASTAR -> aStar.route(source, target);
+            default -> Dijkstra.route(current.getGraph(), source, target);
+        };
+        queryStats.get(used).record(System.nanoTime() - started, path == null ? 0 : path.getSettled());
+        return path == null ? Optional.empty() : Optional.of(new LocalRoute(current, path, used, trafficAware));
+    }
+
+    /**
+     * Fastest path between two points snapped like route(), leaving at departure (seconds since
+     * the start of the week in the profiles' time zone), with edge times from profiles.
+     * Time-dependent A* on the landmark bounds once they are ready, time-dependent Dijkstra
+     * before. Empty when route() would be, or when profiles were built for another network.
+     */
+    public Optional<LocalRoute> routeDepartingAt(double startLat, double startLon, double endLat, double endLon,
+                                                 SpeedProfiles profiles, double departure) {
+        RoadNetwork current = network;
+        if (current == null || profiles == null || profiles.edgeCount() != current.edgeCount()) {
+            return Optional.empty();
+        }
+        int source = current.snapNode(startLat, startLon, maxSnapMeters);
+        int target = current.snapNode(endLat, endLon, maxSnapMeters);
+        if (source < 0 || target < 0) {
+            return Optional.empty();
+        }
+
+        BidirectionalAStar aStar = astar;
+        String used = aStar != null ? TD_ASTAR : TD_DIJKSTRA;
+        long started = System.nanoTime();
+        Dijkstra.Path path = TimeDependentAStar.route(current.getGraph(), profiles, aStar, source, target, departure);
+        queryStats.get(used).record(System.nanoTime() - started, path == null ? 0 : path.getSettled());
+        return path == null ? Optional.empty() : Optional.of(new LocalRoute(current, path, used, false));
+    }
+
+    /**
+     * Up to k routes between two points snapped like route(), optimal first, each within
+     * routing.alternatives.max-stretch of the optimum and sharing at most
+     * routing.alternatives.max-overlap with the others (plateau method, static weights).
+     * Empty when the network does not cover both points or is not prepared yet; a single
+     * route when no alternative qualifies.
+     */
+    public Optional<List<LocalRoute>> alternatives(double startLat, double startLon, double endLat, double endLon, int k) {
+        RoadNetwork current = network;
+        PlateauAlternatives plateau = plateauAlternatives;
+        if (current == null || plateau == null) {
+            return Optional.empty();
+        }
+        int source = current.snapNode(startLat, startLon, maxSnapMeters);
+        int target = current.snapNode(endLat, endLon, maxSnapMeters);
+        if (source < 0 || target < 0) {
+            return Optional.empty();
+        }
+
+        long started = System.nanoTime();
+        List<PlateauAlternatives.Alternative> found = plateau.find(source, target, k,
+            alternativesMaxStretch, alternativesMaxOverlap, alternativesMinPlateau);
+        queryStats.get(PLATEAU).record(System.nanoTime() - started,
+            found.isEmpty() ? 0 : found.get(0).getPath().getSettled());
+        if (found.isEmpty()) {
+            return Optional.empty();
+        }
+        List<LocalRoute> routes = new ArrayList<>(found.size());
+        for (PlateauAlternatives.Alternative alternative : found) {
+            routes.add(new LocalRoute(current, alternative.getPath(), PLATEAU, false,
+                alternative.getStretch(), alternative.getOverlap()));
+        }
+        return Optional.of(routes);
+    }
+
+    public int getAlternativesMaxK() {
+        return alternativesMaxK;
+    }
+
+    public int getMatrixMaxPoints() {
+        return matrixMaxPoints;
+    }
+
+    /**
+     * Travel times and distances from every origin to every destination on the static
+     * hierarchy (free-flow weights), or empty until the hierarchy is ready. Points farther than
+     * routing.local.max-snap-meters from a road get an all-unreachable row or column.
+     */
+    public Optional<MatrixQuery> matrix(List<double[]> origins, List<double[]> destinations) {
+        RoadNetwork current = network;
+        TravelTimeMatrix matrix = travelTimeMatrix;
+        if (current == null || matrix == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new MatrixQuery(matrix, matrixPool, snap(current, origins), snap(current, destinations)));
+    }
+
+    public double getIsochroneMaxMinutes() {
+        return isochroneMaxMinutes;
+    }
+
+    public int getIsochroneMaxBands() {
+        return isochroneMaxBands;
+    }
+
+    public int getIsochroneMaxOrigins() {
+        return isochroneMaxOrigins;
+    }
+
+    /**
+     * Reachable areas around each origin for bandSeconds (ascending), one bounded search per
+     * origin, with the origins spread over routing.isochrone.parallelism threads. With traffic,
+     * searches use the edge weights of the latest snapshot applied by routing.live, or free-flow
+     * weights while that snapshot has no provider data. Empty without a network; origins farther than
+     * routing.local.max-snap-meters from a road come back unsnapped with no bands.
+     */
+    public Optional<List<IsochroneResult>> isochrones(List<double[]> origins, double[] bandSeconds, boolean traffic) {
+        RoadNetwork current = network;
+        if (current == null) {
+            return Optional.empty();
+        }
+        int[] sources = snap(current, origins);
+        float[] live = liveStats.hasTraffic() ? liveWeights : null;
+        float[] weights = traffic && live != null && live.length == current.edgeCount() ? live : null;
+        try {
+            return Optional.of(isochronePool.submit(() -> IntStream.range(0, sources.length).parallel()
+                .mapToObj(i -> isochrone(current, weights, origins.get(i), sources[i], bandSeconds))
+                .toList()).get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing isochrones", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("Failed to compute isochrones", e.getCause());
+        }
+    }
+
+    private IsochroneResult isochrone(RoadNetwork current, float[] weights, double[] origin, int source,
+                                      double[] bandSeconds) {
+        if (source < 0) {
+            return new IsochroneResult(origin[0], origin[1], false, weights != null, null, 0);
+        }
+        long started = System.nanoTime();
+        Isochrone.Result result = Isochrone.compute(current, weights, source, bandSeconds, isochroneCellMeters);
+        long elapsed = System.nanoTime() - started;
+        queryStats.get(ISOCHRONE).record(elapsed, result.getSettledNodes());
+        return new IsochroneResult(origin[0], origin[1], true, weights != null, result,
+            Math.round(elapsed / 1e5) / 10.0);
+    }
+
+    private int[] snap(RoadNetwork current, List<double[]> points) {
+        double[] lats = new double[points.size()];
+        double[] lons = new double[points.size()];
+        for (int i = 0; i < lats.length; i++) {
+            double[] point = points.get(i);
+            lats[i] = point == null || point.length < 2 ? Double.NaN : point[0];
+            lons[i] = point == null || point.length < 2 ? Double.NaN : point[1];
+        }
+        int[] nodes = new int[lats.length];
+        current.snapNodes(lats, lons, maxSnapMeters, nodes);
+        return nodes;
+    }
+
+    public NetworkStats getStats() {
+        RoadNetwork current = network;
+        ContractionHierarchy ch = hierarchy;
+        BidirectionalAStar aStar = astar;
+        int landmarks = aStar == null || aStar.getLandmarks() == null ? 0 : aStar.getLandmarks().count();
+        Map<String, QueryStats.Summary> queries = new LinkedHashMap<>();
+        queryStats.forEach((name, stats) -> queries.put(name, stats.summary()));
+        return new NetworkStats(loadedFrom, mapped, current != null,
+            current == null ? 0 : current.nodeCount(),
+            current == null ? 0 : current.edgeCount(),
+            loadedAt, loadMillis, landmarks,
+            ch != null, ch == null ? 0 : ch.getShortcutCount(),
+            ch == null ? 0 : ch.getBuildMillis(), ch == null ? 0 : ch.memoryBytes(),
+            current == null ? 0 : current.getSpatialIndexMillis(), current == null ? 0 : current.spatialIndexBytes(),
+            liveStats, queries);
+    }
+
+    /**
+     * A path through the network along with the network it belongs to
+     */
+    public static class LocalRoute {
+        private final RoadNetwork network;
+        private final Dijkstra.Path path;
+        private final String algorithm;
+        private final boolean trafficAware;
+        private final double stretch;
+        private final double overlap;
+
+        public LocalRoute(RoadNetwork network, Dijkstra.Path path, String algorithm, boolean trafficAware) {
+            this(network, path, algorithm, trafficAware, 1, 0);
+        }
+
+        public LocalRoute(RoadNetwork network, Dijkstra.Path path, String algorithm, boolean trafficAware,
+                          double stretch, double overlap) {
+            this.network = network;
+            this.path = path;
+            this.algorithm = algorithm;
+            this.trafficAware = trafficAware;
+            this.stretch = stretch;
+            this.overlap = overlap;
+        }
+
+        public PackedPolyline coordinates() {
+            int[] nodes = path.getNodes();
+            PackedPolyline.Builder coordinates = new PackedPolyline.Builder(nodes.length);
+            for (int node : nodes) {
+                coordinates.add(network.lat(node), network.lon(node));
+            }
+            return coordinates.build();
+        }
+
+        /**
+         * RoadNetwork.ROAD_CLASSES index of each edge, in the same order as the coordinates' segments
+         */
+        public byte[] segmentRoadClasses() {
+            int[] edges = path.getEdges();
+            byte[] classes = new byte[edges.length];
+            for (int i = 0; i < edges.length; i++) {
+                classes[i] = (byte) network.roadClass(edges[i]);
+            }
+            return classes;
+        }
+
+        public double distanceMeters() {
+            double meters = 0;
+            for (int edge : path.getEdges()) {
+                meters += network.length(edge);
+            }
+            return meters;
+        }
+
+        public double durationSeconds() {
+            return path.getCost();
+        }
+
+        /**
+         * Travel time along the same path at free-flow speeds
+         */
+        public double freeFlowSeconds() {
+            RoadGraph graph = network.getGraph();
+            double seconds = 0;
+            for (int edge : path.getEdges()) {
+                seconds += graph.weight(edge);
+            }
+            return seconds;
+        }
+
+        public RoadNetwork getNetwork() { return network; }
+        public Dijkstra.Path getPath() { return path; }
+        public String getAlgorithm() { return algorithm; }
+
+        /**
+         * Cost relative to the optimal route between the same points
+         */
+        public double getStretch() { return stretch; }
+
+        /**
+         * Largest share of this route's cost that it has in common with a better alternative
+         */
+        public double getOverlap() { return overlap; }
+
+        /**
+         * Whether the route was computed on live weights from provider traffic data, rather
+         * than on free-flow weights
+         */
+        public boolean isTrafficAware() { return trafficAware; }
+    }
+
+    /**
+     * Snapped origins and destinations of a matrix request, ready to run on the matrix pool
+     */
+    public static class MatrixQuery {
+        private final TravelTimeMatrix matrix;
+        private final ForkJoinPool pool;
+        private final int[] sources;
+        private final int[] targets;
+
+        MatrixQuery(TravelTimeMatrix matrix, ForkJoinPool pool, int[] sources, int[] targets) {
+            this.matrix = matrix;
+            this.pool = pool;
+            this.sources = sources;
+            this.targets = targets;
+        }
+
+        /**
+         * Compute all rows, passing each to rows (from several threads, in no particular order)
+         */
+        public void run(TravelTimeMatrix.RowConsumer rows) {
+            matrix.compute(sources, targets, pool, rows);
+        }
+
+        public int getUnsnappedOrigins() { return (int) Arrays.stream(sources).filter(n -> n < 0).count(); }
+        public int getUnsnappedDestinations() { return (int) Arrays.stream(targets).filter(n -> n < 0).count(); }
+    }
+
+    /**
+     * Isochrone bands around one origin
+     */
+    public static class IsochroneResult {
+        private final double latitude;
+        private final double longitude;
+        private final boolean snapped;
+        private final boolean trafficAware;
+        private final Isochrone.Result result;
+        private final double millis;
+
+        public IsochroneResult(double latitude, double longitude, boolean snapped, boolean trafficAware,
+                               Isochrone.Result result, double millis) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.snapped = snapped;
+            this.trafficAware = trafficAware;
+            this.result = result;
+            this.millis = millis;
+        }
+
+        public double getLatitude() { return latitude; }
+        public double getLongitude() { return longitude; }
+        public boolean isSnapped() { return snapped; }
+        public boolean isTrafficAware() { return trafficAware; }
+        public double getMillis() { return millis; }
+        public int getSettledNodes() { return result == null ? 0 : result.getSettledNodes(); }
+        public double getCellMeters() { return result == null ? 0 : result.getCellMeters(); }
+        public List<Isochrone.Band> getBands() { return result == null ? List.of() : result.getBands(); }
+    }
+
+    /**
+     * State of the live-weight hierarchy and its latest re-customization
+     */
+    public static class LiveStats {
+        private final boolean ready;
+        private final int arcs;
+        private final long buildMillis;
+        private final long snapshotVersion;
+        private final int samples;
+        private final int slowedEdges;
+        private final int closedEdges;
+        private final int customizedArcs;
+        private final long customizeMillis;
+        private final long appliedAt;
+
+        public LiveStats(boolean ready, int arcs, long buildMillis, long snapshotVersion, int samples,
+                         int slowedEdges, int closedEdges, int customizedArcs, long customizeMillis, long appliedAt) {
+            this.ready = ready;
+            this.arcs = arcs;
+            this.buildMillis = buildMillis;
+            this.snapshotVersion = snapshotVersion;
+            this.samples = samples;
+            this.slowedEdges = slowedEdges;
+            this.closedEdges = closedEdges;
+            this.customizedArcs = customizedArcs;
+            this.customizeMillis = customizeMillis;
+            this.appliedAt = appliedAt;
+        }
+
+        public boolean isReady() { return ready; }
+        public int getArcs() { return arcs; }
+        public long getBuildMillis() { return buildMillis; }
+        public long getSnapshotVersion() { return snapshotVersion; }
+
+        /**
+         * Provider flows and incidents in the applied snapshot; demo ones are not counted
+         */
+        public int getSamples() { return samples; }
+        public int getSlowedEdges() { return slowedEdges; }
+        public int getClosedEdges() { return closedEdges; }
+        public int getCustomizedArcs() { return customizedArcs; }
+        public long getCustomizeMillis() { return customizeMillis; }
+        public long getAppliedAt() { return appliedAt; }
+
+        /**
+         * Whether the live hierarchy carries weights from provider data rather than free flow
+         */
+        public boolean hasTraffic() { return ready && samples > 0; }
+    }
+
+    /**
+     * Latency and settled-node counts over the most recent queries of one algorithm
+     */
+    static class QueryStats {
+        private static final int WINDOW = 1024;
+
+        private final long[] nanos = new long[WINDOW];
+        private final int[] settled = new int[WINDOW];
+        private long count;
+
+        synchronized void record(long elapsedNanos, int settledNodes) {
+            int slot = (int) (count++ % WINDOW);
+            nanos[slot] = elapsedNanos;
+            settled[slot] = settledNodes;
+        }
+
+        synchronized Summary summary() {
+            int n = (int) Math.min(count, WINDOW);
+            if (n == 0) {
+                return new Summary(count, 0, 0, 0);
+            }
+            long[] sorted = Arrays.copyOf(nanos, n);
+            Arrays.sort(sorted);
+            long settledTotal = 0;
+            for (int i = 0; i < n; i++) {
+                settledTotal += settled[i];
+            }
+            return new Summary(count, sorted[n / 2] / 1e6, sorted[Math.min(n - 1, n * 99 / 100)] / 1e6,
+                settledTotal / n);
+        }
+
+        public static class Summary {
+            private final long queries;
+            private final double p50Millis;
+            private final double p99Millis;
+            private final long averageSettled;
+
+            public Summary(long queries, double p50Millis, double p99Millis, long averageSettled) {
+                this.queries = queries;
+                this.p50Millis = p50Millis;
+                this.p99Millis = p99Millis;
+                this.averageSettled = averageSettled;
+            }
+
+            public long getQueries() { return queries; }
+            public double getP50Millis() { return p50Millis; }
+            public double getP99Millis() { return p99Millis; }
+            public long getAverageSettled() { return averageSettled; }
+        }
+    }
+
+    public static class NetworkStats {
+        private final String file;
+        private final boolean mapped;
+        private final boolean loaded;
+        private final int nodes;
+        private final int edges;
+        private final long loadedAt;
+        private final long loadMillis;
+        private final int landmarks;
+        private final boolean hierarchyReady;
+        private final int shortcuts;
+        private final long hierarchyBuildMillis;
+        private final long hierarchyBytes;
+        private final long spatialIndexMillis;
+        private final long spatialIndexBytes;
+        private final LiveStats live;
+        private final Map<String, QueryStats.Summary> queries;
+
+        public NetworkStats(String file, boolean mapped, boolean loaded, int nodes, int edges, long loadedAt, long loadMillis,
+                            int landmarks, boolean hierarchyReady, int shortcuts, long hierarchyBuildMillis, long hierarchyBytes,
+                            long spatialIndexMillis, long spatialIndexBytes, LiveStats live, Map<String, QueryStats.Summary> queries) {
+            this.file = file;
+            this.mapped = mapped;
+            this.loaded = loaded;
+            this.nodes = nodes;
+            this.edges = edges;
+            this.loadedAt = loadedAt;
+            this.loadMillis = loadMillis;
+            this.landmarks = landmarks;
+            this.hierarchyReady = hierarchyReady;
+            this.shortcuts = shortcuts;
+            this.hierarchyBuildMillis = hierarchyBuildMillis;
+            this.hierarchyBytes = hierarchyBytes;
+            this.spatialIndexMillis = spatialIndexMillis;
+            this.spatialIndexBytes = spatialIndexBytes;
+            this.live = live;
+            this.queries = queries;
+        }
+
+        public String getFile() { return file; }
+        public boolean isMapped() { return mapped; }
+        public boolean isLoaded() { return loaded; }
+        public int getNodes() { return nodes; }
+        public int getEdges() { return edges; }
+        public long getLoadedAt() { return loadedAt; }
+        public long getLoadMillis() { return loadMillis; }
+        public int getLandmarks() { return landmarks; }
+        public boolean isHierarchyReady() { return hierarchyReady; }
+        public int getShortcuts() { return shortcuts; }
+        public long getHierarchyBuildMillis() { return hierarchyBuildMillis; }
+        public long getHierarchyBytes() { return hierarchyBytes; }
+        public long getSpatialIndexMillis() { return spatialIndexMillis; }
+        public long getSpatialIndexBytes() { return spatialIndexBytes; }
+        public LiveStats getLive() { return live; }
+        public Map<String, QueryStats.Summary> getQueries() { return queries; }
+    }
+}
@@ -0,0 +1,291 @@
+package com.trafficx.service;
+
+import com.trafficx.util.GeoGrid;
+import com.trafficx.util.GeoUtils;
+import com.trafficx.util.PackedPolyline;
+import com.trafficx.util.TtlCache;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of finished routes keyed by the grid cells the start and end snap to, plus
+ * avoidTraffic and the requested algorithm. Each cached route registers the corridor
+ * cells it passes through; when a snapshot adds, changes or clears an incident, or moves
+ * a flow sample's congestion by routing.cache.congestion-change or more, only the routes
+ * whose corridor touches that spot are dropped. The TTL is a backstop.
+ */
+@Service
+public class RouteCacheService {
+
+    private final TrafficSnapshotService trafficSnapshotService;
+
+    private TtlCache<String, RoutingApiService.RouteResult> routes;
+    private GeoGrid endpointGrid;
+    private GeoGrid corridorGrid;
+
+    // Corridor cell -> keys of the cached routes passing through it
+    private final Map<Long, Set<String>> corridorIndex = new ConcurrentHashMap<>();
+    private final Map<String, long[]> corridors = new ConcurrentHashMap<>();
+
+    private final AtomicLong snapshotsChecked = new AtomicLong();
+    private final AtomicLong changedCells = new AtomicLong();
+    private final AtomicLong invalidatedRoutes = new AtomicLong();
+    private final AtomicLong uncacheableRoutes = new AtomicLong();
+    private volatile int lastFanOut;
+    private volatile int maxFanOut;
+
+    @Value("${routing.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${routing.cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    @Value("${routing.cache.max-routes:5000}")
+    private int maxRoutes;
+
+    @Value("${routing.cache.cell-size-meters:100}")
+    private double cellSizeMeters;
+
+    @Value("${routing.cache.corridor-cell-meters:250}")
+    private double corridorCellMeters;
+
+    @Value("${routing.cache.congestion-change:15}")
+    private int congestionChange;
+
+    public RouteCacheService(TrafficSnapshotService trafficSnapshotService) {
+        this.trafficSnapshotService = trafficSnapshotService;
+    }
+
+    @PostConstruct
+    void init() {
+        routes = new TtlCache<>("routes", Duration.ofSeconds(ttlSeconds), maxRoutes);
+        routes.setRemovalListener((key, route) -> unregister(key));
+        endpointGrid = new GeoGrid(cellSizeMeters);
+        corridorGrid = new GeoGrid(corridorCellMeters);
+        if (enabled) {
+            trafficSnapshotService.addListener(this::onSnapshot);
+        }
+    }
+
+    /**
+     * The cached route for these endpoints, or the one computed by loader. Computed routes are
+     * cached unless they are demo routes or missed their deadline or part of their traffic
+     * sampling; hits are copies marked cached, without the computing request's timings.
+     */
+    public RoutingApiService.RouteResult get(double startLat, double startLon, double endLat, double endLon,
+                                             boolean avoidTraffic, String algorithm,
+                                             Supplier<RoutingApiService.RouteResult> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        String key = endpointGrid.cellKey(startLat, startLon) + ":" + endpointGrid.cellKey(endLat, endLon)
+            + ":" + avoidTraffic + ":" + algorithm;
+        long checkedBefore = snapshotsChecked.get();
+        boolean[] loaded = new boolean[1];
+        RoutingApiService.RouteResult result = routes.get(key, k -> {
+            RoutingApiService.RouteResult route = loader.get();
+            if (route != null && route.getCoordinates() != null && cacheable(route)) {
+                register(k, route.getCoordinates());
+            }
+            loaded[0] = true;
+            return route;
+        });
+        if (!loaded[0]) {
+            return result == null ? null : result.cacheHit();
+        }
+        if (result != null && !cacheable(result)) {
+            uncacheableRoutes.incrementAndGet();
+            routes.invalidate(key);
+        } else if (snapshotsChecked.get() != checkedBefore) {
+            // A snapshot processed while this route was computed may already be stale for it
+            routes.invalidate(key);
+        }
+        return result;
+    }
+
+    private static boolean cacheable(RoutingApiService.RouteResult route) {
+        return !route.isDemo() && !route.isDeadlineExceeded() && !route.isTrafficSamplingPartial();
+    }
+
+    private void register(String key, PackedPolyline coordinates) {
+        long[] cells = corridorCells(coordinates);
+        corridors.put(key, cells);
+        for (long cell : cells) {
+            corridorIndex.computeIfAbsent(cell, c -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+    }
+
+    private void unregister(String key) {
+        long[] cells = corridors.remove(key);
+        if (cells == null) {
+            return;
+        }
+        for (long cell : cells) {
+            corridorIndex.computeIfPresent(cell, (c, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    /**
+     * Cells covered by a polyline; long segments are stepped through at half a cell so
+     * none of the cells they cross is skipped
+     */
+    private long[] corridorCells(PackedPolyline coordinates) {
+        Set<Long> cells = new HashSet<>();
+        double step = corridorGrid.getCellMeters() / 2;
+        for (int i = 0; i < coordinates.size(); i++) {
+            double lat = coordinates.lat(i);
+            double lon = coordinates.lon(i);
+            cells.add(corridorGrid.cellKey(lat, lon));
+            if (i + 1 < coordinates.size()) {
+                double nextLat = coordinates.lat(i + 1);
+                double nextLon = coordinates.lon(i + 1);
+                int steps = (int) (GeoUtils.haversineMeters(lat, lon, nextLat, nextLon) / step);
+                for (int s = 1; s < steps; s++) {
+                    double t = s / (double) steps;
+                    cells.add(corridorGrid.cellKey(lat + (nextLat - lat) * t, lon + (nextLon - lon) * t));
+                }
+            }
+        }
+        return cells.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private void onSnapshot(TrafficSnapshotService.TrafficSnapshot previous, TrafficSnapshotService.TrafficSnapshot next) {
+        Set<Long> changed = new HashSet<>();
+        for (TrafficSnapshotService.CitySnapshot city : next.getCities().values()) {
+            TrafficSnapshotService.CitySnapshot before = previous.getCities().get(city.getCity());
+            if (before == city) {
+                continue;
+            }
+            // Refreshes rebuild incident objects, so match them by id and content as incidentDelta does
+            Map<String, TrafficApiService.TrafficIncident> removed = new HashMap<>();
+            if (before != null) {
+                for (TrafficApiService.TrafficIncident incident : before.getIncidents()) {
+                    removed.put(incident.getId(), incident);
+                }
+            }
+            for (TrafficApiService.TrafficIncident incident : city.getIncidents()) {
+                TrafficApiService.TrafficIncident old = removed.remove(incident.getId());
+                if (old == null || old.contentHash() != incident.contentHash()) {
+                    markAround(changed, incident.getLatitude(), incident.getLongitude());
+                    if (old != null) {
+                        markAround(changed, old.getLatitude(), old.getLongitude());
+                    }
+                }
+            }
+            for (TrafficApiService.TrafficIncident incident : removed.values()) {
+                markAround(changed, incident.getLatitude(), incident.getLongitude());
+            }
+
+            // Flow samples sit on the same grid every refresh, so compare them by position
+            Map<Long, Integer> oldCongestion = new HashMap<>();
+            if (before != null) {
+                for (TrafficApiService.TrafficFlow flow : before.getFlows()) {
+                    oldCongestion.put(corridorGrid.cellKey(flow.getLatitude(), flow.getLongitude()), flow.getCongestion());
+                }
+            }
+            for (TrafficApiService.TrafficFlow flow : city.getFlows()) {
+                Integer old = oldCongestion.get(corridorGrid.cellKey(flow.getLatitude(), flow.getLongitude()));
+                if (old == null || Math.abs(flow.getCongestion() - old) >= congestionChange) {
+                    markAround(changed, flow.getLatitude(), flow.getLongitude());
+                }
+            }
+        }
+
+        int fanOut = 0;
+        for (long cell : changed) {
+            Set<String> keys = corridorIndex.remove(cell);
+            if (keys == null) {
+                continue;
+            }
+            for (String key : keys) {
+                if (routes.invalidate(key)) {
+                    fanOut++;
+                }
+            }
+        }
+        snapshotsChecked.incrementAndGet();
+        changedCells.addAndGet(changed.size());
+        invalidatedRoutes.addAndGet(fanOut);
+        lastFanOut = fanOut;
+        maxFanOut = Math.max(maxFanOut, fanOut);
+        if (fanOut > 0) {
+            System.out.println("Route cache: snapshot v" + next.getVersion() + " touched " + changed.size()
+                + " corridor cells, invalidated " + fanOut + " routes");
+        }
+    }
+
+    /**
+     * The cell around a point and its eight neighbours, so changes near a cell edge still count
+     */
+    private void markAround(Set<Long> changed, double lat, double lon) {
+        double delta = corridorGrid.getCellMeters() / GeoUtils.METERS_PER_DEGREE;
+        double lonDelta = delta / Math.max(0.01, Math.cos(Math.toRadians(lat)));
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                changed.add(corridorGrid.cellKey(lat + dy * delta, lon + dx * lonDelta));
+            }
+        }
+    }
+
+    public RouteCacheStats getStats() {
+        return new RouteCacheStats(enabled, routes.stats(), corridorIndex.size(), snapshotsChecked.get(),
+            changedCells.get(), invalidatedRoutes.get(), lastFanOut, maxFanOut, uncacheableRoutes.get());
+    }
+
+    public static class RouteCacheStats {
+        private final boolean enabled;
+        private final TtlCache.Stats cache;
+        private final int indexedCells;
+        private final long snapshotsChecked;
+        private final long changedCells;
+        private final long invalidatedRoutes;
+        private final int lastFanOut;
+        private final int maxFanOut;
+        private final long uncacheableRoutes;
+
+        public RouteCacheStats(boolean enabled, TtlCache.Stats cache, int indexedCells, long snapshotsChecked,
+                               long changedCells, long invalidatedRoutes, int lastFanOut, int maxFanOut,
+                               long uncacheableRoutes) {
+            this.enabled = enabled;
+            this.cache = cache;
+            this.indexedCells = indexedCells;
+            this.snapshotsChecked = snapshotsChecked;
+            this.changedCells = changedCells;
+            this.invalidatedRoutes = invalidatedRoutes;
+            this.lastFanOut = lastFanOut;
+            this.maxFanOut = maxFanOut;
+            this.uncacheableRoutes = uncacheableRoutes;
+        }
+
+        public boolean isEnabled() { return enabled; }
+        public TtlCache.Stats getCache() { return cache; }
+        public int getIndexedCells() { return indexedCells; }
+        public long getSnapshotsChecked() { return snapshotsChecked; }
+        public long getChangedCells() { return changedCells; }
+        public long getInvalidatedRoutes() { return invalidatedRoutes; }
+        public int getLastFanOut() { return lastFanOut; }
+        public int getMaxFanOut() { return maxFanOut; }
+
+        /**
+         * Computed routes not kept: demo routes and those with a missed deadline or partial sampling
+         */
+        public long getUncacheableRoutes() { return uncacheableRoutes; }
+
+        /**
+         * Routes dropped per changed corridor cell
+         */
+        public double getAverageFanOut() {
+            return changedCells == 0 ? 0 : invalidatedRoutes / (double) changedCells;
+        }
+    }
+}
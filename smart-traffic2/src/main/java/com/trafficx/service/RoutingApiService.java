@@ -7,14 +7,41 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.json.JSONObject;
 import org.json.JSONArray;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.trafficx.config.UpstreamBudget;
+import com.trafficx.util.GeoUtils;
+import com.trafficx.util.PackedPolyline;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class RoutingApiService {
 
     private final RestTemplate restTemplate;
     private final TrafficApiService trafficApiService;
+    private final RoadNetworkService roadNetworkService;
+    private final SpeedProfileService speedProfileService;
+    private final RouteCacheService routeCacheService;
+    private final UpstreamBudget upstreamBudget;
+
+    // Runs speculative alternatives; separate from the upstream executor their traffic sampling
+    // fans out on, so they can never fill that pool with tasks waiting on its own queue
+    private ExecutorService speculativeExecutor;
     
     @Value("${openrouteservice.api.key:}")
     private String orsApiKey;
@@ -22,49 +49,160 @@ public class RoutingApiService {
     @Value("${here.api.key:}")
     private String hereApiKey;
 
+    @Value("${routing.optimal.speculative:true}")
+    private boolean speculative;
+
+    @Value("${routing.optimal.deadline-ms:4000}")
+    private long optimalDeadlineMs;
+
+    @Value("${routing.optimal.speculative-threads:8}")
+    private int speculativeThreads;
+
+    @Value("${routing.optimal.speculative-min-budget:100}")
+    private int speculativeMinBudget;
+
     // @Autowired
-    public RoutingApiService(RestTemplate restTemplate, TrafficApiService trafficApiService) {
+    public RoutingApiService(RestTemplate restTemplate, TrafficApiService trafficApiService,
+                             RoadNetworkService roadNetworkService, SpeedProfileService speedProfileService,
+                             RouteCacheService routeCacheService, UpstreamBudget upstreamBudget) {
         this.restTemplate = restTemplate;
         this.trafficApiService = trafficApiService;
+        this.roadNetworkService = roadNetworkService;
+        this.speedProfileService = speedProfileService;
+        this.routeCacheService = routeCacheService;
+        this.upstreamBudget = upstreamBudget;
+    }
+
+    @PostConstruct
+    void initExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(speculativeThreads, speculativeThreads,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(speculativeThreads * 4),
+            runnable -> {
+                Thread thread = new Thread(runnable, "speculative-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        speculativeExecutor = executor;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        speculativeExecutor.shutdownNow();
     }
 
     /**
-     * Get optimal route with traffic consideration
+     * Get optimal route with traffic consideration. algorithm picks the local search
+     * ("dijkstra", "astar", "ch", "cch" or "auto") and is ignored for ORS/HERE routes.
+     * Routes computed on live weights already avoid traffic, so no alternative is fetched.
+     * Results are served from RouteCacheService until traffic along them changes.
+     * With routing.optimal.speculative the alternative is fetched and sampled concurrently with
+     * the primary and cancelled as soon as it cannot be chosen, as long as the route provider has
+     * routing.optimal.speculative-min-budget calls left; everything runs under
+     * routing.optimal.deadline-ms and the response reports each phase's time.
      */
-    public RouteResult getOptimalRoute(double startLat, double startLon, double endLat, double endLon, boolean avoidTraffic) {
-        RouteResult primaryRoute = getRoute(startLat, startLon, endLat, endLon);
-        
+    public RouteResult getOptimalRoute(double startLat, double startLon, double endLat, double endLon,
+                                       boolean avoidTraffic, String algorithm) {
+        return routeCacheService.get(startLat, startLon, endLat, endLon, avoidTraffic, algorithm,
+            () -> computeOptimalRoute(startLat, startLon, endLat, endLon, avoidTraffic, algorithm));
+    }
+
+    /**
+     * Fastest route for leaving at departAt, with each road's typical speed at the time it is
+     * reached (SpeedProfileService). Not cached and not sampled, since current traffic says
+     * little about another time. Falls back to getOptimalRoute() when the local network does
+     * not cover both points, profiles are disabled or they are still being compiled; such
+     * routes carry no departAt.
+     */
+    public RouteResult getRouteDepartingAt(double startLat, double startLon, double endLat, double endLon,
+                                           ZonedDateTime departAt, boolean avoidTraffic, String algorithm) {
+        long started = System.nanoTime();
+        Optional<RoadNetworkService.LocalRoute> local = speedProfileService.getProfiles()
+            .flatMap(profiles -> roadNetworkService.routeDepartingAt(startLat, startLon, endLat, endLon,
+                profiles, speedProfileService.secondOfWeek(departAt)));
+        if (local.isEmpty()) {
+            return getOptimalRoute(startLat, startLon, endLat, endLon, avoidTraffic, algorithm);
+        }
+        RouteResult result = toRouteResult(local.get());
+        double seconds = local.get().durationSeconds();
+        result.setDepartAt(departAt.truncatedTo(ChronoUnit.SECONDS).toOffsetDateTime().toString());
+        result.setArriveAt(departAt.plusSeconds(Math.round(seconds)).truncatedTo(ChronoUnit.SECONDS)
+            .toOffsetDateTime().toString());
+        result.setTypicalDelay(Math.max(0, seconds - local.get().freeFlowSeconds()));
+        result.setPhaseMillis(Map.of("primaryRoute", millisSince(started)));
+        return result;
+    }
+
+    private RouteResult computeOptimalRoute(double startLat, double startLon, double endLat, double endLon,
+                                            boolean avoidTraffic, String algorithm) {
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(optimalDeadlineMs);
+        Map<String, Double> timings = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        // Speculatively evaluate the alternative while the primary route is computed and sampled
+        // unless its quota is short, when it is only fetched if the primary turns out congested
+        Future<RouteResult> speculativeAlternative = null;
+        if (avoidTraffic && speculative && upstreamBudget.available(routeProvider()) >= speculativeMinBudget) {
+            UpstreamBudget.Priority priority = UpstreamBudget.currentPriority();
+            try {
+                speculativeAlternative = speculativeExecutor.submit(UpstreamBudget.withPriority(priority,
+                    () -> evaluateAlternative(startLat, startLon, endLat, endLon, deadline, timings)));
+            } catch (RejectedExecutionException e) {
+                System.err.println("Speculative executor full, evaluating alternative route sequentially");
+            }
+        }
+
+        RouteResult result;
+        boolean alternativeCancelled = false;
+        try {
+            result = chooseRoute(startLat, startLon, endLat, endLon, avoidTraffic, algorithm,
+                deadline, timings, speculativeAlternative);
+        } finally {
+            // The decision is made: a still-running alternative can only be wasted work
+            if (speculativeAlternative != null) {
+                speculativeAlternative.cancel(true);
+                alternativeCancelled = speculativeAlternative.isCancelled();
+            }
+        }
+
+        if (result != null) {
+            timings.put("total", millisSince(started));
+            synchronized (timings) {
+                // A cancelled alternative may still be finishing a phase
+                result.setPhaseMillis(new LinkedHashMap<>(timings));
+            }
+            result.setSpeculative(speculativeAlternative != null);
+            result.setAlternativeCancelled(alternativeCancelled);
+            result.setDeadlineExceeded(System.nanoTime() - deadline > 0);
+        }
+        return result;
+    }
+
+    private RouteResult chooseRoute(double startLat, double startLon, double endLat, double endLon,
+                                    boolean avoidTraffic, String algorithm, long deadline,
+                                    Map<String, Double> timings, Future<RouteResult> speculativeAlternative) {
+        long phase = System.nanoTime();
+        RouteResult primaryRoute = getRoute(startLat, startLon, endLat, endLon, algorithm);
+        timings.put("primaryRoute", millisSince(phase));
+        if (speculativeAlternative != null && (primaryRoute == null || primaryRoute.isTrafficAware())) {
+            speculativeAlternative.cancel(true);
+        }
+
         if (avoidTraffic && primaryRoute != null && primaryRoute.getCoordinates() != null) {
             // Analyze traffic on primary route
-            List<TrafficApiService.TrafficFlow> routeTraffic = 
-                trafficApiService.getRouteTrafficFlow(primaryRoute.getCoordinates());
-            
-            primaryRoute.setRouteTrafficPoints(routeTraffic); // Store traffic points
-            
-            int avgCongestion = (int) routeTraffic.stream()
-                .mapToInt(TrafficApiService.TrafficFlow::getCongestion)
-                .average()
-                .orElse(0);
-            
-            primaryRoute.setAverageCongestion(avgCongestion);
-            primaryRoute.setTrafficLevel(getTrafficLevel(avgCongestion));
+            phase = System.nanoTime();
+            int avgCongestion = analyzeTraffic(primaryRoute, deadline);
+            timings.put("primarySample", millisSince(phase));
             
             // If heavy traffic, try to find alternative
-            if (avgCongestion > 60) {
-                RouteResult alternateRoute = getAlternativeRoute(startLat, startLon, endLat, endLon);
+            if (avgCongestion > 60 && !primaryRoute.isTrafficAware()) {
+                RouteResult alternateRoute = speculativeAlternative != null
+                    ? awaitAlternative(speculativeAlternative, deadline)
+                    : evaluateAlternative(startLat, startLon, endLat, endLon, deadline, timings);
                 if (alternateRoute != null) {
-                    List<TrafficApiService.TrafficFlow> altTraffic = 
-                        trafficApiService.getRouteTrafficFlow(alternateRoute.getCoordinates());
-                    
-                    alternateRoute.setRouteTrafficPoints(altTraffic);
-                    
-                    int altCongestion = (int) altTraffic.stream()
-                        .mapToInt(TrafficApiService.TrafficFlow::getCongestion)
-                        .average()
-                        .orElse(0);
-                    
-                    alternateRoute.setAverageCongestion(altCongestion);
-                    alternateRoute.setTrafficLevel(getTrafficLevel(altCongestion));
+                    int altCongestion = alternateRoute.getAverageCongestion();
                     
                     // If alternate is significantly better, suggest it
                     if (altCongestion < avgCongestion - 20) {
@@ -81,9 +219,71 @@ public class RoutingApiService {
     }
 
     /**
-     * Get route between two points
+     * Fetch the alternative route and sample its traffic, recording both phases
      */
-    public RouteResult getRoute(double startLat, double startLon, double endLat, double endLon) {
+    private RouteResult evaluateAlternative(double startLat, double startLon, double endLat, double endLon,
+                                            long deadline, Map<String, Double> timings) {
+        long phase = System.nanoTime();
+        RouteResult alternateRoute = getAlternativeRoute(startLat, startLon, endLat, endLon);
+        timings.put("alternativeRoute", millisSince(phase));
+        if (alternateRoute == null || alternateRoute.getCoordinates() == null || Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+        phase = System.nanoTime();
+        analyzeTraffic(alternateRoute, deadline);
+        timings.put("alternativeSample", millisSince(phase));
+        return alternateRoute;
+    }
+
+    private RouteResult awaitAlternative(Future<RouteResult> alternative, long deadline) {
+        try {
+            return alternative.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            System.err.println("Alternative route missed the request deadline");
+        } catch (ExecutionException e) {
+            System.err.println("Error evaluating alternative route: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Sample flow along the route, store it on the route and return the average congestion
+     */
+    private int analyzeTraffic(RouteResult route, long deadline) {
+        TrafficApiService.RouteTrafficSample sample =
+            trafficApiService.sampleRouteTraffic(route.getCoordinates(), route.getSegmentRoadClasses(), deadline);
+        List<TrafficApiService.TrafficFlow> routeTraffic = sample.getFlows();
+        
+        route.setRouteTrafficPoints(routeTraffic); // Store traffic points
+        route.setTrafficSamplingPartial(sample.isPartial());
+        route.setTrafficSampling(sample);
+        
+        int avgCongestion = (int) routeTraffic.stream()
+            .mapToInt(TrafficApiService.TrafficFlow::getCongestion)
+            .average()
+            .orElse(0);
+        
+        route.setAverageCongestion(avgCongestion);
+        route.setTrafficLevel(getTrafficLevel(avgCongestion));
+        return avgCongestion;
+    }
+
+    private static double millisSince(long startedNanos) {
+        return Math.round((System.nanoTime() - startedNanos) / 1e5) / 10.0;
+    }
+
+    /**
+     * Get route between two points - from the local road network when it covers both,
+     * otherwise from ORS/HERE
+     */
+    public RouteResult getRoute(double startLat, double startLon, double endLat, double endLon, String algorithm) {
+        Optional<RoadNetworkService.LocalRoute> local =
+            roadNetworkService.route(startLat, startLon, endLat, endLon, algorithm);
+        if (local.isPresent()) {
+            return toRouteResult(local.get());
+        }
         if (orsApiKey != null && !orsApiKey.isEmpty()) {
             return getOpenRouteServiceRoute(startLat, startLon, endLat, endLon);
         } else if (hereApiKey != null && !hereApiKey.isEmpty()) {
@@ -93,9 +293,53 @@ public class RoutingApiService {
     }
 
     /**
-     * Get alternative route (different algorithm or avoiding highways)
+     * Up to k routes, best first: plateau alternatives on the local road network when it covers
+     * both points, otherwise the primary route and the provider's alternative
+     */
+    public List<RouteResult> getAlternatives(double startLat, double startLon, double endLat, double endLon, int k) {
+        Optional<List<RoadNetworkService.LocalRoute>> local =
+            roadNetworkService.alternatives(startLat, startLon, endLat, endLon, k);
+        List<RouteResult> routes = new ArrayList<>();
+        if (local.isPresent()) {
+            for (RoadNetworkService.LocalRoute route : local.get()) {
+                routes.add(toRouteResult(route));
+            }
+            return routes;
+        }
+        routes.add(getRoute(startLat, startLon, endLat, endLon, RoadNetworkService.AUTO));
+        if (k > 1) {
+            RouteResult alternative = getAlternativeRoute(startLat, startLon, endLat, endLon);
+            if (alternative != null) {
+                routes.add(alternative);
+            }
+        }
+        return routes;
+    }
+
+    private RouteResult toRouteResult(RoadNetworkService.LocalRoute local) {
+        RouteResult result = new RouteResult();
+        result.setCoordinates(local.coordinates());
+        result.setSegmentRoadClasses(local.segmentRoadClasses());
+        result.setDistance(local.distanceMeters());
+        result.setDuration(local.durationSeconds());
+        result.setAlgorithm(local.getAlgorithm());
+        result.setSettledNodes(local.getPath().getSettled());
+        result.setTrafficAware(local.isTrafficAware());
+        result.setStretch(local.getStretch());
+        result.setOverlap(local.getOverlap());
+        return result;
+    }
+
+    /**
+     * Get alternative route - the best plateau alternative on the local road network (null if
+     * none differs enough), otherwise ORS avoiding highways or HERE's second route
      */
     private RouteResult getAlternativeRoute(double startLat, double startLon, double endLat, double endLon) {
+        Optional<List<RoadNetworkService.LocalRoute>> local =
+            roadNetworkService.alternatives(startLat, startLon, endLat, endLon, 2);
+        if (local.isPresent()) {
+            return local.get().size() > 1 ? toRouteResult(local.get().get(1)) : null;
+        }
         if (orsApiKey != null && !orsApiKey.isEmpty()) {
             return getOpenRouteServiceRoute(startLat, startLon, endLat, endLon, true);
         } else if (hereApiKey != null && !hereApiKey.isEmpty()) {
@@ -104,6 +348,18 @@ public class RoutingApiService {
         return getDemoAlternativeRoute(startLat, startLon, endLat, endLon);
     }
 
+    /**
+     * Upstream budget name of the provider ORS/HERE routes come from
+     */
+    private String routeProvider() {
+        if (orsApiKey != null && !orsApiKey.isEmpty()) {
+            return "ors";
+        } else if (hereApiKey != null && !hereApiKey.isEmpty()) {
+            return "here";
+        }
+        return "demo";
+    }
+
     private RouteResult getOpenRouteServiceRoute(double startLat, double startLon, double endLat, double endLon) {
         return getOpenRouteServiceRoute(startLat, startLon, endLat, endLon, false);
     }
@@ -130,11 +386,8 @@ public class RoutingApiService {
             
             HttpEntity<String> entity = new HttpEntity<>(requestBody.toString(), headers);
             
-            ResponseEntity<String> response = restTemplate.exchange(
-                url, HttpMethod.POST, entity, String.class
-            );
-            
-            return parseRoute(response.getBody());
+            return restTemplate.execute(url, HttpMethod.POST, restTemplate.httpEntityCallback(entity),
+                response -> ProviderResponseParser.parseOrsRoute(response.getBody()));
         } catch (Exception e) {
             System.err.println("Error fetching OpenRouteService route: " + e.getMessage());
             return getDemoRoute(startLat, startLon, endLat, endLon);
@@ -148,8 +401,9 @@ public class RoutingApiService {
                 startLat, startLon, endLat, endLon, hereApiKey
             );
             
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            return parseHereRoute(response.getBody());
+            List<RouteResult> routes = restTemplate.execute(url, HttpMethod.GET, null,
+                response -> ProviderResponseParser.parseHereRoutes(response.getBody()));
+            return routes.isEmpty() ? new RouteResult() : routes.get(0);
         } catch (Exception e) {
             System.err.println("Error fetching HERE route: " + e.getMessage());
             return getDemoRoute(startLat, startLon, endLat, endLon);
@@ -163,138 +417,25 @@ public class RoutingApiService {
                 startLat, startLon, endLat, endLon, hereApiKey
             );
             
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            JSONObject json = new JSONObject(response.getBody());
+            List<RouteResult> routes = restTemplate.execute(url, HttpMethod.GET, null,
+                response -> ProviderResponseParser.parseHereRoutes(response.getBody()));
             
-            // Try to get alternative route if available
-            if (json.has("routes")) {
-                JSONArray routes = json.getJSONArray("routes");
-                if (routes.length() > 1) {
-                    return parseHereRouteFromArray(routes.getJSONObject(1));
-                }
+            // The alternative if HERE found one, otherwise its only route
+            if (routes.size() > 1) {
+                return routes.get(1);
             }
-            
-            return parseHereRoute(response.getBody());
+            return routes.isEmpty() ? new RouteResult() : routes.get(0);
         } catch (Exception e) {
             System.err.println("Error fetching HERE alternative route: " + e.getMessage());
             return getDemoAlternativeRoute(startLat, startLon, endLat, endLon);
         }
     }
 
-    private RouteResult parseRoute(String responseBody) {
-        RouteResult result = new RouteResult();
-        JSONObject json = new JSONObject(responseBody);
-        
-        if (json.has("features") && json.getJSONArray("features").length() > 0) {
-            JSONObject feature = json.getJSONArray("features").getJSONObject(0);
-            
-            if (feature.has("geometry")) {
-                JSONObject geometry = feature.getJSONObject("geometry");
-                if (geometry.has("coordinates")) {
-                    JSONArray coords = geometry.getJSONArray("coordinates");
-                    List<double[]> coordinates = new ArrayList<>();
-                    
-                    for (int i = 0; i < coords.length(); i++) {
-                        JSONArray coord = coords.getJSONArray(i);
-                        coordinates.add(new double[]{coord.getDouble(1), coord.getDouble(0)});
-                    }
-                    
-                    result.setCoordinates(coordinates);
-                }
-            }
-            
-            if (feature.has("properties")) {
-                JSONObject props = feature.getJSONObject("properties");
-                JSONObject summary = props.getJSONObject("summary");
-                
-                result.setDistance(summary.getDouble("distance"));
-                result.setDuration(summary.getDouble("duration"));
-            }
-        }
-        
-        return result;
-    }
-
-    private RouteResult parseHereRoute(String responseBody) {
-        JSONObject json = new JSONObject(responseBody);
-        
-        if (json.has("routes") && json.getJSONArray("routes").length() > 0) {
-            JSONObject route = json.getJSONArray("routes").getJSONObject(0);
-            return parseHereRouteFromArray(route);
-        }
-        
-        return new RouteResult();
-    }
-
-    private RouteResult parseHereRouteFromArray(JSONObject route) {
-        RouteResult result = new RouteResult();
-        
-        if (route.has("sections")) {
-            JSONArray sections = route.getJSONArray("sections");
-            List<double[]> allCoordinates = new ArrayList<>();
-            double totalDistance = 0;
-            double totalDuration = 0;
-            
-            for (int i = 0; i < sections.length(); i++) {
-                JSONObject section = sections.getJSONObject(i);
-                
-                if (section.has("polyline")) {
-                    String polyline = section.getString("polyline");
-                    List<double[]> coords = decodeHerePolyline(polyline);
-                    allCoordinates.addAll(coords);
-                }
-                
-                if (section.has("summary")) {
-                    JSONObject summary = section.getJSONObject("summary");
-                    totalDistance += summary.optDouble("length", 0);
-                    totalDuration += summary.optDouble("duration", 0);
-                }
-            }
-            
-            result.setCoordinates(allCoordinates);
-            result.setDistance(totalDistance);
-            result.setDuration(totalDuration);
-        }
-        
-        return result;
-    }
-
-    private List<double[]> decodeHerePolyline(String encoded) {
-        List<double[]> coordinates = new ArrayList<>();
-        int index = 0, len = encoded.length();
-        int lat = 0, lng = 0;
-
-        while (index < len) {
-            int b, shift = 0, result = 0;
-            do {
-                b = encoded.charAt(index++) - 63;
-                result |= (b & 0x1f) << shift;
-                shift += 5;
-            } while (b >= 0x20);
-            int dlat = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
-            lat += dlat;
-
-            shift = 0;
-            result = 0;
-            do {
-                b = encoded.charAt(index++) - 63;
-                result |= (b & 0x1f) << shift;
-                shift += 5;
-            } while (b >= 0x20);
-            int dlng = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
-            lng += dlng;
-
-            coordinates.add(new double[]{lat / 1E5, lng / 1E5});
-        }
-
-        return coordinates;
-    }
-
     private RouteResult getDemoRoute(double startLat, double startLon, double endLat, double endLon) {
         RouteResult result = new RouteResult();
         
-        List<double[]> coordinates = new ArrayList<>();
         int steps = 25;
+        PackedPolyline.Builder coordinates = new PackedPolyline.Builder(steps + 1);
         
         for (int i = 0; i <= steps; i++) {
             double t = i / (double) steps;
@@ -305,14 +446,15 @@ public class RoutingApiService {
             double lat = Math.pow(1-t, 2) * startLat + 2 * (1-t) * t * midLat + Math.pow(t, 2) * endLat;
             double lon = Math.pow(1-t, 2) * startLon + 2 * (1-t) * t * midLon + Math.pow(t, 2) * endLon;
             
-            coordinates.add(new double[]{lat, lon});
+            coordinates.add(lat, lon);
         }
         
-        result.setCoordinates(coordinates);
+        result.setCoordinates(coordinates.build());
         
         double distance = calculateDistance(startLat, startLon, endLat, endLon) * 1000;
         result.setDistance(distance);
         result.setDuration(distance / 50 * 3.6);
+        result.setDemo(true);
         
         return result;
     }
@@ -320,8 +462,8 @@ public class RoutingApiService {
     private RouteResult getDemoAlternativeRoute(double startLat, double startLon, double endLat, double endLon) {
         RouteResult result = new RouteResult();
         
-        List<double[]> coordinates = new ArrayList<>();
         int steps = 25;
+        PackedPolyline.Builder coordinates = new PackedPolyline.Builder(steps + 1);
         
         // Create a more curved alternative path
         for (int i = 0; i <= steps; i++) {
@@ -334,28 +476,22 @@ public class RoutingApiService {
             double lat = Math.pow(1-t, 2) * startLat + 2 * (1-t) * t * midLat + Math.pow(t, 2) * endLat;
             double lon = Math.pow(1-t, 2) * startLon + 2 * (1-t) * t * midLon + Math.pow(t, 2) * endLon;
             
-            coordinates.add(new double[]{lat, lon});
+            coordinates.add(lat, lon);
         }
         
-        result.setCoordinates(coordinates);
+        result.setCoordinates(coordinates.build());
         
         // Alternative route is typically slightly longer
         double distance = calculateDistance(startLat, startLon, endLat, endLon) * 1000 * 1.15;
         result.setDistance(distance);
         result.setDuration(distance / 50 * 3.6);
+        result.setDemo(true);
         
         return result;
     }
 
     private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        double R = 6371;
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(dLat/2) * Math.sin(dLat/2) +
-                   Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                   Math.sin(dLon/2) * Math.sin(dLon/2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
-        return R * c;
+        return GeoUtils.haversineMeters(lat1, lon1, lat2, lon2) / 1000;
     }
 
     private String getTrafficLevel(int congestion) {
@@ -366,7 +502,7 @@ public class RoutingApiService {
     }
 
     public static class RouteResult {
-        private List<double[]> coordinates;
+        private PackedPolyline coordinates;
         private double distance;
         private double duration;
         private int averageCongestion;
@@ -374,9 +510,56 @@ public class RoutingApiService {
         private boolean recommended;
         private String recommendationReason;
         private List<TrafficApiService.TrafficFlow> routeTrafficPoints;
+        private boolean trafficSamplingPartial;
+        private TrafficApiService.RouteTrafficSample trafficSampling;
+        private byte[] segmentRoadClasses;
+        private String algorithm;
+        private int settledNodes;
+        private boolean trafficAware;
+        private Map<String, Double> phaseMillis;
+        private boolean speculative;
+        private boolean alternativeCancelled;
+        private double stretch = 1;
+        private double overlap;
+        private boolean deadlineExceeded;
+        private String departAt;
+        private String arriveAt;
+        private double typicalDelay;
+        private boolean demo;
+        private boolean cached;
+
+        /**
+         * A copy to serve from the route cache: the fields describing the request that computed
+         * the route (phaseMillis, speculative, alternativeCancelled, deadlineExceeded) are cleared
+         */
+        RouteResult cacheHit() {
+            RouteResult hit = new RouteResult();
+            hit.coordinates = coordinates;
+            hit.distance = distance;
+            hit.duration = duration;
+            hit.averageCongestion = averageCongestion;
+            hit.trafficLevel = trafficLevel;
+            hit.recommended = recommended;
+            hit.recommendationReason = recommendationReason;
+            hit.routeTrafficPoints = routeTrafficPoints;
+            hit.trafficSamplingPartial = trafficSamplingPartial;
+            hit.trafficSampling = trafficSampling;
+            hit.segmentRoadClasses = segmentRoadClasses;
+            hit.algorithm = algorithm;
+            hit.settledNodes = settledNodes;
+            hit.trafficAware = trafficAware;
+            hit.stretch = stretch;
+            hit.overlap = overlap;
+            hit.departAt = departAt;
+            hit.arriveAt = arriveAt;
+            hit.typicalDelay = typicalDelay;
+            hit.demo = demo;
+            hit.cached = true;
+            return hit;
+        }
 
-        public List<double[]> getCoordinates() { return coordinates; }
-        public void setCoordinates(List<double[]> coordinates) { this.coordinates = coordinates; }
+        public PackedPolyline getCoordinates() { return coordinates; }
+        public void setCoordinates(PackedPolyline coordinates) { this.coordinates = coordinates; }
         public double getDistance() { return distance; }
         public void setDistance(double distance) { this.distance = distance; }
         public double getDuration() { return duration; }
@@ -391,5 +574,80 @@ public class RoutingApiService {
         public void setRecommendationReason(String reason) { this.recommendationReason = reason; }
         public List<TrafficApiService.TrafficFlow> getRouteTrafficPoints() { return routeTrafficPoints; }
         public void setRouteTrafficPoints(List<TrafficApiService.TrafficFlow> points) { this.routeTrafficPoints = points; }
+        public boolean isTrafficSamplingPartial() { return trafficSamplingPartial; }
+        public void setTrafficSamplingPartial(boolean partial) { this.trafficSamplingPartial = partial; }
+        public TrafficApiService.RouteTrafficSample getTrafficSampling() { return trafficSampling; }
+        public void setTrafficSampling(TrafficApiService.RouteTrafficSample sampling) { this.trafficSampling = sampling; }
+
+        /**
+         * Road class of each coordinate-to-coordinate segment, when the route came from the road network
+         */
+        @JsonIgnore
+        public byte[] getSegmentRoadClasses() { return segmentRoadClasses; }
+        public void setSegmentRoadClasses(byte[] classes) { this.segmentRoadClasses = classes; }
+        public String getAlgorithm() { return algorithm; }
+        public void setAlgorithm(String algorithm) { this.algorithm = algorithm; }
+        public int getSettledNodes() { return settledNodes; }
+        public void setSettledNodes(int settledNodes) { this.settledNodes = settledNodes; }
+        public boolean isTrafficAware() { return trafficAware; }
+        public void setTrafficAware(boolean trafficAware) { this.trafficAware = trafficAware; }
+        public Map<String, Double> getPhaseMillis() { return phaseMillis; }
+        public void setPhaseMillis(Map<String, Double> phaseMillis) { this.phaseMillis = phaseMillis; }
+        public boolean isSpeculative() { return speculative; }
+        public void setSpeculative(boolean speculative) { this.speculative = speculative; }
+        public double getStretch() { return stretch; }
+        public void setStretch(double stretch) { this.stretch = stretch; }
+        public double getOverlap() { return overlap; }
+        public void setOverlap(double overlap) { this.overlap = overlap; }
+        public boolean isAlternativeCancelled() { return alternativeCancelled; }
+        public void setAlternativeCancelled(boolean cancelled) { this.alternativeCancelled = cancelled; }
+        public boolean isDeadlineExceeded() { return deadlineExceeded; }
+        public void setDeadlineExceeded(boolean deadlineExceeded) { this.deadlineExceeded = deadlineExceeded; }
+
+        /**
+         * Departure and arrival time (ISO-8601 with offset) of a time-dependent route, else null
+         */
+        public String getDepartAt() { return departAt; }
+        public void setDepartAt(String departAt) { this.departAt = departAt; }
+        public String getArriveAt() { return arriveAt; }
+        public void setArriveAt(String arriveAt) { this.arriveAt = arriveAt; }
+
+        /**
+         * Seconds the typical traffic at departAt adds over free flow along the same path
+         */
+        public double getTypicalDelay() { return typicalDelay; }
+        public void setTypicalDelay(double typicalDelay) { this.typicalDelay = typicalDelay; }
+
+        /**
+         * Whether the geometry is made up (no provider configured, or the provider failed)
+         */
+        @JsonIgnore
+        public boolean isDemo() { return demo; }
+        public void setDemo(boolean demo) { this.demo = demo; }
+
+        /**
+         * Served from the route cache rather than computed for this request
+         */
+        public boolean isCached() { return cached; }
+    }
+
+    /**
+     * A RouteResult with its coordinates replaced by an encoded polyline (precision 5), for
+     * clients that ask for format=polyline. Wraps the result rather than copying it, since it
+     * may be shared through the route cache.
+     */
+    public static class PolylineRouteResult {
+        @JsonUnwrapped
+        @JsonIgnoreProperties("coordinates")
+        private final RouteResult route;
+        private final String polyline;
+
+        public PolylineRouteResult(RouteResult route) {
+            this.route = route;
+            this.polyline = route.getCoordinates() == null ? null : route.getCoordinates().encode();
+        }
+
+        public RouteResult getRoute() { return route; }
+        public String getPolyline() { return polyline; }
     }
 }
\ No newline at end of file
@@ -0,0 +1,447 @@
+package com.trafficx.service;
+
+import com.trafficx.util.RoadNetwork;
+import com.trafficx.util.SpeedProfiles;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.*;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Weekly speed profiles learned from the flow samples of every traffic snapshot, for routes
+ * that leave at a given time. Each sampled location keeps a running mean slowdown (free-flow
+ * speed / current speed) per routing.profiles.slot-minutes of the week, in
+ * routing.profiles.time-zone, over its last routing.profiles.max-samples-per-slot samples so
+ * older weeks fade out. The history is saved to routing.profiles.file and recompiled into
+ * SpeedProfiles for the current network on a background thread after each change; routes keep
+ * using the previous profiles until the new ones are published.
+ */
+@Service
+public class SpeedProfileService {
+
+    private static final int FILE_MAGIC = 0x50535854; // "TXSP"
+    private static final int FILE_VERSION = 1;
+
+    private final TrafficSnapshotService trafficSnapshotService;
+    private final RoadNetworkService roadNetworkService;
+
+    // Location key -> recorded slowdowns; guarded by this, like the fields below
+    private final Map<Long, Location> locations = new LinkedHashMap<>();
+    // fetchedAt of the last recorded flows per city, so carried-over cities are not counted twice
+    private final Map<String, Long> recordedAt = new HashMap<>();
+    private long observations;
+    private long historyVersion;
+    private boolean unsaved;
+
+    private volatile Compiled compiled;
+    private ExecutorService compileExecutor;
+    // Set while a compile is queued but not yet started; later changes ride along with it
+    private final AtomicBoolean compileQueued = new AtomicBoolean();
+
+    private ZoneId zone;
+    private int slots;
+
+    @Value("${routing.profiles.enabled:true}")
+    private boolean enabled;
+
+    @Value("${routing.profiles.file:}")
+    private String file;
+
+    @Value("${routing.profiles.slot-minutes:15}")
+    private int slotMinutes;
+
+    @Value("${routing.profiles.time-zone:}")
+    private String timeZone;
+
+    @Value("${routing.profiles.max-samples-per-slot:12}")
+    private int maxSamplesPerSlot;
+
+    @Value("${routing.profiles.max-gap-minutes:120}")
+    private int maxGapMinutes;
+
+    @Value("${routing.live.flow-radius-meters:250}")
+    private double flowRadiusMeters;
+
+    public SpeedProfileService(TrafficSnapshotService trafficSnapshotService, RoadNetworkService roadNetworkService) {
+        this.trafficSnapshotService = trafficSnapshotService;
+        this.roadNetworkService = roadNetworkService;
+    }
+
+    @PostConstruct
+    void init() {
+        if (slotMinutes <= 0 || SpeedProfiles.WEEK_SECONDS % (slotMinutes * 60) != 0) {
+            System.err.println("routing.profiles.slot-minutes must divide a week, using 15 instead of " + slotMinutes);
+            slotMinutes = 15;
+        }
+        slots = SpeedProfiles.WEEK_SECONDS / (slotMinutes * 60);
+        zone = ZoneId.systemDefault();
+        if (timeZone != null && !timeZone.isBlank()) {
+            try {
+                zone = ZoneId.of(timeZone.trim());
+            } catch (DateTimeException e) {
+                System.err.println("Unknown routing.profiles.time-zone " + timeZone + ", using " + zone);
+            }
+        }
+        if (!enabled) {
+            return;
+        }
+        compileExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "speed-profiles");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+        trafficSnapshotService.addListener((previous, next) -> record(next));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (compileExecutor != null) {
+            compileExecutor.shutdownNow();
+        }
+        save();
+    }
+
+    /**
+     * Add the provider-sourced flows of every city refreshed since the last snapshot to the history
+     */
+    synchronized void record(TrafficSnapshotService.TrafficSnapshot snapshot) {
+        int recorded = 0;
+        for (TrafficSnapshotService.CitySnapshot city : snapshot.getCities().values()) {
+            Long last = recordedAt.get(city.getCity());
+            if (last != null && last >= city.getFetchedAt()) {
+                continue;
+            }
+            recordedAt.put(city.getCity(), city.getFetchedAt());
+            int slot = slotOf(Instant.ofEpochMilli(city.getFetchedAt()));
+            for (TrafficApiService.TrafficFlow flow : city.getFlows()) {
+                // Only learn what a provider measured, never demo speeds
+                if (flow.getSource() == null || flow.getSource().equals("demo")
+                        || flow.getFreeFlowSpeed() <= 0 || flow.getCurrentSpeed() <= 0) {
+                    continue;
+                }
+                double slowdown = Math.max(1, (double) flow.getFreeFlowSpeed() / flow.getCurrentSpeed());
+                locations.computeIfAbsent(locationKey(flow.getLatitude(), flow.getLongitude()),
+                        key -> new Location(flow.getLatitude(), flow.getLongitude(), slots))
+                    .add(slot, (float) Math.min(SpeedProfiles.MAX_SLOWDOWN, slowdown), maxSamplesPerSlot);
+                recorded++;
+            }
+        }
+        if (recorded > 0) {
+            observations += recorded;
+            historyVersion++;
+            unsaved = true;
+            scheduleCompile();
+        }
+    }
+
+    /**
+     * The latest profiles compiled for the current network, possibly missing the most recent
+     * samples while a recompile runs; empty when disabled, when no network is loaded or before
+     * the first compile for this network has finished. Never compiles on the calling thread.
+     */
+    public Optional<SpeedProfiles> getProfiles() {
+        Optional<RoadNetwork> network = roadNetworkService.getNetwork();
+        if (!enabled || network.isEmpty()) {
+            return Optional.empty();
+        }
+        Compiled current = compiled;
+        if (current == null || current.network != network.get()) {
+            // The network has no snapshot listener of its own; the first request after it loads starts the compile
+            scheduleCompile();
+            return Optional.empty();
+        }
+        return Optional.of(current.profiles);
+    }
+
+    private void scheduleCompile() {
+        if (compileExecutor != null && compileQueued.compareAndSet(false, true)) {
+            compileExecutor.execute(this::compile);
+        }
+    }
+
+    /**
+     * Rebuild the profiles if the history or the network changed since the last build, then
+     * publish them through compiled
+     */
+    private void compile() {
+        compileQueued.set(false);
+        Optional<RoadNetwork> network = roadNetworkService.getNetwork();
+        if (network.isEmpty()) {
+            return;
+        }
+        long version = currentVersion();
+        Compiled current = compiled;
+        if (current != null && current.network == network.get() && current.version == version) {
+            return;
+        }
+        try {
+            long started = System.currentTimeMillis();
+            SpeedProfiles profiles = SpeedProfiles.build(network.get(), observed(), flowRadiusMeters,
+                slotMinutes * 60, maxGapMinutes / slotMinutes);
+            current = new Compiled(network.get(), version, profiles, System.currentTimeMillis() - started);
+            compiled = current;
+            System.out.println("Compiled speed profiles in " + current.millis + " ms (" + profiles.shapeCount()
+                + " shapes, " + profiles.getProfiledEdges() + " profiled edges, "
+                + profiles.memoryBytes() / 1024 + " KB)");
+        } catch (RuntimeException e) {
+            System.err.println("Error compiling speed profiles: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Seconds since Monday 00:00 of departure's week, in the profiles' time zone
+     */
+    public double secondOfWeek(ZonedDateTime departure) {
+        ZonedDateTime local = departure.withZoneSameInstant(zone);
+        return (local.getDayOfWeek().getValue() - 1) * 86400.0 + local.toLocalTime().toSecondOfDay()
+            + local.getNano() / 1e9;
+    }
+
+    /**
+     * A departure time given as "now", an ISO-8601 date-time with offset ("2026-10-19T08:30:00Z")
+     * or a local date-time ("2026-10-19T08:30") in the profiles' time zone; empty if unparseable
+     */
+    public Optional<ZonedDateTime> parseDeparture(String value) {
+        if (value == null || value.isBlank()) {
+            return Optional.empty();
+        }
+        String text = value.trim();
+        if (text.equalsIgnoreCase("now")) {
+            return Optional.of(ZonedDateTime.now(zone));
+        }
+        try {
+            return Optional.of(OffsetDateTime.parse(text).atZoneSameInstant(zone));
+        } catch (DateTimeParseException e) {
+            // Not an offset date-time; try a local one
+        }
+        try {
+            return Optional.of(LocalDateTime.parse(text).atZone(zone));
+        } catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+
+    private int slotOf(Instant instant) {
+        int slot = (int) Math.round(secondOfWeek(instant.atZone(zone)) / (slotMinutes * 60));
+        return slot % slots;
+    }
+
+    private static long locationKey(double lat, double lon) {
+        return Math.round(lat * 1e4) << 32 | (Math.round(lon * 1e4) & 0xffffffffL);
+    }
+
+    private synchronized long currentVersion() {
+        return historyVersion;
+    }
+
+    private synchronized List<SpeedProfiles.Observed> observed() {
+        List<SpeedProfiles.Observed> observed = new ArrayList<>(locations.size());
+        for (Location location : locations.values()) {
+            float[] slowdown = new float[slots];
+            for (int k = 0; k < slots; k++) {
+                slowdown[k] = location.counts[k] == 0 ? Float.NaN : location.means[k];
+            }
+            observed.add(new SpeedProfiles.Observed(location.lat, location.lon, slowdown));
+        }
+        return observed;
+    }
+
+    /**
+     * Write the history to routing.profiles.file if it changed, replacing the file atomically
+     */
+    @Scheduled(initialDelayString = "${routing.profiles.save-ms:900000}",
+               fixedDelayString = "${routing.profiles.save-ms:900000}")
+    public synchronized void save() {
+        if (!enabled || !unsaved || file == null || file.isBlank()) {
+            return;
+        }
+        Path path = Path.of(file.trim());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(slotMinutes);
+            out.writeUTF(zone.getId());
+            out.writeLong(observations);
+            out.writeInt(locations.size());
+            for (Location location : locations.values()) {
+                out.writeDouble(location.lat);
+                out.writeDouble(location.lon);
+                for (int k = 0; k < slots; k++) {
+                    out.writeFloat(location.means[k]);
+                    out.writeShort(location.counts[k]);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving speed profiles to " + path + ": " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            unsaved = false;
+        } catch (IOException e) {
+            System.err.println("Error saving speed profiles to " + path + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void load() {
+        if (file == null || file.isBlank() || !Files.isReadable(Path.of(file.trim()))) {
+            return;
+        }
+        Path path = Path.of(file.trim());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                System.err.println("Ignoring speed profiles in " + path + ": unknown format");
+                return;
+            }
+            int fileSlotMinutes = in.readInt();
+            String fileZone = in.readUTF();
+            if (fileSlotMinutes != slotMinutes || !fileZone.equals(zone.getId())) {
+                System.err.println("Ignoring speed profiles in " + path + ": recorded with " + fileSlotMinutes
+                    + " minute slots in " + fileZone);
+                return;
+            }
+            long fileObservations = in.readLong();
+            int count = in.readInt();
+            Map<Long, Location> loaded = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                Location location = new Location(in.readDouble(), in.readDouble(), slots);
+                for (int k = 0; k < slots; k++) {
+                    location.means[k] = in.readFloat();
+                    location.counts[k] = in.readShort();
+                }
+                loaded.put(locationKey(location.lat, location.lon), location);
+            }
+            locations.putAll(loaded);
+            observations = fileObservations;
+            historyVersion++;
+            System.out.println("Loaded speed profiles from " + path + " (" + count + " locations, "
+                + observations + " samples)");
+        } catch (IOException e) {
+            System.err.println("Error loading speed profiles from " + path + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized ProfileStats getStats() {
+        int observedSlots = 0;
+        for (Location location : locations.values()) {
+            for (short count : location.counts) {
+                if (count > 0) {
+                    observedSlots++;
+                }
+            }
+        }
+        Compiled current = compiled;
+        SpeedProfiles profiles = current == null ? null : current.profiles;
+        return new ProfileStats(enabled, zone.getId(), slotMinutes, locations.size(), observations, observedSlots,
+            current != null && current.version == historyVersion,
+            profiles == null ? 0 : profiles.shapeCount(),
+            profiles == null ? 0 : profiles.getProfiledEdges(),
+            profiles == null ? 0 : profiles.memoryBytes(),
+            profiles == null ? 0 : (long) profiles.edgeCount() * slots * Float.BYTES,
+            current == null ? 0 : current.millis);
+    }
+
+    /**
+     * Running mean slowdown per slot of the week at one sampled location
+     */
+    private static final class Location {
+        final double lat;
+        final double lon;
+        final float[] means;
+        final short[] counts;
+
+        Location(double lat, double lon, int slots) {
+            this.lat = lat;
+            this.lon = lon;
+            this.means = new float[slots];
+            this.counts = new short[slots];
+        }
+
+        void add(int slot, float slowdown, int maxSamples) {
+            int n = Math.min(counts[slot] + 1, Math.max(1, Math.min(maxSamples, Short.MAX_VALUE)));
+            means[slot] += (slowdown - means[slot]) / n;
+            counts[slot] = (short) n;
+        }
+    }
+
+    private static final class Compiled {
+        final RoadNetwork network;
+        final long version;
+        final SpeedProfiles profiles;
+        final long millis;
+
+        Compiled(RoadNetwork network, long version, SpeedProfiles profiles, long millis) {
+            this.network = network;
+            this.version = version;
+            this.profiles = profiles;
+            this.millis = millis;
+        }
+    }
+
+    public static class ProfileStats {
+        private final boolean enabled;
+        private final String timeZone;
+        private final int slotMinutes;
+        private final int locations;
+        private final long samples;
+        private final int observedSlots;
+        private final boolean compiled;
+        private final int shapes;
+        private final int profiledEdges;
+        private final long memoryBytes;
+        private final long uncompressedBytes;
+        private final long compileMillis;
+
+        public ProfileStats(boolean enabled, String timeZone, int slotMinutes, int locations, long samples,
+                            int observedSlots, boolean compiled, int shapes, int profiledEdges, long memoryBytes,
+                            long uncompressedBytes, long compileMillis) {
+            this.enabled = enabled;
+            this.timeZone = timeZone;
+            this.slotMinutes = slotMinutes;
+            this.locations = locations;
+            this.samples = samples;
+            this.observedSlots = observedSlots;
+            this.compiled = compiled;
+            this.shapes = shapes;
+            this.profiledEdges = profiledEdges;
+            this.memoryBytes = memoryBytes;
+            this.uncompressedBytes = uncompressedBytes;
+            this.compileMillis = compileMillis;
+        }
+
+        public boolean isEnabled() { return enabled; }
+        public String getTimeZone() { return timeZone; }
+        public int getSlotMinutes() { return slotMinutes; }
+        public int getLocations() { return locations; }
+        public long getSamples() { return samples; }
+        public int getObservedSlots() { return observedSlots; }
+
+        /**
+         * Whether the compiled profiles include every recorded sample
+         */
+        public boolean isCompiled() { return compiled; }
+        public int getShapes() { return shapes; }
+        public int getProfiledEdges() { return profiledEdges; }
+        public long getMemoryBytes() { return memoryBytes; }
+
+        /**
+         * What one float per edge per slot would take, for comparison with memoryBytes
+         */
+        public long getUncompressedBytes() { return uncompressedBytes; }
+        public long getCompileMillis() { return compileMillis; }
+    }
+}
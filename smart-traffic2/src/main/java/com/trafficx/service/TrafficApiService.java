@@ -1,21 +1,32 @@
 package com.trafficx.service;
 
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
-import org.json.JSONObject;
-import org.json.JSONArray;
+import com.trafficx.config.UpstreamBudget;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.trafficx.util.BoundingBox;
+import com.trafficx.util.CorridorSampler;
+import com.trafficx.util.GeoGrid;
+import com.trafficx.util.PackedPolyline;
+import com.trafficx.util.TtlCache;
+import jakarta.annotation.PostConstruct;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
 
 @Service
 public class TrafficApiService {
 
     private final RestTemplate restTemplate;
+    private final ExecutorService upstreamExecutor;
+    private final UpstreamBudget upstreamBudget;
     
     @Value("${tomtom.api.key:}")
     private String tomtomApiKey;
@@ -23,27 +34,240 @@ public class TrafficApiService {
     @Value("${here.api.key:}")
     private String hereApiKey;
 
-    public TrafficApiService(RestTemplate restTemplate) {
+    @Value("${traffic.incidents.tile-size-deg:0.25}")
+    private double incidentTileSizeDeg;
+
+    @Value("${traffic.incidents.max-tiles-per-request:64}")
+    private int maxTilesPerRequest;
+
+    @Value("${traffic.incidents.cache.ttl-seconds:300}")
+    private long incidentCacheTtlSeconds;
+
+    @Value("${traffic.incidents.cache.max-tiles:2000}")
+    private int incidentCacheMaxTiles;
+
+    @Value("${traffic.incidents.cache.max-incidents:50000}")
+    private long incidentCacheMaxIncidents;
+
+    @Value("${traffic.flow.cache.cell-size-meters:150}")
+    private double flowCellSizeMeters;
+
+    @Value("${traffic.flow.cache.ttl-seconds:60}")
+    private long flowCacheTtlSeconds;
+
+    @Value("${traffic.flow.cache.max-cells:20000}")
+    private int flowCacheMaxCells;
+
+    @Value("${traffic.flow.route-sample.class-spacing-meters:2000,1500,1000,800,500,300,300,200,200}")
+    private double[] classSpacingMeters;
+
+    @Value("${traffic.flow.route-sample.default-spacing-meters:400}")
+    private double defaultSpacingMeters;
+
+    @Value("${traffic.flow.route-deadline-ms:2500}")
+    private long routeSampleDeadlineMs;
+
+    @Value("${traffic.flow.max-in-flight-per-provider:8}")
+    private int maxInFlightPerProvider;
+
+    // Incidents per grid tile; weighted by incident count so memory stays bounded
+    private TtlCache<String, List<TrafficIncident>> incidentTileCache;
+
+    // Flow per quantized grid cell, so nearby points on the same road share one upstream call
+    private GeoGrid flowGrid;
+    private TtlCache<Long, TrafficFlow> flowCache;
+
+    private CorridorSampler corridorSampler;
+
+    // Caps concurrent upstream flow calls per provider during route sampling
+    private final Map<String, Semaphore> providerPermits = new ConcurrentHashMap<>();
+
+    public TrafficApiService(RestTemplate restTemplate, ExecutorService upstreamExecutor,
+                             UpstreamBudget upstreamBudget) {
         this.restTemplate = restTemplate;
+        this.upstreamExecutor = upstreamExecutor;
+        this.upstreamBudget = upstreamBudget;
+    }
+
+    @PostConstruct
+    void initCaches() {
+        incidentTileCache = new TtlCache<>("incidentTiles",
+            Duration.ofSeconds(incidentCacheTtlSeconds),
+            incidentCacheMaxTiles,
+            incidentCacheMaxIncidents,
+            list -> list.size() + 1);
+        flowGrid = new GeoGrid(flowCellSizeMeters);
+        flowCache = new TtlCache<>("flowCells",
+            Duration.ofSeconds(flowCacheTtlSeconds),
+            flowCacheMaxCells);
+        corridorSampler = new CorridorSampler(classSpacingMeters, defaultSpacingMeters);
     }
 
     /**
-     * Get real-time traffic incidents with timestamps from TomTom API
+     * Get real-time traffic incidents with timestamps.
+     * The bbox (minLon,minLat,maxLon,maxLat) is split into fixed grid tiles so that
+     * overlapping requests share cached tiles instead of each going upstream. Missing tiles
+     * are fetched concurrently on the upstream executor; a failed tile is not cached and
+     * its RestClientException is rethrown.
      */
     public List<TrafficIncident> getTrafficIncidents(String bbox) {
+        BoundingBox box = BoundingBox.parse(bbox);
+        if (box == null) {
+            return fetchIncidents(bbox);
+        }
+
+        long minX = (long) Math.floor(box.getMinLon() / incidentTileSizeDeg);
+        long minY = (long) Math.floor(box.getMinLat() / incidentTileSizeDeg);
+        long maxX = (long) Math.floor(box.getMaxLon() / incidentTileSizeDeg);
+        long maxY = (long) Math.floor(box.getMaxLat() / incidentTileSizeDeg);
+
+        // In double, so no bbox can overflow the count past the guard
+        double tileCount = ((double) maxX - minX + 1) * ((double) maxY - minY + 1);
+        if (tileCount > maxTilesPerRequest) {
+            // Too large to tile sensibly - go straight upstream for the whole box
+            return fetchIncidents(bbox);
+        }
+
+        List<String> tileKeys = new ArrayList<>();
+        for (long x = minX; x <= maxX; x++) {
+            for (long y = minY; y <= maxY; y++) {
+                tileKeys.add(x + ":" + y);
+            }
+        }
+        Map<String, List<TrafficIncident>> tiles = loadIncidentTiles(tileKeys);
+
         List<TrafficIncident> incidents = new ArrayList<>();
-        
+        for (String tileKey : tileKeys) {
+            for (TrafficIncident incident : tiles.get(tileKey)) {
+                if (box.contains(incident.getLongitude(), incident.getLatitude())) {
+                    incidents.add(incident);
+                }
+            }
+        }
+
+        return incidents;
+    }
+
+    /**
+     * The cached tiles in one pass, and the rest loaded concurrently (inline if the executor is full)
+     */
+    private Map<String, List<TrafficIncident>> loadIncidentTiles(List<String> tileKeys) {
+        Map<String, List<TrafficIncident>> tiles = incidentTileCache.getAllPresent(tileKeys);
+        UpstreamBudget.Priority priority = UpstreamBudget.currentPriority();
+        Map<String, Future<List<TrafficIncident>>> loads = new LinkedHashMap<>();
+        for (String tileKey : tileKeys) {
+            if (tiles.containsKey(tileKey)) {
+                continue;
+            }
+            try {
+                loads.put(tileKey, upstreamExecutor.submit(UpstreamBudget.withPriority(priority,
+                    () -> incidentTileCache.get(tileKey, this::loadIncidentTile))));
+            } catch (RejectedExecutionException e) {
+                tiles.put(tileKey, incidentTileCache.get(tileKey, this::loadIncidentTile));
+            }
+        }
+
+        try {
+            for (Map.Entry<String, Future<List<TrafficIncident>>> load : loads.entrySet()) {
+                tiles.put(load.getKey(), load.getValue().get());
+            }
+        } catch (ExecutionException e) {
+            // The request has failed; stop the other tiles spending upstream budget on it
+            cancelAll(loads.values());
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RestClientException("Error loading incident tile", e.getCause());
+        } catch (InterruptedException e) {
+            cancelAll(loads.values());
+            Thread.currentThread().interrupt();
+            throw new RestClientException("Interrupted loading incident tiles", e);
+        }
+        return tiles;
+    }
+
+    private static void cancelAll(Collection<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Hit/miss, load time and eviction counters for the upstream caches
+     */
+    public List<TtlCache.Stats> getCacheStats() {
+        return List.of(incidentTileCache.stats(), flowCache.stats());
+    }
+
+    /**
+     * Fetch incidents for one tile, keeping only those anchored inside it
+     * so incidents crossing tile edges are not returned twice.
+     */
+    private List<TrafficIncident> loadIncidentTile(String tileKey) {
+        int sep = tileKey.indexOf(':');
+        long x = Long.parseLong(tileKey.substring(0, sep));
+        long y = Long.parseLong(tileKey.substring(sep + 1));
+        BoundingBox tile = new BoundingBox(
+            x * incidentTileSizeDeg, y * incidentTileSizeDeg,
+            (x + 1) * incidentTileSizeDeg, (y + 1) * incidentTileSizeDeg);
+
+        List<TrafficIncident> anchored = new ArrayList<>();
+        for (TrafficIncident incident : fetchIncidents(tile.toParam())) {
+            double lon = incident.getLongitude();
+            double lat = incident.getLatitude();
+            if (lon >= tile.getMinLon() && lon < tile.getMaxLon() && lat >= tile.getMinLat() && lat < tile.getMaxLat()) {
+                anchored.add(incident);
+            }
+        }
+        return Collections.unmodifiableList(anchored);
+    }
+
+    /**
+     * Fetch incidents for a bbox straight from the configured provider, bypassing the tile cache.
+     * Throws RestClientException if the provider cannot answer, so callers can keep what they
+     * had instead of taking the failure for an empty road network.
+     */
+    public List<TrafficIncident> fetchIncidents(String bbox) {
+        List<TrafficIncident> incidents;
+        String source;
         if (tomtomApiKey != null && !tomtomApiKey.isEmpty()) {
             incidents = getTomTomIncidents(bbox);
+            source = "tomtom";
         } else if (hereApiKey != null && !hereApiKey.isEmpty()) {
             incidents = getHereIncidents(bbox);
+            source = "here";
         } else {
             incidents = getDemoIncidents(bbox);
+            source = "demo";
+        }
+
+        // Providers without an incident id get one derived from what identifies the event
+        for (TrafficIncident incident : incidents) {
+            incident.setSource(source);
+            if (incident.getId() == null || incident.getId().isEmpty()) {
+                incident.setId(deriveIncidentId(incident));
+            }
         }
-        
         return incidents;
     }
 
+    private static String deriveIncidentId(TrafficIncident incident) {
+        String key = String.format(Locale.ROOT, "%s|%.5f|%.5f|%s|%s",
+            incident.getType(), incident.getLatitude(), incident.getLongitude(),
+            incident.getStartTime(), incident.getRoadName());
+        return "x" + Long.toHexString(hash64(key));
+    }
+
+    // 64-bit FNV-1a, so derived ids stay stable across restarts and collide rarely
+    private static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
     /**
      * Get traffic incidents from TomTom with full timestamp data
      */
@@ -59,29 +283,15 @@ public class TrafficApiService {
 
             System.out.println("Fetching TomTom incidents from: " + url.replace(tomtomApiKey, "***KEY***"));
             
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            
-            System.out.println("TomTom Response Status: " + response.getStatusCode());
-            
-            JSONObject json = new JSONObject(response.getBody());
-            
-            if (json.has("incidents")) {
-                JSONArray incidentsArray = json.getJSONArray("incidents");
-                System.out.println("Found " + incidentsArray.length() + " incidents");
-                
-                for (int i = 0; i < incidentsArray.length(); i++) {
-                    JSONObject incident = incidentsArray.getJSONObject(i);
-                    TrafficIncident parsed = parseTomTomIncident(incident);
-                    if (parsed != null && parsed.getLatitude() != 0 && parsed.getLongitude() != 0) {
-                        incidents.add(parsed);
-                    }
-                }
-            } else {
-                System.out.println("No incidents found in response");
-            }
-        } catch (Exception e) {
+            // Decode straight from the response stream - the payload can be several MB for a city
+            incidents = restTemplate.execute(url, HttpMethod.GET, null, response -> {
+                System.out.println("TomTom Response Status: " + response.getStatusCode());
+                return ProviderResponseParser.parseTomTomIncidents(response.getBody());
+            });
+            System.out.println("Found " + incidents.size() + " incidents");
+        } catch (RestClientException e) {
             System.err.println("Error fetching TomTom traffic incidents: " + e.getMessage());
-            e.printStackTrace();
+            throw e;
         }
 
         return incidents;
@@ -103,264 +313,234 @@ public class TrafficApiService {
                 hereBbox, hereApiKey
             );
 
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            JSONObject json = new JSONObject(response.getBody());
-            
-            if (json.has("results")) {
-                JSONArray results = json.getJSONArray("results");
-                for (int i = 0; i < results.length(); i++) {
-                    JSONObject incident = results.getJSONObject(i);
-                    incidents.add(parseHereIncident(incident));
-                }
-            }
-        } catch (Exception e) {
+            incidents = restTemplate.execute(url, HttpMethod.GET, null,
+                response -> ProviderResponseParser.parseHereIncidents(response.getBody()));
+        } catch (RestClientException e) {
             System.err.println("Error fetching HERE traffic incidents: " + e.getMessage());
+            throw e;
         }
 
         return incidents;
     }
 
     /**
-     * Get traffic flow data with real-time speed and congestion
+     * Get traffic flow data with real-time speed and congestion.
+     * Served from the flow cell cache; the returned object is a copy positioned at (lat, lon).
+     * Throws RestClientException (UpstreamBudgetExceededException when over budget) if the
+     * provider cannot answer. Only provider answers are cached; demo flows never are.
      */
     public TrafficFlow getTrafficFlow(double lat, double lon) {
-        if (tomtomApiKey != null && !tomtomApiKey.isEmpty()) {
-            return getTomTomFlow(lat, lon);
-        } else if (hereApiKey != null && !hereApiKey.isEmpty()) {
-            return getHereFlow(lat, lon);
+        if (flowProvider().equals("demo")) {
+            return getDemoFlow(lat, lon);
         }
-        return getDemoFlow(lat, lon);
+        TrafficFlow cell = flowCache.get(flowGrid.cellKey(lat, lon), key -> fetchFlow(lat, lon));
+        return cell.copyAt(lat, lon);
+    }
+
+    private TrafficFlow fetchFlow(double lat, double lon) {
+        TrafficFlow flow = flowProvider().equals("tomtom") ? getTomTomFlow(lat, lon) : getHereFlow(lat, lon);
+        if (flow == null) {
+            // A response without flow data is a failure too, so nothing is cached for the cell
+            throw new RestClientException("No flow data from " + flowProvider() + " at " + lat + "," + lon);
+        }
+        flow.setSource(flowProvider());
+        return flow;
     }
 
     /**
      * Get traffic flow for multiple points (for route analysis)
      */
-    public List<TrafficFlow> getRouteTrafficFlow(List<double[]> routePoints) {
-        List<TrafficFlow> flows = new ArrayList<>();
-        
-        // Sample every 5th point to reduce API calls
-        for (int i = 0; i < routePoints.size(); i += 5) {
-            double[] point = routePoints.get(i);
-            TrafficFlow flow = getTrafficFlow(point[0], point[1]);
-            flow.setLatitude(point[0]);
-            flow.setLongitude(point[1]);
-            flows.add(flow);
-        }
-        
-        return flows;
+    public List<TrafficFlow> getRouteTrafficFlow(PackedPolyline routePoints) {
+        return sampleRouteTraffic(routePoints).getFlows();
     }
 
-    private TrafficFlow getTomTomFlow(double lat, double lon) {
-        try {
-            String url = String.format(
-                "https://api.tomtom.com/traffic/services/4/flowSegmentData/relative/10/json?point=%f,%f&key=%s",
-                lat, lon, tomtomApiKey
-            );
+    /**
+     * Sample flow along a route concurrently. Points are picked by distance and road class
+     * (traffic.flow.route-sample.*); points in the same flow cell share one lookup, the cells
+     * already cached are read in one pass, and only the rest go upstream on the upstream
+     * executor, with at most traffic.flow.max-in-flight-per-provider calls in flight per provider.
+     * Lookups that fail or are still running at the deadline are dropped and the result is marked partial.
+     * Spacing widens when the flow provider's remaining budget cannot cover the uncached cells.
+     */
+    public RouteTrafficSample sampleRouteTraffic(PackedPolyline routePoints) {
+        return sampleRouteTraffic(routePoints, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(routeSampleDeadlineMs));
+    }
 
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            JSONObject json = new JSONObject(response.getBody());
-            
-            return parseTomTomFlow(json, lat, lon);
-        } catch (Exception e) {
-            System.err.println("Error fetching TomTom traffic flow: " + e.getMessage());
-            return getDemoFlow(lat, lon);
-        }
+    /**
+     * As sampleRouteTraffic(routePoints), but never waits past requestDeadline (System.nanoTime based)
+     */
+    public RouteTrafficSample sampleRouteTraffic(PackedPolyline routePoints, long requestDeadline) {
+        return sampleRouteTraffic(routePoints, null, requestDeadline);
     }
 
-    private TrafficFlow getHereFlow(double lat, double lon) {
-        try {
-            String url = String.format(
-                "https://data.traffic.hereapi.com/v7/flow?in=circle:%f,%f;r=100&apiKey=%s",
-                lat, lon, hereApiKey
-            );
+    /**
+     * As sampleRouteTraffic(routePoints, requestDeadline), with the road class of each segment
+     * (RoadNetwork.ROAD_CLASSES index of point i to i + 1) when the route came from the road network
+     */
+    public RouteTrafficSample sampleRouteTraffic(PackedPolyline routePoints, byte[] segmentClasses, long requestDeadline) {
+        long sampleDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(routeSampleDeadlineMs);
+        long deadline = requestDeadline - sampleDeadline < 0 ? requestDeadline : sampleDeadline;
 
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            JSONObject json = new JSONObject(response.getBody());
-            
-            return parseHereFlow(json, lat, lon);
-        } catch (Exception e) {
-            System.err.println("Error fetching HERE traffic flow: " + e.getMessage());
-            return getDemoFlow(lat, lon);
+        double scale = 1;
+        PackedPolyline samples = corridorSampler.sample(routePoints, segmentClasses, scale);
+        long[] cells = flowCells(samples);
+        Set<Long> segments = distinct(cells);
+        Map<Long, TrafficFlow> cached = flowCache.getAllPresent(segments);
+        int affordable = Math.max(1, upstreamBudget.available(flowProvider()));
+        int uncached = segments.size() - cached.size();
+        if (uncached > affordable) {
+            scale = uncached / (double) affordable;
+            samples = corridorSampler.sample(routePoints, segmentClasses, scale);
+            cells = flowCells(samples);
+            segments = distinct(cells);
+            cached = flowCache.getAllPresent(segments);
+            System.out.println("Flow budget low for " + flowProvider() + ": sample spacing x"
+                + String.format("%.1f", scale));
         }
-    }
 
-    private TrafficIncident parseTomTomIncident(JSONObject json) {
-        TrafficIncident incident = new TrafficIncident();
-        
-        try {
-            if (json.has("properties")) {
-                JSONObject props = json.getJSONObject("properties");
-                
-                // Get description from events
-                if (props.has("events")) {
-                    JSONArray events = props.getJSONArray("events");
-                    if (events.length() > 0) {
-                        JSONObject event = events.getJSONObject(0);
-                        incident.setDescription(event.optString("description", "Traffic incident"));
-                        incident.setType(event.optString("iconCategory", "UNKNOWN"));
-                    }
-                } else {
-                    incident.setDescription("Traffic incident");
-                    incident.setType("UNKNOWN");
-                }
-                
-                incident.setDelay(props.optInt("delay", 0));
-                incident.setLength(props.optInt("length", 0));
-                incident.setSeverity(props.optInt("magnitudeOfDelay", 1));
-                
-                // Parse timestamps
-                String startTime = props.optString("startTime", null);
-                String endTime = props.optString("endTime", null);
-                
-                if (startTime != null && !startTime.isEmpty()) {
-                    incident.setStartTime(parseISOTimestamp(startTime));
-                }
-                if (endTime != null && !endTime.isEmpty()) {
-                    incident.setEndTime(parseISOTimestamp(endTime));
-                }
-                
-                // Get road information
-                if (props.has("from")) {
-                    incident.setRoadName(props.optString("from", "Unknown Road"));
-                } else if (props.has("to")) {
-                    incident.setRoadName(props.optString("to", "Unknown Road"));
-                }
+        // One upstream lookup per uncached cell, at the first sample that falls in it
+        UpstreamBudget.Priority priority = UpstreamBudget.currentPriority();
+        Map<Long, Future<TrafficFlow>> futures = new LinkedHashMap<>();
+        // Cells the executor had no room for; never sent upstream, so not counted as calls
+        Set<Long> rejected = new HashSet<>();
+        for (int i = 0; i < cells.length; i++) {
+            long cell = cells[i];
+            if (cached.containsKey(cell) || futures.containsKey(cell) || rejected.contains(cell)) {
+                continue;
             }
-            
-            // Parse geometry
-            if (json.has("geometry")) {
-                JSONObject geometry = json.getJSONObject("geometry");
-                if (geometry.has("coordinates")) {
-                    JSONArray coords = geometry.getJSONArray("coordinates");
-                    if (coords.length() > 0) {
-                        // Check if it's a point or line
-                        Object firstCoord = coords.get(0);
-                        if (firstCoord instanceof JSONArray) {
-                            JSONArray point = coords.getJSONArray(0);
-                            incident.setLongitude(point.getDouble(0));
-                            incident.setLatitude(point.getDouble(1));
-                        } else {
-                            // It's directly a coordinate pair
-                            incident.setLongitude(coords.getDouble(0));
-                            incident.setLatitude(coords.getDouble(1));
-                        }
-                    }
-                }
+            double lat = samples.lat(i);
+            double lon = samples.lon(i);
+            try {
+                futures.put(cell, upstreamExecutor.submit(
+                    UpstreamBudget.withPriority(priority, () -> sampleFlow(lat, lon, deadline))));
+            } catch (RejectedExecutionException e) {
+                rejected.add(cell);
             }
-        } catch (Exception e) {
-            System.err.println("Error parsing TomTom incident: " + e.getMessage());
-            // Return incident with whatever data we managed to parse
         }
-        
-        return incident;
-    }
 
-    private TrafficIncident parseHereIncident(JSONObject json) {
-        TrafficIncident incident = new TrafficIncident();
-        
-        incident.setDescription(json.optString("description", "Traffic incident"));
-        incident.setType(json.optString("type", "UNKNOWN"));
-        
-        // Parse location
-        if (json.has("location")) {
-            JSONObject location = json.getJSONObject("location");
-            if (location.has("shape")) {
-                JSONObject shape = location.getJSONObject("shape");
-                JSONArray links = shape.optJSONArray("links");
-                if (links != null && links.length() > 0) {
-                    JSONObject link = links.getJSONObject(0);
-                    JSONArray points = link.optJSONArray("points");
-                    if (points != null && points.length() > 0) {
-                        JSONObject point = points.getJSONObject(0);
-                        incident.setLatitude(point.getDouble("lat"));
-                        incident.setLongitude(point.getDouble("lng"));
-                    }
-                }
+        Map<Long, TrafficFlow> byCell = new HashMap<>(cached);
+        for (Map.Entry<Long, Future<TrafficFlow>> entry : futures.entrySet()) {
+            Future<TrafficFlow> future = entry.getValue();
+            TrafficFlow flow = null;
+            try {
+                flow = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                System.err.println("Error sampling route traffic: " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+            }
+            if (flow != null) {
+                byCell.put(entry.getKey(), flow);
             }
         }
-        
-        // Parse timestamps
-        if (json.has("startTime")) {
-            incident.setStartTime(parseISOTimestamp(json.getString("startTime")));
+
+        List<TrafficFlow> flows = new ArrayList<>(cells.length);
+        for (int i = 0; i < cells.length; i++) {
+            TrafficFlow flow = byCell.get(cells[i]);
+            if (flow != null) {
+                flows.add(flow.copyAt(samples.lat(i), samples.lon(i)));
+            }
         }
-        if (json.has("endTime")) {
-            incident.setEndTime(parseISOTimestamp(json.getString("endTime")));
+
+        return new RouteTrafficSample(flows, cells.length, segments.size(), cached.size(), futures.size(),
+            rejected.size(), scale);
+    }
+
+    private long[] flowCells(PackedPolyline samples) {
+        long[] cells = new long[samples.size()];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = flowGrid.cellKey(samples.lat(i), samples.lon(i));
         }
-        
-        // Estimate severity based on impact
-        if (json.has("impact")) {
-            JSONObject impact = json.getJSONObject("impact");
-            int criticality = impact.optInt("criticality", 1);
-            incident.setSeverity(Math.min(4, criticality));
+        return cells;
+    }
+
+    private static Set<Long> distinct(long[] cells) {
+        Set<Long> distinct = new LinkedHashSet<>();
+        for (long cell : cells) {
+            distinct.add(cell);
         }
-        
-        return incident;
+        return distinct;
     }
 
-    private TrafficFlow parseTomTomFlow(JSONObject json, double lat, double lon) {
-        TrafficFlow flow = new TrafficFlow();
-        flow.setLatitude(lat);
-        flow.setLongitude(lon);
-        
-        if (json.has("flowSegmentData")) {
-            JSONObject data = json.getJSONObject("flowSegmentData");
-            flow.setCurrentSpeed(data.optInt("currentSpeed", 50));
-            flow.setFreeFlowSpeed(data.optInt("freeFlowSpeed", 50));
-            flow.setConfidence(data.optDouble("confidence", 0.8));
-            
-            // Calculate congestion percentage
-            int congestion = 100 - (int)((flow.getCurrentSpeed() / (double)flow.getFreeFlowSpeed()) * 100);
-            flow.setCongestion(Math.max(0, Math.min(100, congestion)));
-            
-            // Get road name
-            if (data.has("frc")) {
-                flow.setRoadName(data.optString("frc", "Unknown Road"));
+    /**
+     * Run task with this many traffic provider calls reserved up front at the current thread's
+     * priority; throws UpstreamBudgetExceededException if they cannot all be reserved
+     */
+    public <T> T withUpstreamReservation(int calls, Callable<T> task) throws Exception {
+        return upstreamBudget.withReservation(flowProvider(), calls, task);
+    }
+
+    /**
+     * Calls per second background work can sustain against the traffic provider
+     */
+    public double backgroundUpstreamRate() {
+        return upstreamBudget.backgroundRate(flowProvider());
+    }
+
+    private TrafficFlow sampleFlow(double lat, double lon, long deadline) throws InterruptedException {
+        TrafficFlow cached = flowCache.getIfPresent(flowGrid.cellKey(lat, lon));
+        if (cached != null) {
+            return cached.copyAt(lat, lon);
+        }
+
+        String provider = flowProvider();
+        Semaphore permits = provider.equals("demo") ? null
+            : providerPermits.computeIfAbsent(provider, p -> new Semaphore(maxInFlightPerProvider));
+
+        if (permits != null && !permits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            return null;
+        }
+        try {
+            return getTrafficFlow(lat, lon);
+        } finally {
+            if (permits != null) {
+                permits.release();
             }
         }
-        
-        return flow;
     }
 
-    private TrafficFlow parseHereFlow(JSONObject json, double lat, double lon) {
-        TrafficFlow flow = new TrafficFlow();
-        flow.setLatitude(lat);
-        flow.setLongitude(lon);
-        
-        if (json.has("results")) {
-            JSONArray results = json.getJSONArray("results");
-            if (results.length() > 0) {
-                JSONObject result = results.getJSONObject(0);
-                
-                if (result.has("currentFlow")) {
-                    JSONObject currentFlow = result.getJSONObject("currentFlow");
-                    flow.setCurrentSpeed((int) currentFlow.optDouble("speed", 50));
-                    flow.setFreeFlowSpeed((int) currentFlow.optDouble("freeFlow", 50));
-                    
-                    double jamFactor = currentFlow.optDouble("jamFactor", 0);
-                    flow.setCongestion((int) (jamFactor * 100));
-                    flow.setConfidence(currentFlow.optDouble("confidence", 0.8));
-                }
-            }
+    private String flowProvider() {
+        if (tomtomApiKey != null && !tomtomApiKey.isEmpty()) {
+            return "tomtom";
+        } else if (hereApiKey != null && !hereApiKey.isEmpty()) {
+            return "here";
         }
-        
-        return flow;
+        return "demo";
     }
 
-    private String parseISOTimestamp(String isoTime) {
+    /**
+     * Failures, budget denials included, propagate: a made-up speed must never stand in for a real one
+     */
+    private TrafficFlow getTomTomFlow(double lat, double lon) {
         try {
-            // Handle both ISO 8601 formats
-            if (isoTime == null || isoTime.isEmpty()) {
-                return "Unknown";
-            }
-            
-            Instant instant = Instant.parse(isoTime);
-            DateTimeFormatter formatter = DateTimeFormatter
-                .ofPattern("MMM dd, yyyy HH:mm")
-                .withZone(ZoneId.systemDefault());
-            return formatter.format(instant);
-        } catch (Exception e) {
-            System.err.println("Error parsing timestamp: " + isoTime + " - " + e.getMessage());
-            return "Unknown";
+            String url = String.format(
+                "https://api.tomtom.com/traffic/services/4/flowSegmentData/relative/10/json?point=%f,%f&key=%s",
+                lat, lon, tomtomApiKey
+            );
+
+            return restTemplate.execute(url, HttpMethod.GET, null,
+                response -> ProviderResponseParser.parseTomTomFlow(response.getBody(), lat, lon));
+        } catch (RestClientException e) {
+            System.err.println("Error fetching TomTom traffic flow: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    private TrafficFlow getHereFlow(double lat, double lon) {
+        try {
+            String url = String.format(
+                "https://data.traffic.hereapi.com/v7/flow?in=circle:%f,%f;r=100&apiKey=%s",
+                lat, lon, hereApiKey
+            );
+
+            return restTemplate.execute(url, HttpMethod.GET, null,
+                response -> ProviderResponseParser.parseHereFlow(response.getBody(), lat, lon));
+        } catch (RestClientException e) {
+            System.err.println("Error fetching HERE traffic flow: " + e.getMessage());
+            throw e;
         }
     }
 
@@ -412,6 +592,7 @@ public class TrafficApiService {
         flow.setFreeFlowSpeed(60 + random.nextInt(40));
         flow.setConfidence(0.7 + random.nextDouble() * 0.3);
         flow.setRoadName("Main Street");
+        flow.setSource("demo");
         
         int congestion = 100 - (int)((flow.getCurrentSpeed() / (double)flow.getFreeFlowSpeed()) * 100);
         flow.setCongestion(Math.max(0, Math.min(100, congestion)));
@@ -442,6 +623,7 @@ public class TrafficApiService {
 
     // Inner classes
     public static class TrafficIncident {
+        private String id;
         private double latitude;
         private double longitude;
         private String description;
@@ -452,8 +634,19 @@ public class TrafficApiService {
         private String startTime;
         private String endTime;
         private String roadName;
+        private String source;
+
+        /**
+         * Hash of the fields a client displays; changes when an incident with the same id is updated
+         */
+        public long contentHash() {
+            return Objects.hash(latitude, longitude, description, type, delay, length, severity,
+                startTime, endTime, roadName);
+        }
 
         // Getters and Setters
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
         public double getLatitude() { return latitude; }
         public void setLatitude(double latitude) { this.latitude = latitude; }
         public double getLongitude() { return longitude; }
@@ -474,6 +667,52 @@ public class TrafficApiService {
         public void setEndTime(String endTime) { this.endTime = endTime; }
         public String getRoadName() { return roadName; }
         public void setRoadName(String roadName) { this.roadName = roadName; }
+
+        /**
+         * Where the incident came from: "tomtom", "here", or "demo" for made-up ones
+         */
+        public String getSource() { return source; }
+        public void setSource(String source) { this.source = source; }
+    }
+
+    /**
+     * Flows sampled along a route, plus how many upstream calls the sampling took and saved
+     */
+    public static class RouteTrafficSample {
+        private final List<TrafficFlow> flows;
+        private final int samples;
+        private final int segments;
+        private final int cacheHits;
+        private final int upstreamCalls;
+        private final int rejectedCalls;
+        private final double spacingScale;
+
+        public RouteTrafficSample(List<TrafficFlow> flows, int samples, int segments, int cacheHits,
+                                  int upstreamCalls, int rejectedCalls, double spacingScale) {
+            this.flows = flows;
+            this.samples = samples;
+            this.segments = segments;
+            this.cacheHits = cacheHits;
+            this.upstreamCalls = upstreamCalls;
+            this.rejectedCalls = rejectedCalls;
+            this.spacingScale = spacingScale;
+        }
+
+        @JsonIgnore
+        public List<TrafficFlow> getFlows() { return flows; }
+        public int getSamples() { return samples; }
+        public int getSegments() { return segments; }
+        public int getCacheHits() { return cacheHits; }
+        public int getUpstreamCalls() { return upstreamCalls; }
+        /** Cells left unsampled because the upstream executor was full */
+        public int getRejectedCalls() { return rejectedCalls; }
+        public double getSpacingScale() { return spacingScale; }
+        public boolean isPartial() { return flows.size() < samples; }
+
+        /**
+         * Upstream calls avoided against fetching every sample point separately
+         */
+        public int getCallsSaved() { return samples - upstreamCalls; }
     }
 
     public static class TrafficFlow {
@@ -484,6 +723,20 @@ public class TrafficApiService {
         private double confidence;
         private int congestion;
         private String roadName;
+        private String source;
+
+        public TrafficFlow copyAt(double latitude, double longitude) {
+            TrafficFlow copy = new TrafficFlow();
+            copy.latitude = latitude;
+            copy.longitude = longitude;
+            copy.currentSpeed = currentSpeed;
+            copy.freeFlowSpeed = freeFlowSpeed;
+            copy.confidence = confidence;
+            copy.congestion = congestion;
+            copy.roadName = roadName;
+            copy.source = source;
+            return copy;
+        }
 
         // Getters and Setters
         public double getLatitude() { return latitude; }
@@ -500,5 +753,11 @@ public class TrafficApiService {
         public void setCongestion(int congestion) { this.congestion = congestion; }
         public String getRoadName() { return roadName; }
         public void setRoadName(String roadName) { this.roadName = roadName; }
+
+        /**
+         * Where the speeds came from: "tomtom", "here", or "demo" for made-up ones
+         */
+        public String getSource() { return source; }
+        public void setSource(String source) { this.source = source; }
     }
 }
\ No newline at end of file
@@ -0,0 +1,374 @@
+package com.trafficx.service;
+
+import com.trafficx.config.UpstreamBudget;
+import com.trafficx.util.BoundingBox;
+import com.trafficx.util.SpatialGridIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Background ingestion of incidents and a coarse flow grid for every configured city.
+ * Each refresh publishes a new immutable, versioned snapshot; request threads only
+ * ever read the current reference, so they never wait on upstream calls.
+ */
+@Service
+public class TrafficSnapshotService {
+
+    private final TrafficApiService trafficApiService;
+    private final CityCatalog cityCatalog;
+    private final ExecutorService upstreamExecutor;
+
+    private final AtomicReference<TrafficSnapshot> current =
+        new AtomicReference<>(new TrafficSnapshot(0, 0, Map.of()));
+
+    // Earlier incident versions per city, newest last; each list is replaced, never mutated
+    private final Map<String, List<CitySnapshot>> incidentHistory = new ConcurrentHashMap<>();
+
+    // Called with (previous, next) after each snapshot is published
+    private final List<BiConsumer<TrafficSnapshot, TrafficSnapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    @Value("${traffic.snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${traffic.snapshot.refresh-ms:300000}")
+    private long refreshMs;
+
+    @Value("${traffic.snapshot.flow-grid-size:3}")
+    private int flowGridSize;
+
+    @Value("${traffic.snapshot.refresh-timeout-ms:60000}")
+    private long refreshTimeoutMs;
+
+    @Value("${traffic.snapshot.delta-history:16}")
+    private int deltaHistory;
+
+    // Last per-city interval reported; only touched by refresh()
+    private long loggedIntervalMs;
+
+    public TrafficSnapshotService(TrafficApiService trafficApiService,
+                                  CityCatalog cityCatalog,
+                                  ExecutorService upstreamExecutor) {
+        this.trafficApiService = trafficApiService;
+        this.cityCatalog = cityCatalog;
+        this.upstreamExecutor = upstreamExecutor;
+    }
+
+    /**
+     * Refresh every city that is due and publish the result as the next snapshot version.
+     * A city is due traffic.snapshot.refresh-ms after its last refresh, or later when refreshing
+     * every city that often would spend more than the provider's background share of its quota.
+     * Cities that fail to refresh, or whose calls cannot all be reserved from the upstream budget,
+     * keep their previous data and are retried on the next run, so refreshes spread themselves
+     * out over the interval as the budget refills.
+     */
+    @Scheduled(initialDelayString = "${traffic.snapshot.initial-delay-ms:0}",
+               fixedDelayString = "${traffic.snapshot.refresh-ms:300000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+
+        List<CityCatalog.CityInfo> catalog = cityCatalog.getCities();
+        int callsPerCity = 1 + Math.max(0, flowGridSize) * Math.max(0, flowGridSize);
+        long intervalMs = refreshIntervalMs(catalog.size() * callsPerCity);
+        if (intervalMs != loggedIntervalMs && intervalMs > refreshMs) {
+            System.out.println("Refreshing each city's snapshot every " + intervalMs / 60000 + " min to stay within "
+                + "the traffic provider's background budget (" + callsPerCity + " calls per city)");
+        }
+        loggedIntervalMs = intervalMs;
+
+        TrafficSnapshot previous = current.get();
+        long now = System.currentTimeMillis();
+        Map<String, Future<CitySnapshot>> pending = new LinkedHashMap<>();
+        for (CityCatalog.CityInfo city : catalog) {
+            CitySnapshot last = previous.getCities().get(city.getName());
+            // Half a run of slack, so a city is not pushed back a whole run by scheduling jitter
+            if (last != null && now - last.getFetchedAt() < intervalMs - refreshMs / 2) {
+                continue;
+            }
+            try {
+                pending.put(city.getName(), upstreamExecutor.submit(
+                    UpstreamBudget.withPriority(UpstreamBudget.Priority.BACKGROUND,
+                        () -> trafficApiService.withUpstreamReservation(callsPerCity, () -> loadCity(city)))));
+            } catch (RejectedExecutionException e) {
+                System.err.println("Snapshot refresh rejected for " + city.getName());
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        long version = previous.getVersion() + 1;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(refreshTimeoutMs);
+        Map<String, CitySnapshot> cities = new LinkedHashMap<>(previous.getCities());
+        int refreshed = 0;
+        for (Map.Entry<String, Future<CitySnapshot>> entry : pending.entrySet()) {
+            try {
+                CitySnapshot loaded = entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                cities.put(entry.getKey(), versioned(previous.getCities().get(entry.getKey()), loaded, version));
+                refreshed++;
+            } catch (TimeoutException e) {
+                entry.getValue().cancel(true);
+                System.err.println("Snapshot refresh timed out for " + entry.getKey());
+            } catch (ExecutionException e) {
+                System.err.println("Snapshot refresh failed for " + entry.getKey() + ": " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        TrafficSnapshot next = new TrafficSnapshot(version, System.currentTimeMillis(), cities);
+        current.set(next);
+        System.out.println("Published traffic snapshot v" + next.getVersion() + " (" + refreshed + "/"
+            + pending.size() + " cities refreshed)");
+
+        for (BiConsumer<TrafficSnapshot, TrafficSnapshot> listener : listeners) {
+            try {
+                listener.accept(previous, next);
+            } catch (RuntimeException e) {
+                System.err.println("Snapshot listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * refresh-ms, or the interval at which callsPerRound (every city once) fits the provider's
+     * background rate if longer
+     */
+    private long refreshIntervalMs(int callsPerRound) {
+        double rate = trafficApiService.backgroundUpstreamRate();
+        if (Double.isInfinite(rate)) {
+            return refreshMs;
+        }
+        if (rate <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(refreshMs, (long) Math.ceil(callsPerRound / rate * 1000));
+    }
+
+    public void addListener(BiConsumer<TrafficSnapshot, TrafficSnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    public TrafficSnapshot getSnapshot() {
+        return current.get();
+    }
+
+    /**
+     * Carry the previous incident version forward when nothing changed; otherwise
+     * stamp the new snapshot version and remember the previous set for deltas.
+     */
+    private CitySnapshot versioned(CitySnapshot previous, CitySnapshot loaded, long version) {
+        if (previous != null && previous.sameIncidents(loaded)) {
+            return new CitySnapshot(loaded.getCity(), loaded.getBounds(), previous.getIncidents(),
+                loaded.getFlows(), previous.getIncidentVersion(), loaded.getFetchedAt());
+        }
+        if (previous != null) {
+            List<CitySnapshot> history = new ArrayList<>(incidentHistory.getOrDefault(previous.getCity(), List.of()));
+            history.add(previous);
+            while (history.size() > deltaHistory) {
+                history.remove(0);
+            }
+            incidentHistory.put(previous.getCity(), List.copyOf(history));
+        }
+        return new CitySnapshot(loaded.getCity(), loaded.getBounds(), loaded.getIncidents(),
+            loaded.getFlows(), version, loaded.getFetchedAt());
+    }
+
+    /**
+     * Changes to the incidents inside box since the given version of this city.
+     * Falls back to a full listing when that version is no longer (or never was) retained.
+     */
+    public IncidentDelta incidentDelta(CitySnapshot city, BoundingBox box, long since) {
+        List<TrafficApiService.TrafficIncident> present = city.getIndex().query(box);
+        if (since == city.getIncidentVersion()) {
+            return new IncidentDelta(city.getCity(), city.getIncidentVersion(), since, false,
+                List.of(), List.of(), List.of());
+        }
+
+        CitySnapshot base = null;
+        for (CitySnapshot old : incidentHistory.getOrDefault(city.getCity(), List.of())) {
+            if (old.getIncidentVersion() == since) {
+                base = old;
+            }
+        }
+        if (base == null) {
+            return new IncidentDelta(city.getCity(), city.getIncidentVersion(), since, true,
+                present, List.of(), List.of());
+        }
+
+        Map<String, TrafficApiService.TrafficIncident> before = new HashMap<>();
+        for (TrafficApiService.TrafficIncident incident : base.getIndex().query(box)) {
+            before.put(incident.getId(), incident);
+        }
+        List<TrafficApiService.TrafficIncident> added = new ArrayList<>();
+        List<TrafficApiService.TrafficIncident> updated = new ArrayList<>();
+        for (TrafficApiService.TrafficIncident incident : present) {
+            TrafficApiService.TrafficIncident old = before.remove(incident.getId());
+            if (old == null) {
+                added.add(incident);
+            } else if (old.contentHash() != incident.contentHash()) {
+                updated.add(incident);
+            }
+        }
+        return new IncidentDelta(city.getCity(), city.getIncidentVersion(), since, false,
+            added, updated, new ArrayList<>(before.keySet()));
+    }
+
+    /**
+     * Incidents within radiusMeters of a point inside a refreshed city, nearest first
+     */
+    public Optional<List<TrafficApiService.TrafficIncident>> findNearby(double lat, double lon, double radiusMeters) {
+        return findCity(lat, lon).map(city -> city.getIndex().withinRadius(lat, lon, radiusMeters));
+    }
+
+    /**
+     * The n incidents closest to a point inside a refreshed city, nearest first
+     */
+    public Optional<List<TrafficApiService.TrafficIncident>> findNearest(double lat, double lon, int n) {
+        return findCity(lat, lon).map(city -> city.getIndex().nearest(lat, lon, n));
+    }
+
+    private Optional<CitySnapshot> findCity(double lat, double lon) {
+        for (CitySnapshot city : current.get().getCities().values()) {
+            if (city.getBounds() != null && city.getBounds().contains(lon, lat)) {
+                return Optional.of(city);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public Optional<CitySnapshot> findCity(BoundingBox box) {
+        for (CitySnapshot city : current.get().getCities().values()) {
+            if (city.getBounds() != null && city.getBounds().contains(box)) {
+                return Optional.of(city);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Runs with the city's calls already reserved, so a refresh is never cut short by the budget
+     */
+    private CitySnapshot loadCity(CityCatalog.CityInfo city) {
+        BoundingBox bounds = BoundingBox.parse(city.getBbox());
+        List<TrafficApiService.TrafficIncident> incidents = trafficApiService.fetchIncidents(city.getBbox());
+
+        List<TrafficApiService.TrafficFlow> flows = new ArrayList<>();
+        if (bounds != null && flowGridSize > 0) {
+            double latStep = (bounds.getMaxLat() - bounds.getMinLat()) / flowGridSize;
+            double lonStep = (bounds.getMaxLon() - bounds.getMinLon()) / flowGridSize;
+            for (int row = 0; row < flowGridSize; row++) {
+                for (int col = 0; col < flowGridSize; col++) {
+                    flows.add(trafficApiService.getTrafficFlow(
+                        bounds.getMinLat() + (row + 0.5) * latStep,
+                        bounds.getMinLon() + (col + 0.5) * lonStep));
+                }
+            }
+        }
+
+        return new CitySnapshot(city.getName(), bounds, incidents, flows, 0, System.currentTimeMillis());
+    }
+
+    public static class TrafficSnapshot {
+        private final long version;
+        private final long createdAt;
+        private final Map<String, CitySnapshot> cities;
+
+        public TrafficSnapshot(long version, long createdAt, Map<String, CitySnapshot> cities) {
+            this.version = version;
+            this.createdAt = createdAt;
+            this.cities = Collections.unmodifiableMap(new LinkedHashMap<>(cities));
+        }
+
+        public long getVersion() { return version; }
+        public long getCreatedAt() { return createdAt; }
+        public Map<String, CitySnapshot> getCities() { return cities; }
+    }
+
+    public static class CitySnapshot {
+        private final String city;
+        private final BoundingBox bounds;
+        private final List<TrafficApiService.TrafficIncident> incidents;
+        private final List<TrafficApiService.TrafficFlow> flows;
+        private final SpatialGridIndex<TrafficApiService.TrafficIncident> index;
+        private final long incidentVersion;
+        private final long fetchedAt;
+
+        public CitySnapshot(String city, BoundingBox bounds, List<TrafficApiService.TrafficIncident> incidents,
+                            List<TrafficApiService.TrafficFlow> flows, long incidentVersion, long fetchedAt) {
+            this.city = city;
+            this.bounds = bounds;
+            this.incidents = List.copyOf(incidents);
+            this.flows = List.copyOf(flows);
+            this.index = SpatialGridIndex.build(this.incidents,
+                TrafficApiService.TrafficIncident::getLatitude,
+                TrafficApiService.TrafficIncident::getLongitude);
+            this.incidentVersion = incidentVersion;
+            this.fetchedAt = fetchedAt;
+        }
+
+        boolean sameIncidents(CitySnapshot other) {
+            if (incidents.size() != other.incidents.size()) {
+                return false;
+            }
+            Map<String, Long> hashes = new HashMap<>();
+            for (TrafficApiService.TrafficIncident incident : incidents) {
+                hashes.put(incident.getId(), incident.contentHash());
+            }
+            for (TrafficApiService.TrafficIncident incident : other.incidents) {
+                Long hash = hashes.get(incident.getId());
+                if (hash == null || hash != incident.contentHash()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public String getCity() { return city; }
+        public BoundingBox getBounds() { return bounds; }
+        public List<TrafficApiService.TrafficIncident> getIncidents() { return incidents; }
+        public List<TrafficApiService.TrafficFlow> getFlows() { return flows; }
+        public SpatialGridIndex<TrafficApiService.TrafficIncident> getIndex() { return index; }
+        public long getIncidentVersion() { return incidentVersion; }
+        public long getFetchedAt() { return fetchedAt; }
+    }
+
+    public static class IncidentDelta {
+        private final String city;
+        private final long version;
+        private final long since;
+        private final boolean full;
+        private final List<TrafficApiService.TrafficIncident> added;
+        private final List<TrafficApiService.TrafficIncident> updated;
+        private final List<String> removed;
+
+        public IncidentDelta(String city, long version, long since, boolean full,
+                             List<TrafficApiService.TrafficIncident> added,
+                             List<TrafficApiService.TrafficIncident> updated,
+                             List<String> removed) {
+            this.city = city;
+            this.version = version;
+            this.since = since;
+            this.full = full;
+            this.added = added;
+            this.updated = updated;
+            this.removed = removed;
+        }
+
+        public String getCity() { return city; }
+        public long getVersion() { return version; }
+        public long getSince() { return since; }
+        public boolean isFull() { return full; }
+        public List<TrafficApiService.TrafficIncident> getAdded() { return added; }
+        public List<TrafficApiService.TrafficIncident> getUpdated() { return updated; }
+        public List<String> getRemoved() { return removed; }
+    }
+}
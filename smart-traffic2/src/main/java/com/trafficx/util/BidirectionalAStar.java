@@ -0,0 +1,238 @@
+package com.trafficx.util;
+
+import java.util.Arrays;
+
+/**
+ * Bidirectional A* over a RoadNetwork, for when no contraction hierarchy is available.
+ * The potential is the larger of a great-circle bound (haversine distance at the fastest
+ * speed in the network) and the ALT landmark bound, averaged between the two directions
+ * so both searches see the same consistent reduced costs and can stop as soon as their
+ * queue heads together exceed the best meeting cost found.
+ */
+public final class BidirectionalAStar {
+
+    private final RoadNetwork network;
+    private final RoadGraph graph;
+    private final RoadGraph reverse;
+    private final int[] reverseToEdge;
+    private final Landmarks landmarks;
+    private final double maxMetersPerSecond;
+    private final ThreadLocal<QueryState> queryState;
+
+    /**
+     * landmarks may be null to use the great-circle bound alone
+     */
+    public BidirectionalAStar(RoadNetwork network, RoadGraph reverse, int[] reverseToEdge, Landmarks landmarks) {
+        this.network = network;
+        this.graph = network.getGraph();
+        this.reverse = reverse;
+        this.reverseToEdge = reverseToEdge;
+        this.landmarks = landmarks;
+
+        double fastest = 0;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            if (graph.weight(e) > 0) {
+                fastest = Math.max(fastest, network.length(e) / graph.weight(e));
+            }
+        }
+        // Edge weights are floats; leave a little slack so the bound never overshoots
+        this.maxMetersPerSecond = fastest * 1.001;
+        int n = graph.nodeCount();
+        this.queryState = ThreadLocal.withInitial(() -> new QueryState(n));
+    }
+
+    /**
+     * Build the reversed graph (keeping the original id of each reversed edge) and, when
+     * landmarkCount is positive, the landmark tables
+     */
+    public static BidirectionalAStar create(RoadNetwork network, int landmarkCount, int parallelism) {
+        RoadGraph graph = network.getGraph();
+        RoadGraph.Builder builder = new RoadGraph.Builder(graph.nodeCount(), graph.edgeCount());
+        for (int u = 0; u < graph.nodeCount(); u++) {
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                builder.addEdge(graph.target(e), u, graph.weight(e));
+            }
+        }
+        int[] slots = new int[graph.edgeCount()];
+        RoadGraph reverse = builder.build(slots);
+        int[] reverseToEdge = new int[slots.length];
+        for (int e = 0; e < slots.length; e++) {
+            reverseToEdge[slots[e]] = e;
+        }
+        Landmarks landmarks = landmarkCount > 0
+            ? Landmarks.select(graph, reverse, landmarkCount, parallelism)
+            : null;
+        return new BidirectionalAStar(network, reverse, reverseToEdge, landmarks);
+    }
+
+    public Landmarks getLandmarks() { return landmarks; }
+
+    RoadNetwork network() { return network; }
+    RoadGraph reverse() { return reverse; }
+
+    /**
+     * The original edge id of reversed edge e
+     */
+    int originalEdge(int e) { return reverseToEdge[e]; }
+
+    /**
+     * Lower bound on the cost of the shortest u->v path
+     */
+    public double lowerBound(int u, int v) {
+        double bound = maxMetersPerSecond > 0
+            ? GeoUtils.haversineMeters(network.lat(u), network.lon(u), network.lat(v), network.lon(v)) / maxMetersPerSecond
+            : 0;
+        return landmarks == null ? bound : Math.max(bound, landmarks.lowerBound(u, v));
+    }
+
+    /**
+     * Shortest-path cost, or Double.POSITIVE_INFINITY if unreachable
+     */
+    public double distance(int source, int target) {
+        QueryState state = queryState.get();
+        search(source, target, state);
+        return state.best;
+    }
+
+    /**
+     * Shortest path, or null if unreachable
+     */
+    public Dijkstra.Path route(int source, int target) {
+        QueryState state = queryState.get();
+        int settled = search(source, target, state);
+        if (state.meet < 0) {
+            return null;
+        }
+        Dijkstra.SearchState forward = state.forward;
+        Dijkstra.SearchState backward = state.backward;
+
+        int forwardHops = 0;
+        for (int v = state.meet; v != source; v = forward.parent(v)) {
+            forwardHops++;
+        }
+        int backwardHops = 0;
+        for (int v = state.meet; v != target; v = backward.parent(v)) {
+            backwardHops++;
+        }
+        int[] nodes = new int[forwardHops + backwardHops + 1];
+        int[] edges = new int[forwardHops + backwardHops];
+        int i = forwardHops;
+        for (int v = state.meet; v != source; v = forward.parent(v)) {
+            nodes[i] = v;
+            edges[i - 1] = forward.parentEdge(v);
+            i--;
+        }
+        nodes[0] = source;
+        nodes[forwardHops] = state.meet;
+        i = forwardHops;
+        for (int v = state.meet; v != target; v = backward.parent(v)) {
+            edges[i] = backward.parentEdge(v);
+            nodes[++i] = backward.parent(v);
+        }
+        return new Dijkstra.Path(nodes, edges, state.best, settled);
+    }
+
+    /**
+     * Runs both searches and returns the number of nodes settled; the best cost and the
+     * meeting node are left in state (meet is -1 if target is unreachable)
+     */
+    private int search(int source, int target, QueryState state) {
+        int n = graph.nodeCount();
+        Dijkstra.SearchState forward = state.forward;
+        Dijkstra.SearchState backward = state.backward;
+        forward.reset(n);
+        backward.reset(n);
+        state.startQuery(source, target);
+        IndexedMinHeap forwardHeap = forward.heap();
+        IndexedMinHeap backwardHeap = backward.heap();
+
+        forward.relax(source, 0, -1, -1);
+        forwardHeap.push(source, potential(source, state));
+        backward.relax(target, 0, -1, -1);
+        backwardHeap.push(target, -potential(target, state));
+        state.best = source == target ? 0 : Double.POSITIVE_INFINITY;
+        state.meet = source == target ? source : -1;
+        int settled = 0;
+
+        while (!forwardHeap.isEmpty() && !backwardHeap.isEmpty()
+                && forwardHeap.peekKey() + backwardHeap.peekKey() < state.best) {
+            settled++;
+            if (forwardHeap.peekKey() <= backwardHeap.peekKey()) {
+                int u = forwardHeap.poll();
+                double du = forward.distance(u);
+                for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                    int v = graph.target(e);
+                    double dv = du + graph.weight(e);
+                    if (dv < forward.distance(v)) {
+                        forward.relax(v, dv, u, e);
+                        forwardHeap.push(v, dv + potential(v, state));
+                        double through = dv + backward.distance(v);
+                        if (through < state.best) {
+                            state.best = through;
+                            state.meet = v;
+                        }
+                    }
+                }
+            } else {
+                int u = backwardHeap.poll();
+                double du = backward.distance(u);
+                for (int e = reverse.firstEdge(u), end = reverse.endEdge(u); e < end; e++) {
+                    int v = reverse.target(e);
+                    double dv = du + reverse.weight(e);
+                    if (dv < backward.distance(v)) {
+                        // Parent edge is the original v->u edge, so paths unpack without a lookup
+                        backward.relax(v, dv, u, reverseToEdge[e]);
+                        backwardHeap.push(v, dv - potential(v, state));
+                        double through = dv + forward.distance(v);
+                        if (through < state.best) {
+                            state.best = through;
+                            state.meet = v;
+                        }
+                    }
+                }
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * Forward potential (bound to target - bound from source) / 2, cached per query
+     */
+    private double potential(int v, QueryState state) {
+        if (state.potentialStamp[v] == state.stamp) {
+            return state.potential[v];
+        }
+        double p = (lowerBound(v, state.target) - lowerBound(state.source, v)) / 2;
+        state.potential[v] = p;
+        state.potentialStamp[v] = state.stamp;
+        return p;
+    }
+
+    private static final class QueryState {
+        final Dijkstra.SearchState forward;
+        final Dijkstra.SearchState backward;
+        final double[] potential;
+        final int[] potentialStamp;
+        int stamp;
+        int source;
+        int target;
+        double best;
+        int meet;
+
+        QueryState(int nodeCount) {
+            forward = new Dijkstra.SearchState(nodeCount);
+            backward = new Dijkstra.SearchState(nodeCount);
+            potential = new double[nodeCount];
+            potentialStamp = new int[nodeCount];
+        }
+
+        void startQuery(int source, int target) {
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(potentialStamp, 0);
+                stamp = 1;
+            }
+            this.source = source;
+            this.target = target;
+        }
+    }
+}
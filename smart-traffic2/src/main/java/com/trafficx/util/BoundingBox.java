@@ -0,0 +1,80 @@
+package com.trafficx.util;
+
+import java.util.Locale;
+
+/**
+ * Immutable lon/lat rectangle in the "minLon,minLat,maxLon,maxLat" order the providers use.
+ */
+public final class BoundingBox {
+
+    private final double minLon;
+    private final double minLat;
+    private final double maxLon;
+    private final double maxLat;
+
+    public BoundingBox(double minLon, double minLat, double maxLon, double maxLat) {
+        this.minLon = minLon;
+        this.minLat = minLat;
+        this.maxLon = maxLon;
+        this.maxLat = maxLat;
+    }
+
+    /**
+     * Parse a "minLon,minLat,maxLon,maxLat" string, returning null if it is malformed
+     * or any value is not a real longitude (-180..180) or latitude (-90..90).
+     */
+    public static BoundingBox parse(String bbox) {
+        if (bbox == null) {
+            return null;
+        }
+        String[] parts = bbox.split(",");
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            double minLon = Double.parseDouble(parts[0].trim());
+            double minLat = Double.parseDouble(parts[1].trim());
+            double maxLon = Double.parseDouble(parts[2].trim());
+            double maxLat = Double.parseDouble(parts[3].trim());
+            if (!validLon(minLon) || !validLon(maxLon) || !validLat(minLat) || !validLat(maxLat)
+                    || minLon > maxLon || minLat > maxLat) {
+                return null;
+            }
+            return new BoundingBox(minLon, minLat, maxLon, maxLat);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // NaN fails both comparisons, infinities fail one
+    private static boolean validLon(double lon) {
+        return lon >= -180 && lon <= 180;
+    }
+
+    private static boolean validLat(double lat) {
+        return lat >= -90 && lat <= 90;
+    }
+
+    public double getMinLon() { return minLon; }
+    public double getMinLat() { return minLat; }
+    public double getMaxLon() { return maxLon; }
+    public double getMaxLat() { return maxLat; }
+
+    public boolean contains(double lon, double lat) {
+        return lon >= minLon && lon <= maxLon && lat >= minLat && lat <= maxLat;
+    }
+
+    public boolean contains(BoundingBox other) {
+        return other.minLon >= minLon && other.maxLon <= maxLon
+            && other.minLat >= minLat && other.maxLat <= maxLat;
+    }
+
+    public String toParam() {
+        return String.format(Locale.ROOT, "%.6f,%.6f,%.6f,%.6f", minLon, minLat, maxLon, maxLat);
+    }
+
+    @Override
+    public String toString() {
+        return toParam();
+    }
+}
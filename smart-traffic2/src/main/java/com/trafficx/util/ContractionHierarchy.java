@@ -0,0 +1,648 @@
+package com.trafficx.util;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Contraction Hierarchies over a RoadGraph. Nodes are contracted cheapest-first (edge
+ * difference, contracted neighbours and level), adding a shortcut u->w wherever the only
+ * shortest u->v->w path ran through the contracted node v. Each round contracts an
+ * independent set of nodes in parallel. Queries are a bidirectional Dijkstra that only
+ * climbs to higher-ranked nodes, with stall-on-demand; paths are unpacked back to
+ * original graph edges.
+ */
+public final class ContractionHierarchy {
+
+    // Witness searches give up after settling this many nodes and just add the shortcut;
+    // priority estimates use a cheaper search than the real contraction
+    private static final int WITNESS_SETTLE_LIMIT = 400;
+    private static final int ESTIMATE_SETTLE_LIMIT = 50;
+
+    private static final ThreadLocal<QueryState> QUERY_STATE = ThreadLocal.withInitial(QueryState::new);
+
+    private final int nodeCount;
+    private final IntBuffer rank;
+
+    // Upward edges u->v (rank[v] > rank[u]) stored at u, for the forward search
+    private final IntBuffer upOffsets;
+    private final IntBuffer upTargets;
+    private final FloatBuffer upWeights;
+    private final IntBuffer upMiddle;
+    private final IntBuffer upEdge;
+
+    // Edges u->v into v from higher-ranked u, stored at v, for the backward search
+    private final IntBuffer downOffsets;
+    private final IntBuffer downSources;
+    private final FloatBuffer downWeights;
+    private final IntBuffer downMiddle;
+    private final IntBuffer downEdge;
+
+    private final int shortcutCount;
+    private final long buildMillis;
+
+    private ContractionHierarchy(int nodeCount, int[] rank, EdgeLists up, EdgeLists down,
+                                 int shortcutCount, long buildMillis) {
+        this(nodeCount, IntBuffer.wrap(rank),
+            new IntBuffer[]{IntBuffer.wrap(up.offsets), IntBuffer.wrap(up.nodes), IntBuffer.wrap(up.middles), IntBuffer.wrap(up.edges)},
+            FloatBuffer.wrap(up.weights),
+            new IntBuffer[]{IntBuffer.wrap(down.offsets), IntBuffer.wrap(down.nodes), IntBuffer.wrap(down.middles), IntBuffer.wrap(down.edges)},
+            FloatBuffer.wrap(down.weights), shortcutCount, buildMillis);
+    }
+
+    /**
+     * From existing buffers (as laid out by upLists()/downLists()); used by RoadNetworkFile
+     */
+    ContractionHierarchy(int nodeCount, IntBuffer rank, IntBuffer[] up, FloatBuffer upWeights,
+                         IntBuffer[] down, FloatBuffer downWeights, int shortcutCount, long buildMillis) {
+        this.nodeCount = nodeCount;
+        this.rank = rank;
+        this.upOffsets = up[0];
+        this.upTargets = up[1];
+        this.upMiddle = up[2];
+        this.upEdge = up[3];
+        this.upWeights = upWeights;
+        this.downOffsets = down[0];
+        this.downSources = down[1];
+        this.downMiddle = down[2];
+        this.downEdge = down[3];
+        this.downWeights = downWeights;
+        this.shortcutCount = shortcutCount;
+        this.buildMillis = buildMillis;
+    }
+
+    IntBuffer ranks() { return rank.duplicate(); }
+
+    /**
+     * Offsets, targets, middle nodes and original edges of the upward lists
+     */
+    IntBuffer[] upLists() {
+        return new IntBuffer[]{upOffsets.duplicate(), upTargets.duplicate(), upMiddle.duplicate(), upEdge.duplicate()};
+    }
+
+    FloatBuffer upWeights() { return upWeights.duplicate(); }
+
+    /**
+     * Offsets, sources, middle nodes and original edges of the downward lists
+     */
+    IntBuffer[] downLists() {
+        return new IntBuffer[]{downOffsets.duplicate(), downSources.duplicate(), downMiddle.duplicate(), downEdge.duplicate()};
+    }
+
+    FloatBuffer downWeights() { return downWeights.duplicate(); }
+
+    public int nodeCount() { return nodeCount; }
+    public int rank(int node) { return rank.get(node); }
+    public int getShortcutCount() { return shortcutCount; }
+    public long getBuildMillis() { return buildMillis; }
+
+    /**
+     * Approximate heap footprint of the hierarchy arrays
+     */
+    public long memoryBytes() {
+        long edges = upTargets.limit() + downSources.limit();
+        return 4L * nodeCount + 8L * (nodeCount + 1) + edges * (4 + 4 + 4 + 4);
+    }
+
+    public static ContractionHierarchy build(RoadGraph graph, int parallelism) {
+        long started = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            Contractor contractor = new Contractor(graph);
+            pool.submit(contractor::run).get();
+            return new ContractionHierarchy(graph.nodeCount(), contractor.rank,
+                contractor.up.toCsr(graph.nodeCount()), contractor.down.toCsr(graph.nodeCount()),
+                contractor.shortcuts, System.currentTimeMillis() - started);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building contraction hierarchy", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to build contraction hierarchy", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Shortest-path cost, or Double.POSITIVE_INFINITY if unreachable
+     */
+    public double distance(int source, int target) {
+        QueryState state = QUERY_STATE.get();
+        search(source, target, state);
+        return state.best;
+    }
+
+    /**
+     * Shortest path as original graph nodes and edges, or null if unreachable
+     */
+    public Dijkstra.Path route(int source, int target) {
+        QueryState state = QUERY_STATE.get();
+        search(source, target, state);
+        if (state.meet < 0) {
+            return null;
+        }
+
+        IntList nodes = new IntList();
+        IntList edges = new IntList();
+        nodes.add(source);
+
+        // Forward half: collect s..meet then unpack in order
+        IntList forward = new IntList();
+        for (int v = state.meet; v != source; v = state.forward.parent(v)) {
+            forward.add(state.forward.parentEdge(v));
+        }
+        for (int i = forward.size - 1; i >= 0; i--) {
+            int e = forward.values[i];
+            unpack(upMiddle.get(e), upEdge.get(e), upTargets.get(e), nodes, edges);
+        }
+        // Backward half: parents lead from meet towards t
+        for (int v = state.meet; v != target; v = state.backward.parent(v)) {
+            int e = state.backward.parentEdge(v);
+            unpack(downMiddle.get(e), downEdge.get(e), state.backward.parent(v), nodes, edges);
+        }
+
+        return new Dijkstra.Path(nodes.toArray(), edges.toArray(), state.best, state.settled);
+    }
+
+    private void search(int source, int target, QueryState state) {
+        Dijkstra.SearchState forward = state.forward;
+        Dijkstra.SearchState backward = state.backward;
+        forward.reset(nodeCount);
+        backward.reset(nodeCount);
+        state.best = Double.POSITIVE_INFINITY;
+        state.meet = -1;
+        state.settled = 0;
+
+        IndexedMinHeap forwardHeap = forward.heap();
+        IndexedMinHeap backwardHeap = backward.heap();
+        forward.relax(source, 0, -1, -1);
+        forwardHeap.push(source, 0);
+        backward.relax(target, 0, -1, -1);
+        backwardHeap.push(target, 0);
+
+        while (true) {
+            boolean forwardLive = !forwardHeap.isEmpty() && forwardHeap.peekKey() < state.best;
+            boolean backwardLive = !backwardHeap.isEmpty() && backwardHeap.peekKey() < state.best;
+            if (!forwardLive && !backwardLive) {
+                break;
+            }
+            if (forwardLive && (!backwardLive || forwardHeap.peekKey() <= backwardHeap.peekKey())) {
+                int u = forwardHeap.poll();
+                state.settled++;
+                double du = forward.distance(u);
+                if (backward.reached(u) && du + backward.distance(u) < state.best) {
+                    state.best = du + backward.distance(u);
+                    state.meet = u;
+                }
+                if (stalled(u, du, forward, downOffsets, downSources, downWeights)) {
+                    continue;
+                }
+                for (int e = upOffsets.get(u); e < upOffsets.get(u + 1); e++) {
+                    int v = upTargets.get(e);
+                    double dv = du + upWeights.get(e);
+                    if (dv < forward.distance(v)) {
+                        forward.relax(v, dv, u, e);
+                        forwardHeap.push(v, dv);
+                    }
+                }
+            } else {
+                int u = backwardHeap.poll();
+                state.settled++;
+                double du = backward.distance(u);
+                if (forward.reached(u) && du + forward.distance(u) < state.best) {
+                    state.best = du + forward.distance(u);
+                    state.meet = u;
+                }
+                if (stalled(u, du, backward, upOffsets, upTargets, upWeights)) {
+                    continue;
+                }
+                for (int e = downOffsets.get(u); e < downOffsets.get(u + 1); e++) {
+                    int v = downSources.get(e);
+                    double dv = du + downWeights.get(e);
+                    if (dv < backward.distance(v)) {
+                        backward.relax(v, dv, u, e);
+                        backwardHeap.push(v, dv);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stall-on-demand: u need not be expanded if a higher-ranked node this search already
+     * reached offers a shorter way into it (via the opposite direction's edge list).
+     */
+    private static boolean stalled(int u, double du, Dijkstra.SearchState state,
+                                   IntBuffer offsets, IntBuffer nodes, FloatBuffer weights) {
+        for (int e = offsets.get(u); e < offsets.get(u + 1); e++) {
+            int higher = nodes.get(e);
+            if (state.reached(higher) && state.distance(higher) + weights.get(e) < du) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Expand one hierarchy edge (ending at to) into original edges, appending them and the
+     * nodes they reach to the path. Shortcuts recurse through their middle node.
+     */
+    private void unpack(int middle, int originalEdge, int to, IntList nodes, IntList edges) {
+        if (middle < 0) {
+            edges.add(originalEdge);
+            nodes.add(to);
+            return;
+        }
+        int from = nodes.values[nodes.size - 1];
+        int first = findEdge(from, middle);
+        expand(first, middle, nodes, edges);
+        int second = findEdge(middle, to);
+        expand(second, to, nodes, edges);
+    }
+
+    private void expand(int encoded, int to, IntList nodes, IntList edges) {
+        if (encoded >= 0) {
+            unpack(upMiddle.get(encoded), upEdge.get(encoded), to, nodes, edges);
+        } else {
+            unpack(downMiddle.get(~encoded), downEdge.get(~encoded), to, nodes, edges);
+        }
+    }
+
+    /**
+     * The cheapest hierarchy edge a->b: an upward index, or ~index into the downward lists
+     */
+    int findEdge(int a, int b) {
+        int found = -1;
+        float best = Float.MAX_VALUE;
+        if (rank.get(a) < rank.get(b)) {
+            for (int e = upOffsets.get(a); e < upOffsets.get(a + 1); e++) {
+                if (upTargets.get(e) == b && upWeights.get(e) < best) {
+                    best = upWeights.get(e);
+                    found = e;
+                }
+            }
+            if (found >= 0) {
+                return found;
+            }
+        } else {
+            for (int e = downOffsets.get(b); e < downOffsets.get(b + 1); e++) {
+                if (downSources.get(e) == a && downWeights.get(e) < best) {
+                    best = downWeights.get(e);
+                    found = e;
+                }
+            }
+            if (found >= 0) {
+                return ~found;
+            }
+        }
+        throw new IllegalStateException("Missing hierarchy edge " + a + "->" + b);
+    }
+
+    private static final class QueryState {
+        final Dijkstra.SearchState forward = new Dijkstra.SearchState(0);
+        final Dijkstra.SearchState backward = new Dijkstra.SearchState(0);
+        double best;
+        int meet;
+        int settled;
+    }
+
+    /**
+     * Mutable overlay graph and contraction loop; only used while building
+     */
+    private static final class Contractor {
+        final int n;
+        final Arcs[] out;
+        final Arcs[] in;
+        final int[] rank;
+        final int[] priority;
+        final int[] contractedNeighbours;
+        final int[] level;
+        final boolean[] contracted;
+        final boolean[] selected;
+        final EdgeCollector up = new EdgeCollector();
+        final EdgeCollector down = new EdgeCollector();
+        final ThreadLocal<Dijkstra.SearchState> witness = ThreadLocal.withInitial(() -> new Dijkstra.SearchState(0));
+        int shortcuts;
+
+        Contractor(RoadGraph graph) {
+            n = graph.nodeCount();
+            out = new Arcs[n];
+            in = new Arcs[n];
+            for (int v = 0; v < n; v++) {
+                out[v] = new Arcs();
+                in[v] = new Arcs();
+            }
+            for (int u = 0; u < n; u++) {
+                for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                    int v = graph.target(e);
+                    if (v != u) {
+                        addArc(u, v, graph.weight(e), -1, e);
+                    }
+                }
+            }
+            rank = new int[n];
+            priority = new int[n];
+            contractedNeighbours = new int[n];
+            level = new int[n];
+            contracted = new boolean[n];
+            selected = new boolean[n];
+        }
+
+        void run() {
+            IntStream.range(0, n).parallel().forEach(v -> priority[v] = computePriority(v));
+
+            int[] remaining = IntStream.range(0, n).toArray();
+            int nextRank = 0;
+            while (remaining.length > 0) {
+                int[] batch = Arrays.stream(remaining).parallel().filter(this::isLocalMinimum).toArray();
+                for (int v : batch) {
+                    selected[v] = true;
+                }
+
+                List<List<Shortcut>> found = Arrays.stream(batch).parallel()
+                    .mapToObj(v -> findShortcuts(v, true))
+                    .toList();
+
+                IntList touched = new IntList();
+                for (int i = 0; i < batch.length; i++) {
+                    contract(batch[i], found.get(i), nextRank++, touched);
+                }
+                for (int v : batch) {
+                    selected[v] = false;
+                }
+
+                int[] neighbours = Arrays.stream(touched.toArray()).distinct().filter(v -> !contracted[v]).toArray();
+                Arrays.stream(neighbours).parallel().forEach(v -> priority[v] = computePriority(v));
+                remaining = Arrays.stream(remaining).filter(v -> !contracted[v]).toArray();
+            }
+        }
+
+        /**
+         * v goes in this round if no uncontracted neighbour is cheaper (ties broken by id)
+         */
+        boolean isLocalMinimum(int v) {
+            return lowerThanAll(v, out[v]) && lowerThanAll(v, in[v]);
+        }
+
+        private boolean lowerThanAll(int v, Arcs arcs) {
+            for (int i = 0; i < arcs.size; i++) {
+                int u = arcs.node[i];
+                if (priority[u] < priority[v] || (priority[u] == priority[v] && u < v)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int computePriority(int v) {
+            int added = findShortcuts(v, false).size();
+            int removed = out[v].size + in[v].size;
+            return 2 * (added - removed) + contractedNeighbours[v] + level[v];
+        }
+
+        /**
+         * Shortcuts needed to contract v. When excludeSelected is set, witness paths may not
+         * pass through other nodes being contracted in the same round.
+         */
+        List<Shortcut> findShortcuts(int v, boolean excludeSelected) {
+            List<Shortcut> result = new ArrayList<>();
+            Arcs ins = in[v];
+            Arcs outs = out[v];
+            if (ins.size == 0 || outs.size == 0) {
+                return result;
+            }
+            float maxOut = 0;
+            for (int j = 0; j < outs.size; j++) {
+                maxOut = Math.max(maxOut, outs.weight[j]);
+            }
+
+            Dijkstra.SearchState state = witness.get();
+            for (int i = 0; i < ins.size; i++) {
+                int u = ins.node[i];
+                float wu = ins.weight[i];
+                witnessSearch(u, v, wu + maxOut, state, excludeSelected,
+                    excludeSelected ? WITNESS_SETTLE_LIMIT : ESTIMATE_SETTLE_LIMIT);
+                for (int j = 0; j < outs.size; j++) {
+                    int w = outs.node[j];
+                    if (w == u) {
+                        continue;
+                    }
+                    float via = wu + outs.weight[j];
+                    if (state.distance(w) > via) {
+                        result.add(new Shortcut(u, w, via));
+                    }
+                }
+            }
+            return result;
+        }
+
+        private void witnessSearch(int source, int avoid, double limit, Dijkstra.SearchState state,
+                                   boolean excludeSelected, int settleLimit) {
+            state.reset(n);
+            IndexedMinHeap heap = state.heap();
+            state.relax(source, 0, -1, -1);
+            heap.push(source, 0);
+            int settled = 0;
+            while (!heap.isEmpty() && heap.peekKey() <= limit && settled++ < settleLimit) {
+                int x = heap.poll();
+                double dx = state.distance(x);
+                Arcs arcs = out[x];
+                for (int k = 0; k < arcs.size; k++) {
+                    int y = arcs.node[k];
+                    if (y == avoid || (excludeSelected && selected[y])) {
+                        continue;
+                    }
+                    double dy = dx + arcs.weight[k];
+                    if (dy < state.distance(y)) {
+                        state.relax(y, dy, x, -1);
+                        heap.push(y, dy);
+                    }
+                }
+            }
+        }
+
+        void contract(int v, List<Shortcut> found, int order, IntList touched) {
+            rank[v] = order;
+            contracted[v] = true;
+
+            // Remaining arcs all lead to nodes contracted later, i.e. ranked higher
+            Arcs outs = out[v];
+            for (int j = 0; j < outs.size; j++) {
+                up.add(v, outs.node[j], outs.weight[j], outs.middle[j], outs.edge[j]);
+                in[outs.node[j]].remove(v);
+                touched.add(outs.node[j]);
+            }
+            Arcs ins = in[v];
+            for (int i = 0; i < ins.size; i++) {
+                down.add(v, ins.node[i], ins.weight[i], ins.middle[i], ins.edge[i]);
+                out[ins.node[i]].remove(v);
+                touched.add(ins.node[i]);
+            }
+            for (int i = 0; i < ins.size; i++) {
+                int u = ins.node[i];
+                contractedNeighbours[u]++;
+                level[u] = Math.max(level[u], level[v] + 1);
+            }
+            for (int j = 0; j < outs.size; j++) {
+                int w = outs.node[j];
+                contractedNeighbours[w]++;
+                level[w] = Math.max(level[w], level[v] + 1);
+            }
+            for (Shortcut shortcut : found) {
+                if (addArc(shortcut.from, shortcut.to, shortcut.weight, v, -1)) {
+                    shortcuts++;
+                }
+            }
+            out[v] = Arcs.EMPTY;
+            in[v] = Arcs.EMPTY;
+        }
+
+        /**
+         * Add u->w or lower the weight of an existing one; returns whether anything changed
+         */
+        boolean addArc(int u, int w, float weight, int middle, int edge) {
+            int i = out[u].indexOf(w);
+            if (i >= 0) {
+                if (out[u].weight[i] <= weight) {
+                    return false;
+                }
+                out[u].set(i, weight, middle, edge);
+                Arcs back = in[w];
+                back.set(back.indexOf(u), weight, middle, edge);
+                return true;
+            }
+            out[u].add(w, weight, middle, edge);
+            in[w].add(u, weight, middle, edge);
+            return true;
+        }
+    }
+
+    private record Shortcut(int from, int to, float weight) {
+    }
+
+    /**
+     * Small growable adjacency list used by the overlay graph
+     */
+    private static final class Arcs {
+        static final Arcs EMPTY = new Arcs(0);
+
+        int[] node;
+        float[] weight;
+        int[] middle;
+        int[] edge;
+        int size;
+
+        Arcs() {
+            this(4);
+        }
+
+        Arcs(int capacity) {
+            node = new int[capacity];
+            weight = new float[capacity];
+            middle = new int[capacity];
+            edge = new int[capacity];
+        }
+
+        void add(int target, float w, int mid, int e) {
+            if (size == node.length) {
+                int capacity = Math.max(4, size * 2);
+                node = Arrays.copyOf(node, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+                middle = Arrays.copyOf(middle, capacity);
+                edge = Arrays.copyOf(edge, capacity);
+            }
+            node[size] = target;
+            weight[size] = w;
+            middle[size] = mid;
+            edge[size] = e;
+            size++;
+        }
+
+        void set(int i, float w, int mid, int e) {
+            weight[i] = w;
+            middle[i] = mid;
+            edge[i] = e;
+        }
+
+        int indexOf(int target) {
+            for (int i = 0; i < size; i++) {
+                if (node[i] == target) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void remove(int target) {
+            int i = indexOf(target);
+            if (i >= 0) {
+                size--;
+                node[i] = node[size];
+                weight[i] = weight[size];
+                middle[i] = middle[size];
+                edge[i] = edge[size];
+            }
+        }
+    }
+
+    /**
+     * Hierarchy edges grouped by the node they are stored at, in contraction order
+     */
+    private static final class EdgeCollector {
+        final IntList owner = new IntList();
+        final IntList other = new IntList();
+        final IntList middle = new IntList();
+        final IntList edge = new IntList();
+        float[] weight = new float[1024];
+
+        void add(int at, int node, float w, int mid, int e) {
+            if (owner.size == weight.length) {
+                weight = Arrays.copyOf(weight, weight.length * 2);
+            }
+            weight[owner.size] = w;
+            owner.add(at);
+            other.add(node);
+            middle.add(mid);
+            edge.add(e);
+        }
+
+        EdgeLists toCsr(int nodeCount) {
+            int m = owner.size;
+            EdgeLists lists = new EdgeLists(nodeCount, m);
+            for (int i = 0; i < m; i++) {
+                lists.offsets[owner.values[i] + 1]++;
+            }
+            for (int v = 0; v < nodeCount; v++) {
+                lists.offsets[v + 1] += lists.offsets[v];
+            }
+            int[] fill = Arrays.copyOf(lists.offsets, nodeCount);
+            for (int i = 0; i < m; i++) {
+                int slot = fill[owner.values[i]]++;
+                lists.nodes[slot] = other.values[i];
+                lists.weights[slot] = weight[i];
+                lists.middles[slot] = middle.values[i];
+                lists.edges[slot] = edge.values[i];
+            }
+            return lists;
+        }
+    }
+
+    private static final class EdgeLists {
+        final int[] offsets;
+        final int[] nodes;
+        final float[] weights;
+        final int[] middles;
+        final int[] edges;
+
+        EdgeLists(int nodeCount, int edgeCount) {
+            offsets = new int[nodeCount + 1];
+            nodes = new int[edgeCount];
+            weights = new float[edgeCount];
+            middles = new int[edgeCount];
+            edges = new int[edgeCount];
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.trafficx.util;
+
+/**
+ * Picks flow sample points along a route by distance rather than by vertex count: one sample
+ * every N meters, where N depends on the road class (long on motorways, short on residential
+ * streets), plus one just after every road class change. Long straight segments with few
+ * vertices get interpolated samples; dense urban polylines no longer get one per few meters.
+ */
+public final class CorridorSampler {
+
+    // Class changes closer than this to the previous sample (e.g. short links) add no sample
+    private static final double MIN_GAP_METERS = 50;
+
+    private final double[] classSpacing;
+    private final double defaultSpacing;
+
+    /**
+     * classSpacingMeters is indexed like RoadNetwork.ROAD_CLASSES; defaultSpacingMeters applies to
+     * classes it does not cover and to routes without road classes
+     */
+    public CorridorSampler(double[] classSpacingMeters, double defaultSpacingMeters) {
+        this.classSpacing = classSpacingMeters.clone();
+        this.defaultSpacing = defaultSpacingMeters;
+    }
+
+    /**
+     * Sample points along route, first point included. segmentClasses[i] is the road class of the
+     * segment from point i to i + 1, or segmentClasses is null if unknown. Every spacing is
+     * multiplied by scale.
+     */
+    public PackedPolyline sample(PackedPolyline route, byte[] segmentClasses, double scale) {
+        if (route.isEmpty()) {
+            return PackedPolyline.EMPTY;
+        }
+        PackedPolyline.Builder samples = new PackedPolyline.Builder(16);
+        samples.add(route.lat(0), route.lon(0));
+        double since = 0;
+        double spacing = spacing(segmentClasses, 0, scale);
+        int previousClass = roadClass(segmentClasses, 0);
+        for (int i = 0; i + 1 < route.size(); i++) {
+            int roadClass = roadClass(segmentClasses, i);
+            spacing = spacing(segmentClasses, i, scale);
+            double lat = route.lat(i);
+            double lon = route.lon(i);
+            double nextLat = route.lat(i + 1);
+            double nextLon = route.lon(i + 1);
+            double length = GeoUtils.haversineMeters(lat, lon, nextLat, nextLon);
+            double position = 0;
+
+            // On a new road, sample a little way in so the point is on the road and not the junction
+            if (roadClass != previousClass && since >= MIN_GAP_METERS && length > 0) {
+                position = Math.min(length / 2, spacing / 2);
+                add(samples, lat, lon, nextLat, nextLon, position, length);
+                since = 0;
+            }
+            while (since + length - position >= spacing) {
+                // A shorter spacing on this road may already be overdue at its first vertex
+                position += Math.max(0, spacing - since);
+                add(samples, lat, lon, nextLat, nextLon, position, length);
+                since = 0;
+            }
+            since += length - position;
+            previousClass = roadClass;
+        }
+        if (route.size() > 1 && since >= spacing / 2) {
+            samples.add(route.lat(route.size() - 1), route.lon(route.size() - 1));
+        }
+        return samples.build();
+    }
+
+    private static void add(PackedPolyline.Builder samples, double lat, double lon,
+                            double nextLat, double nextLon, double position, double length) {
+        double t = length > 0 ? position / length : 0;
+        samples.add(lat + (nextLat - lat) * t, lon + (nextLon - lon) * t);
+    }
+
+    private static int roadClass(byte[] segmentClasses, int segment) {
+        return segmentClasses != null && segment < segmentClasses.length ? segmentClasses[segment] : -1;
+    }
+
+    private double spacing(byte[] segmentClasses, int segment, double scale) {
+        int roadClass = roadClass(segmentClasses, segment);
+        double meters = roadClass >= 0 && roadClass < classSpacing.length ? classSpacing[roadClass] : defaultSpacing;
+        return Math.max(1, meters * scale);
+    }
+}
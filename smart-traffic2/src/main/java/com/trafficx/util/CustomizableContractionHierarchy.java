@@ -0,0 +1,682 @@
+package com.trafficx.util;
+
+import java.util.*;
+
+/**
+ * Customizable Contraction Hierarchy. Unlike ContractionHierarchy, the node order and the
+ * shortcut topology depend only on the shape of the graph: nodes are ordered by nested
+ * dissection and every pair of a node's remaining neighbours is joined when it is
+ * eliminated, with no witness searches. Weights are applied afterwards: customize() fills
+ * every arc bottom-up with the cheapest way through the triangles below it, and update()
+ * recomputes only the arcs that depend on edges whose weight changed. Each customization
+ * publishes a new metric, so queries running meanwhile keep a consistent view.
+ */
+public final class CustomizableContractionHierarchy {
+
+    private static final ThreadLocal<QueryState> QUERY_STATE = ThreadLocal.withInitial(QueryState::new);
+
+    private final RoadGraph graph;
+    private final int nodeCount;
+    private final int[] rank;
+    private final int[] byRank;
+    private final int[] edgeSource;
+
+    // Arcs {low, high} with rank[low] < rank[high], grouped by low and sorted by high
+    private final int[] upOffsets;
+    private final int[] upHigh;
+    private final int[] arcLow;
+
+    // The same arcs grouped by high and sorted by low, for finding lower triangles
+    private final int[] downOffsets;
+    private final int[] downLow;
+    private final int[] downArc;
+
+    // Original edges behind each arc, and the arc of each original edge
+    private final int[] arcEdgeOffsets;
+    private final int[] arcEdges;
+    private final int[] edgeArc;
+
+    private final long buildMillis;
+    private volatile Metric metric;
+    private volatile long lastCustomizeMillis;
+    private volatile int lastUpdatedArcs;
+
+    private CustomizableContractionHierarchy(RoadGraph graph, int[] rank, int[][] upward, long started) {
+        this.graph = graph;
+        this.nodeCount = graph.nodeCount();
+        this.rank = rank;
+        this.byRank = new int[nodeCount];
+        for (int v = 0; v < nodeCount; v++) {
+            byRank[rank[v]] = v;
+        }
+
+        upOffsets = new int[nodeCount + 1];
+        for (int v = 0; v < nodeCount; v++) {
+            upOffsets[v + 1] = upOffsets[v] + upward[v].length;
+        }
+        int arcCount = upOffsets[nodeCount];
+        upHigh = new int[arcCount];
+        arcLow = new int[arcCount];
+        downOffsets = new int[nodeCount + 1];
+        for (int v = 0; v < nodeCount; v++) {
+            int[] highs = upward[v];
+            Arrays.sort(highs);
+            System.arraycopy(highs, 0, upHigh, upOffsets[v], highs.length);
+            for (int high : highs) {
+                downOffsets[high + 1]++;
+            }
+            Arrays.fill(arcLow, upOffsets[v], upOffsets[v + 1], v);
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            downOffsets[v + 1] += downOffsets[v];
+        }
+        downLow = new int[arcCount];
+        downArc = new int[arcCount];
+        int[] fill = Arrays.copyOf(downOffsets, nodeCount);
+        for (int arc = 0; arc < arcCount; arc++) {
+            int slot = fill[upHigh[arc]]++;
+            downLow[slot] = arcLow[arc];
+            downArc[slot] = arc;
+        }
+
+        edgeSource = new int[graph.edgeCount()];
+        edgeArc = new int[graph.edgeCount()];
+        arcEdgeOffsets = new int[arcCount + 1];
+        for (int u = 0; u < nodeCount; u++) {
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int v = graph.target(e);
+                edgeSource[e] = u;
+                edgeArc[e] = u == v ? -1 : rank[u] < rank[v] ? findArc(u, v) : findArc(v, u);
+                if (edgeArc[e] >= 0) {
+                    arcEdgeOffsets[edgeArc[e] + 1]++;
+                }
+            }
+        }
+        for (int arc = 0; arc < arcCount; arc++) {
+            arcEdgeOffsets[arc + 1] += arcEdgeOffsets[arc];
+        }
+        arcEdges = new int[arcEdgeOffsets[arcCount]];
+        fill = Arrays.copyOf(arcEdgeOffsets, arcCount);
+        for (int e = 0; e < edgeArc.length; e++) {
+            if (edgeArc[e] >= 0) {
+                arcEdges[fill[edgeArc[e]]++] = e;
+            }
+        }
+        buildMillis = System.currentTimeMillis() - started;
+    }
+
+    /**
+     * Order the nodes and lay out the shortcut topology; call customize() before querying
+     */
+    public static CustomizableContractionHierarchy build(RoadNetwork network) {
+        long started = System.currentTimeMillis();
+        RoadGraph graph = network.getGraph();
+        int n = graph.nodeCount();
+
+        // Undirected adjacency without self-loops or duplicates
+        int[][] adjacency = new int[n][];
+        int[] size = new int[n];
+        for (int u = 0; u < n; u++) {
+            adjacency[u] = new int[Math.max(4, 2 * (graph.endEdge(u) - graph.firstEdge(u)))];
+        }
+        for (int u = 0; u < n; u++) {
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int v = graph.target(e);
+                if (v != u) {
+                    size[u] = append(adjacency, size, u, v);
+                    size[v] = append(adjacency, size, v, u);
+                }
+            }
+        }
+        for (int u = 0; u < n; u++) {
+            int[] sorted = Arrays.copyOf(adjacency[u], size[u]);
+            Arrays.sort(sorted);
+            int unique = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[unique++] = sorted[i];
+                }
+            }
+            adjacency[u] = sorted;
+            size[u] = unique;
+        }
+
+        int[] order = new NestedDissection(network, adjacency).order();
+
+        // Eliminate in order, joining the remaining neighbours of each node
+        int[] rank = new int[n];
+        int[][] upward = new int[n][];
+        boolean[] eliminated = new boolean[n];
+        int[] mark = new int[n];
+        int stamp = 0;
+        for (int r = 0; r < n; r++) {
+            int v = order[r];
+            size[v] = compact(adjacency, size, v, eliminated);
+            int[] neighbours = Arrays.copyOf(adjacency[v], size[v]);
+            upward[v] = neighbours;
+            rank[v] = r;
+            eliminated[v] = true;
+            adjacency[v] = null;
+
+            for (int a : neighbours) {
+                size[a] = compact(adjacency, size, a, eliminated);
+                stamp++;
+                mark[a] = stamp;
+                for (int i = 0; i < size[a]; i++) {
+                    mark[adjacency[a][i]] = stamp;
+                }
+                for (int b : neighbours) {
+                    if (mark[b] != stamp) {
+                        size[a] = append(adjacency, size, a, b);
+                    }
+                }
+            }
+        }
+        return new CustomizableContractionHierarchy(graph, rank, upward, started);
+    }
+
+    private static int append(int[][] adjacency, int[] size, int u, int v) {
+        if (size[u] == adjacency[u].length) {
+            adjacency[u] = Arrays.copyOf(adjacency[u], Math.max(4, size[u] * 2));
+        }
+        adjacency[u][size[u]] = v;
+        return size[u] + 1;
+    }
+
+    private static int compact(int[][] adjacency, int[] size, int u, boolean[] eliminated) {
+        int[] list = adjacency[u];
+        int kept = 0;
+        for (int i = 0; i < size[u]; i++) {
+            if (!eliminated[list[i]]) {
+                list[kept++] = list[i];
+            }
+        }
+        return kept;
+    }
+
+    public int nodeCount() { return nodeCount; }
+    public int arcCount() { return upHigh.length; }
+    public int rank(int node) { return rank[node]; }
+    public long getBuildMillis() { return buildMillis; }
+    public long getLastCustomizeMillis() { return lastCustomizeMillis; }
+    public int getLastUpdatedArcs() { return lastUpdatedArcs; }
+    public boolean isCustomized() { return metric != null; }
+
+    /**
+     * Approximate heap footprint of the topology and one metric
+     */
+    public long memoryBytes() {
+        long arcs = upHigh.length;
+        return 4L * (4 * nodeCount + 3) + arcs * (4 * 5 + 4 * 6) + 4L * (arcEdges.length + 2L * edgeArc.length);
+    }
+
+    /**
+     * Apply a complete set of edge weights (indexed like the graph's edges) from scratch
+     */
+    public void customize(float[] edgeWeights) {
+        long started = System.nanoTime();
+        Metric next = new Metric(upHigh.length, edgeWeights.clone());
+        for (int arc = 0; arc < upHigh.length; arc++) {
+            loadInput(next, arc);
+        }
+        System.arraycopy(next.inputUp, 0, next.up, 0, next.up.length);
+        System.arraycopy(next.inputDown, 0, next.down, 0, next.down.length);
+
+        // Bottom-up: by the time v is processed every arc below it is final
+        for (int r = 0; r < nodeCount; r++) {
+            int v = byRank[r];
+            for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++) {
+                for (int j = i + 1; j < upOffsets[v + 1]; j++) {
+                    relaxTriangle(next, i, j);
+                }
+            }
+        }
+        metric = next;
+        lastUpdatedArcs = upHigh.length;
+        lastCustomizeMillis = (System.nanoTime() - started) / 1_000_000;
+    }
+
+    /**
+     * Apply new edge weights, recomputing only arcs whose value can depend on an edge that
+     * changed. Falls back to customize() if nothing has been customized yet. Returns the
+     * number of arcs recomputed.
+     */
+    public int update(float[] edgeWeights) {
+        Metric current = metric;
+        if (current == null) {
+            customize(edgeWeights);
+            return upHigh.length;
+        }
+        long started = System.nanoTime();
+        Metric next = current.copy(edgeWeights.clone());
+
+        // Arcs are recomputed lowest first, so the arcs below each one are already final
+        PriorityQueue<Long> dirty = new PriorityQueue<>();
+        boolean[] queued = new boolean[upHigh.length];
+        for (int e = 0; e < edgeWeights.length; e++) {
+            int arc = edgeArc[e];
+            if (arc >= 0 && edgeWeights[e] != current.edgeWeights[e] && !queued[arc]) {
+                queued[arc] = true;
+                loadInput(next, arc);
+                dirty.add((long) rank[arcLow[arc]] << 32 | arc);
+            }
+        }
+
+        int recomputed = 0;
+        while (!dirty.isEmpty()) {
+            int arc = (int) (long) dirty.poll();
+            queued[arc] = false;
+            recomputed++;
+            if (!recompute(next, arc)) {
+                continue;
+            }
+            // arc {a, b} is the lower side of every triangle {a, b, c} with c above a
+            int a = arcLow[arc];
+            int b = upHigh[arc];
+            for (int i = upOffsets[a]; i < upOffsets[a + 1]; i++) {
+                int c = upHigh[i];
+                if (c == b) {
+                    continue;
+                }
+                int above = rank[b] < rank[c] ? findArc(b, c) : findArc(c, b);
+                if (!queued[above]) {
+                    queued[above] = true;
+                    dirty.add((long) rank[arcLow[above]] << 32 | above);
+                }
+            }
+        }
+        metric = next;
+        lastUpdatedArcs = recomputed;
+        lastCustomizeMillis = (System.nanoTime() - started) / 1_000_000;
+        return recomputed;
+    }
+
+    /**
+     * Cheapest original edge in each direction of an arc
+     */
+    private void loadInput(Metric m, int arc) {
+        float up = Float.POSITIVE_INFINITY;
+        float down = Float.POSITIVE_INFINITY;
+        int upEdge = -1;
+        int downEdge = -1;
+        for (int i = arcEdgeOffsets[arc]; i < arcEdgeOffsets[arc + 1]; i++) {
+            int e = arcEdges[i];
+            float w = m.edgeWeights[e];
+            if (edgeSource[e] == arcLow[arc]) {
+                if (w < up) {
+                    up = w;
+                    upEdge = e;
+                }
+            } else if (w < down) {
+                down = w;
+                downEdge = e;
+            }
+        }
+        m.inputUp[arc] = up;
+        m.inputDown[arc] = down;
+        m.inputUpEdge[arc] = upEdge;
+        m.inputDownEdge[arc] = downEdge;
+    }
+
+    /**
+     * Lower triangle {v, a, b} given the arcs v-a and v-b: relax a-b through v
+     */
+    private void relaxTriangle(Metric m, int arcA, int arcB) {
+        int a = upHigh[arcA];
+        int b = upHigh[arcB];
+        if (rank[a] > rank[b]) {
+            int swap = arcA;
+            arcA = arcB;
+            arcB = swap;
+            a = upHigh[arcA];
+            b = upHigh[arcB];
+        }
+        int top = findArc(a, b);
+        float up = m.down[arcA] + m.up[arcB];
+        float down = m.down[arcB] + m.up[arcA];
+        if (up < m.up[top]) {
+            m.up[top] = up;
+        }
+        if (down < m.down[top]) {
+            m.down[top] = down;
+        }
+    }
+
+    /**
+     * Recompute an arc from its input and all its lower triangles; true if it changed
+     */
+    private boolean recompute(Metric m, int arc) {
+        float up = m.inputUp[arc];
+        float down = m.inputDown[arc];
+        int a = arcLow[arc];
+        int b = upHigh[arc];
+        int i = downOffsets[a];
+        int j = downOffsets[b];
+        while (i < downOffsets[a + 1] && j < downOffsets[b + 1]) {
+            if (downLow[i] < downLow[j]) {
+                i++;
+            } else if (downLow[i] > downLow[j]) {
+                j++;
+            } else {
+                int za = downArc[i++];
+                int zb = downArc[j++];
+                up = Math.min(up, m.down[za] + m.up[zb]);
+                down = Math.min(down, m.down[zb] + m.up[za]);
+            }
+        }
+        boolean changed = up != m.up[arc] || down != m.down[arc];
+        m.up[arc] = up;
+        m.down[arc] = down;
+        return changed;
+    }
+
+    private int findArc(int low, int high) {
+        int index = Arrays.binarySearch(upHigh, upOffsets[low], upOffsets[low + 1], high);
+        if (index < 0) {
+            throw new IllegalStateException("Missing hierarchy arc " + low + "-" + high);
+        }
+        return index;
+    }
+
+    /**
+     * Shortest-path cost under the current metric, or Double.POSITIVE_INFINITY if unreachable
+     */
+    public double distance(int source, int target) {
+        QueryState state = QUERY_STATE.get();
+        search(source, target, metric, state);
+        return state.best;
+    }
+
+    /**
+     * Shortest path under the current metric as original graph nodes and edges, or null
+     * if unreachable
+     */
+    public Dijkstra.Path route(int source, int target) {
+        Metric m = metric;
+        QueryState state = QUERY_STATE.get();
+        search(source, target, m, state);
+        if (state.meet < 0) {
+            return null;
+        }
+
+        IntList edges = new IntList();
+        IntList forward = new IntList();
+        for (int v = state.meet; v != source; v = state.forward.parent(v)) {
+            forward.add(state.forward.parentEdge(v));
+        }
+        for (int i = forward.size - 1; i >= 0; i--) {
+            unpackUp(m, forward.values[i], edges);
+        }
+        for (int v = state.meet; v != target; v = state.backward.parent(v)) {
+            unpackDown(m, state.backward.parentEdge(v), edges);
+        }
+
+        int[] nodes = new int[edges.size + 1];
+        nodes[0] = source;
+        for (int i = 0; i < edges.size; i++) {
+            nodes[i + 1] = graph.target(edges.values[i]);
+        }
+        return new Dijkstra.Path(nodes, edges.toArray(), state.best, state.settled);
+    }
+
+    private void search(int source, int target, Metric m, QueryState state) {
+        if (m == null) {
+            throw new IllegalStateException("Hierarchy has not been customized");
+        }
+        Dijkstra.SearchState forward = state.forward;
+        Dijkstra.SearchState backward = state.backward;
+        forward.reset(nodeCount);
+        backward.reset(nodeCount);
+        state.best = Double.POSITIVE_INFINITY;
+        state.meet = -1;
+        state.settled = 0;
+
+        IndexedMinHeap forwardHeap = forward.heap();
+        IndexedMinHeap backwardHeap = backward.heap();
+        forward.relax(source, 0, -1, -1);
+        forwardHeap.push(source, 0);
+        backward.relax(target, 0, -1, -1);
+        backwardHeap.push(target, 0);
+
+        while (true) {
+            boolean forwardLive = !forwardHeap.isEmpty() && forwardHeap.peekKey() < state.best;
+            boolean backwardLive = !backwardHeap.isEmpty() && backwardHeap.peekKey() < state.best;
+            if (!forwardLive && !backwardLive) {
+                break;
+            }
+            boolean isForward = forwardLive && (!backwardLive || forwardHeap.peekKey() <= backwardHeap.peekKey());
+            Dijkstra.SearchState self = isForward ? forward : backward;
+            Dijkstra.SearchState other = isForward ? backward : forward;
+            // Forward climbs low->high arcs, backward follows high->low arcs in reverse
+            float[] climb = isForward ? m.up : m.down;
+            float[] opposite = isForward ? m.down : m.up;
+
+            int u = self.heap().poll();
+            state.settled++;
+            double du = self.distance(u);
+            if (other.reached(u) && du + other.distance(u) < state.best) {
+                state.best = du + other.distance(u);
+                state.meet = u;
+            }
+            if (stalled(u, du, self, opposite)) {
+                continue;
+            }
+            for (int arc = upOffsets[u]; arc < upOffsets[u + 1]; arc++) {
+                int v = upHigh[arc];
+                double dv = du + climb[arc];
+                if (dv < self.distance(v)) {
+                    self.relax(v, dv, u, arc);
+                    self.heap().push(v, dv);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stall-on-demand: skip u if a higher node this search already reached gets to it cheaper
+     */
+    private boolean stalled(int u, double du, Dijkstra.SearchState state, float[] opposite) {
+        for (int arc = upOffsets[u]; arc < upOffsets[u + 1]; arc++) {
+            int higher = upHigh[arc];
+            if (state.reached(higher) && state.distance(higher) + opposite[arc] < du) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Expand the low->high direction of an arc into original edges
+     */
+    private void unpackUp(Metric m, int arc, IntList edges) {
+        float w = m.up[arc];
+        if (m.inputUpEdge[arc] >= 0 && m.inputUp[arc] == w) {
+            edges.add(m.inputUpEdge[arc]);
+            return;
+        }
+        int a = arcLow[arc];
+        int b = upHigh[arc];
+        for (int i = downOffsets[a], j = downOffsets[b]; i < downOffsets[a + 1] && j < downOffsets[b + 1]; ) {
+            if (downLow[i] < downLow[j]) {
+                i++;
+            } else if (downLow[i] > downLow[j]) {
+                j++;
+            } else {
+                int za = downArc[i++];
+                int zb = downArc[j++];
+                if (m.down[za] + m.up[zb] == w) {
+                    unpackDown(m, za, edges);
+                    unpackUp(m, zb, edges);
+                    return;
+                }
+            }
+        }
+        throw new IllegalStateException("Cannot unpack hierarchy arc " + a + "->" + b);
+    }
+
+    /**
+     * Expand the high->low direction of an arc into original edges
+     */
+    private void unpackDown(Metric m, int arc, IntList edges) {
+        float w = m.down[arc];
+        if (m.inputDownEdge[arc] >= 0 && m.inputDown[arc] == w) {
+            edges.add(m.inputDownEdge[arc]);
+            return;
+        }
+        int a = arcLow[arc];
+        int b = upHigh[arc];
+        for (int i = downOffsets[a], j = downOffsets[b]; i < downOffsets[a + 1] && j < downOffsets[b + 1]; ) {
+            if (downLow[i] < downLow[j]) {
+                i++;
+            } else if (downLow[i] > downLow[j]) {
+                j++;
+            } else {
+                int za = downArc[i++];
+                int zb = downArc[j++];
+                if (m.down[zb] + m.up[za] == w) {
+                    unpackDown(m, zb, edges);
+                    unpackUp(m, za, edges);
+                    return;
+                }
+            }
+        }
+        throw new IllegalStateException("Cannot unpack hierarchy arc " + b + "->" + a);
+    }
+
+    /**
+     * Geometric nested dissection: split the nodes at the coordinate median along the wider
+     * axis, take the nodes on one side of the cut as a separator, order both halves
+     * recursively and the separator after them. Small separators keep the shortcut fill low
+     * on road networks, which are close to planar.
+     */
+    private static final class NestedDissection {
+        private static final int LEAF_SIZE = 32;
+
+        final RoadNetwork network;
+        final int[][] adjacency;
+        final int[] part;
+        final int[] order;
+        int nextPart;
+        int filled;
+
+        NestedDissection(RoadNetwork network, int[][] adjacency) {
+            this.network = network;
+            this.adjacency = adjacency;
+            int n = network.nodeCount();
+            this.part = new int[n];
+            this.order = new int[n];
+        }
+
+        int[] order() {
+            int[] all = new int[order.length];
+            for (int v = 0; v < all.length; v++) {
+                all[v] = v;
+            }
+            dissect(all);
+            return order;
+        }
+
+        private void dissect(int[] nodes) {
+            if (nodes.length <= LEAF_SIZE) {
+                for (int v : nodes) {
+                    order[filled++] = v;
+                }
+                return;
+            }
+            double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+            double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+            for (int v : nodes) {
+                minLat = Math.min(minLat, network.lat(v));
+                maxLat = Math.max(maxLat, network.lat(v));
+                minLon = Math.min(minLon, network.lon(v));
+                maxLon = Math.max(maxLon, network.lon(v));
+            }
+            double cosLat = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+            boolean byLat = maxLat - minLat >= (maxLon - minLon) * cosLat;
+            Integer[] sorted = new Integer[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                sorted[i] = nodes[i];
+            }
+            Arrays.sort(sorted, Comparator.comparingDouble(v -> byLat ? network.lat(v) : network.lon(v)));
+
+            int half = nodes.length / 2;
+            int left = ++nextPart;
+            int right = ++nextPart;
+            for (int i = 0; i < sorted.length; i++) {
+                part[sorted[i]] = i < half ? left : right;
+            }
+            IntList leftNodes = new IntList();
+            IntList rightNodes = new IntList();
+            IntList separator = new IntList();
+            for (int i = 0; i < sorted.length; i++) {
+                int v = sorted[i];
+                if (i < half) {
+                    leftNodes.add(v);
+                } else if (touches(v, left)) {
+                    separator.add(v);
+                } else {
+                    rightNodes.add(v);
+                }
+            }
+            dissect(leftNodes.toArray());
+            dissect(rightNodes.toArray());
+            for (int i = 0; i < separator.size; i++) {
+                order[filled++] = separator.values[i];
+            }
+        }
+
+        private boolean touches(int v, int side) {
+            for (int w : adjacency[v]) {
+                if (part[w] == side) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Arc weights for one set of edge weights; replaced as a whole on every customization
+     */
+    private static final class Metric {
+        final float[] edgeWeights;
+        final float[] up;
+        final float[] down;
+        final float[] inputUp;
+        final float[] inputDown;
+        final int[] inputUpEdge;
+        final int[] inputDownEdge;
+
+        Metric(int arcCount, float[] edgeWeights) {
+            this.edgeWeights = edgeWeights;
+            up = new float[arcCount];
+            down = new float[arcCount];
+            inputUp = new float[arcCount];
+            inputDown = new float[arcCount];
+            inputUpEdge = new int[arcCount];
+            inputDownEdge = new int[arcCount];
+        }
+
+        private Metric(Metric from, float[] edgeWeights) {
+            this.edgeWeights = edgeWeights;
+            up = from.up.clone();
+            down = from.down.clone();
+            inputUp = from.inputUp.clone();
+            inputDown = from.inputDown.clone();
+            inputUpEdge = from.inputUpEdge.clone();
+            inputDownEdge = from.inputDownEdge.clone();
+        }
+
+        Metric copy(float[] edgeWeights) {
+            return new Metric(this, edgeWeights);
+        }
+    }
+
+    private static final class QueryState {
+        final Dijkstra.SearchState forward = new Dijkstra.SearchState(0);
+        final Dijkstra.SearchState backward = new Dijkstra.SearchState(0);
+        double best;
+        int meet;
+        int settled;
+    }
+}
@@ -4,6 +4,8 @@ import java.util.*;
 
 public class Dijkstra {
 
+    private static final ThreadLocal<SearchState> STATE = ThreadLocal.withInitial(() -> new SearchState(0));
+
     public static class Result {
         public final List<Long> path;
         public final double cost;
@@ -14,6 +16,10 @@ public class Dijkstra {
         }
     }
 
+    /**
+     * Shortest path on a map-based graph. Kept for small ad-hoc graphs; use the
+     * RoadGraph overloads for anything road-network sized.
+     */
     public static Result compute(Map<Long, Map<Long, Double>> graph, Long start, Long end) {
 
         Map<Long, Double> dist = new HashMap<>();
@@ -32,13 +38,14 @@ public class Dijkstra {
 
             if (current == end) break;
 
-            for (Map.Entry<Long, Double> entry : graph.get(current).entrySet()) {
+            // Nodes that only appear as edge targets have no adjacency entry
+            for (Map.Entry<Long, Double> entry : graph.getOrDefault(current, Map.of()).entrySet()) {
                 long neighbor = entry.getKey();
                 double weight = entry.getValue();
 
                 double newDist = dist.get(current) + weight;
 
-                if (newDist < dist.get(neighbor)) {
+                if (newDist < dist.getOrDefault(neighbor, Double.MAX_VALUE)) {
                     dist.put(neighbor, newDist);
                     prev.put(neighbor, current);
                     pq.add(neighbor);
@@ -58,6 +65,192 @@ public class Dijkstra {
 
         Collections.reverse(path);
 
-        return new Result(path, dist.get(end));
+        return new Result(path, dist.getOrDefault(end, Double.MAX_VALUE));
+    }
+
+    /**
+     * Shortest-path cost from source to target, or Double.POSITIVE_INFINITY if unreachable.
+     * Runs on this thread's reusable search state and allocates nothing.
+     */
+    public static double distance(RoadGraph graph, int source, int target) {
+        SearchState state = STATE.get();
+        run(graph, source, target, state);
+        return state.distance(target);
+    }
+
+    /**
+     * Shortest path from source to target, or null if unreachable
+     */
+    public static Path route(RoadGraph graph, int source, int target) {
+        SearchState state = STATE.get();
+        int settled = run(graph, source, target, state);
+        if (state.distance(target) == Double.POSITIVE_INFINITY) {
+            return null;
+        }
+        return state.path(source, target, settled);
+    }
+
+    /**
+     * Plain Dijkstra from source, stopping once target is settled (or the queue runs dry if
+     * target is -1). Returns the number of nodes settled.
+     */
+    public static int run(RoadGraph graph, int source, int target, SearchState state) {
+        state.reset(graph.nodeCount());
+        IndexedMinHeap heap = state.heap;
+        state.relax(source, 0, -1, -1);
+        heap.push(source, 0);
+        int settled = 0;
+
+        while (!heap.isEmpty()) {
+            int u = heap.poll();
+            settled++;
+            if (u == target) {
+                break;
+            }
+            double du = state.distance(u);
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                int v = graph.target(e);
+                double dv = du + graph.weight(e);
+                if (dv < state.distance(v)) {
+                    state.relax(v, dv, u, e);
+                    heap.push(v, dv);
+                }
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * Dijkstra from source over weights (the graph's own weights when null), settling only
+     * nodes within limit. Each settled node is appended to settled; distances stay in state.
+     */
+    static void runWithin(RoadGraph graph, float[] weights, int source, double limit,
+                          SearchState state, IntList settled) {
+        state.reset(graph.nodeCount());
+        settled.clear();
+        IndexedMinHeap heap = state.heap;
+        state.relax(source, 0, -1, -1);
+        heap.push(source, 0);
+
+        while (!heap.isEmpty()) {
+            int u = heap.poll();
+            settled.add(u);
+            double du = state.distance(u);
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                int v = graph.target(e);
+                double dv = du + (weights == null ? graph.weight(e) : weights[e]);
+                if (dv <= limit && dv < state.distance(v)) {
+                    state.relax(v, dv, u, e);
+                    heap.push(v, dv);
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-query distances, parents and heap, sized to the graph and reused across queries.
+     * Entries are tagged with a query stamp, so starting a new query is O(1) rather than O(n).
+     */
+    public static final class SearchState {
+        private double[] dist;
+        private int[] parent;
+        private int[] parentEdge;
+        private int[] stamp;
+        private int currentStamp;
+        final IndexedMinHeap heap;
+
+        public SearchState(int nodeCount) {
+            dist = new double[nodeCount];
+            parent = new int[nodeCount];
+            parentEdge = new int[nodeCount];
+            stamp = new int[nodeCount];
+            heap = new IndexedMinHeap(nodeCount);
+        }
+
+        public void reset(int nodeCount) {
+            if (nodeCount > stamp.length) {
+                dist = new double[nodeCount];
+                parent = new int[nodeCount];
+                parentEdge = new int[nodeCount];
+                stamp = new int[nodeCount];
+                currentStamp = 0;
+            }
+            heap.ensureCapacity(nodeCount);
+            heap.clear();
+            if (++currentStamp == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                currentStamp = 1;
+            }
+        }
+
+        public IndexedMinHeap heap() {
+            return heap;
+        }
+
+        public boolean reached(int node) {
+            return stamp[node] == currentStamp;
+        }
+
+        public double distance(int node) {
+            return stamp[node] == currentStamp ? dist[node] : Double.POSITIVE_INFINITY;
+        }
+
+        public int parent(int node) {
+            return stamp[node] == currentStamp ? parent[node] : -1;
+        }
+
+        public int parentEdge(int node) {
+            return stamp[node] == currentStamp ? parentEdge[node] : -1;
+        }
+
+        public void relax(int node, double distance, int parentNode, int viaEdge) {
+            stamp[node] = currentStamp;
+            dist[node] = distance;
+            parent[node] = parentNode;
+            parentEdge[node] = viaEdge;
+        }
+
+        /**
+         * Walk parents back from target to source
+         */
+        public Path path(int source, int target, int settled) {
+            int count = 1;
+            for (int v = target; v != source; v = parent[v]) {
+                count++;
+            }
+            int[] nodes = new int[count];
+            int[] edges = new int[count - 1];
+            int i = count - 1;
+            for (int v = target; v != source; v = parent[v]) {
+                nodes[i] = v;
+                edges[i - 1] = parentEdge[v];
+                i--;
+            }
+            nodes[0] = source;
+            return new Path(nodes, edges, dist[target], settled);
+        }
+    }
+
+    public static final class Path {
+        private final int[] nodes;
+        private final int[] edges;
+        private final double cost;
+        private final int settled;
+
+        public Path(int[] nodes, int[] edges, double cost, int settled) {
+            this.nodes = nodes;
+            this.edges = edges;
+            this.cost = cost;
+            this.settled = settled;
+        }
+
+        public int[] getNodes() { return nodes; }
+        public int[] getEdges() { return edges; }
+        public double getCost() { return cost; }
+
+        /**
+         * Nodes the search settled to find this path
+         */
+        public int getSettled() { return settled; }
     }
 }
@@ -0,0 +1,42 @@
+package com.trafficx.util;
+
+/**
+ * Fixed-precision grid over lat/lon. Cells are roughly square: rows are cellMeters tall
+ * and each row's columns are widened by 1/cos(lat) so they stay cellMeters wide.
+ */
+public final class GeoGrid {
+
+    private final double cellMeters;
+    private final double cellDegLat;
+
+    public GeoGrid(double cellMeters) {
+        this.cellMeters = cellMeters;
+        this.cellDegLat = cellMeters / GeoUtils.METERS_PER_DEGREE;
+    }
+
+    public double getCellMeters() {
+        return cellMeters;
+    }
+
+    /**
+     * Pack the cell containing (lat, lon) into a single long: row in the high 32 bits, column in the low 32.
+     */
+    public long cellKey(double lat, double lon) {
+        long row = (long) Math.floor(lat / cellDegLat);
+        long col = (long) Math.floor(lon / cellDegLon(row));
+        return (row << 32) | (col & 0xffffffffL);
+    }
+
+    public double[] cellCenter(long key) {
+        long row = key >> 32;
+        long col = (int) key;
+        double lat = (row + 0.5) * cellDegLat;
+        double lon = (col + 0.5) * cellDegLon(row);
+        return new double[]{lat, lon};
+    }
+
+    private double cellDegLon(long row) {
+        double rowLat = (row + 0.5) * cellDegLat;
+        return cellDegLat / Math.max(0.01, Math.cos(Math.toRadians(rowLat)));
+    }
+}
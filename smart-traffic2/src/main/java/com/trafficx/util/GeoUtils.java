@@ -0,0 +1,23 @@
+package com.trafficx.util;
+
+/**
+ * Great-circle helpers shared by routing and the spatial indexes.
+ */
+public final class GeoUtils {
+
+    public static final double EARTH_RADIUS_METERS = 6_371_000.0;
+    public static final double METERS_PER_DEGREE = 111_320.0;
+
+    private GeoUtils() {
+    }
+
+    public static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                   Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                   Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return EARTH_RADIUS_METERS * c;
+    }
+}
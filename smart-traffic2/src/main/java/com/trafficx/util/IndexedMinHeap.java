@@ -0,0 +1,143 @@
+package com.trafficx.util;
+
+import java.util.Arrays;
+
+/**
+ * 4-ary min-heap of int ids keyed by double, with decrease-key. Each id is in the heap
+ * at most once; positions are tracked in a flat array so updates are O(log n) without
+ * duplicates, and clear() only touches ids still queued so the heap can be reused.
+ */
+public final class IndexedMinHeap {
+
+    private int[] heap;
+    private double[] keys;
+    // Heap slot of each id, or -1 when it is not queued
+    private int[] position;
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        heap = new int[Math.max(1, capacity)];
+        keys = new double[Math.max(1, capacity)];
+        position = new int[Math.max(1, capacity)];
+        Arrays.fill(position, -1);
+    }
+
+    /**
+     * Make room for ids 0..capacity-1; existing entries are kept
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > position.length) {
+            int old = position.length;
+            heap = Arrays.copyOf(heap, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            position = Arrays.copyOf(position, capacity);
+            Arrays.fill(position, old, capacity, -1);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int id) {
+        return position[id] >= 0;
+    }
+
+    public double peekKey() {
+        return keys[heap[0]];
+    }
+
+    public double key(int id) {
+        return keys[id];
+    }
+
+    /**
+     * Insert id, or lower its key if it is already queued with a larger one
+     */
+    public void push(int id, double key) {
+        int slot = position[id];
+        if (slot < 0) {
+            slot = size++;
+            heap[slot] = id;
+            position[id] = slot;
+            keys[id] = key;
+            siftUp(slot);
+        } else if (key < keys[id]) {
+            keys[id] = key;
+            siftUp(slot);
+        }
+    }
+
+    /**
+     * Remove and return the id with the smallest key
+     */
+    public int poll() {
+        int top = heap[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int slot) {
+        int id = heap[slot];
+        double key = keys[id];
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 2;
+            int parentId = heap[parent];
+            if (keys[parentId] <= key) {
+                break;
+            }
+            heap[slot] = parentId;
+            position[parentId] = slot;
+            slot = parent;
+        }
+        heap[slot] = id;
+        position[id] = slot;
+    }
+
+    private void siftDown(int slot) {
+        int id = heap[slot];
+        double key = keys[id];
+        while (true) {
+            int firstChild = (slot << 2) + 1;
+            if (firstChild >= size) {
+                break;
+            }
+            int best = firstChild;
+            double bestKey = keys[heap[firstChild]];
+            int lastChild = Math.min(firstChild + 4, size);
+            for (int child = firstChild + 1; child < lastChild; child++) {
+                double childKey = keys[heap[child]];
+                if (childKey < bestKey) {
+                    best = child;
+                    bestKey = childKey;
+                }
+            }
+            if (bestKey >= key) {
+                break;
+            }
+            heap[slot] = heap[best];
+            position[heap[slot]] = slot;
+            slot = best;
+        }
+        heap[slot] = id;
+        position[id] = slot;
+    }
+}
@@ -0,0 +1,26 @@
+package com.trafficx.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable int array for the routing internals
+ */
+final class IntList {
+    int[] values = new int[16];
+    int size;
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
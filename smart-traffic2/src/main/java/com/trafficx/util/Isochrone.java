@@ -0,0 +1,384 @@
+package com.trafficx.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Areas reachable from one node within several travel times, all from a single Dijkstra
+ * bounded by the largest. Reached edges, including the reachable part of edges that run past
+ * the limit, are drawn onto a grid whose cells hold the earliest arrival time. A band is the
+ * outline of the cells reached within its time, after a closing pass (dilate, then erode) fills
+ * one-cell gaps between roads.
+ *
+ * Polygons are lists of closed rings: the outer ring first (counter-clockwise), then its holes
+ * (clockwise).
+ */
+public final class Isochrone {
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    // Cells beyond this make the grid coarser instead of bigger
+    private static final int MAX_CELLS = 4_000_000;
+
+    // E, N, W, S on the cell lattice; turning left is +1
+    private static final int[] DX = {1, 0, -1, 0};
+    private static final int[] DY = {0, 1, 0, -1};
+
+    // Left, straight, right: left first keeps regions that touch at a corner apart
+    private static final int[] TURNS = {1, 0, 3};
+
+    private Isochrone() {
+    }
+
+    /**
+     * Bands for bandSeconds (ascending) around source, over weights (the graph's own when null)
+     */
+    public static Result compute(RoadNetwork network, float[] weights, int source, double[] bandSeconds,
+                                 double cellMeters) {
+        RoadGraph graph = network.getGraph();
+        double limit = bandSeconds[bandSeconds.length - 1];
+        Scratch scratch = SCRATCH.get();
+        Dijkstra.SearchState state = scratch.state;
+        IntList settled = scratch.settled;
+        Dijkstra.runWithin(graph, weights, source, limit, state, settled);
+
+        // Grid over everything the search touched, with room for the closing pass
+        double minLat = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+        for (int i = 0; i < settled.size; i++) {
+            int u = settled.values[i];
+            // Edges leaving the area are drawn part way, so their far ends count too
+            for (int e = graph.firstEdge(u); e <= graph.endEdge(u); e++) {
+                int node = e < graph.endEdge(u) ? graph.target(e) : u;
+                minLat = Math.min(minLat, network.lat(node));
+                maxLat = Math.max(maxLat, network.lat(node));
+                minLon = Math.min(minLon, network.lon(node));
+                maxLon = Math.max(maxLon, network.lon(node));
+            }
+        }
+        double cosLat = Math.max(0.01, Math.cos(Math.toRadians((minLat + maxLat) / 2)));
+        double cell = cellMeters;
+        double spanLat = (maxLat - minLat) * GeoUtils.METERS_PER_DEGREE;
+        double spanLon = (maxLon - minLon) * GeoUtils.METERS_PER_DEGREE * cosLat;
+        double cells = (spanLat / cell + 5) * (spanLon / cell + 5);
+        if (cells > MAX_CELLS) {
+            cell *= Math.sqrt(cells / MAX_CELLS);
+        }
+        Grid grid = new Grid(minLat - 2 * cell / GeoUtils.METERS_PER_DEGREE,
+            minLon - 2 * cell / GeoUtils.METERS_PER_DEGREE / cosLat,
+            cell / GeoUtils.METERS_PER_DEGREE, cell / GeoUtils.METERS_PER_DEGREE / cosLat,
+            (int) (spanLat / cell) + 5, (int) (spanLon / cell) + 5);
+
+        float[] times = scratch.times(grid.rows * grid.cols);
+        Arrays.fill(times, 0, grid.rows * grid.cols, Float.POSITIVE_INFINITY);
+        double step = cell / 2;
+        for (int i = 0; i < settled.size; i++) {
+            int u = settled.values[i];
+            double du = state.distance(u);
+            double lat = network.lat(u);
+            double lon = network.lon(u);
+            grid.mark(times, lat, lon, du);
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                double w = weights == null ? graph.weight(e) : weights[e];
+                if (w == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                int v = graph.target(e);
+                double reach = w <= 0 ? 1 : Math.min(1, (limit - du) / w);
+                int steps = Math.max(1, (int) Math.ceil(network.length(e) * reach / step));
+                double dLat = network.lat(v) - lat;
+                double dLon = network.lon(v) - lon;
+                for (int s = 1; s <= steps; s++) {
+                    double along = reach * s / steps;
+                    grid.mark(times, lat + dLat * along, lon + dLon * along, du + w * along);
+                }
+            }
+        }
+
+        List<Band> bands = new ArrayList<>(bandSeconds.length);
+        for (double seconds : bandSeconds) {
+            int reachable = 0;
+            for (int i = 0; i < settled.size; i++) {
+                if (state.distance(settled.values[i]) <= seconds) {
+                    reachable++;
+                }
+            }
+            boolean[] inside = close(grid, times, seconds, scratch);
+            int count = 0;
+            for (int i = 0; i < grid.rows * grid.cols; i++) {
+                if (inside[i]) {
+                    count++;
+                }
+            }
+            bands.add(new Band(seconds, trace(grid, inside, scratch), count * cell * cell / 1e6, reachable));
+        }
+        return new Result(bands, settled.size, cell);
+    }
+
+    /**
+     * Cells reached within seconds, dilated then eroded with a 3x3 square
+     */
+    private static boolean[] close(Grid grid, float[] times, double seconds, Scratch scratch) {
+        int rows = grid.rows;
+        int cols = grid.cols;
+        boolean[] dilated = scratch.dilated(rows * cols);
+        boolean[] inside = scratch.inside(rows * cols);
+        Arrays.fill(dilated, 0, rows * cols, false);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (times[r * cols + c] <= seconds) {
+                    for (int dr = -1; dr <= 1; dr++) {
+                        for (int dc = -1; dc <= 1; dc++) {
+                            dilated[(r + dr) * cols + c + dc] = true;
+                        }
+                    }
+                }
+            }
+        }
+        Arrays.fill(inside, 0, rows * cols, false);
+        for (int r = 1; r < rows - 1; r++) {
+            for (int c = 1; c < cols - 1; c++) {
+                boolean all = true;
+                for (int dr = -1; dr <= 1 && all; dr++) {
+                    for (int dc = -1; dc <= 1 && all; dc++) {
+                        all = dilated[(r + dr) * cols + c + dc];
+                    }
+                }
+                inside[r * cols + c] = all;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Outline the inside cells as polygons. Every cell side between an inside and an outside
+     * cell becomes a lattice edge with the inside on its left; following them (turning left
+     * first where two regions touch at a corner) gives counter-clockwise outer rings and
+     * clockwise holes.
+     */
+    private static List<List<PackedPolyline>> trace(Grid grid, boolean[] inside, Scratch scratch) {
+        int rows = grid.rows;
+        int cols = grid.cols;
+        int width = cols + 1;
+        byte[] out = scratch.out((rows + 1) * width);
+        Arrays.fill(out, 0, (rows + 1) * width, (byte) 0);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (!inside[r * cols + c]) {
+                    continue;
+                }
+                if (r == 0 || !inside[(r - 1) * cols + c]) {
+                    out[r * width + c] |= 1;
+                }
+                if (c == cols - 1 || !inside[r * cols + c + 1]) {
+                    out[r * width + c + 1] |= 2;
+                }
+                if (r == rows - 1 || !inside[(r + 1) * cols + c]) {
+                    out[(r + 1) * width + c + 1] |= 4;
+                }
+                if (c == 0 || !inside[r * cols + c - 1]) {
+                    out[(r + 1) * width + c] |= 8;
+                }
+            }
+        }
+
+        List<int[]> outers = new ArrayList<>();
+        List<int[]> holes = new ArrayList<>();
+        for (int start = 0; start < (rows + 1) * width; start++) {
+            while (out[start] != 0) {
+                int[] ring = walk(out, width, start);
+                (signedArea(ring) > 0 ? outers : holes).add(ring);
+            }
+        }
+
+        List<List<int[]>> polygons = new ArrayList<>();
+        for (int[] outer : outers) {
+            List<int[]> polygon = new ArrayList<>();
+            polygon.add(outer);
+            polygons.add(polygon);
+        }
+        for (int[] hole : holes) {
+            // A point just inside the cell to the hole boundary's left is inside its outer ring
+            double x = (hole[0] + hole[2]) / 2.0 + (hole[3] - hole[1] > 0 ? -0.25 : hole[3] - hole[1] < 0 ? 0.25 : 0);
+            double y = (hole[1] + hole[3]) / 2.0 + (hole[2] - hole[0] > 0 ? 0.25 : hole[2] - hole[0] < 0 ? -0.25 : 0);
+            List<int[]> owner = null;
+            double ownerArea = Double.MAX_VALUE;
+            for (List<int[]> polygon : polygons) {
+                double area = signedArea(polygon.get(0));
+                if (area < ownerArea && contains(polygon.get(0), x, y)) {
+                    owner = polygon;
+                    ownerArea = area;
+                }
+            }
+            if (owner != null) {
+                owner.add(hole);
+            }
+        }
+
+        List<List<PackedPolyline>> result = new ArrayList<>(polygons.size());
+        for (List<int[]> polygon : polygons) {
+            List<PackedPolyline> rings = new ArrayList<>(polygon.size());
+            for (int[] ring : polygon) {
+                PackedPolyline.Builder coordinates = new PackedPolyline.Builder(ring.length / 2 + 1);
+                for (int i = 0; i <= ring.length; i += 2) {
+                    int x = ring[i % ring.length];
+                    int y = ring[(i + 1) % ring.length];
+                    coordinates.add(grid.lat0 + y * grid.cellLat, grid.lon0 + x * grid.cellLon);
+                }
+                rings.add(coordinates.build());
+            }
+            result.add(rings);
+        }
+        return result;
+    }
+
+    /**
+     * Follow lattice edges from start until the ring closes, clearing them from out. Returns
+     * the corners as x0, y0, x1, y1, ...
+     */
+    private static int[] walk(byte[] out, int width, int start) {
+        int startDirection = Integer.numberOfTrailingZeros(out[start]);
+        IntList corners = new IntList();
+        int vertex = start;
+        int direction = startDirection;
+        out[start] &= (byte) ~(1 << direction);
+        corners.add(start % width);
+        corners.add(start / width);
+        while (true) {
+            vertex += DX[direction] + DY[direction] * width;
+            int available = out[vertex] | (vertex == start ? 1 << startDirection : 0);
+            int next = -1;
+            for (int turn : TURNS) {
+                int candidate = (direction + turn) & 3;
+                if ((available & (1 << candidate)) != 0) {
+                    next = candidate;
+                    break;
+                }
+            }
+            if (vertex == start && next == startDirection) {
+                break;
+            }
+            if (next != direction) {
+                corners.add(vertex % width);
+                corners.add(vertex / width);
+            }
+            out[vertex] &= (byte) ~(1 << next);
+            direction = next;
+        }
+        // The start may sit in the middle of a straight side
+        return corners.toArray();
+    }
+
+    private static double signedArea(int[] ring) {
+        double area = 0;
+        for (int i = 0; i < ring.length; i += 2) {
+            int j = (i + 2) % ring.length;
+            area += (double) ring[i] * ring[j + 1] - (double) ring[j] * ring[i + 1];
+        }
+        return area / 2;
+    }
+
+    private static boolean contains(int[] ring, double x, double y) {
+        boolean in = false;
+        for (int i = 0, j = ring.length - 2; i < ring.length; j = i, i += 2) {
+            if ((ring[i + 1] > y) != (ring[j + 1] > y)
+                    && x < (ring[j] - ring[i]) * (y - ring[i + 1]) / (double) (ring[j + 1] - ring[i + 1]) + ring[i]) {
+                in = !in;
+            }
+        }
+        return in;
+    }
+
+    private static final class Grid {
+        final double lat0;
+        final double lon0;
+        final double cellLat;
+        final double cellLon;
+        final int rows;
+        final int cols;
+
+        Grid(double lat0, double lon0, double cellLat, double cellLon, int rows, int cols) {
+            this.lat0 = lat0;
+            this.lon0 = lon0;
+            this.cellLat = cellLat;
+            this.cellLon = cellLon;
+            this.rows = rows;
+            this.cols = cols;
+        }
+
+        void mark(float[] times, double lat, double lon, double seconds) {
+            int r = (int) ((lat - lat0) / cellLat);
+            int c = (int) ((lon - lon0) / cellLon);
+            if (r > 0 && r < rows - 1 && c > 0 && c < cols - 1 && seconds < times[r * cols + c]) {
+                times[r * cols + c] = (float) seconds;
+            }
+        }
+    }
+
+    private static final class Scratch {
+        final Dijkstra.SearchState state = new Dijkstra.SearchState(0);
+        final IntList settled = new IntList();
+        float[] times = new float[0];
+        boolean[] dilated = new boolean[0];
+        boolean[] inside = new boolean[0];
+        byte[] out = new byte[0];
+
+        float[] times(int size) {
+            return times.length >= size ? times : (times = new float[size]);
+        }
+
+        boolean[] dilated(int size) {
+            return dilated.length >= size ? dilated : (dilated = new boolean[size]);
+        }
+
+        boolean[] inside(int size) {
+            return inside.length >= size ? inside : (inside = new boolean[size]);
+        }
+
+        byte[] out(int size) {
+            return out.length >= size ? out : (out = new byte[size]);
+        }
+    }
+
+    public static final class Result {
+        private final List<Band> bands;
+        private final int settledNodes;
+        private final double cellMeters;
+
+        Result(List<Band> bands, int settledNodes, double cellMeters) {
+            this.bands = bands;
+            this.settledNodes = settledNodes;
+            this.cellMeters = cellMeters;
+        }
+
+        public List<Band> getBands() { return bands; }
+        public int getSettledNodes() { return settledNodes; }
+
+        /**
+         * Grid resolution actually used; coarser than requested for very large areas
+         */
+        public double getCellMeters() { return cellMeters; }
+    }
+
+    public static final class Band {
+        private final double seconds;
+        private final List<List<PackedPolyline>> polygons;
+        private final double areaKm2;
+        private final int reachableNodes;
+
+        Band(double seconds, List<List<PackedPolyline>> polygons, double areaKm2, int reachableNodes) {
+            this.seconds = seconds;
+            this.polygons = polygons;
+            this.areaKm2 = areaKm2;
+            this.reachableNodes = reachableNodes;
+        }
+
+        public double getMinutes() { return seconds / 60; }
+        public List<List<PackedPolyline>> getPolygons() { return polygons; }
+        public double getAreaKm2() { return areaKm2; }
+        public int getReachableNodes() { return reachableNodes; }
+    }
+}
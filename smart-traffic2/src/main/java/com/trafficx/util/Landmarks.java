@@ -0,0 +1,129 @@
+package com.trafficx.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * ALT landmark tables: for a few landmark nodes L, the shortest-path cost from L to every
+ * node and from every node to L. By the triangle inequality these give a lower bound on
+ * the cost between any two nodes, which guides A* far better than straight-line distance.
+ * The bounds stay valid if edge weights later only increase.
+ */
+public final class Landmarks {
+
+    private final int[] nodes;
+    private final float[][] from;
+    private final float[][] to;
+    private final long buildMillis;
+
+    private Landmarks(int[] nodes, float[][] from, float[][] to, long buildMillis) {
+        this.nodes = nodes;
+        this.from = from;
+        this.to = to;
+        this.buildMillis = buildMillis;
+    }
+
+    public int count() { return nodes.length; }
+    public int node(int i) { return nodes[i]; }
+    public long getBuildMillis() { return buildMillis; }
+
+    public long memoryBytes() {
+        return 2L * nodes.length * (from.length == 0 ? 0 : from[0].length) * 4;
+    }
+
+    /**
+     * Pick count landmarks by farthest selection (each new landmark is the node whose
+     * nearest chosen landmark is farthest away, so they end up spread around the edge of
+     * the network) and compute their distance tables.
+     */
+    public static Landmarks select(RoadGraph graph, RoadGraph reverse, int count, int parallelism) {
+        long started = System.currentTimeMillis();
+        int n = graph.nodeCount();
+        count = Math.max(0, Math.min(count, n));
+        if (count == 0) {
+            return new Landmarks(new int[0], new float[0][], new float[0][], 0);
+        }
+        int[] chosen = new int[count];
+        float[][] from = new float[count][];
+        Dijkstra.SearchState state = new Dijkstra.SearchState(n);
+
+        // Start from the node farthest from an arbitrary one
+        float[] nearest = new float[n];
+        Arrays.fill(nearest, Float.POSITIVE_INFINITY);
+        float[] seed = distances(graph, 0, state);
+        int next = farthest(seed, null);
+        for (int i = 0; i < count; i++) {
+            chosen[i] = next;
+            from[i] = distances(graph, next, state);
+            for (int v = 0; v < n; v++) {
+                nearest[v] = Math.min(nearest[v], from[i][v]);
+            }
+            next = farthest(nearest, from[i]);
+        }
+
+        float[][] to = new float[count][];
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pool.submit(() -> IntStream.range(0, chosen.length).parallel()
+                .forEach(i -> to[i] = distances(reverse, chosen[i], new Dijkstra.SearchState(n)))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing landmark tables", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to compute landmark tables", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return new Landmarks(chosen, from, to, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Lower bound on the cost of the shortest u->v path
+     */
+    public double lowerBound(int u, int v) {
+        double best = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            // d(u,v) >= d(L,v) - d(L,u) and d(u,v) >= d(u,L) - d(v,L)
+            float[] f = from[i];
+            float[] t = to[i];
+            double forward = f[v] - f[u];
+            double backward = t[u] - t[v];
+            if (forward > best && forward != Double.POSITIVE_INFINITY) {
+                best = forward;
+            }
+            if (backward > best && backward != Double.POSITIVE_INFINITY) {
+                best = backward;
+            }
+        }
+        return best;
+    }
+
+    private static float[] distances(RoadGraph graph, int source, Dijkstra.SearchState state) {
+        Dijkstra.run(graph, source, -1, state);
+        float[] result = new float[graph.nodeCount()];
+        for (int v = 0; v < result.length; v++) {
+            result[v] = (float) state.distance(v);
+        }
+        return result;
+    }
+
+    /**
+     * The reachable node with the largest value, preferring nodes reachable from the
+     * latest landmark so isolated fragments are not picked
+     */
+    private static int farthest(float[] values, float[] reachable) {
+        int best = 0;
+        float bestValue = -1;
+        for (int v = 0; v < values.length; v++) {
+            float value = values[v];
+            if (value != Float.POSITIVE_INFINITY && value > bestValue
+                    && (reachable == null || reachable[v] != Float.POSITIVE_INFINITY)) {
+                best = v;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+}
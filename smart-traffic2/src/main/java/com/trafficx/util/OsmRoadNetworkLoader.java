@@ -0,0 +1,400 @@
+package com.trafficx.util;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builds a car-routable RoadNetwork from an OSM XML extract (.osm or .osm.gz).
+ * The file is streamed once with StAX; resolving way node references, cutting ways
+ * into edges and computing lengths and speeds then run in parallel across ways.
+ * Every OSM node used by a road becomes a graph node.
+ */
+public final class OsmRoadNetworkLoader {
+
+    // Default free-flow speed (km/h) per RoadNetwork.ROAD_CLASSES entry when maxspeed is absent
+    private static final float[] DEFAULT_SPEEDS = {100, 80, 60, 50, 40, 30, 30, 10, 20};
+    private static final float LINK_SPEED_FACTOR = 0.7f;
+
+    private OsmRoadNetworkLoader() {
+    }
+
+    public static RoadNetwork load(Path file, int parallelism) throws IOException {
+        long started = System.nanoTime();
+        ParsedOsm osm;
+        try (InputStream in = open(file)) {
+            osm = parse(in);
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed OSM XML in " + file + ": " + e.getMessage(), e);
+        }
+        long parsed = System.nanoTime();
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            RoadNetwork network = pool.submit(() -> build(osm)).get();
+            long built = System.nanoTime();
+            System.out.printf(Locale.ROOT,
+                "Loaded road network from %s: %d OSM nodes and %d ways parsed in %d ms (%.0f nodes/s); "
+                    + "%d graph nodes and %d edges built in %d ms (%.0f edges/s)%n",
+                file.getFileName(), osm.nodeCount, osm.wayCount, (parsed - started) / 1_000_000,
+                osm.nodeCount / Math.max(1e-9, (parsed - started) / 1e9),
+                network.nodeCount(), network.edgeCount(), (built - parsed) / 1_000_000,
+                network.edgeCount() / Math.max(1e-9, (built - parsed) / 1e9));
+            return network;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building road network", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to build road network: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+        return file.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    private static ParsedOsm parse(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+        ParsedOsm osm = new ParsedOsm();
+        LongList wayRefs = new LongList();
+        String highway = null, oneway = null, maxspeed = null, junction = null;
+        boolean inWay = false;
+
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "node" -> osm.addNode(
+                            Long.parseLong(reader.getAttributeValue(null, "id")),
+                            Double.parseDouble(reader.getAttributeValue(null, "lat")),
+                            Double.parseDouble(reader.getAttributeValue(null, "lon")));
+                        case "way" -> {
+                            inWay = true;
+                            wayRefs.clear();
+                            highway = oneway = maxspeed = junction = null;
+                        }
+                        case "nd" -> {
+                            if (inWay) {
+                                wayRefs.add(Long.parseLong(reader.getAttributeValue(null, "ref")));
+                            }
+                        }
+                        case "tag" -> {
+                            if (inWay) {
+                                String value = reader.getAttributeValue(null, "v");
+                                switch (reader.getAttributeValue(null, "k")) {
+                                    case "highway" -> highway = value;
+                                    case "oneway" -> oneway = value;
+                                    case "maxspeed" -> maxspeed = value;
+                                    case "junction" -> junction = value;
+                                    default -> { }
+                                }
+                            }
+                        }
+                        case "relation" -> {
+                            return osm; // Relations follow all ways; nothing routable is left
+                        }
+                        default -> { }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && inWay && reader.getLocalName().equals("way")) {
+                    inWay = false;
+                    osm.addWay(wayRefs, highway, oneway, maxspeed, junction);
+                }
+            }
+            return osm;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static RoadNetwork build(ParsedOsm osm) {
+        int[] nodeOrder = osm.sortNodesById();
+        long[] ids = osm.nodeIds;
+        int wayCount = osm.wayCount;
+        long[] refs = osm.refs.values;
+        int[] wayStart = osm.wayStart.values;
+
+        // Resolve references to (sorted) node positions and mark the nodes roads use
+        int[] refNode = new int[osm.refs.size];
+        boolean[] used = new boolean[osm.nodeCount];
+        IntStream.range(0, wayCount).parallel().forEach(w -> {
+            for (int r = wayStart[w]; r < wayStart[w + 1]; r++) {
+                int pos = Arrays.binarySearch(ids, 0, osm.nodeCount, refs[r]);
+                refNode[r] = pos;
+                if (pos >= 0) {
+                    used[pos] = true;
+                }
+            }
+        });
+
+        int[] graphId = new int[osm.nodeCount];
+        int nodeCount = 0;
+        for (int pos = 0; pos < osm.nodeCount; pos++) {
+            graphId[pos] = used[pos] ? nodeCount++ : -1;
+        }
+        double[] lats = new double[nodeCount];
+        double[] lons = new double[nodeCount];
+        IntStream.range(0, osm.nodeCount).parallel().forEach(pos -> {
+            if (graphId[pos] >= 0) {
+                int original = nodeOrder == null ? pos : nodeOrder[pos];
+                lats[graphId[pos]] = osm.lats[original];
+                lons[graphId[pos]] = osm.lons[original];
+            }
+        });
+
+        // Count edges per way, then let each way fill its own slice of the edge arrays
+        int[] edgeStart = new int[wayCount + 1];
+        IntStream.range(0, wayCount).parallel().forEach(w -> {
+            int segments = 0;
+            for (int r = wayStart[w]; r + 1 < wayStart[w + 1]; r++) {
+                if (refNode[r] >= 0 && refNode[r + 1] >= 0 && refNode[r] != refNode[r + 1]) {
+                    segments++;
+                }
+            }
+            edgeStart[w + 1] = osm.wayOneway[w] == 0 ? 2 * segments : segments;
+        });
+        for (int w = 0; w < wayCount; w++) {
+            edgeStart[w + 1] += edgeStart[w];
+        }
+
+        int edgeCount = edgeStart[wayCount];
+        int[] from = new int[edgeCount];
+        int[] to = new int[edgeCount];
+        float[] length = new float[edgeCount];
+        float[] speed = new float[edgeCount];
+        byte[] roadClass = new byte[edgeCount];
+        IntStream.range(0, wayCount).parallel().forEach(w -> {
+            int e = edgeStart[w];
+            byte direction = osm.wayOneway[w];
+            for (int r = wayStart[w]; r + 1 < wayStart[w + 1]; r++) {
+                if (refNode[r] < 0 || refNode[r + 1] < 0 || refNode[r] == refNode[r + 1]) {
+                    continue;
+                }
+                int a = graphId[refNode[r]];
+                int b = graphId[refNode[r + 1]];
+                float meters = (float) GeoUtils.haversineMeters(lats[a], lons[a], lats[b], lons[b]);
+                if (direction >= 0) {
+                    from[e] = a;
+                    to[e] = b;
+                    length[e] = meters;
+                    speed[e] = osm.waySpeed[w];
+                    roadClass[e] = osm.wayClass[w];
+                    e++;
+                }
+                if (direction <= 0) {
+                    from[e] = b;
+                    to[e] = a;
+                    length[e] = meters;
+                    speed[e] = osm.waySpeed[w];
+                    roadClass[e] = osm.wayClass[w];
+                    e++;
+                }
+            }
+        });
+
+        RoadGraph.Builder builder = new RoadGraph.Builder(nodeCount, edgeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            builder.addEdge(from[e], to[e], length[e] / (speed[e] / 3.6f));
+        }
+        int[] slot = new int[edgeCount];
+        RoadGraph graph = builder.build(slot);
+
+        float[] edgeLength = new float[edgeCount];
+        float[] edgeSpeed = new float[edgeCount];
+        byte[] edgeRoadClass = new byte[edgeCount];
+        IntStream.range(0, edgeCount).parallel().forEach(e -> {
+            edgeLength[slot[e]] = length[e];
+            edgeSpeed[slot[e]] = speed[e];
+            edgeRoadClass[slot[e]] = roadClass[e];
+        });
+
+        return new RoadNetwork(graph, lats, lons, edgeLength, edgeSpeed, edgeRoadClass);
+    }
+
+    /**
+     * Road class index for a highway tag, or -1 if cars cannot use it
+     */
+    static int roadClass(String highway) {
+        if (highway == null) {
+            return -1;
+        }
+        String base = highway.endsWith("_link") ? highway.substring(0, highway.length() - 5) : highway;
+        if (base.equals("road")) {
+            base = "unclassified";
+        }
+        for (int i = 0; i < RoadNetwork.ROAD_CLASSES.length; i++) {
+            if (RoadNetwork.ROAD_CLASSES[i].equals(base)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a maxspeed tag such as "50", "30 mph" or "50;30"; NaN when it is not numeric (e.g. "signals")
+     */
+    static float parseMaxSpeed(String maxspeed) {
+        if (maxspeed == null) {
+            return Float.NaN;
+        }
+        String value = maxspeed.split(";")[0].trim().toLowerCase(Locale.ROOT);
+        boolean mph = value.endsWith("mph");
+        if (mph) {
+            value = value.substring(0, value.length() - 3).trim();
+        } else if (value.endsWith("km/h")) {
+            value = value.substring(0, value.length() - 4).trim();
+        }
+        try {
+            float speed = Float.parseFloat(value);
+            return speed > 0 ? (mph ? speed * 1.609344f : speed) : Float.NaN;
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    /**
+     * Raw nodes and routable ways as they come out of the file, in primitive arrays
+     */
+    private static final class ParsedOsm {
+        long[] nodeIds = new long[1 << 16];
+        double[] lats = new double[1 << 16];
+        double[] lons = new double[1 << 16];
+        int nodeCount;
+
+        final LongList refs = new LongList();
+        final IntList wayStart = new IntList();
+        byte[] wayClass = new byte[1 << 12];
+        float[] waySpeed = new float[1 << 12];
+        // 1 = forward only, -1 = reverse only, 0 = both directions
+        byte[] wayOneway = new byte[1 << 12];
+        int wayCount;
+
+        ParsedOsm() {
+            wayStart.add(0);
+        }
+
+        void addNode(long id, double lat, double lon) {
+            if (nodeCount == nodeIds.length) {
+                int capacity = nodeCount * 2;
+                nodeIds = Arrays.copyOf(nodeIds, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+            }
+            nodeIds[nodeCount] = id;
+            lats[nodeCount] = lat;
+            lons[nodeCount] = lon;
+            nodeCount++;
+        }
+
+        void addWay(LongList wayRefs, String highway, String oneway, String maxspeed, String junction) {
+            int roadClass = roadClass(highway);
+            if (roadClass < 0 || wayRefs.size < 2) {
+                return;
+            }
+            if (wayCount == wayClass.length) {
+                int capacity = wayCount * 2;
+                wayClass = Arrays.copyOf(wayClass, capacity);
+                waySpeed = Arrays.copyOf(waySpeed, capacity);
+                wayOneway = Arrays.copyOf(wayOneway, capacity);
+            }
+
+            float speed = parseMaxSpeed(maxspeed);
+            if (Float.isNaN(speed)) {
+                speed = DEFAULT_SPEEDS[roadClass] * (highway.endsWith("_link") ? LINK_SPEED_FACTOR : 1);
+            }
+            byte direction = 0;
+            if ("-1".equals(oneway)) {
+                direction = -1;
+            } else if ("yes".equals(oneway) || "1".equals(oneway) || "true".equals(oneway)) {
+                direction = 1;
+            } else if (!"no".equals(oneway) && ("motorway".equals(highway) || "roundabout".equals(junction))) {
+                direction = 1;
+            }
+
+            wayClass[wayCount] = (byte) roadClass;
+            waySpeed[wayCount] = speed;
+            wayOneway[wayCount] = direction;
+            for (int i = 0; i < wayRefs.size; i++) {
+                refs.add(wayRefs.values[i]);
+            }
+            wayStart.add(refs.size);
+            wayCount++;
+        }
+
+        /**
+         * Sort nodes by id in place of nodeIds so refs can be binary searched. Extracts are
+         * normally already sorted; returns null then, else the original index of each position.
+         */
+        int[] sortNodesById() {
+            nodeIds = Arrays.copyOf(nodeIds, nodeCount);
+            boolean sorted = true;
+            for (int i = 1; i < nodeCount && sorted; i++) {
+                sorted = nodeIds[i - 1] <= nodeIds[i];
+            }
+            if (sorted) {
+                return null;
+            }
+            System.out.println("OSM nodes are not sorted by id; sorting " + nodeCount + " nodes");
+            long[] original = nodeIds;
+            Integer[] order = new Integer[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                order[i] = i;
+            }
+            Arrays.parallelSort(order, Comparator.comparingLong(i -> original[i]));
+            long[] sortedIds = new long[nodeCount];
+            int[] result = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                result[i] = order[i];
+                sortedIds[i] = original[order[i]];
+            }
+            nodeIds = sortedIds;
+            return result;
+        }
+    }
+
+    private static final class LongList {
+        long[] values = new long[1 << 12];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[1 << 12];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
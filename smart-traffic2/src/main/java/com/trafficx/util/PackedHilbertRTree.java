@@ -0,0 +1,334 @@
+package com.trafficx.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Static R-tree packed bottom-up in Hilbert order: items sorted by the Hilbert index of their
+ * box centre, NODE_SIZE per leaf node, NODE_SIZE nodes per parent. Only the node boxes are
+ * stored (as floats, rounded outward); items are measured exactly through an ItemDistance, so
+ * the tree holds no geometry of its own. Queries run on per-thread scratch and allocate nothing.
+ */
+final class PackedHilbertRTree {
+
+    static final int NODE_SIZE = 16;
+
+    // Hilbert curve grid side; keeps curve positions below 2^30 so they sort as the high half of a long
+    static final int HILBERT_SIDE = 1 << 15;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Squared distance from (lat, lon) to an item, in degrees of latitude (longitude differences
+     * multiplied by cosLat)
+     */
+    @FunctionalInterface
+    interface ItemDistance {
+        double squaredDistance(int item, double lat, double lon, double cosLat);
+    }
+
+    // Item ids in Hilbert order
+    private final int[] items;
+    // minLat, minLon, maxLat, maxLon per node; leaf nodes first, root last
+    private final float[] boxes;
+    // levelEnds[k] is one past the last node of level k (level 0 holds the leaf nodes)
+    private final int[] levelEnds;
+    private final ItemDistance distance;
+
+    /**
+     * itemBoxes holds minLat, minLon, maxLat, maxLon for each of ids
+     */
+    PackedHilbertRTree(int[] ids, double[] itemBoxes, ItemDistance distance) {
+        this.distance = distance;
+        int count = ids.length;
+        double minLat = Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minLat = Math.min(minLat, itemBoxes[i * 4]);
+            minLon = Math.min(minLon, itemBoxes[i * 4 + 1]);
+            maxLat = Math.max(maxLat, itemBoxes[i * 4 + 2]);
+            maxLon = Math.max(maxLon, itemBoxes[i * 4 + 3]);
+        }
+        double latScale = maxLat > minLat ? (HILBERT_SIDE - 1) / (maxLat - minLat) : 0;
+        double lonScale = maxLon > minLon ? (HILBERT_SIDE - 1) / (maxLon - minLon) : 0;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            int x = (int) (((itemBoxes[i * 4 + 1] + itemBoxes[i * 4 + 3]) / 2 - minLon) * lonScale);
+            int y = (int) (((itemBoxes[i * 4] + itemBoxes[i * 4 + 2]) / 2 - minLat) * latScale);
+            keys[i] = hilbert(x, y) << 32 | i;
+        }
+        Arrays.sort(keys);
+
+        items = new int[count];
+        int[] sizes = new int[8];
+        int levels = 0;
+        int total = 0;
+        for (int n = Math.max(1, count); ; n = (n + NODE_SIZE - 1) / NODE_SIZE) {
+            int nodes = (n + NODE_SIZE - 1) / NODE_SIZE;
+            if (levels == sizes.length) {
+                sizes = Arrays.copyOf(sizes, levels * 2);
+            }
+            sizes[levels++] = nodes;
+            total += nodes;
+            if (nodes == 1) {
+                break;
+            }
+        }
+        levelEnds = new int[levels];
+        boxes = new float[total * 4];
+        Arrays.fill(boxes, Float.NaN);
+        for (int k = 0, end = 0; k < levels; k++) {
+            end += sizes[k];
+            levelEnds[k] = end;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int position = (int) keys[i];
+            items[i] = ids[position];
+            extend(i / NODE_SIZE, itemBoxes[position * 4], itemBoxes[position * 4 + 1],
+                itemBoxes[position * 4 + 2], itemBoxes[position * 4 + 3]);
+        }
+        for (int k = 1; k < levels; k++) {
+            int childStart = levelStart(k - 1);
+            for (int child = childStart; child < levelEnds[k - 1]; child++) {
+                if (!Float.isNaN(boxes[child * 4])) {
+                    extend(levelStart(k) + (child - childStart) / NODE_SIZE, boxes[child * 4], boxes[child * 4 + 1],
+                        boxes[child * 4 + 2], boxes[child * 4 + 3]);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return items.length;
+    }
+
+    /**
+     * Bytes held by the tree
+     */
+    long memoryBytes() {
+        return (long) items.length * 4 + (long) boxes.length * 4;
+    }
+
+    /**
+     * The item nearest to (lat, lon) within maxDegrees (of latitude), or -1. Best-first: nodes
+     * and items share one heap keyed by distance, so the first item popped is the nearest.
+     */
+    int nearest(double lat, double lon, double maxDegrees) {
+        if (items.length == 0) {
+            return -1;
+        }
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double limit = maxDegrees * maxDegrees;
+        Scratch scratch = SCRATCH.get();
+        scratch.clear();
+        int root = boxes.length / 4 - 1;
+        scratch.push(boxDistance(root, lat, lon, cosLat), root);
+        while (scratch.size > 0) {
+            double key = scratch.peekKey();
+            int ref = scratch.pop();
+            if (key > limit) {
+                return -1;
+            }
+            if (ref < 0) {
+                return ~ref;
+            }
+            int level = level(ref);
+            int first = (ref - levelStart(level)) * NODE_SIZE;
+            if (level == 0) {
+                for (int i = first, end = Math.min(items.length, first + NODE_SIZE); i < end; i++) {
+                    double d = distance.squaredDistance(items[i], lat, lon, cosLat);
+                    if (d <= limit) {
+                        scratch.push(d, ~items[i]);
+                    }
+                }
+            } else {
+                int childStart = levelStart(level - 1);
+                for (int child = childStart + first, end = Math.min(levelEnds[level - 1], child + NODE_SIZE);
+                     child < end; child++) {
+                    double d = boxDistance(child, lat, lon, cosLat);
+                    if (d <= limit) {
+                        scratch.push(d, child);
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Call action with every item within maxDegrees (of latitude) of (lat, lon)
+     */
+    void forEachWithin(double lat, double lon, double maxDegrees, IntConsumer action) {
+        if (items.length == 0) {
+            return;
+        }
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double limit = maxDegrees * maxDegrees;
+        Scratch scratch = SCRATCH.get();
+        scratch.clear();
+        int root = boxes.length / 4 - 1;
+        if (boxDistance(root, lat, lon, cosLat) > limit) {
+            return;
+        }
+        // Depth first; the stack holds nodes whose box is within range
+        scratch.append(root);
+        while (scratch.size > 0) {
+            int node = scratch.refs[--scratch.size];
+            int level = level(node);
+            int first = (node - levelStart(level)) * NODE_SIZE;
+            if (level == 0) {
+                for (int i = first, end = Math.min(items.length, first + NODE_SIZE); i < end; i++) {
+                    if (distance.squaredDistance(items[i], lat, lon, cosLat) <= limit) {
+                        action.accept(items[i]);
+                    }
+                }
+            } else {
+                int childStart = levelStart(level - 1);
+                for (int child = childStart + first, end = Math.min(levelEnds[level - 1], child + NODE_SIZE);
+                     child < end; child++) {
+                    if (boxDistance(child, lat, lon, cosLat) <= limit) {
+                        scratch.append(child);
+                    }
+                }
+            }
+        }
+    }
+
+    private int level(int node) {
+        int level = 0;
+        while (node >= levelEnds[level]) {
+            level++;
+        }
+        return level;
+    }
+
+    private int levelStart(int level) {
+        return level == 0 ? 0 : levelEnds[level - 1];
+    }
+
+    private double boxDistance(int node, double lat, double lon, double cosLat) {
+        double dLat = Math.max(0, Math.max(boxes[node * 4] - lat, lat - boxes[node * 4 + 2]));
+        double dLon = Math.max(0, Math.max(boxes[node * 4 + 1] - lon, lon - boxes[node * 4 + 3])) * cosLat;
+        return dLat * dLat + dLon * dLon;
+    }
+
+    private void extend(int node, double minLat, double minLon, double maxLat, double maxLon) {
+        int b = node * 4;
+        if (Float.isNaN(boxes[b])) {
+            boxes[b] = down(minLat);
+            boxes[b + 1] = down(minLon);
+            boxes[b + 2] = up(maxLat);
+            boxes[b + 3] = up(maxLon);
+            return;
+        }
+        boxes[b] = Math.min(boxes[b], down(minLat));
+        boxes[b + 1] = Math.min(boxes[b + 1], down(minLon));
+        boxes[b + 2] = Math.max(boxes[b + 2], up(maxLat));
+        boxes[b + 3] = Math.max(boxes[b + 3], up(maxLon));
+    }
+
+    private static float down(double value) {
+        float rounded = (float) value;
+        return rounded > value ? Math.nextDown(rounded) : rounded;
+    }
+
+    private static float up(double value) {
+        float rounded = (float) value;
+        return rounded < value ? Math.nextUp(rounded) : rounded;
+    }
+
+    /**
+     * Position of (x, y) along the Hilbert curve over a HILBERT_SIDE x HILBERT_SIDE grid
+     */
+    static long hilbert(int x, int y) {
+        long d = 0;
+        for (int s = HILBERT_SIDE / 2; s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = HILBERT_SIDE - 1 - x;
+                    y = HILBERT_SIDE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Binary min-heap of (key, ref) for nearest queries; refs alone double as the stack for range queries
+     */
+    private static final class Scratch {
+        double[] keys = new double[64];
+        int[] refs = new int[64];
+        int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void append(int ref) {
+            grow();
+            refs[size++] = ref;
+        }
+
+        void push(double key, int ref) {
+            grow();
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                keys[i] = keys[parent];
+                refs[i] = refs[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            refs[i] = ref;
+        }
+
+        double peekKey() {
+            return keys[0];
+        }
+
+        int pop() {
+            int top = refs[0];
+            double key = keys[--size];
+            int ref = refs[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (keys[child] >= key) {
+                    break;
+                }
+                keys[i] = keys[child];
+                refs[i] = refs[child];
+                i = child;
+            }
+            keys[i] = key;
+            refs[i] = ref;
+            return top;
+        }
+
+        private void grow() {
+            if (size == refs.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                refs = Arrays.copyOf(refs, size * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.trafficx.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable route geometry stored as one interleaved lat/lon array instead of an object per
+ * vertex. Serialized as [[lat, lon], ...] for compatibility; encode() produces the compact
+ * Google encoded polyline form (precision 5, ~1 m) for clients that opt in.
+ */
+@JsonSerialize(using = PackedPolyline.Serializer.class)
+public final class PackedPolyline {
+
+    public static final PackedPolyline EMPTY = new PackedPolyline(new double[0], 0);
+
+    private static final double PRECISION = 1e5;
+
+    // lat0, lon0, lat1, lon1, ...
+    private final double[] latLon;
+    private final int size;
+
+    private PackedPolyline(double[] latLon, int size) {
+        this.latLon = latLon;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public double lat(int i) {
+        return latLon[i * 2];
+    }
+
+    public double lon(int i) {
+        return latLon[i * 2 + 1];
+    }
+
+    /**
+     * Encoded polyline string: zig-zag varint deltas of the coordinates scaled by 1e5, in ASCII 63..126
+     */
+    public String encode() {
+        StringBuilder out = new StringBuilder(size * 6);
+        long prevLat = 0;
+        long prevLon = 0;
+        for (int i = 0; i < size; i++) {
+            long lat = Math.round(lat(i) * PRECISION);
+            long lon = Math.round(lon(i) * PRECISION);
+            encodeValue(out, lat - prevLat);
+            encodeValue(out, lon - prevLon);
+            prevLat = lat;
+            prevLon = lon;
+        }
+        return out.toString();
+    }
+
+    private static void encodeValue(StringBuilder out, long value) {
+        long v = value < 0 ? ~(value << 1) : value << 1;
+        while (v >= 0x20) {
+            out.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        out.append((char) (v + 63));
+    }
+
+    /**
+     * Decode an encoded polyline (precision 5)
+     */
+    public static PackedPolyline decode(String encoded) {
+        return decodeInto(encoded, new Builder(encoded.length() / 4 + 1)).build();
+    }
+
+    /**
+     * Append the points of an encoded polyline to builder without allocating per point
+     */
+    public static Builder decodeInto(String encoded, Builder builder) {
+        int index = 0;
+        int length = encoded.length();
+        long lat = 0;
+        long lon = 0;
+        while (index < length) {
+            long result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = encoded.charAt(index++) - 63;
+                result |= (long) (b & 0x1f) << shift;
+                shift += 5;
+            } while (b >= 0x20);
+            lat += (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+
+            result = 0;
+            shift = 0;
+            do {
+                b = encoded.charAt(index++) - 63;
+                result |= (long) (b & 0x1f) << shift;
+                shift += 5;
+            } while (b >= 0x20);
+            lon += (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+
+            builder.add(lat / PRECISION, lon / PRECISION);
+        }
+        return builder;
+    }
+
+    /**
+     * Growable builder; build() hands over the array without copying when it is full
+     */
+    public static final class Builder {
+        private double[] latLon;
+        private int size;
+
+        public Builder() {
+            this(64);
+        }
+
+        public Builder(int expectedPoints) {
+            latLon = new double[Math.max(2, expectedPoints * 2)];
+        }
+
+        public Builder add(double lat, double lon) {
+            if (size * 2 == latLon.length) {
+                latLon = Arrays.copyOf(latLon, latLon.length * 2);
+            }
+            latLon[size * 2] = lat;
+            latLon[size * 2 + 1] = lon;
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public PackedPolyline build() {
+            double[] packed = size * 2 == latLon.length ? latLon : Arrays.copyOf(latLon, size * 2);
+            latLon = new double[2];
+            PackedPolyline polyline = new PackedPolyline(packed, size);
+            size = 0;
+            return polyline;
+        }
+    }
+
+    /**
+     * Writes [[lat, lon], ...] straight from the packed array
+     */
+    public static final class Serializer extends JsonSerializer<PackedPolyline> {
+        @Override
+        public void serialize(PackedPolyline polyline, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartArray(polyline, polyline.size());
+            for (int i = 0; i < polyline.size(); i++) {
+                gen.writeArray(polyline.latLon, i * 2, 2);
+            }
+            gen.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.trafficx.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Alternative routes by the plateau method. One combined search grows a forward tree from the
+ * source and a backward tree from the target, each A*-pruned to nodes that can lie on a path
+ * within maxStretch of the optimum. Edges that are in both trees form "plateaus"; the path
+ * source -> plateau -> target through the forward tree, the plateau and the backward tree is
+ * shortest between any two of its points along the plateau, so a long plateau makes a
+ * locally optimal alternative. Plateaus are tried longest first and kept when the route is
+ * within the stretch bound, loop-free and shares at most maxOverlap of its cost with every
+ * route already chosen. The optimal route is always the first one returned.
+ */
+public final class PlateauAlternatives {
+
+    private final RoadGraph graph;
+    private final RoadGraph reverse;
+    private final BidirectionalAStar bounds;
+    private final ThreadLocal<QueryState> queryState;
+
+    public PlateauAlternatives(BidirectionalAStar bounds) {
+        this.bounds = bounds;
+        this.graph = bounds.network().getGraph();
+        this.reverse = bounds.reverse();
+        int n = graph.nodeCount();
+        int m = graph.edgeCount();
+        this.queryState = ThreadLocal.withInitial(() -> new QueryState(n, m));
+    }
+
+    /**
+     * Up to k routes, optimal first, or an empty list if target is unreachable. minPlateau is
+     * the shortest plateau accepted, as a fraction of the optimal cost; the longer it must be,
+     * the more of each alternative is guaranteed to be locally optimal. k is capped at 31.
+     * When source is target the only route is the empty one at that node.
+     */
+    public List<Alternative> find(int source, int target, int k, double maxStretch, double maxOverlap,
+                                  double minPlateau) {
+        k = Math.min(k, 31);
+        List<Alternative> routes = new ArrayList<>();
+        if (source == target) {
+            if (k > 0) {
+                routes.add(new Alternative(new Dijkstra.Path(new int[] {source}, new int[0], 0, 0), 1, 0, 1));
+            }
+            return routes;
+        }
+        QueryState state = queryState.get();
+        int settled = search(source, target, maxStretch, state);
+        if (state.best == Double.POSITIVE_INFINITY || k <= 0) {
+            return routes;
+        }
+        double limit = state.best * maxStretch;
+        List<int[]> plateaus = plateaus(state, minPlateau * state.best);
+        // Plateaus on an optimal path first (with ties that path may be split up), then longest first
+        double optimal = state.best * (1 + 1e-9);
+        plateaus.sort(Comparator
+            .comparing((int[] p) -> routeCost(state, p) > optimal)
+            .thenComparing(p -> -plateauLength(state, p)));
+
+        try {
+            for (int[] plateau : plateaus) {
+                if (routes.size() == k) {
+                    break;
+                }
+                int end = plateau[1];
+                double cost = routeCost(state, plateau);
+                if (cost > limit) {
+                    continue;
+                }
+                Dijkstra.Path path = pathThrough(source, target, end, cost, settled, state);
+                if (path == null) {
+                    continue;
+                }
+                double[] shared = sharedCost(path, routes.size(), state);
+                boolean distinct = true;
+                for (int r = 0; r < routes.size(); r++) {
+                    if (shared[r] > maxOverlap * Math.min(cost, routes.get(r).getPath().getCost())) {
+                        distinct = false;
+                        break;
+                    }
+                }
+                if (!distinct) {
+                    continue;
+                }
+                int bit = 1 << routes.size();
+                for (int e : path.getEdges()) {
+                    if (state.routeMask[e] == 0) {
+                        state.marked.add(e);
+                    }
+                    state.routeMask[e] |= bit;
+                }
+                double overlap = 0;
+                for (int r = 0; r < routes.size(); r++) {
+                    overlap = Math.max(overlap, shared[r] / cost);
+                }
+                routes.add(new Alternative(path, cost / state.best, overlap, plateauLength(state, plateau) / state.best));
+            }
+        } finally {
+            for (int i = 0; i < state.marked.size; i++) {
+                state.routeMask[state.marked.values[i]] = 0;
+            }
+            state.marked.clear();
+        }
+        return routes;
+    }
+
+    /**
+     * Forward and backward A* (each with its own one-sided bound, so both stay exact) until
+     * neither queue can reach a node on a path within maxStretch of the best found
+     */
+    private int search(int source, int target, double maxStretch, QueryState state) {
+        int n = graph.nodeCount();
+        Dijkstra.SearchState forward = state.forward;
+        Dijkstra.SearchState backward = state.backward;
+        forward.reset(n);
+        backward.reset(n);
+        state.nextStamp();
+        IndexedMinHeap forwardHeap = forward.heap();
+        IndexedMinHeap backwardHeap = backward.heap();
+        forward.relax(source, 0, -1, -1);
+        forwardHeap.push(source, bounds.lowerBound(source, target));
+        backward.relax(target, 0, -1, -1);
+        backwardHeap.push(target, bounds.lowerBound(source, target));
+        state.best = source == target ? 0 : Double.POSITIVE_INFINITY;
+        int settled = 0;
+
+        while (true) {
+            double limit = state.best * maxStretch;
+            boolean forwardLive = !forwardHeap.isEmpty() && forwardHeap.peekKey() <= limit;
+            boolean backwardLive = !backwardHeap.isEmpty() && backwardHeap.peekKey() <= limit;
+            if (!forwardLive && !backwardLive) {
+                break;
+            }
+            settled++;
+            if (forwardLive && (!backwardLive || forwardHeap.peekKey() <= backwardHeap.peekKey())) {
+                int u = forwardHeap.poll();
+                state.forwardSettled[u] = state.stamp;
+                state.forwardOrder.add(u);
+                double du = forward.distance(u);
+                for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                    int v = graph.target(e);
+                    double dv = du + graph.weight(e);
+                    if (dv < forward.distance(v)) {
+                        forward.relax(v, dv, u, e);
+                        forwardHeap.push(v, dv + bounds.lowerBound(v, target));
+                        state.best = Math.min(state.best, dv + backward.distance(v));
+                    }
+                }
+            } else {
+                int u = backwardHeap.poll();
+                state.backwardSettled[u] = state.stamp;
+                double du = backward.distance(u);
+                for (int e = reverse.firstEdge(u), end = reverse.endEdge(u); e < end; e++) {
+                    int v = reverse.target(e);
+                    double dv = du + reverse.weight(e);
+                    if (dv < backward.distance(v)) {
+                        backward.relax(v, dv, u, bounds.originalEdge(e));
+                        backwardHeap.push(v, dv + bounds.lowerBound(source, v));
+                        state.best = Math.min(state.best, dv + forward.distance(v));
+                    }
+                }
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * Maximal chains of edges settled in both trees, as {first node, last node}, that are at
+     * least minLength long
+     */
+    private List<int[]> plateaus(QueryState state, double minLength) {
+        List<int[]> plateaus = new ArrayList<>();
+        Dijkstra.SearchState forward = state.forward;
+        Dijkstra.SearchState backward = state.backward;
+        for (int i = 0; i < state.forwardOrder.size; i++) {
+            int v = state.forwardOrder.values[i];
+            // v starts a plateau if its next hop towards the target is a shared edge but the
+            // edge it was reached by from the source is not
+            if (!settledInBoth(v, state) || onPlateau(forward.parent(v), v, state)) {
+                continue;
+            }
+            int end = v;
+            int next = backward.parent(end);
+            while (next >= 0 && onPlateau(end, next, state)) {
+                end = next;
+                next = backward.parent(end);
+            }
+            if (end != v && forward.distance(end) - forward.distance(v) >= minLength) {
+                plateaus.add(new int[]{v, end});
+            }
+        }
+        return plateaus;
+    }
+
+    private boolean settledInBoth(int v, QueryState state) {
+        return state.forwardSettled[v] == state.stamp && state.backwardSettled[v] == state.stamp;
+    }
+
+    /**
+     * Whether edge u->v is the tree edge into v from the source and out of u towards the target
+     */
+    private boolean onPlateau(int u, int v, QueryState state) {
+        return u >= 0 && settledInBoth(u, state) && settledInBoth(v, state)
+            && state.forward.parent(v) == u && state.backward.parent(u) == v
+            && state.forward.parentEdge(v) == state.backward.parentEdge(u);
+    }
+
+    private static double routeCost(QueryState state, int[] plateau) {
+        return state.forward.distance(plateau[1]) + state.backward.distance(plateau[1]);
+    }
+
+    private static double plateauLength(QueryState state, int[] plateau) {
+        return state.forward.distance(plateau[1]) - state.forward.distance(plateau[0]);
+    }
+
+    /**
+     * source -> end along the forward tree, then end -> target along the backward tree; null
+     * if the two halves cross (the route would contain a loop)
+     */
+    private Dijkstra.Path pathThrough(int source, int target, int end, double cost, int settled, QueryState state) {
+        Dijkstra.SearchState forward = state.forward;
+        Dijkstra.SearchState backward = state.backward;
+        state.nextPathStamp();
+        int forwardHops = 0;
+        for (int v = end; v != source; v = forward.parent(v)) {
+            state.onPath[v] = state.pathStamp;
+            forwardHops++;
+        }
+        state.onPath[source] = state.pathStamp;
+        int backwardHops = 0;
+        for (int v = end; v != target; ) {
+            v = backward.parent(v);
+            if (state.onPath[v] == state.pathStamp) {
+                return null;
+            }
+            backwardHops++;
+        }
+
+        int[] nodes = new int[forwardHops + backwardHops + 1];
+        int[] edges = new int[forwardHops + backwardHops];
+        int i = forwardHops;
+        for (int v = end; v != source; v = forward.parent(v)) {
+            nodes[i] = v;
+            edges[i - 1] = forward.parentEdge(v);
+            i--;
+        }
+        nodes[0] = source;
+        i = forwardHops;
+        for (int v = end; v != target; v = backward.parent(v)) {
+            edges[i] = backward.parentEdge(v);
+            nodes[++i] = backward.parent(v);
+        }
+        return new Dijkstra.Path(nodes, edges, cost, settled);
+    }
+
+    /**
+     * Cost path shares with each of the first routeCount chosen routes
+     */
+    private double[] sharedCost(Dijkstra.Path path, int routeCount, QueryState state) {
+        double[] shared = new double[routeCount];
+        for (int e : path.getEdges()) {
+            int mask = state.routeMask[e];
+            for (int r = 0; mask != 0 && r < routeCount; r++) {
+                if ((mask & (1 << r)) != 0) {
+                    shared[r] += graph.weight(e);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * One route with its cost relative to the optimum, its largest overlap with an earlier
+     * route (as a fraction of its own cost) and its plateau length relative to the optimum
+     */
+    public static final class Alternative {
+        private final Dijkstra.Path path;
+        private final double stretch;
+        private final double overlap;
+        private final double plateau;
+
+        Alternative(Dijkstra.Path path, double stretch, double overlap, double plateau) {
+            this.path = path;
+            this.stretch = stretch;
+            this.overlap = overlap;
+            this.plateau = plateau;
+        }
+
+        public Dijkstra.Path getPath() { return path; }
+        public double getStretch() { return stretch; }
+        public double getOverlap() { return overlap; }
+        public double getPlateau() { return plateau; }
+    }
+
+    private static final class QueryState {
+        final Dijkstra.SearchState forward;
+        final Dijkstra.SearchState backward;
+        final int[] forwardSettled;
+        final int[] backwardSettled;
+        final int[] onPath;
+        // Bit r set on the edges of chosen route r; cleared again after each query
+        final int[] routeMask;
+        final IntList marked = new IntList();
+        final IntList forwardOrder = new IntList();
+        int stamp;
+        int pathStamp;
+        double best;
+
+        QueryState(int nodeCount, int edgeCount) {
+            forward = new Dijkstra.SearchState(nodeCount);
+            backward = new Dijkstra.SearchState(nodeCount);
+            forwardSettled = new int[nodeCount];
+            backwardSettled = new int[nodeCount];
+            onPath = new int[nodeCount];
+            routeMask = new int[edgeCount];
+        }
+
+        void nextStamp() {
+            forwardOrder.clear();
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(forwardSettled, 0);
+                Arrays.fill(backwardSettled, 0);
+                stamp = 1;
+            }
+        }
+
+        void nextPathStamp() {
+            if (++pathStamp == Integer.MAX_VALUE) {
+                Arrays.fill(onPath, 0);
+                pathStamp = 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.trafficx.util;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable directed graph in compressed-sparse-row form. Nodes are 0..nodeCount-1;
+ * the outgoing edges of node u are edge ids firstEdge(u) until firstEdge(u + 1), each
+ * with a target node and a weight. Everything lives in flat primitive buffers, either on
+ * the heap or memory-mapped from a RoadNetworkFile.
+ */
+public final class RoadGraph {
+
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final FloatBuffer weights;
+
+    private RoadGraph(int[] offsets, int[] targets, float[] weights) {
+        this(IntBuffer.wrap(offsets), IntBuffer.wrap(targets), FloatBuffer.wrap(weights));
+    }
+
+    RoadGraph(IntBuffer offsets, IntBuffer targets, FloatBuffer weights) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    public int nodeCount() {
+        return offsets.limit() - 1;
+    }
+
+    public int edgeCount() {
+        return targets.limit();
+    }
+
+    public int firstEdge(int node) {
+        return offsets.get(node);
+    }
+
+    /**
+     * One past the last outgoing edge of node
+     */
+    public int endEdge(int node) {
+        return offsets.get(node + 1);
+    }
+
+    public int target(int edge) {
+        return targets.get(edge);
+    }
+
+    public float weight(int edge) {
+        return weights.get(edge);
+    }
+
+    IntBuffer offsets() { return offsets.duplicate(); }
+    IntBuffer targets() { return targets.duplicate(); }
+    FloatBuffer weights() { return weights.duplicate(); }
+
+    /**
+     * The same nodes with every edge reversed; edge order within a node follows the original edge ids
+     */
+    public RoadGraph reversed() {
+        Builder builder = new Builder(nodeCount(), edgeCount());
+        for (int u = 0; u < nodeCount(); u++) {
+            for (int e = firstEdge(u); e < endEdge(u); e++) {
+                builder.addEdge(target(e), u, weight(e));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects edges in any order and sorts them into CSR form on build()
+     */
+    public static final class Builder {
+        private final int nodeCount;
+        private int[] from;
+        private int[] to;
+        private float[] weight;
+        private int size;
+
+        public Builder(int nodeCount) {
+            this(nodeCount, 16);
+        }
+
+        public Builder(int nodeCount, int expectedEdges) {
+            this.nodeCount = nodeCount;
+            int capacity = Math.max(16, expectedEdges);
+            this.from = new int[capacity];
+            this.to = new int[capacity];
+            this.weight = new float[capacity];
+        }
+
+        /**
+         * Add a directed edge; returns its index in insertion order
+         */
+        public int addEdge(int source, int target, float edgeWeight) {
+            if (source < 0 || source >= nodeCount || target < 0 || target >= nodeCount) {
+                throw new IllegalArgumentException("Edge " + source + "->" + target + " outside 0.." + (nodeCount - 1));
+            }
+            if (edgeWeight < 0 || Float.isNaN(edgeWeight)) {
+                throw new IllegalArgumentException("Edge weight must be non-negative: " + edgeWeight);
+            }
+            if (size == from.length) {
+                int capacity = size + (size >> 1);
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+            }
+            from[size] = source;
+            to[size] = target;
+            weight[size] = edgeWeight;
+            return size++;
+        }
+
+        public int edgeCount() {
+            return size;
+        }
+
+        public RoadGraph build() {
+            return build(null);
+        }
+
+        /**
+         * Build the graph; if edgeOrder is given it is filled with the CSR edge id of each
+         * edge in insertion order, so callers can line up per-edge data of their own.
+         */
+        public RoadGraph build(int[] edgeOrder) {
+            // Counting sort of edges by source node, stable in insertion order
+            int[] offsets = new int[nodeCount + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[from[i] + 1]++;
+            }
+            for (int u = 0; u < nodeCount; u++) {
+                offsets[u + 1] += offsets[u];
+            }
+            int[] fill = Arrays.copyOf(offsets, nodeCount);
+            int[] targets = new int[size];
+            float[] weights = new float[size];
+            for (int i = 0; i < size; i++) {
+                int slot = fill[from[i]]++;
+                targets[slot] = to[i];
+                weights[slot] = weight[i];
+                if (edgeOrder != null) {
+                    edgeOrder[i] = slot;
+                }
+            }
+            return new RoadGraph(offsets, targets, weights);
+        }
+    }
+}
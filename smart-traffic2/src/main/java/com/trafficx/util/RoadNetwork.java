@@ -0,0 +1,363 @@
+package com.trafficx.util;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A routable road network: the CSR graph (edge weights are travel seconds) plus node
+ * coordinates and per-edge length, speed and road class, all indexed like the graph.
+ */
+public final class RoadNetwork {
+
+    /**
+     * Road classes in order of importance; edgeRoadClass holds indexes into this array
+     */
+    public static final String[] ROAD_CLASSES = {
+        "motorway", "trunk", "primary", "secondary", "tertiary",
+        "unclassified", "residential", "living_street", "service"
+    };
+
+    private final RoadGraph graph;
+    private final DoubleBuffer lats;
+    private final DoubleBuffer lons;
+    private final FloatBuffer edgeLength;
+    private final FloatBuffer edgeSpeed;
+    private final ByteBuffer edgeRoadClass;
+
+    // Spatial index, built on demand by buildSpatialIndex(); segment i is edge segmentEdge[i] leaving segmentFrom[i]
+    private volatile PackedHilbertRTree nodeTree;
+    private volatile PackedHilbertRTree edgeTree;
+    private int[] segmentFrom;
+    private int[] segmentEdge;
+    private volatile long spatialIndexMillis;
+
+    public RoadNetwork(RoadGraph graph, double[] lats, double[] lons,
+                       float[] edgeLength, float[] edgeSpeed, byte[] edgeRoadClass) {
+        this(graph, DoubleBuffer.wrap(lats), DoubleBuffer.wrap(lons), FloatBuffer.wrap(edgeLength),
+            FloatBuffer.wrap(edgeSpeed), ByteBuffer.wrap(edgeRoadClass));
+    }
+
+    RoadNetwork(RoadGraph graph, DoubleBuffer lats, DoubleBuffer lons,
+                FloatBuffer edgeLength, FloatBuffer edgeSpeed, ByteBuffer edgeRoadClass) {
+        this.graph = graph;
+        this.lats = lats;
+        this.lons = lons;
+        this.edgeLength = edgeLength;
+        this.edgeSpeed = edgeSpeed;
+        this.edgeRoadClass = edgeRoadClass;
+    }
+
+    public RoadGraph getGraph() { return graph; }
+
+    public int nodeCount() { return graph.nodeCount(); }
+    public int edgeCount() { return graph.edgeCount(); }
+
+    public double lat(int node) { return lats.get(node); }
+    public double lon(int node) { return lons.get(node); }
+
+    /**
+     * Edge length in meters
+     */
+    public float length(int edge) { return edgeLength.get(edge); }
+
+    /**
+     * Free-flow speed in km/h
+     */
+    public float speed(int edge) { return edgeSpeed.get(edge); }
+
+    public int roadClass(int edge) { return edgeRoadClass.get(edge); }
+
+    DoubleBuffer lats() { return lats.duplicate(); }
+    DoubleBuffer lons() { return lons.duplicate(); }
+    FloatBuffer edgeLengths() { return edgeLength.duplicate(); }
+    FloatBuffer edgeSpeeds() { return edgeSpeed.duplicate(); }
+    ByteBuffer edgeRoadClasses() { return edgeRoadClass.duplicate(); }
+
+    /**
+     * Build the R-trees over nodes and edges used by nearestNode, forEachNodeWithin and the
+     * snap methods. Until it is built those fall back to linear scans, snapping to the nearest
+     * node. Each edge between two nodes is indexed once, whichever direction(s) it runs in.
+     */
+    public synchronized void buildSpatialIndex() {
+        if (nodeTree != null) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+        int nodeCount = nodeCount();
+        int[] nodes = new int[nodeCount];
+        double[] nodeBoxes = new double[nodeCount * 4];
+        for (int node = 0; node < nodeCount; node++) {
+            nodes[node] = node;
+            nodeBoxes[node * 4] = nodeBoxes[node * 4 + 2] = lat(node);
+            nodeBoxes[node * 4 + 1] = nodeBoxes[node * 4 + 3] = lon(node);
+        }
+        PackedHilbertRTree builtNodes = new PackedHilbertRTree(nodes, nodeBoxes, this::nodeDistance);
+
+        IntList from = new IntList();
+        IntList via = new IntList();
+        for (int u = 0; u < nodeCount; u++) {
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int v = graph.target(e);
+                if (v != u && (u < v || !hasEdge(v, u))) {
+                    from.add(u);
+                    via.add(e);
+                }
+            }
+        }
+        int[] segments = new int[from.size];
+        double[] segmentBoxes = new double[from.size * 4];
+        for (int i = 0; i < from.size; i++) {
+            int u = from.values[i];
+            int v = graph.target(via.values[i]);
+            segments[i] = i;
+            segmentBoxes[i * 4] = Math.min(lat(u), lat(v));
+            segmentBoxes[i * 4 + 1] = Math.min(lon(u), lon(v));
+            segmentBoxes[i * 4 + 2] = Math.max(lat(u), lat(v));
+            segmentBoxes[i * 4 + 3] = Math.max(lon(u), lon(v));
+        }
+        segmentFrom = from.toArray();
+        segmentEdge = via.toArray();
+        edgeTree = new PackedHilbertRTree(segments, segmentBoxes, this::segmentDistance);
+        nodeTree = builtNodes;
+        spatialIndexMillis = System.currentTimeMillis() - started;
+    }
+
+    public boolean hasSpatialIndex() {
+        return nodeTree != null;
+    }
+
+    public long getSpatialIndexMillis() {
+        return spatialIndexMillis;
+    }
+
+    /**
+     * Bytes held by the spatial index (0 until built)
+     */
+    public long spatialIndexBytes() {
+        PackedHilbertRTree nodes = nodeTree;
+        return nodes == null ? 0
+            : nodes.memoryBytes() + edgeTree.memoryBytes() + (long) segmentFrom.length * 8;
+    }
+
+    private boolean hasEdge(int from, int to) {
+        for (int e = graph.firstEdge(from); e < graph.endEdge(from); e++) {
+            if (graph.target(e) == to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The node closest to (lat, lon), or -1 if none is within maxMeters
+     */
+    public int nearestNode(double lat, double lon, double maxMeters) {
+        PackedHilbertRTree nodes = nodeTree;
+        if (nodes != null) {
+            return nodes.nearest(lat, lon, maxMeters / GeoUtils.METERS_PER_DEGREE);
+        }
+        return nearestNodeScan(lat, lon, maxMeters);
+    }
+
+    /**
+     * A linear scan over an equirectangular approximation, for before the index is built
+     */
+    private int nearestNodeScan(double lat, double lon, double maxMeters) {
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double maxDeg = maxMeters / GeoUtils.METERS_PER_DEGREE;
+        double best = maxDeg * maxDeg;
+        int bestNode = -1;
+        for (int node = 0; node < lats.limit(); node++) {
+            double dLat = lats.get(node) - lat;
+            if (dLat > maxDeg || dLat < -maxDeg) {
+                continue;
+            }
+            double dLon = (lons.get(node) - lon) * cosLat;
+            double d = dLat * dLat + dLon * dLon;
+            if (d < best) {
+                best = d;
+                bestNode = node;
+            }
+        }
+        return bestNode;
+    }
+
+    /**
+     * Call action with every node within maxMeters of (lat, lon). action must not query the
+     * spatial index itself.
+     */
+    public void forEachNodeWithin(double lat, double lon, double maxMeters, IntConsumer action) {
+        PackedHilbertRTree nodes = nodeTree;
+        if (nodes != null) {
+            nodes.forEachWithin(lat, lon, maxMeters / GeoUtils.METERS_PER_DEGREE, action);
+            return;
+        }
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double maxDeg = maxMeters / GeoUtils.METERS_PER_DEGREE;
+        double limit = maxDeg * maxDeg;
+        for (int node = 0; node < lats.limit(); node++) {
+            double dLat = lats.get(node) - lat;
+            if (dLat > maxDeg || dLat < -maxDeg) {
+                continue;
+            }
+            double dLon = (lons.get(node) - lon) * cosLat;
+            if (dLat * dLat + dLon * dLon <= limit) {
+                action.accept(node);
+            }
+        }
+    }
+
+    /**
+     * Project (lat, lon) onto the nearest edge within maxMeters and fill snap with the result;
+     * false (snap untouched) if there is none. Before the index is built, snaps to the nearest
+     * node instead (snap.getEdge() is -1).
+     */
+    public boolean snapToEdge(double lat, double lon, double maxMeters, EdgeSnap snap) {
+        PackedHilbertRTree edges = edgeTree;
+        if (edges == null) {
+            int node = nearestNodeScan(lat, lon, maxMeters);
+            if (node < 0) {
+                return false;
+            }
+            snap.set(-1, node, node, 0, lat(node), lon(node),
+                GeoUtils.haversineMeters(lat, lon, lat(node), lon(node)));
+            return true;
+        }
+        int segment = edges.nearest(lat, lon, maxMeters / GeoUtils.METERS_PER_DEGREE);
+        if (segment < 0) {
+            return false;
+        }
+        int u = segmentFrom[segment];
+        int v = graph.target(segmentEdge[segment]);
+        double t = projection(segment, lat, lon, Math.cos(Math.toRadians(lat)));
+        double snappedLat = lat(u) + (lat(v) - lat(u)) * t;
+        double snappedLon = lon(u) + (lon(v) - lon(u)) * t;
+        snap.set(segmentEdge[segment], u, v, t, snappedLat, snappedLon,
+            GeoUtils.haversineMeters(lat, lon, snappedLat, snappedLon));
+        return true;
+    }
+
+    /**
+     * The routing node for (lat, lon): the nearer end of the nearest edge within maxMeters, or -1
+     */
+    public int snapNode(double lat, double lon, double maxMeters) {
+        PackedHilbertRTree edges = edgeTree;
+        if (edges == null) {
+            return nearestNodeScan(lat, lon, maxMeters);
+        }
+        int segment = edges.nearest(lat, lon, maxMeters / GeoUtils.METERS_PER_DEGREE);
+        if (segment < 0) {
+            return -1;
+        }
+        return projection(segment, lat, lon, Math.cos(Math.toRadians(lat))) <= 0.5
+            ? segmentFrom[segment] : graph.target(segmentEdge[segment]);
+    }
+
+    /**
+     * snapNode for every point, into nodes (-1 for NaN coordinates); points are visited in
+     * Hilbert order so neighbouring points reuse the same parts of the index
+     */
+    public void snapNodes(double[] lats, double[] lons, double maxMeters, int[] nodes) {
+        int count = lats.length;
+        double minLat = Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (Double.isNaN(lats[i]) || Double.isNaN(lons[i])) {
+                continue;
+            }
+            minLat = Math.min(minLat, lats[i]);
+            minLon = Math.min(minLon, lons[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+        }
+        double latScale = maxLat > minLat ? (PackedHilbertRTree.HILBERT_SIDE - 1) / (maxLat - minLat) : 0;
+        double lonScale = maxLon > minLon ? (PackedHilbertRTree.HILBERT_SIDE - 1) / (maxLon - minLon) : 0;
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = PackedHilbertRTree.hilbert((int) ((lons[i] - minLon) * lonScale),
+                (int) ((lats[i] - minLat) * latScale)) << 32 | i;
+        }
+        Arrays.sort(order);
+        for (long key : order) {
+            int i = (int) key;
+            nodes[i] = Double.isNaN(lats[i]) || Double.isNaN(lons[i]) ? -1 : snapNode(lats[i], lons[i], maxMeters);
+        }
+    }
+
+    private double nodeDistance(int node, double lat, double lon, double cosLat) {
+        double dLat = lats.get(node) - lat;
+        double dLon = (lons.get(node) - lon) * cosLat;
+        return dLat * dLat + dLon * dLon;
+    }
+
+    private double segmentDistance(int segment, double lat, double lon, double cosLat) {
+        int u = segmentFrom[segment];
+        int v = graph.target(segmentEdge[segment]);
+        double t = projection(segment, lat, lon, cosLat);
+        double dLat = lats.get(u) + (lats.get(v) - lats.get(u)) * t - lat;
+        double dLon = (lons.get(u) + (lons.get(v) - lons.get(u)) * t - lon) * cosLat;
+        return dLat * dLat + dLon * dLon;
+    }
+
+    /**
+     * How far along a segment (0 to 1) the point closest to (lat, lon) lies
+     */
+    private double projection(int segment, double lat, double lon, double cosLat) {
+        int u = segmentFrom[segment];
+        int v = graph.target(segmentEdge[segment]);
+        double x = (lons.get(v) - lons.get(u)) * cosLat;
+        double y = lats.get(v) - lats.get(u);
+        double lengthSq = x * x + y * y;
+        if (lengthSq == 0) {
+            return 0;
+        }
+        double t = ((lon - lons.get(u)) * cosLat * x + (lat - lats.get(u)) * y) / lengthSq;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    /**
+     * Where a point meets the road network: the nearest edge, how far along it the point
+     * projects (0 at source, 1 at target) and the projected position. Reusable across calls.
+     */
+    public static final class EdgeSnap {
+        private int edge = -1;
+        private int source = -1;
+        private int target = -1;
+        private double fraction;
+        private double lat;
+        private double lon;
+        private double meters;
+
+        void set(int edge, int source, int target, double fraction, double lat, double lon, double meters) {
+            this.edge = edge;
+            this.source = source;
+            this.target = target;
+            this.fraction = fraction;
+            this.lat = lat;
+            this.lon = lon;
+            this.meters = meters;
+        }
+
+        public int getEdge() { return edge; }
+        public int getSource() { return source; }
+        public int getTarget() { return target; }
+        public double getFraction() { return fraction; }
+        public double getLat() { return lat; }
+        public double getLon() { return lon; }
+
+        /**
+         * Distance from the query point to the road
+         */
+        public double getMeters() { return meters; }
+
+        /**
+         * The end of the edge closer to the projected point
+         */
+        public int nearerNode() { return fraction <= 0.5 ? source : target; }
+    }
+}
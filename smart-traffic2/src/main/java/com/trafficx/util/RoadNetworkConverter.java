@@ -0,0 +1,101 @@
+package com.trafficx.util;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Converts an OSM extract into a RoadNetworkFile and reports how long startup takes either way.
+ *
+ * Usage (after mvn compile): java -cp target/classes com.trafficx.util.RoadNetworkConverter
+ *            input.osm[.gz] output.graph [--no-ch] [--parallelism N]
+ */
+public final class RoadNetworkConverter {
+
+    // Plain Dijkstra on a large network takes far longer per query than the hierarchy
+    private static final int HIERARCHY_QUERIES = 200;
+    private static final int DIJKSTRA_QUERIES = 20;
+
+    private RoadNetworkConverter() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: RoadNetworkConverter input.osm[.gz] output.graph [--no-ch] [--parallelism N]");
+            System.exit(2);
+        }
+        Path input = Path.of(args[0]);
+        Path output = Path.of(args[1]);
+        boolean buildHierarchy = true;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--no-ch")) {
+                buildHierarchy = false;
+            } else if (args[i].equals("--parallelism") && i + 1 < args.length) {
+                parallelism = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        long started = System.currentTimeMillis();
+        RoadNetwork network = OsmRoadNetworkLoader.load(input, parallelism);
+        long parseMillis = System.currentTimeMillis() - started;
+        ContractionHierarchy hierarchy = null;
+        long hierarchyMillis = 0;
+        if (buildHierarchy) {
+            hierarchy = ContractionHierarchy.build(network.getGraph(), parallelism);
+            hierarchyMillis = hierarchy.getBuildMillis();
+        }
+
+        started = System.currentTimeMillis();
+        RoadNetworkFile.write(output, network, hierarchy);
+        long writeMillis = System.currentTimeMillis() - started;
+
+        // Startup benchmark: open the file both ways and time the first queries on the mapping
+        started = System.nanoTime();
+        RoadNetworkFile verified = RoadNetworkFile.open(output, true);
+        double verifiedMillis = (System.nanoTime() - started) / 1e6;
+        started = System.nanoTime();
+        RoadNetworkFile mapped = RoadNetworkFile.open(output, false);
+        double mappedMillis = (System.nanoTime() - started) / 1e6;
+        int[][] pairs = randomPairs(network.nodeCount(), hierarchy != null ? HIERARCHY_QUERIES : DIJKSTRA_QUERIES);
+        double[] expected = distances(network.getGraph(), hierarchy, pairs);
+        started = System.nanoTime();
+        double[] actual = distances(mapped.getNetwork().getGraph(), mapped.getHierarchy(), pairs);
+        double queryMillis = (System.nanoTime() - started) / 1e6;
+        for (int i = 0; i < pairs.length; i++) {
+            if (Double.compare(expected[i], actual[i]) != 0) {
+                throw new IllegalStateException("Mapped network disagrees for " + pairs[i][0] + "->" + pairs[i][1]
+                    + ": " + actual[i] + " vs " + expected[i]);
+            }
+        }
+
+        System.out.printf("Wrote %s: %d nodes, %d edges, %d shortcuts, %.1f MB in %d ms%n",
+            output, network.nodeCount(), network.edgeCount(), hierarchy == null ? 0 : hierarchy.getShortcutCount(),
+            verified.getSizeBytes() / 1e6, writeMillis);
+        System.out.printf("Startup from OSM:        %d ms parse + %d ms hierarchy%n", parseMillis, hierarchyMillis);
+        System.out.printf("Startup from graph file: %.1f ms mapped (%.1f ms with checksum)%n", mappedMillis, verifiedMillis);
+        System.out.printf("First %d queries on the mapped file: %.1f ms, all matching the in-memory network%n",
+            pairs.length, queryMillis);
+    }
+
+    private static int[][] randomPairs(int nodeCount, int count) {
+        Random random = new Random(42);
+        int[][] pairs = new int[nodeCount == 0 ? 0 : count][];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = new int[]{random.nextInt(nodeCount), random.nextInt(nodeCount)};
+        }
+        return pairs;
+    }
+
+    private static double[] distances(RoadGraph graph, ContractionHierarchy hierarchy, int[][] pairs) {
+        double[] result = new double[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            result[i] = hierarchy != null
+                ? hierarchy.distance(pairs[i][0], pairs[i][1])
+                : Dijkstra.distance(graph, pairs[i][0], pairs[i][1]);
+        }
+        return result;
+    }
+}
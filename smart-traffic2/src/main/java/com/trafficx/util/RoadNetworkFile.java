@@ -0,0 +1,310 @@
+package com.trafficx.util;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary on-disk form of a RoadNetwork and, optionally, its ContractionHierarchy, opened by
+ * memory-mapping each array read-only. Nothing is parsed or copied onto the heap, so
+ * opening takes milliseconds regardless of size and every JVM on a host shares the same
+ * page cache.
+ *
+ * Layout (little-endian): a fixed header (magic "STXG", format version, counts, CRC32C of
+ * all section bytes), a table of sections (id, offset, length), then the sections, each
+ * 8-byte aligned.
+ */
+public final class RoadNetworkFile {
+
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x47585453; // "STXG" read little-endian
+    private static final int HEADER_BYTES = 64;
+    private static final int SECTION_ENTRY_BYTES = 24;
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    // Section ids; never renumber, add new ids and bump VERSION if the layout changes
+    private static final int OFFSETS = 1;
+    private static final int TARGETS = 2;
+    private static final int WEIGHTS = 3;
+    private static final int LATS = 4;
+    private static final int LONS = 5;
+    private static final int EDGE_LENGTH = 6;
+    private static final int EDGE_SPEED = 7;
+    private static final int EDGE_CLASS = 8;
+    private static final int CH_RANK = 20;
+    private static final int CH_UP_OFFSETS = 21;
+    private static final int CH_UP_TARGETS = 22;
+    private static final int CH_UP_MIDDLE = 23;
+    private static final int CH_UP_EDGE = 24;
+    private static final int CH_UP_WEIGHTS = 25;
+    private static final int CH_DOWN_OFFSETS = 26;
+    private static final int CH_DOWN_SOURCES = 27;
+    private static final int CH_DOWN_MIDDLE = 28;
+    private static final int CH_DOWN_EDGE = 29;
+    private static final int CH_DOWN_WEIGHTS = 30;
+
+    private final RoadNetwork network;
+    private final ContractionHierarchy hierarchy;
+    private final long createdAt;
+    private final long sizeBytes;
+
+    private RoadNetworkFile(RoadNetwork network, ContractionHierarchy hierarchy, long createdAt, long sizeBytes) {
+        this.network = network;
+        this.hierarchy = hierarchy;
+        this.createdAt = createdAt;
+        this.sizeBytes = sizeBytes;
+    }
+
+    public RoadNetwork getNetwork() { return network; }
+
+    /**
+     * The stored hierarchy, or null if the file was written without one
+     */
+    public ContractionHierarchy getHierarchy() { return hierarchy; }
+    public long getCreatedAt() { return createdAt; }
+    public long getSizeBytes() { return sizeBytes; }
+
+    /**
+     * Write network (and hierarchy, if not null) to path, replacing it atomically
+     */
+    public static void write(Path path, RoadNetwork network, ContractionHierarchy hierarchy) throws IOException {
+        RoadGraph graph = network.getGraph();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            int sectionCount = hierarchy == null ? 8 : 19;
+            Writer writer = new Writer(channel, HEADER_BYTES + sectionCount * SECTION_ENTRY_BYTES);
+            writer.ints(OFFSETS, graph.offsets());
+            writer.ints(TARGETS, graph.targets());
+            writer.floats(WEIGHTS, graph.weights());
+            writer.doubles(LATS, network.lats());
+            writer.doubles(LONS, network.lons());
+            writer.floats(EDGE_LENGTH, network.edgeLengths());
+            writer.floats(EDGE_SPEED, network.edgeSpeeds());
+            writer.bytes(EDGE_CLASS, network.edgeRoadClasses());
+            if (hierarchy != null) {
+                IntBuffer[] up = hierarchy.upLists();
+                IntBuffer[] down = hierarchy.downLists();
+                writer.ints(CH_RANK, hierarchy.ranks());
+                writer.ints(CH_UP_OFFSETS, up[0]);
+                writer.ints(CH_UP_TARGETS, up[1]);
+                writer.ints(CH_UP_MIDDLE, up[2]);
+                writer.ints(CH_UP_EDGE, up[3]);
+                writer.floats(CH_UP_WEIGHTS, hierarchy.upWeights());
+                writer.ints(CH_DOWN_OFFSETS, down[0]);
+                writer.ints(CH_DOWN_SOURCES, down[1]);
+                writer.ints(CH_DOWN_MIDDLE, down[2]);
+                writer.ints(CH_DOWN_EDGE, down[3]);
+                writer.floats(CH_DOWN_WEIGHTS, hierarchy.downWeights());
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + sectionCount * SECTION_ENTRY_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(sectionCount).putInt(hierarchy == null ? 0 : 1);
+            header.putInt(graph.nodeCount()).putInt(graph.edgeCount());
+            header.putInt(hierarchy == null ? 0 : hierarchy.getShortcutCount()).putInt(0);
+            header.putLong(hierarchy == null ? 0 : hierarchy.getBuildMillis());
+            header.putLong(System.currentTimeMillis());
+            header.putLong(writer.checksum.getValue());
+            header.position(HEADER_BYTES);
+            for (long[] section : writer.sections) {
+                header.putInt((int) section[0]).putInt(0).putLong(section[1]).putLong(section[2]);
+            }
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Map a file written by write(). With verifyChecksum every page is read once to check
+     * the CRC, which costs about a second per few GB; without it opening is near-instant.
+     */
+    public static RoadNetworkFile open(Path path, boolean verifyChecksum) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Not a road network file (too short): " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a road network file (bad magic): " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported road network file version " + version + " (expected " + VERSION + "): " + path);
+            }
+            int sectionCount = header.getInt();
+            boolean hasHierarchy = header.getInt() == 1;
+            int nodeCount = header.getInt();
+            int edgeCount = header.getInt();
+            int shortcutCount = header.getInt();
+            header.getInt();
+            long hierarchyBuildMillis = header.getLong();
+            long createdAt = header.getLong();
+            long checksum = header.getLong();
+
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+                (long) sectionCount * SECTION_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer[] sections = new ByteBuffer[CH_DOWN_WEIGHTS + 1];
+            CRC32C crc = new CRC32C();
+            for (int i = 0; i < sectionCount; i++) {
+                int id = table.getInt();
+                table.getInt();
+                long offset = table.getLong();
+                long length = table.getLong();
+                if (id <= 0 || id >= sections.length || offset < 0 || offset + length > size) {
+                    throw new IOException("Corrupt section table entry " + i + " in " + path);
+                }
+                sections[id] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+                if (verifyChecksum) {
+                    crc.update(sections[id].duplicate());
+                }
+            }
+            if (verifyChecksum && crc.getValue() != checksum) {
+                throw new IOException("Checksum mismatch in " + path);
+            }
+
+            RoadGraph graph = new RoadGraph(ints(sections, OFFSETS, nodeCount + 1), ints(sections, TARGETS, edgeCount),
+                floats(sections, WEIGHTS, edgeCount));
+            RoadNetwork network = new RoadNetwork(graph, doubles(sections, LATS, nodeCount), doubles(sections, LONS, nodeCount),
+                floats(sections, EDGE_LENGTH, edgeCount), floats(sections, EDGE_SPEED, edgeCount),
+                section(sections, EDGE_CLASS, edgeCount));
+            ContractionHierarchy hierarchy = null;
+            if (hasHierarchy) {
+                IntBuffer upOffsets = ints(sections, CH_UP_OFFSETS, nodeCount + 1);
+                IntBuffer downOffsets = ints(sections, CH_DOWN_OFFSETS, nodeCount + 1);
+                int upCount = upOffsets.get(nodeCount);
+                int downCount = downOffsets.get(nodeCount);
+                hierarchy = new ContractionHierarchy(nodeCount, ints(sections, CH_RANK, nodeCount),
+                    new IntBuffer[]{upOffsets, ints(sections, CH_UP_TARGETS, upCount),
+                        ints(sections, CH_UP_MIDDLE, upCount), ints(sections, CH_UP_EDGE, upCount)},
+                    floats(sections, CH_UP_WEIGHTS, upCount),
+                    new IntBuffer[]{downOffsets, ints(sections, CH_DOWN_SOURCES, downCount),
+                        ints(sections, CH_DOWN_MIDDLE, downCount), ints(sections, CH_DOWN_EDGE, downCount)},
+                    floats(sections, CH_DOWN_WEIGHTS, downCount), shortcutCount, hierarchyBuildMillis);
+            }
+            return new RoadNetworkFile(network, hierarchy, createdAt, size);
+        }
+    }
+
+    private static ByteBuffer section(ByteBuffer[] sections, int id, long elements) throws IOException {
+        return section(sections, id, elements, 1);
+    }
+
+    private static ByteBuffer section(ByteBuffer[] sections, int id, long elements, int width) throws IOException {
+        ByteBuffer section = sections[id];
+        if (section == null || section.capacity() != elements * width) {
+            throw new IOException("Road network file section " + id + " is missing or has the wrong size");
+        }
+        return section.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static IntBuffer ints(ByteBuffer[] sections, int id, int elements) throws IOException {
+        return section(sections, id, elements, 4).asIntBuffer();
+    }
+
+    private static FloatBuffer floats(ByteBuffer[] sections, int id, int elements) throws IOException {
+        return section(sections, id, elements, 4).asFloatBuffer();
+    }
+
+    private static DoubleBuffer doubles(ByteBuffer[] sections, int id, int elements) throws IOException {
+        return section(sections, id, elements, 8).asDoubleBuffer();
+    }
+
+    /**
+     * Appends sections after the header, tracking where each one lands and the running checksum
+     */
+    private static final class Writer {
+        final FileChannel channel;
+        final CRC32C checksum = new CRC32C();
+        final List<long[]> sections = new ArrayList<>();
+        final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position;
+        long sectionStart;
+
+        Writer(FileChannel channel, long headerBytes) {
+            this.channel = channel;
+            this.position = align(headerBytes);
+        }
+
+        void ints(int id, IntBuffer data) throws IOException {
+            begin();
+            data.rewind();
+            while (data.hasRemaining()) {
+                room(4);
+                chunk.putInt(data.get());
+            }
+            end(id);
+        }
+
+        void floats(int id, FloatBuffer data) throws IOException {
+            begin();
+            data.rewind();
+            while (data.hasRemaining()) {
+                room(4);
+                chunk.putFloat(data.get());
+            }
+            end(id);
+        }
+
+        void doubles(int id, DoubleBuffer data) throws IOException {
+            begin();
+            data.rewind();
+            while (data.hasRemaining()) {
+                room(8);
+                chunk.putDouble(data.get());
+            }
+            end(id);
+        }
+
+        void bytes(int id, ByteBuffer data) throws IOException {
+            begin();
+            data.rewind();
+            while (data.hasRemaining()) {
+                room(1);
+                chunk.put(data.get());
+            }
+            end(id);
+        }
+
+        private void begin() {
+            sectionStart = position;
+            chunk.clear();
+        }
+
+        private void room(int bytes) throws IOException {
+            if (chunk.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            chunk.flip();
+            checksum.update(chunk.duplicate());
+            while (chunk.hasRemaining()) {
+                position += channel.write(chunk, position);
+            }
+            chunk.clear();
+        }
+
+        private void end(int id) throws IOException {
+            flush();
+            sections.add(new long[]{id, sectionStart, position - sectionStart});
+            position = align(position);
+        }
+
+        private static long align(long offset) {
+            return (offset + 7) & ~7L;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.trafficx.util;
+
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Immutable uniform-grid index over point items for bbox, radius and nearest-N queries.
+ * Items are bucketed by cell into one flat array (CSR layout: cellStart[c]..cellStart[c+1]),
+ * with coordinates kept in parallel primitive arrays so scans touch no item objects.
+ */
+public final class SpatialGridIndex<T> {
+
+    private static final int TARGET_ITEMS_PER_CELL = 4;
+
+    private final Object[] items;
+    private final double[] lats;
+    private final double[] lons;
+    private final int[] cellStart;
+    private final int rows;
+    private final int cols;
+    private final double minLat;
+    private final double minLon;
+    private final double cellDegLat;
+    private final double cellDegLon;
+    // Smallest cell edge in meters; bounds how far anything outside a searched ring can be
+    private final double minCellMeters;
+
+    private SpatialGridIndex(Object[] items, double[] lats, double[] lons, int[] cellStart, int rows, int cols,
+                             double minLat, double minLon, double cellDegLat, double cellDegLon, double minCellMeters) {
+        this.items = items;
+        this.lats = lats;
+        this.lons = lons;
+        this.cellStart = cellStart;
+        this.rows = rows;
+        this.cols = cols;
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.cellDegLat = cellDegLat;
+        this.cellDegLon = cellDegLon;
+        this.minCellMeters = minCellMeters;
+    }
+
+    public static <T> SpatialGridIndex<T> build(Collection<T> source, ToDoubleFunction<T> latOf, ToDoubleFunction<T> lonOf) {
+        int n = source.size();
+        double[] srcLat = new double[n];
+        double[] srcLon = new double[n];
+        Object[] srcItems = new Object[n];
+
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+        int i = 0;
+        for (T item : source) {
+            srcItems[i] = item;
+            srcLat[i] = latOf.applyAsDouble(item);
+            srcLon[i] = lonOf.applyAsDouble(item);
+            minLat = Math.min(minLat, srcLat[i]);
+            maxLat = Math.max(maxLat, srcLat[i]);
+            minLon = Math.min(minLon, srcLon[i]);
+            maxLon = Math.max(maxLon, srcLon[i]);
+            i++;
+        }
+        if (n == 0) {
+            minLat = maxLat = minLon = maxLon = 0;
+        }
+
+        // Roughly square cells in meters, about TARGET_ITEMS_PER_CELL items each
+        double midCos = Math.max(0.01, Math.cos(Math.toRadians((minLat + maxLat) / 2)));
+        double heightMeters = Math.max(1, (maxLat - minLat) * GeoUtils.METERS_PER_DEGREE);
+        double widthMeters = Math.max(1, (maxLon - minLon) * GeoUtils.METERS_PER_DEGREE * midCos);
+        double cellMeters = Math.sqrt(heightMeters * widthMeters * TARGET_ITEMS_PER_CELL / Math.max(1, n));
+        int rows = (int) Math.max(1, Math.min(4096, Math.ceil(heightMeters / cellMeters)));
+        int cols = (int) Math.max(1, Math.min(4096, Math.ceil(widthMeters / cellMeters)));
+        double cellDegLat = Math.max(1e-9, (maxLat - minLat) / rows);
+        double cellDegLon = Math.max(1e-9, (maxLon - minLon) / cols);
+
+        double maxCos = Math.max(0.01, Math.min(
+            Math.cos(Math.toRadians(minLat)), Math.cos(Math.toRadians(maxLat))));
+        double minCellMeters = Math.min(cellDegLat * GeoUtils.METERS_PER_DEGREE,
+            cellDegLon * GeoUtils.METERS_PER_DEGREE * maxCos);
+
+        // Counting sort of items by cell
+        int[] cellOf = new int[n];
+        int[] cellStart = new int[rows * cols + 1];
+        for (int k = 0; k < n; k++) {
+            int row = clamp((int) ((srcLat[k] - minLat) / cellDegLat), rows);
+            int col = clamp((int) ((srcLon[k] - minLon) / cellDegLon), cols);
+            cellOf[k] = row * cols + col;
+            cellStart[cellOf[k] + 1]++;
+        }
+        for (int c = 0; c < rows * cols; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] fill = Arrays.copyOf(cellStart, rows * cols);
+        Object[] items = new Object[n];
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for (int k = 0; k < n; k++) {
+            int slot = fill[cellOf[k]]++;
+            items[slot] = srcItems[k];
+            lats[slot] = srcLat[k];
+            lons[slot] = srcLon[k];
+        }
+
+        return new SpatialGridIndex<>(items, lats, lons, cellStart, rows, cols,
+            minLat, minLon, cellDegLat, cellDegLon, minCellMeters);
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * All items inside the box (inclusive edges)
+     */
+    public List<T> query(BoundingBox box) {
+        List<T> result = new ArrayList<>();
+        if (items.length == 0) {
+            return result;
+        }
+        int rowFrom = clamp((int) Math.floor((box.getMinLat() - minLat) / cellDegLat), rows);
+        int rowTo = clamp((int) Math.floor((box.getMaxLat() - minLat) / cellDegLat), rows);
+        int colFrom = clamp((int) Math.floor((box.getMinLon() - minLon) / cellDegLon), cols);
+        int colTo = clamp((int) Math.floor((box.getMaxLon() - minLon) / cellDegLon), cols);
+
+        for (int row = rowFrom; row <= rowTo; row++) {
+            for (int col = colFrom; col <= colTo; col++) {
+                int cell = row * cols + col;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    if (box.contains(lons[k], lats[k])) {
+                        result.add(item(k));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Items within radiusMeters of (lat, lon), nearest first
+     */
+    public List<T> withinRadius(double lat, double lon, double radiusMeters) {
+        double dLat = radiusMeters / GeoUtils.METERS_PER_DEGREE;
+        double dLon = radiusMeters / (GeoUtils.METERS_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(lat))));
+        BoundingBox box = new BoundingBox(lon - dLon, lat - dLat, lon + dLon, lat + dLat);
+
+        List<Hit> hits = new ArrayList<>();
+        if (items.length > 0) {
+            int rowFrom = clamp((int) Math.floor((box.getMinLat() - minLat) / cellDegLat), rows);
+            int rowTo = clamp((int) Math.floor((box.getMaxLat() - minLat) / cellDegLat), rows);
+            int colFrom = clamp((int) Math.floor((box.getMinLon() - minLon) / cellDegLon), cols);
+            int colTo = clamp((int) Math.floor((box.getMaxLon() - minLon) / cellDegLon), cols);
+            for (int row = rowFrom; row <= rowTo; row++) {
+                for (int col = colFrom; col <= colTo; col++) {
+                    int cell = row * cols + col;
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                        double d = GeoUtils.haversineMeters(lat, lon, lats[k], lons[k]);
+                        if (d <= radiusMeters) {
+                            hits.add(new Hit(k, d));
+                        }
+                    }
+                }
+            }
+        }
+        return toItems(hits, hits.size());
+    }
+
+    /**
+     * The n items closest to (lat, lon), nearest first. Searches rings of cells outward
+     * from the query cell and stops once no unvisited cell can beat the current nth hit.
+     */
+    public List<T> nearest(double lat, double lon, int n) {
+        if (items.length == 0 || n <= 0) {
+            return new ArrayList<>();
+        }
+        int rawRow = (int) Math.floor((lat - minLat) / cellDegLat);
+        int rawCol = (int) Math.floor((lon - minLon) / cellDegLon);
+        int centerRow = clamp(rawRow, rows);
+        int centerCol = clamp(rawCol, cols);
+        // A query outside the grid starts from the nearest edge cell; discount the gap
+        double outsideMeters = GeoUtils.haversineMeters(lat, lon,
+            Math.max(minLat, Math.min(minLat + rows * cellDegLat, lat)),
+            Math.max(minLon, Math.min(minLon + cols * cellDegLon, lon)));
+
+        // Max-heap on distance holding the best n so far
+        PriorityQueue<Hit> best = new PriorityQueue<>(n + 1, (a, b) -> Double.compare(b.distance, a.distance));
+        int maxRing = Math.max(rows, cols);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int row = centerRow - ring; row <= centerRow + ring; row++) {
+                if (row < 0 || row >= rows) {
+                    continue;
+                }
+                boolean edgeRow = row == centerRow - ring || row == centerRow + ring;
+                int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+                for (int col = centerCol - ring; col <= centerCol + ring; col += step) {
+                    if (col < 0 || col >= cols) {
+                        continue;
+                    }
+                    int cell = row * cols + col;
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                        double d = GeoUtils.haversineMeters(lat, lon, lats[k], lons[k]);
+                        if (best.size() < n) {
+                            best.add(new Hit(k, d));
+                        } else if (d < best.peek().distance) {
+                            best.poll();
+                            best.add(new Hit(k, d));
+                        }
+                    }
+                }
+            }
+            double unvisitedBound = ring * minCellMeters - outsideMeters;
+            if (best.size() == n && best.peek().distance <= unvisitedBound) {
+                break;
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(best);
+        return toItems(hits, hits.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private T item(int k) {
+        return (T) items[k];
+    }
+
+    private List<T> toItems(List<Hit> hits, int limit) {
+        hits.sort(Comparator.comparingDouble(h -> h.distance));
+        List<T> result = new ArrayList<>(Math.min(limit, hits.size()));
+        for (int i = 0; i < hits.size() && i < limit; i++) {
+            result.add(item(hits.get(i).index));
+        }
+        return result;
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+
+    private static class Hit {
+        final int index;
+        final double distance;
+
+        Hit(int index, double distance) {
+            this.index = index;
+            this.distance = distance;
+        }
+    }
+}
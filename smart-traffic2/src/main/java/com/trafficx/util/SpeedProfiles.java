@@ -0,0 +1,256 @@
+package com.trafficx.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weekly speed profiles for every edge of a RoadNetwork, as slowdown factors (free-flow time
+ * multiplier, 1 = free flow) at evenly spaced breakpoints through the week, interpolated
+ * linearly in between. Each factor is one byte on a log scale from 1 to MAX_SLOWDOWN, and
+ * edges do not own a profile: they point to a shared shape, since every edge near the same
+ * flow sample follows the same curve. Shape 0 is free flow all week.
+ *
+ * Travel times are FIFO (leaving later never arrives earlier): an edge may be entered at a
+ * later breakpoint if that arrives sooner, so time-dependent Dijkstra stays exact.
+ */
+public final class SpeedProfiles {
+
+    public static final int WEEK_SECONDS = 7 * 24 * 3600;
+
+    // Same floor as live weights (5% of free-flow speed)
+    public static final double MAX_SLOWDOWN = 20;
+
+    private static final double[] DECODE = new double[256];
+
+    static {
+        for (int q = 0; q < 256; q++) {
+            DECODE[q] = Math.exp(q * Math.log(MAX_SLOWDOWN) / 255);
+        }
+    }
+
+    private final int slotSeconds;
+    private final int slots;
+    // Shape of each edge
+    private final char[] edgeShape;
+    // slots quantised factors per shape, shape after shape
+    private final byte[] shapes;
+    private final int profiledEdges;
+
+    private SpeedProfiles(int slotSeconds, char[] edgeShape, byte[] shapes, int profiledEdges) {
+        this.slotSeconds = slotSeconds;
+        this.slots = WEEK_SECONDS / slotSeconds;
+        this.edgeShape = edgeShape;
+        this.shapes = shapes;
+        this.profiledEdges = profiledEdges;
+    }
+
+    /**
+     * A location whose flow was recorded, with its slowdown at each breakpoint (NaN where
+     * nothing was recorded)
+     */
+    public static final class Observed {
+        private final double lat;
+        private final double lon;
+        private final float[] slowdown;
+
+        public Observed(double lat, double lon, float[] slowdown) {
+            this.lat = lat;
+            this.lon = lon;
+            this.slowdown = slowdown;
+        }
+    }
+
+    /**
+     * Profiles for network: the edges leaving nodes within radiusMeters of a location follow
+     * its profile (the slowest one where locations overlap, like live weights). Gaps of up to
+     * maxGapSlots breakpoints between recorded ones are interpolated; longer gaps stay at free flow.
+     */
+    public static SpeedProfiles build(RoadNetwork network, List<Observed> locations, double radiusMeters,
+                                      int slotSeconds, int maxGapSlots) {
+        if (slotSeconds <= 0 || WEEK_SECONDS % slotSeconds != 0) {
+            throw new IllegalArgumentException("Slot length must divide a week: " + slotSeconds + " s");
+        }
+        int slots = WEEK_SECONDS / slotSeconds;
+        ShapeTable table = new ShapeTable(slots);
+        RoadGraph graph = network.getGraph();
+        char[] edgeShape = new char[graph.edgeCount()];
+        // Shape made by combining (existing shape, location shape), so overlaps are merged once
+        Map<Long, Integer> merged = new HashMap<>();
+
+        for (Observed location : locations) {
+            int shape = table.intern(quantise(location.slowdown, slots, maxGapSlots));
+            if (shape <= 0) {
+                continue;
+            }
+            network.forEachNodeWithin(location.lat, location.lon, radiusMeters, node -> {
+                for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++) {
+                    int existing = edgeShape[e];
+                    if (existing == 0 || existing == shape) {
+                        edgeShape[e] = (char) shape;
+                        continue;
+                    }
+                    Integer combined = merged.computeIfAbsent((long) existing << 32 | shape,
+                        key -> table.intern(table.slowest(existing, shape)));
+                    if (combined >= 0) {
+                        edgeShape[e] = (char) (int) combined;
+                    }
+                }
+            });
+        }
+
+        int profiled = 0;
+        for (char shape : edgeShape) {
+            if (shape != 0) {
+                profiled++;
+            }
+        }
+        return new SpeedProfiles(slotSeconds, edgeShape, table.toArray(), profiled);
+    }
+
+    /**
+     * One shape's bytes: NaN gaps filled, factors quantised
+     */
+    static byte[] quantise(float[] slowdown, int slots, int maxGapSlots) {
+        byte[] shape = new byte[slots];
+        int first = -1;
+        for (int k = 0; k < slots && first < 0; k++) {
+            if (!Float.isNaN(slowdown[k])) {
+                first = k;
+            }
+        }
+        if (first < 0) {
+            return shape;
+        }
+        // Walk recorded breakpoints around the week, interpolating each gap to the next one
+        int previous = first;
+        for (int step = 1; step <= slots; step++) {
+            int k = (first + step) % slots;
+            if (Float.isNaN(slowdown[k])) {
+                continue;
+            }
+            int gap = step - (previous - first + slots) % slots;
+            shape[previous] = encode(slowdown[previous]);
+            if (gap - 1 <= maxGapSlots) {
+                for (int g = 1; g < gap; g++) {
+                    double t = (double) g / gap;
+                    shape[(previous + g) % slots] = encode(slowdown[previous] + (slowdown[k] - slowdown[previous]) * t);
+                }
+            }
+            previous = k;
+        }
+        return shape;
+    }
+
+    static byte encode(double slowdown) {
+        double clamped = Math.max(1, Math.min(MAX_SLOWDOWN, slowdown));
+        return (byte) Math.round(Math.log(clamped) / Math.log(MAX_SLOWDOWN) * 255);
+    }
+
+    public int edgeCount() {
+        return edgeShape.length;
+    }
+
+    public int getSlotSeconds() { return slotSeconds; }
+
+    /**
+     * Distinct shapes, free flow included
+     */
+    public int shapeCount() {
+        return shapes.length / slots;
+    }
+
+    /**
+     * Edges that follow a recorded profile rather than free flow
+     */
+    public int getProfiledEdges() { return profiledEdges; }
+
+    public long memoryBytes() {
+        return (long) edgeShape.length * 2 + shapes.length;
+    }
+
+    /**
+     * Free-flow time multiplier of edge at time (seconds since the start of the week; any
+     * value, it wraps)
+     */
+    public double slowdown(int edge, double time) {
+        int shape = edgeShape[edge];
+        return shape == 0 ? 1 : interpolate(shape * slots, time);
+    }
+
+    /**
+     * Seconds to traverse edge (freeFlowSeconds at free flow) when reaching it at time,
+     * including any wait for a later breakpoint that arrives sooner
+     */
+    public double travelTime(int edge, double freeFlowSeconds, double time) {
+        int shape = edgeShape[edge];
+        if (shape == 0 || freeFlowSeconds == Double.POSITIVE_INFINITY) {
+            return freeFlowSeconds;
+        }
+        int base = shape * slots;
+        double best = freeFlowSeconds * interpolate(base, time);
+        // Arrival is piecewise linear in entry time, so only breakpoints can beat entering now
+        for (double next = (Math.floor(time / slotSeconds) + 1) * slotSeconds; next - time < best; next += slotSeconds) {
+            best = Math.min(best, next - time + freeFlowSeconds * interpolate(base, next));
+        }
+        return best;
+    }
+
+    private double interpolate(int base, double time) {
+        double position = time / slotSeconds;
+        double floor = Math.floor(position);
+        int k = Math.floorMod((long) floor, slots);
+        double a = DECODE[shapes[base + k] & 0xff];
+        double b = DECODE[shapes[base + (k + 1) % slots] & 0xff];
+        return a + (b - a) * (position - floor);
+    }
+
+    /**
+     * Distinct shapes in order of first appearance, shape 0 being free flow
+     */
+    private static final class ShapeTable {
+        private final int slots;
+        private final Map<ByteBuffer, Integer> ids = new HashMap<>();
+        private byte[] data;
+        private int count;
+
+        ShapeTable(int slots) {
+            this.slots = slots;
+            this.data = new byte[slots * 16];
+            intern(new byte[slots]);
+        }
+
+        /**
+         * Id of shape, added if new; -1 once every char id is taken
+         */
+        int intern(byte[] shape) {
+            Integer id = ids.get(ByteBuffer.wrap(shape));
+            if (id != null) {
+                return id;
+            }
+            if (count > Character.MAX_VALUE) {
+                return -1;
+            }
+            if ((count + 1) * slots > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            System.arraycopy(shape, 0, data, count * slots, slots);
+            ids.put(ByteBuffer.wrap(shape), count);
+            return count++;
+        }
+
+        byte[] slowest(int a, int b) {
+            byte[] shape = new byte[slots];
+            for (int k = 0; k < slots; k++) {
+                shape[k] = (byte) Math.max(data[a * slots + k] & 0xff, data[b * slots + k] & 0xff);
+            }
+            return shape;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(data, count * slots);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.trafficx.util;
+
+/**
+ * Fastest path for a given departure time when edge travel times follow SpeedProfiles.
+ * Labels are arrival times, and each edge is costed for the moment the search reaches it.
+ * Profiles are FIFO, so settling each node once is still exact. Profiles only slow edges
+ * down, so the free-flow bounds of a BidirectionalAStar remain a consistent A* potential.
+ */
+public final class TimeDependentAStar {
+
+    private static final ThreadLocal<Dijkstra.SearchState> STATE = ThreadLocal.withInitial(() -> new Dijkstra.SearchState(0));
+
+    private TimeDependentAStar() {
+    }
+
+    /**
+     * Fastest path from source to target leaving at departure (seconds since the start of the
+     * week), or null if unreachable. The path's cost is its travel time. bounds may be null
+     * for plain time-dependent Dijkstra.
+     */
+    public static Dijkstra.Path route(RoadGraph graph, SpeedProfiles profiles, BidirectionalAStar bounds,
+                                      int source, int target, double departure) {
+        Dijkstra.SearchState state = STATE.get();
+        state.reset(graph.nodeCount());
+        IndexedMinHeap heap = state.heap();
+        state.relax(source, 0, -1, -1);
+        heap.push(source, 0);
+        int settled = 0;
+
+        while (!heap.isEmpty()) {
+            int u = heap.poll();
+            settled++;
+            if (u == target) {
+                return state.path(source, target, settled);
+            }
+            double du = state.distance(u);
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                int v = graph.target(e);
+                double dv = du + profiles.travelTime(e, graph.weight(e), departure + du);
+                if (dv < state.distance(v)) {
+                    state.relax(v, dv, u, e);
+                    heap.push(v, bounds == null ? dv : dv + bounds.lowerBound(v, target));
+                }
+            }
+        }
+        return null;
+    }
+}
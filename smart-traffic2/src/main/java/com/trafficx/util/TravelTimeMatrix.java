@@ -0,0 +1,273 @@
+package com.trafficx.util;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Many-to-many travel times and distances on a ContractionHierarchy, using buckets: one
+ * upward backward search per target leaves (target, time, meters) in a bucket at every node
+ * it settles, then one upward forward search per source scans the buckets of the nodes it
+ * settles. Each search only climbs the hierarchy, so a 1000x1000 matrix costs 2000 small
+ * searches instead of a million point-to-point queries.
+ *
+ * Shortcut lengths are not stored in the hierarchy, so they are summed from original edge
+ * lengths once when the matrix is created.
+ */
+public final class TravelTimeMatrix {
+
+    private static final ThreadLocal<SearchScratch> SCRATCH = ThreadLocal.withInitial(SearchScratch::new);
+
+    private final ContractionHierarchy hierarchy;
+    private final int nodeCount;
+
+    private final IntBuffer upOffsets;
+    private final IntBuffer upTargets;
+    private final FloatBuffer upWeights;
+    private final float[] upLengths;
+
+    private final IntBuffer downOffsets;
+    private final IntBuffer downSources;
+    private final FloatBuffer downWeights;
+    private final float[] downLengths;
+
+    /**
+     * Receives each finished row; called concurrently from the worker threads
+     */
+    @FunctionalInterface
+    public interface RowConsumer {
+        void accept(int source, double[] seconds, double[] meters);
+    }
+
+    public TravelTimeMatrix(ContractionHierarchy hierarchy, RoadNetwork network) {
+        this.hierarchy = hierarchy;
+        this.nodeCount = hierarchy.nodeCount();
+        IntBuffer[] up = hierarchy.upLists();
+        IntBuffer[] down = hierarchy.downLists();
+        this.upOffsets = up[0];
+        this.upTargets = up[1];
+        this.upWeights = hierarchy.upWeights();
+        this.downOffsets = down[0];
+        this.downSources = down[1];
+        this.downWeights = hierarchy.downWeights();
+        this.upLengths = new float[upTargets.limit()];
+        this.downLengths = new float[downSources.limit()];
+        computeLengths(up[2], up[3], down[2], down[3], network);
+    }
+
+    /**
+     * Both halves of a shortcut end at its middle node, which is ranked below both of its
+     * endpoints; so visiting arcs by the rank of their lower endpoint always finds the halves done.
+     */
+    private void computeLengths(IntBuffer upMiddle, IntBuffer upEdge, IntBuffer downMiddle, IntBuffer downEdge,
+                                RoadNetwork network) {
+        int[] byRank = new int[nodeCount];
+        for (int v = 0; v < nodeCount; v++) {
+            byRank[hierarchy.rank(v)] = v;
+        }
+        for (int v : byRank) {
+            for (int e = upOffsets.get(v); e < upOffsets.get(v + 1); e++) {
+                int middle = upMiddle.get(e);
+                upLengths[e] = middle < 0 ? network.length(upEdge.get(e))
+                    : arcLength(hierarchy.findEdge(v, middle)) + arcLength(hierarchy.findEdge(middle, upTargets.get(e)));
+            }
+            for (int e = downOffsets.get(v); e < downOffsets.get(v + 1); e++) {
+                int middle = downMiddle.get(e);
+                downLengths[e] = middle < 0 ? network.length(downEdge.get(e))
+                    : arcLength(hierarchy.findEdge(downSources.get(e), middle)) + arcLength(hierarchy.findEdge(middle, v));
+            }
+        }
+    }
+
+    private float arcLength(int encoded) {
+        return encoded >= 0 ? upLengths[encoded] : downLengths[~encoded];
+    }
+
+    /**
+     * Compute the sources x targets matrix on parallelism threads, handing each row to rows as
+     * soon as it is done (rows arrive in no particular order). Node -1 marks an unsnapped point;
+     * its row or column is all infinity, as are unreachable pairs.
+     */
+    public void compute(int[] sources, int[] targets, int parallelism, RowConsumer rows) {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            compute(sources, targets, pool, rows);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void compute(int[] sources, int[] targets, ForkJoinPool pool, RowConsumer rows) {
+        try {
+            Buckets buckets = pool.submit(() -> buildBuckets(targets)).get();
+            pool.submit(() -> IntStream.range(0, sources.length).parallel().forEach(i -> {
+                double[] seconds = new double[targets.length];
+                double[] meters = new double[targets.length];
+                Arrays.fill(seconds, Double.POSITIVE_INFINITY);
+                Arrays.fill(meters, Double.POSITIVE_INFINITY);
+                if (sources[i] >= 0) {
+                    scanBuckets(sources[i], buckets, seconds, meters);
+                }
+                rows.accept(i, seconds, meters);
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing travel time matrix", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("Failed to compute travel time matrix", e.getCause());
+        }
+    }
+
+    /**
+     * Backward searches from every target in parallel, then their settled nodes grouped into
+     * per-node buckets (CSR, like the graph itself)
+     */
+    private Buckets buildBuckets(int[] targets) {
+        int[][] nodes = new int[targets.length][];
+        double[][] seconds = new double[targets.length][];
+        float[][] meters = new float[targets.length][];
+        IntStream.range(0, targets.length).parallel().forEach(j -> {
+            if (targets[j] < 0) {
+                nodes[j] = new int[0];
+                seconds[j] = new double[0];
+                meters[j] = new float[0];
+                return;
+            }
+            SearchScratch scratch = SCRATCH.get();
+            scratch.reset(nodeCount);
+            search(targets[j], false, scratch);
+            nodes[j] = Arrays.copyOf(scratch.settled.values, scratch.settled.size);
+            seconds[j] = new double[scratch.settled.size];
+            meters[j] = new float[scratch.settled.size];
+            for (int k = 0; k < scratch.settled.size; k++) {
+                int node = scratch.settled.values[k];
+                seconds[j][k] = scratch.state.distance(node);
+                meters[j][k] = (float) scratch.meters[node];
+            }
+        });
+
+        Buckets buckets = new Buckets(nodeCount);
+        for (int[] settled : nodes) {
+            for (int node : settled) {
+                buckets.offsets[node + 1]++;
+            }
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            buckets.offsets[v + 1] += buckets.offsets[v];
+        }
+        int total = buckets.offsets[nodeCount];
+        buckets.target = new int[total];
+        buckets.seconds = new double[total];
+        buckets.meters = new float[total];
+        int[] next = Arrays.copyOf(buckets.offsets, nodeCount);
+        for (int j = 0; j < targets.length; j++) {
+            for (int k = 0; k < nodes[j].length; k++) {
+                int slot = next[nodes[j][k]]++;
+                buckets.target[slot] = j;
+                buckets.seconds[slot] = seconds[j][k];
+                buckets.meters[slot] = meters[j][k];
+            }
+        }
+        return buckets;
+    }
+
+    private void scanBuckets(int source, Buckets buckets, double[] seconds, double[] meters) {
+        SearchScratch scratch = SCRATCH.get();
+        scratch.reset(nodeCount);
+        search(source, true, scratch);
+        for (int k = 0; k < scratch.settled.size; k++) {
+            int u = scratch.settled.values[k];
+            double du = scratch.state.distance(u);
+            double mu = scratch.meters[u];
+            for (int b = buckets.offsets[u]; b < buckets.offsets[u + 1]; b++) {
+                int j = buckets.target[b];
+                double d = du + buckets.seconds[b];
+                if (d < seconds[j]) {
+                    seconds[j] = d;
+                    meters[j] = mu + buckets.meters[b];
+                }
+            }
+        }
+    }
+
+    /**
+     * Full upward search from node (forward along upward arcs, or backward along downward
+     * ones) with stall-on-demand. Leaves the nodes that were settled without being stalled in
+     * scratch.settled, with their path length in scratch.meters.
+     */
+    private void search(int node, boolean forward, SearchScratch scratch) {
+        IntBuffer offsets = forward ? upOffsets : downOffsets;
+        IntBuffer neighbours = forward ? upTargets : downSources;
+        FloatBuffer weights = forward ? upWeights : downWeights;
+        float[] lengths = forward ? upLengths : downLengths;
+        // Stalling looks into u from above, i.e. along the opposite direction's lists
+        IntBuffer stallOffsets = forward ? downOffsets : upOffsets;
+        IntBuffer stallNodes = forward ? downSources : upTargets;
+        FloatBuffer stallWeights = forward ? downWeights : upWeights;
+
+        Dijkstra.SearchState state = scratch.state;
+        IndexedMinHeap heap = state.heap();
+        state.relax(node, 0, -1, -1);
+        heap.push(node, 0);
+        while (!heap.isEmpty()) {
+            int u = heap.poll();
+            double du = state.distance(u);
+            int parent = state.parent(u);
+            scratch.meters[u] = parent < 0 ? 0 : scratch.meters[parent] + lengths[state.parentEdge(u)];
+            if (stalled(u, du, state, stallOffsets, stallNodes, stallWeights)) {
+                continue;
+            }
+            scratch.settled.add(u);
+            for (int e = offsets.get(u); e < offsets.get(u + 1); e++) {
+                int v = neighbours.get(e);
+                double dv = du + weights.get(e);
+                if (dv < state.distance(v)) {
+                    state.relax(v, dv, u, e);
+                    heap.push(v, dv);
+                }
+            }
+        }
+    }
+
+    private static boolean stalled(int u, double du, Dijkstra.SearchState state,
+                                   IntBuffer offsets, IntBuffer nodes, FloatBuffer weights) {
+        for (int e = offsets.get(u); e < offsets.get(u + 1); e++) {
+            int higher = nodes.get(e);
+            if (state.reached(higher) && state.distance(higher) + weights.get(e) < du) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Buckets {
+        final int[] offsets;
+        int[] target;
+        double[] seconds;
+        float[] meters;
+
+        Buckets(int nodeCount) {
+            offsets = new int[nodeCount + 1];
+        }
+    }
+
+    private static final class SearchScratch {
+        final Dijkstra.SearchState state = new Dijkstra.SearchState(0);
+        final IntList settled = new IntList();
+        double[] meters = new double[0];
+
+        void reset(int nodeCount) {
+            state.reset(nodeCount);
+            settled.clear();
+            if (meters.length < nodeCount) {
+                meters = new double[nodeCount];
+            }
+        }
+    }
+}
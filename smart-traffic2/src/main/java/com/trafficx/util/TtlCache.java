@@ -0,0 +1,275 @@
+package com.trafficx.util;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Small LRU cache with a per-entry TTL, an entry/weight bound and single-flight loading.
+ * Concurrent misses on the same key wait for one loader call instead of each running it.
+ */
+public class TtlCache<K, V> {
+
+    private final String name;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ToIntFunction<V> weigher;
+
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private long totalWeight;
+
+    // Told about entries that expire, are evicted or are invalidated (not replaced by put)
+    private volatile BiConsumer<K, V> removalListener = (key, value) -> { };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong sharedLoads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public TtlCache(String name, Duration ttl, int maxEntries, long maxWeight, ToIntFunction<V> weigher) {
+        this.name = name;
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    public TtlCache(String name, Duration ttl, int maxEntries) {
+        this(name, ttl, maxEntries, Long.MAX_VALUE, v -> 1);
+    }
+
+    /**
+     * Called with each entry that leaves the cache other than by being overwritten. Runs
+     * under the cache lock, so it must be quick and must not call back into the cache.
+     */
+    public void setRemovalListener(BiConsumer<K, V> listener) {
+        this.removalListener = listener;
+    }
+
+    /**
+     * Return the cached value for key, loading it if absent or expired.
+     * Loader exceptions propagate to every waiting caller and nothing is cached.
+     */
+    public V get(K key, Function<K, V> loader) {
+        V cached = getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        misses.incrementAndGet();
+
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            sharedLoads.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+        }
+
+        // Another loader may have stored the value and left inFlight between our miss and our claim
+        cached = getIfPresent(key);
+        if (cached != null) {
+            misses.decrementAndGet();
+            inFlight.remove(key, mine);
+            mine.complete(cached);
+            return cached;
+        }
+
+        long started = System.nanoTime();
+        try {
+            V value = loader.apply(key);
+            loadNanos.addAndGet(System.nanoTime() - started);
+            loads.incrementAndGet();
+            if (value != null) {
+                put(key, value);
+            }
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            // Errors too, or callers joined on mine would wait forever
+            loadFailures.incrementAndGet();
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    public V getIfPresent(K key) {
+        synchronized (entries) {
+            return lookup(key);
+        }
+    }
+
+    /**
+     * The cached values for keys, looked up under one lock acquisition; absent or expired keys are left out
+     */
+    public Map<K, V> getAllPresent(Collection<K> keys) {
+        Map<K, V> found = new HashMap<>();
+        synchronized (entries) {
+            for (K key : keys) {
+                V value = lookup(key);
+                if (value != null) {
+                    found.put(key, value);
+                }
+            }
+        }
+        return found;
+    }
+
+    // Caller holds the entries lock
+    private V lookup(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.createdAt > ttlNanos) {
+            entries.remove(key);
+            totalWeight -= entry.weight;
+            expirations.incrementAndGet();
+            removalListener.accept(key, entry.value);
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    public void put(K key, V value) {
+        Entry<V> entry = new Entry<>(value, weigher.applyAsInt(value), System.nanoTime());
+        synchronized (entries) {
+            Entry<V> previous = entries.put(key, entry);
+            if (previous != null) {
+                totalWeight -= previous.weight;
+            }
+            totalWeight += entry.weight;
+
+            Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || totalWeight > maxWeight) && it.hasNext()) {
+                Map.Entry<K, Entry<V>> eldest = it.next();
+                if (eldest.getKey().equals(key) && entries.size() == 1) {
+                    break;
+                }
+                it.remove();
+                totalWeight -= eldest.getValue().weight;
+                evictions.incrementAndGet();
+                removalListener.accept(eldest.getKey(), eldest.getValue().value);
+            }
+        }
+    }
+
+    /**
+     * Drop key; true if it was cached
+     */
+    public boolean invalidate(K key) {
+        synchronized (entries) {
+            Entry<V> removed = entries.remove(key);
+            if (removed != null) {
+                totalWeight -= removed.weight;
+                removalListener.accept(key, removed.value);
+            }
+            return removed != null;
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.forEach((key, entry) -> removalListener.accept(key, entry.value));
+            entries.clear();
+            totalWeight = 0;
+        }
+    }
+
+    public Stats stats() {
+        int size;
+        long weight;
+        synchronized (entries) {
+            size = entries.size();
+            weight = totalWeight;
+        }
+        return new Stats(name, size, weight, hits.get(), misses.get(), loads.get(), loadFailures.get(),
+            sharedLoads.get(), loadNanos.get(), evictions.get(), expirations.get());
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return e;
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final int weight;
+        final long createdAt;
+
+        Entry(V value, int weight, long createdAt) {
+            this.value = value;
+            this.weight = weight;
+            this.createdAt = createdAt;
+        }
+    }
+
+    public static class Stats {
+        private final String name;
+        private final int size;
+        private final long weight;
+        private final long hits;
+        private final long misses;
+        private final long loads;
+        private final long loadFailures;
+        private final long sharedLoads;
+        private final long totalLoadNanos;
+        private final long evictions;
+        private final long expirations;
+
+        public Stats(String name, int size, long weight, long hits, long misses, long loads, long loadFailures,
+                     long sharedLoads, long totalLoadNanos, long evictions, long expirations) {
+            this.name = name;
+            this.size = size;
+            this.weight = weight;
+            this.hits = hits;
+            this.misses = misses;
+            this.loads = loads;
+            this.loadFailures = loadFailures;
+            this.sharedLoads = sharedLoads;
+            this.totalLoadNanos = totalLoadNanos;
+            this.evictions = evictions;
+            this.expirations = expirations;
+        }
+
+        public String getName() { return name; }
+        public int getSize() { return size; }
+        public long getWeight() { return weight; }
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getLoads() { return loads; }
+        public long getLoadFailures() { return loadFailures; }
+        public long getSharedLoads() { return sharedLoads; }
+        public long getEvictions() { return evictions; }
+        public long getExpirations() { return expirations; }
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : hits / (double) total;
+        }
+
+        public double getAverageLoadMillis() {
+            return loads == 0 ? 0 : totalLoadNanos / 1_000_000.0 / loads;
+        }
+    }
+}
@@ -2,7 +2,7 @@
 let map;
 let currentCity = null;
 let cities = [];
-let incidentMarkers = [];
+let incidentMarkers = new Map(); // incident id -> marker
 let congestionMarkers = [];
 let routeLayer = null;
 let startMarker = null;
@@ -11,6 +11,9 @@ let searchMarker = null;
 let sessionId = generateSessionId();
 let currentIncidents = [];
 let currentFlows = [];
+let incidentsById = new Map();
+let incidentVersion = null;
+let trafficStream = null;
 
 // Map layers
 const mapLayers = {
@@ -124,22 +127,39 @@ async function changeCity() {
     
     clearRoute();
     clearIncidents();
+    incidentsById.clear();
+    incidentVersion = null;
     
     await loadTrafficData();
+    openTrafficStream();
     
     // Add system message to chat
     addChatMessage('ai', `Switched to ${cityName}. I'm now showing you real-time traffic data for this area. What would you like to know?`);
 }
 
-// Load traffic data
+// Load traffic data - after the first load only the changes since our version are fetched
 async function loadTrafficData() {
     if (!currentCity) return;
     
     try {
-        const incidentsResponse = await fetch(`/api/traffic/incidents?bbox=${currentCity.bbox}`);
-        currentIncidents = await incidentsResponse.json();
+        let url = `/api/traffic/incidents?bbox=${currentCity.bbox}`;
+        if (incidentVersion !== null) {
+            url += `&since=${incidentVersion}`;
+        }
+        const incidentsResponse = await fetch(url);
+        const version = incidentsResponse.headers.get('X-Incidents-Version');
+        const data = await incidentsResponse.json();
+        
+        if (Array.isArray(data)) {
+            incidentsById = new Map(data.map(incident => [incident.id, incident]));
+            displayIncidents(data);
+        } else if (!applyIncidentDelta(data)) {
+            incidentVersion = version;
+            return; // Nothing changed
+        }
+        incidentVersion = version;
         
-        displayIncidents(currentIncidents);
+        currentIncidents = Array.from(incidentsById.values());
         updateStatistics(currentIncidents);
         displayIncidentsList(currentIncidents);
         
@@ -148,40 +168,100 @@ async function loadTrafficData() {
     }
 }
 
+// Subscribe to pushed updates for the current city; polling resumes if the stream closes
+function openTrafficStream() {
+    if (trafficStream) {
+        trafficStream.close();
+        trafficStream = null;
+    }
+    if (!window.EventSource || !currentCity) return;
+    
+    const source = new EventSource(`/api/traffic/stream?city=${encodeURIComponent(currentCity.name)}`);
+    source.addEventListener('update', event => {
+        const update = JSON.parse(event.data);
+        if (!currentCity || update.city !== currentCity.name) return;
+        
+        incidentVersion = String(update.version);
+        currentFlows = update.flows || [];
+        if (applyIncidentDelta(update.incidents)) {
+            currentIncidents = Array.from(incidentsById.values());
+            updateStatistics(currentIncidents);
+            displayIncidentsList(currentIncidents);
+        }
+    });
+    source.onerror = () => {
+        // The browser reconnects on its own unless the server refused the stream
+        if (source.readyState === EventSource.CLOSED && trafficStream === source) {
+            trafficStream = null;
+        }
+    };
+    trafficStream = source;
+}
+
+// Apply an added/updated/removed delta; returns false when it changed nothing
+function applyIncidentDelta(delta) {
+    if (delta.full) {
+        incidentsById = new Map(delta.added.map(incident => [incident.id, incident]));
+        displayIncidents(delta.added);
+        return true;
+    }
+    
+    delta.removed.forEach(id => {
+        incidentsById.delete(id);
+        removeIncidentMarker(id);
+    });
+    delta.added.concat(delta.updated).forEach(incident => {
+        incidentsById.set(incident.id, incident);
+        removeIncidentMarker(incident.id);
+        addIncidentMarker(incident);
+    });
+    
+    return delta.added.length + delta.updated.length + delta.removed.length > 0;
+}
+
 // Display incidents with timestamps
 function displayIncidents(incidents) {
     clearIncidents();
+    incidents.forEach(addIncidentMarker);
+}
+
+function addIncidentMarker(incident) {
+    const severity = incident.severity || 1;
+    const color = severity >= 3 ? '#dc3545' : severity >= 2 ? '#ffc107' : '#28a745';
+    
+    const marker = L.circleMarker([incident.latitude, incident.longitude], {
+        radius: 8 + (severity * 2),
+        fillColor: color,
+        color: 'white',
+        weight: 2,
+        opacity: 1,
+        fillOpacity: 0.7
+    }).addTo(map);
     
-    incidents.forEach(incident => {
-        const severity = incident.severity || 1;
-        const color = severity >= 3 ? '#dc3545' : severity >= 2 ? '#ffc107' : '#28a745';
-        
-        const marker = L.circleMarker([incident.latitude, incident.longitude], {
-            radius: 8 + (severity * 2),
-            fillColor: color,
-            color: 'white',
-            weight: 2,
-            opacity: 1,
-            fillOpacity: 0.7
-        }).addTo(map);
-        
-        marker.bindPopup(`
-            <strong>${incident.description}</strong><br>
-            <strong>Location:</strong> ${incident.roadName || 'Unknown Road'}<br>
-            <strong>Started:</strong> ${incident.startTime || 'Unknown'}<br>
-            ${incident.endTime ? `<strong>Expected End:</strong> ${incident.endTime}<br>` : ''}
-            <strong>Delay:</strong> ${incident.delay} minutes<br>
-            <strong>Severity:</strong> ${severity}/4<br>
-            <strong>Length:</strong> ${incident.length}m
-        `);
-        
-        incidentMarkers.push(marker);
-    });
+    marker.bindPopup(`
+        <strong>${incident.description}</strong><br>
+        <strong>Location:</strong> ${incident.roadName || 'Unknown Road'}<br>
+        <strong>Started:</strong> ${incident.startTime || 'Unknown'}<br>
+        ${incident.endTime ? `<strong>Expected End:</strong> ${incident.endTime}<br>` : ''}
+        <strong>Delay:</strong> ${incident.delay} minutes<br>
+        <strong>Severity:</strong> ${severity}/4<br>
+        <strong>Length:</strong> ${incident.length}m
+    `);
+    
+    incidentMarkers.set(incident.id, marker);
+}
+
+function removeIncidentMarker(id) {
+    const marker = incidentMarkers.get(id);
+    if (marker) {
+        map.removeLayer(marker);
+        incidentMarkers.delete(id);
+    }
 }
 
 function clearIncidents() {
     incidentMarkers.forEach(marker => map.removeLayer(marker));
-    incidentMarkers = [];
+    incidentMarkers.clear();
 }
 
 // Search for specific location
@@ -328,9 +408,10 @@ async function calculateRoute() {
     
     try {
         const response = await fetch(
-            `/api/traffic/route?startLat=${start[0]}&startLon=${start[1]}&endLat=${end[0]}&endLon=${end[1]}&avoidTraffic=${avoidTraffic}`
+            `/api/traffic/route?startLat=${start[0]}&startLon=${start[1]}&endLat=${end[0]}&endLon=${end[1]}&avoidTraffic=${avoidTraffic}&format=polyline`
         );
         const route = await response.json();
+        route.coordinates = decodePolyline(route.polyline || '');
         
         displayRoute(route);
         
@@ -340,6 +421,26 @@ async function calculateRoute() {
     }
 }
 
+// Decode an encoded polyline (precision 5) into [[lat, lon], ...]
+function decodePolyline(encoded) {
+    const coordinates = [];
+    let index = 0, lat = 0, lon = 0;
+    while (index < encoded.length) {
+        for (const axis of [0, 1]) {
+            let result = 0, shift = 0, b;
+            do {
+                b = encoded.charCodeAt(index++) - 63;
+                result += (b & 0x1f) * Math.pow(2, shift);
+                shift += 5;
+            } while (b >= 0x20);
+            const delta = result % 2 ? -(result + 1) / 2 : result / 2;
+            if (axis === 0) lat += delta; else lon += delta;
+        }
+        coordinates.push([lat / 1e5, lon / 1e5]);
+    }
+    return coordinates;
+}
+
 function displayRoute(route) {
     if (routeLayer) map.removeLayer(routeLayer);
     clearCongestionMarkers();
@@ -528,10 +629,10 @@ async function sendChatMessage() {
     }
 }
 
-// Auto-refresh traffic data
+// Auto-refresh traffic data when no live stream is connected
 function startAutoRefresh() {
     setInterval(() => {
-        if (currentCity) {
+        if (currentCity && !(trafficStream && trafficStream.readyState === EventSource.OPEN)) {
             loadTrafficData();
         }
     }, 120000); // 2 minutes
@@ -0,0 +1,154 @@
+package com.trafficx.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpstreamBudgetTest {
+
+    private static final String TOMTOM = "https://api.tomtom.com/traffic/services/4/flowSegmentData";
+    private static final String HERE = "https://data.traffic.hereapi.com/v7/flow";
+
+    // Ten calls a day with a day-long burst window: a full bucket of ten that refills too slowly to matter here
+    private static UpstreamBudget budget(double backgroundReserve) {
+        return new UpstreamBudget(Map.of("tomtom", "10/day", "here", "10/day", "ors", ""),
+            Duration.ofDays(1), backgroundReserve);
+    }
+
+    private final AtomicInteger executed = new AtomicInteger();
+    private final ClientHttpRequestExecution execution = (request, body) -> {
+        executed.incrementAndGet();
+        return null;
+    };
+
+    private void call(UpstreamBudget budget, String url) throws IOException {
+        budget.intercept(new SimpleClientHttpRequestFactory().createRequest(URI.create(url), HttpMethod.GET),
+            new byte[0], execution);
+    }
+
+    private static UpstreamBudget.BudgetStats stats(UpstreamBudget budget, String provider) {
+        return budget.getStats().stream().filter(s -> s.getProvider().equals(provider)).findFirst().orElseThrow();
+    }
+
+    @Test
+    void reservationTheBudgetCannotCoverTakesNothingAndSkipsTheTask() throws Exception {
+        UpstreamBudget budget = budget(0.3);
+        AtomicBoolean ran = new AtomicBoolean();
+
+        UpstreamBudgetExceededException e = assertThrows(UpstreamBudgetExceededException.class,
+            () -> budget.withReservation("tomtom", 11, () -> ran.getAndSet(true)));
+        assertEquals("tomtom", e.getProvider());
+        assertFalse(ran.get());
+        assertEquals(10, budget.available("tomtom"));
+        assertEquals(0, stats(budget, "tomtom").getGranted());
+        assertEquals(1, stats(budget, "tomtom").getDeniedInteractive());
+
+        // Exactly the bucket is fine
+        assertEquals("done", budget.withReservation("tomtom", 10, () -> "done"));
+        assertEquals(10, budget.available("tomtom"));
+    }
+
+    @Test
+    void unspentReservedCallsAreRefunded() throws Exception {
+        UpstreamBudget budget = budget(0.3);
+
+        budget.withReservation("tomtom", 5, () -> {
+            assertEquals(5, budget.available("tomtom"));
+            call(budget, TOMTOM);
+            call(budget, TOMTOM);
+            // Spending the reservation does not touch the bucket again
+            assertEquals(5, budget.available("tomtom"));
+            return null;
+        });
+        assertEquals(2, executed.get());
+        assertEquals(8, budget.available("tomtom"));
+        assertEquals(2, stats(budget, "tomtom").getGranted());
+
+        // A task that fails is refunded too
+        assertThrows(IllegalStateException.class, () -> budget.withReservation("tomtom", 4, () -> {
+            call(budget, TOMTOM);
+            throw new IllegalStateException("parse error");
+        }));
+        assertEquals(7, budget.available("tomtom"));
+
+        // Calls past the reservation come out of the bucket
+        budget.withReservation("tomtom", 2, () -> {
+            for (int i = 0; i < 3; i++) {
+                call(budget, TOMTOM);
+            }
+            return null;
+        });
+        assertEquals(4, budget.available("tomtom"));
+        assertEquals(6, stats(budget, "tomtom").getGranted());
+    }
+
+    @Test
+    void backgroundCallsStopAtTheReserveWhileInteractiveOnesGoOn() throws Exception {
+        UpstreamBudget budget = budget(0.3);
+
+        UpstreamBudget.withPriority(UpstreamBudget.Priority.BACKGROUND, () -> {
+            assertEquals(UpstreamBudget.Priority.BACKGROUND, UpstreamBudget.currentPriority());
+            assertEquals(7, budget.available("tomtom"));
+            assertThrows(UpstreamBudgetExceededException.class,
+                () -> budget.withReservation("tomtom", 8, () -> null));
+            for (int i = 0; i < 7; i++) {
+                call(budget, TOMTOM);
+            }
+            assertThrows(UpstreamBudgetExceededException.class, () -> call(budget, TOMTOM));
+            assertThrows(UpstreamBudgetExceededException.class,
+                () -> budget.withReservation("tomtom", 1, () -> null));
+            assertEquals(0, budget.available("tomtom"));
+            return null;
+        }).call();
+        assertEquals(UpstreamBudget.Priority.INTERACTIVE, UpstreamBudget.currentPriority());
+        assertEquals(7, executed.get());
+        assertEquals(3, stats(budget, "tomtom").getDeniedBackground());
+
+        // The reserve is still there for interactive requests
+        assertEquals(3, budget.available("tomtom"));
+        budget.withReservation("tomtom", 2, () -> {
+            call(budget, TOMTOM);
+            call(budget, TOMTOM);
+            return null;
+        });
+        call(budget, TOMTOM);
+        assertThrows(UpstreamBudgetExceededException.class, () -> call(budget, TOMTOM));
+        assertEquals(10, executed.get());
+        assertEquals(1, stats(budget, "tomtom").getDeniedInteractive());
+    }
+
+    @Test
+    void callsToOtherProvidersFallThroughToTheirOwnBucket() throws Exception {
+        UpstreamBudget budget = budget(0.3);
+
+        budget.withReservation("tomtom", 3, () -> {
+            call(budget, HERE);
+            call(budget, HERE);
+            // Unbudgeted hosts are never charged
+            call(budget, "https://example.com/anything");
+            call(budget, "https://api.openrouteservice.org/v2/directions");
+            return null;
+        });
+        assertEquals(4, executed.get());
+        assertEquals(10, budget.available("tomtom"));
+        assertEquals(0, stats(budget, "tomtom").getGranted());
+        assertEquals(8, budget.available("here"));
+        assertEquals(2, stats(budget, "here").getGranted());
+
+        // Providers without a quota are not budgeted at all
+        assertEquals(Integer.MAX_VALUE, budget.available("ors"));
+        assertEquals(Double.POSITIVE_INFINITY, budget.backgroundRate("ors"));
+        assertEquals("ran", budget.withReservation("ors", 1_000_000, () -> "ran"));
+        assertEquals(2, budget.getStats().size());
+    }
+}
@@ -0,0 +1,159 @@
+package com.trafficx.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProviderResponseParserTest {
+
+    private static InputStream json(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void tomTomIncidentsSkipUnmappedFieldsAndAnchorAtFirstCoordinate() throws IOException {
+        String body = """
+            {"meta": {"nested": [1, {"deep": [2, 3]}]},
+             "incidents": [
+               {"type": "Feature",
+                "properties": {"id": "a", "iconCategory": 6, "magnitudeOfDelay": 3, "delay": 240,
+                               "length": 1200.5, "from": "Main St", "to": "Elm St",
+                               "startTime": "2024-01-02T03:04:05Z", "extra": {"ignored": [true]},
+                               "events": [{"description": "Jam", "iconCategory": 6},
+                                          {"description": "Second", "iconCategory": 1}]},
+                "geometry": {"type": "LineString", "coordinates": [[13.4, 52.5], [13.5, 52.6]]}},
+               {"properties": {"id": "b", "to": "Ring"},
+                "geometry": {"type": "Point", "coordinates": [2.35, 48.85]}},
+               {"properties": {"id": "nowhere"}, "geometry": {"coordinates": []}}
+             ]}
+            """;
+
+        List<TrafficApiService.TrafficIncident> incidents = ProviderResponseParser.parseTomTomIncidents(json(body));
+
+        assertEquals(2, incidents.size());
+        TrafficApiService.TrafficIncident jam = incidents.get(0);
+        assertEquals("a", jam.getId());
+        assertEquals(52.5, jam.getLatitude());
+        assertEquals(13.4, jam.getLongitude());
+        assertEquals("Jam", jam.getDescription());
+        assertEquals("6", jam.getType());
+        assertEquals(3, jam.getSeverity());
+        assertEquals(240, jam.getDelay());
+        assertEquals(1200, jam.getLength());
+        assertEquals("Main St", jam.getRoadName());
+        assertNotEquals("Unknown", jam.getStartTime());
+
+        TrafficApiService.TrafficIncident point = incidents.get(1);
+        assertEquals("b", point.getId());
+        assertEquals(48.85, point.getLatitude());
+        assertEquals(2.35, point.getLongitude());
+        assertEquals("Traffic incident", point.getDescription());
+        assertEquals("UNKNOWN", point.getType());
+        assertEquals(1, point.getSeverity());
+        assertEquals("Ring", point.getRoadName());
+    }
+
+    @Test
+    void hereIncidentsReadWrappedValuesAndFirstShapePoint() throws IOException {
+        String body = """
+            {"sourceUpdated": "2024-01-02T03:04:05Z",
+             "results": [
+               {"location": {"length": 10,
+                             "shape": {"links": [{"points": [{"lat": 40.7, "lng": -74.0}, {"lat": 40.8, "lng": -74.1}]},
+                                                 {"points": [{"lat": 1, "lng": 1}]}]}},
+                "incidentDetails": {"id": "h1", "criticality": "major"},
+                "description": {"value": "Road closed"},
+                "type": "roadClosure",
+                "impact": {"criticality": 9},
+                "startTime": "2024-01-02T03:04:05Z",
+                "endTime": "not a time"}
+             ]}
+            """;
+
+        List<TrafficApiService.TrafficIncident> incidents = ProviderResponseParser.parseHereIncidents(json(body));
+
+        assertEquals(1, incidents.size());
+        TrafficApiService.TrafficIncident incident = incidents.get(0);
+        assertEquals("h1", incident.getId());
+        assertEquals(40.7, incident.getLatitude());
+        assertEquals(-74.0, incident.getLongitude());
+        assertEquals("Road closed", incident.getDescription());
+        assertEquals("roadClosure", incident.getType());
+        assertEquals(4, incident.getSeverity());
+        assertEquals("Unknown", incident.getEndTime());
+    }
+
+    @Test
+    void tomTomFlowComputesCongestionAndIsNullWithoutSegmentData() throws IOException {
+        String body = """
+            {"flowSegmentData": {"frc": "FRC2", "currentSpeed": 30, "freeFlowSpeed": 60, "confidence": 0.9,
+                                 "coordinates": {"coordinate": [{"latitude": 1, "longitude": 2}]}}}
+            """;
+
+        TrafficApiService.TrafficFlow flow = ProviderResponseParser.parseTomTomFlow(json(body), 10, 20);
+
+        assertNotNull(flow);
+        assertEquals(10, flow.getLatitude());
+        assertEquals(20, flow.getLongitude());
+        assertEquals(30, flow.getCurrentSpeed());
+        assertEquals(60, flow.getFreeFlowSpeed());
+        assertEquals(0.9, flow.getConfidence());
+        assertEquals(50, flow.getCongestion());
+        assertEquals("FRC2", flow.getRoadName());
+
+        assertNull(ProviderResponseParser.parseTomTomFlow(json("{\"error\": {\"code\": 400}}"), 10, 20));
+        assertNull(ProviderResponseParser.parseTomTomFlow(json("[]"), 10, 20));
+    }
+
+    @Test
+    void hereFlowReadsOnlyTheFirstResult() throws IOException {
+        String body = """
+            {"results": [{"location": {"description": "A"},
+                          "currentFlow": {"speed": 12.5, "freeFlow": 25.9, "jamFactor": 0.42, "confidence": 0.7}},
+                         {"currentFlow": {"speed": 99}}]}
+            """;
+
+        TrafficApiService.TrafficFlow flow = ProviderResponseParser.parseHereFlow(json(body), 1, 2);
+
+        assertNotNull(flow);
+        assertEquals(12, flow.getCurrentSpeed());
+        assertEquals(25, flow.getFreeFlowSpeed());
+        assertEquals(42, flow.getCongestion());
+        assertEquals(0.7, flow.getConfidence());
+
+        assertNull(ProviderResponseParser.parseHereFlow(json("{\"results\": []}"), 1, 2));
+    }
+
+    @Test
+    void orsRouteReadsGeometryAndSummary() throws IOException {
+        String body = """
+            {"type": "FeatureCollection", "bbox": [1, 2, 3, 4],
+             "features": [{"bbox": [1, 2, 3, 4], "type": "Feature",
+                           "properties": {"segments": [{"steps": []}], "summary": {"distance": 1234.5, "duration": 98.7}},
+                           "geometry": {"coordinates": [[8.68, 49.41], [8.69, 49.42, 120.0]], "type": "LineString"}}]}
+            """;
+
+        RoutingApiService.RouteResult route = ProviderResponseParser.parseOrsRoute(json(body));
+
+        assertEquals(1234.5, route.getDistance());
+        assertEquals(98.7, route.getDuration());
+        assertEquals(2, route.getCoordinates().size());
+        assertEquals(49.41, route.getCoordinates().lat(0), 1e-5);
+        assertEquals(8.68, route.getCoordinates().lon(0), 1e-5);
+        assertEquals(49.42, route.getCoordinates().lat(1), 1e-5);
+        assertEquals(8.69, route.getCoordinates().lon(1), 1e-5);
+    }
+
+    @Test
+    void unexpectedTopLevelShapesYieldEmptyResults() throws IOException {
+        assertTrue(ProviderResponseParser.parseTomTomIncidents(json("[]")).isEmpty());
+        assertTrue(ProviderResponseParser.parseHereIncidents(json("{\"results\": 5}")).isEmpty());
+        assertTrue(ProviderResponseParser.parseHereRoutes(json("{\"notice\": [{\"code\": \"x\"}]}")).isEmpty());
+    }
+}
@@ -0,0 +1,54 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BidirectionalAStarTest {
+
+    @Test
+    void greatCircleBoundAloneMatchesDijkstra() {
+        for (long seed = 1; seed <= 5; seed++) {
+            RoadNetwork network = TestNetworks.random(seed, 200);
+            BidirectionalAStar aStar = BidirectionalAStar.create(network, 0, 1);
+            TestNetworks.assertMatchesDijkstra(network.getGraph(), aStar::distance, aStar::route, new Random(seed), 300);
+        }
+    }
+
+    @Test
+    void landmarkBoundsMatchDijkstra() {
+        for (long seed = 6; seed <= 10; seed++) {
+            RoadNetwork network = TestNetworks.random(seed, 200);
+            BidirectionalAStar aStar = BidirectionalAStar.create(network, 8, 2);
+            assertEquals(8, aStar.getLandmarks().count());
+            TestNetworks.assertMatchesDijkstra(network.getGraph(), aStar::distance, aStar::route, new Random(seed), 300);
+        }
+    }
+
+    @Test
+    void lowerBoundNeverExceedsTheShortestPath() {
+        RoadNetwork network = TestNetworks.random(11, 200);
+        RoadGraph graph = network.getGraph();
+        BidirectionalAStar aStar = BidirectionalAStar.create(network, 6, 2);
+        Random random = new Random(11);
+        for (int q = 0; q < 500; q++) {
+            int u = random.nextInt(graph.nodeCount());
+            int v = random.nextInt(graph.nodeCount());
+            double exact = Dijkstra.distance(graph, u, v);
+            double bound = aStar.lowerBound(u, v);
+            assertTrue(bound >= 0, "negative bound " + u + "->" + v);
+            // Landmark tables are floats, so allow their rounding
+            assertTrue(bound <= exact * (1 + 1e-6) + 1e-3, u + "->" + v + ": bound " + bound + " > " + exact);
+        }
+    }
+
+    @Test
+    void moreLandmarksThanNodesAreCapped() {
+        RoadNetwork network = TestNetworks.random(12, 5);
+        BidirectionalAStar aStar = BidirectionalAStar.create(network, 16, 1);
+        assertEquals(5, aStar.getLandmarks().count());
+        TestNetworks.assertMatchesDijkstra(network.getGraph(), aStar::distance, aStar::route, new Random(12), 300);
+    }
+}
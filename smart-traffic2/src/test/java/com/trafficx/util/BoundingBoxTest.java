@@ -0,0 +1,39 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundingBoxTest {
+
+    @Test
+    void parsesMinLonMinLatMaxLonMaxLat() {
+        BoundingBox box = BoundingBox.parse(" -0.5, 51.3 ,0.3,51.7");
+        assertNotNull(box);
+        assertEquals(-0.5, box.getMinLon());
+        assertEquals(51.3, box.getMinLat());
+        assertEquals(0.3, box.getMaxLon());
+        assertEquals(51.7, box.getMaxLat());
+        assertNotNull(BoundingBox.parse("-180,-90,180,90"));
+    }
+
+    @Test
+    void rejectsMalformedAndInvertedBoxes() {
+        assertNull(BoundingBox.parse(null));
+        assertNull(BoundingBox.parse("1,2,3"));
+        assertNull(BoundingBox.parse("a,2,3,4"));
+        assertNull(BoundingBox.parse("3,2,1,4"));
+        assertNull(BoundingBox.parse("1,4,3,2"));
+    }
+
+    @Test
+    void rejectsValuesOutsideTheGlobe() {
+        assertNull(BoundingBox.parse("-1e300,0,1e300,0.1"));
+        assertNull(BoundingBox.parse("-180.1,0,1,1"));
+        assertNull(BoundingBox.parse("0,-91,1,1"));
+        assertNull(BoundingBox.parse("0,0,1,90.5"));
+        assertNull(BoundingBox.parse("NaN,0,1,1"));
+        assertNull(BoundingBox.parse("0,0,Infinity,1"));
+        assertNull(BoundingBox.parse("-Infinity,0,1,1"));
+    }
+}
@@ -0,0 +1,50 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContractionHierarchyTest {
+
+    @Test
+    void queriesMatchDijkstraOnRandomNetworks() {
+        for (long seed = 1; seed <= 5; seed++) {
+            RoadGraph graph = TestNetworks.random(seed, 200).getGraph();
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, 1);
+            TestNetworks.assertMatchesDijkstra(graph, hierarchy::distance, hierarchy::route, new Random(seed), 300);
+        }
+    }
+
+    @Test
+    void parallelContractionGivesTheSameDistances() {
+        for (long seed = 6; seed <= 8; seed++) {
+            RoadGraph graph = TestNetworks.random(seed, 300).getGraph();
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, 4);
+            TestNetworks.assertMatchesDijkstra(graph, hierarchy::distance, hierarchy::route, new Random(seed), 300);
+        }
+    }
+
+    @Test
+    void ranksArePermutationOfNodes() {
+        RoadGraph graph = TestNetworks.random(9, 150).getGraph();
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, 2);
+        boolean[] seen = new boolean[graph.nodeCount()];
+        for (int v = 0; v < graph.nodeCount(); v++) {
+            int rank = hierarchy.rank(v);
+            assertTrue(rank >= 0 && rank < seen.length);
+            assertFalse(seen[rank], "rank " + rank + " used twice");
+            seen[rank] = true;
+        }
+    }
+
+    @Test
+    void handlesGraphsWithoutEdges() {
+        RoadGraph graph = new RoadGraph.Builder(3).build();
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, 1);
+        assertEquals(Double.POSITIVE_INFINITY, hierarchy.distance(0, 2));
+        assertNull(hierarchy.route(0, 2));
+        assertEquals(0, hierarchy.distance(1, 1));
+    }
+}
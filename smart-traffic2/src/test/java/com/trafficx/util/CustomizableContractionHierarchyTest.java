@@ -0,0 +1,96 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomizableContractionHierarchyTest {
+
+    private static float[] freeFlow(RoadGraph graph) {
+        float[] weights = new float[graph.edgeCount()];
+        for (int e = 0; e < weights.length; e++) {
+            weights[e] = graph.weight(e);
+        }
+        return weights;
+    }
+
+    /**
+     * The same topology with other weights; CSR building is stable, so edge ids line up
+     */
+    private static RoadGraph reweighted(RoadGraph graph, float[] weights) {
+        RoadGraph.Builder builder = new RoadGraph.Builder(graph.nodeCount(), graph.edgeCount());
+        for (int u = 0; u < graph.nodeCount(); u++) {
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                builder.addEdge(u, graph.target(e), weights[e]);
+            }
+        }
+        return builder.build();
+    }
+
+    @Test
+    void customizedQueriesMatchDijkstra() {
+        for (long seed = 1; seed <= 5; seed++) {
+            RoadNetwork network = TestNetworks.random(seed, 200);
+            CustomizableContractionHierarchy cch = CustomizableContractionHierarchy.build(network);
+            assertFalse(cch.isCustomized());
+            cch.customize(freeFlow(network.getGraph()));
+            assertTrue(cch.isCustomized());
+            TestNetworks.assertMatchesDijkstra(network.getGraph(), cch::distance, cch::route, new Random(seed), 200);
+        }
+    }
+
+    @Test
+    void incrementalUpdatesTrackChangingWeights() {
+        RoadNetwork network = TestNetworks.random(6, 250);
+        RoadGraph graph = network.getGraph();
+        float[] free = freeFlow(graph);
+        CustomizableContractionHierarchy cch = CustomizableContractionHierarchy.build(network);
+        cch.customize(free);
+
+        Random random = new Random(6);
+        float[] weights = free.clone();
+        for (int round = 0; round < 10; round++) {
+            // Slow some edges down, close a few and let others recover to free flow
+            for (int i = 0; i < 20; i++) {
+                int e = random.nextInt(weights.length);
+                switch (random.nextInt(3)) {
+                    case 0 -> weights[e] = free[e] * (1 + random.nextFloat() * 4);
+                    case 1 -> weights[e] = Float.POSITIVE_INFINITY;
+                    default -> weights[e] = free[e];
+                }
+            }
+            int arcs = cch.update(weights);
+            assertTrue(arcs >= 0 && arcs <= cch.arcCount());
+
+            RoadGraph current = reweighted(graph, weights);
+            TestNetworks.assertMatchesDijkstra(current, cch::distance, cch::route, random, 200);
+
+            CustomizableContractionHierarchy fresh = CustomizableContractionHierarchy.build(network);
+            fresh.customize(weights);
+            for (int q = 0; q < 50; q++) {
+                int source = random.nextInt(graph.nodeCount());
+                int target = random.nextInt(graph.nodeCount());
+                assertEquals(fresh.distance(source, target), cch.distance(source, target), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    void updatingUnchangedWeightsRecomputesNothing() {
+        RoadNetwork network = TestNetworks.random(7, 100);
+        float[] free = freeFlow(network.getGraph());
+        CustomizableContractionHierarchy cch = CustomizableContractionHierarchy.build(network);
+        cch.customize(free);
+        assertEquals(0, cch.update(free.clone()));
+    }
+
+    @Test
+    void firstUpdateCustomizesFromScratch() {
+        RoadNetwork network = TestNetworks.random(8, 100);
+        CustomizableContractionHierarchy cch = CustomizableContractionHierarchy.build(network);
+        assertEquals(cch.arcCount(), cch.update(freeFlow(network.getGraph())));
+        TestNetworks.assertMatchesDijkstra(network.getGraph(), cch::distance, cch::route, new Random(8), 200);
+    }
+}
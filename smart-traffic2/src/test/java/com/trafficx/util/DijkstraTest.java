@@ -0,0 +1,89 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DijkstraTest {
+
+    /**
+     * The same graph in the map form the original Dijkstra.compute works on; parallel edges keep the cheapest
+     */
+    private static Map<Long, Map<Long, Double>> asMap(RoadGraph graph) {
+        Map<Long, Map<Long, Double>> map = new HashMap<>();
+        for (int u = 0; u < graph.nodeCount(); u++) {
+            Map<Long, Double> out = map.computeIfAbsent((long) u, key -> new HashMap<>());
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                out.merge((long) graph.target(e), (double) graph.weight(e), Math::min);
+            }
+        }
+        return map;
+    }
+
+    @Test
+    void csrSearchMatchesMapBasedDijkstra() {
+        for (long seed = 1; seed <= 5; seed++) {
+            RoadNetwork network = TestNetworks.random(seed, 150);
+            RoadGraph graph = network.getGraph();
+            Map<Long, Map<Long, Double>> map = asMap(graph);
+            Random random = new Random(seed);
+
+            for (int q = 0; q < 200; q++) {
+                int source = random.nextInt(graph.nodeCount());
+                int target = random.nextInt(graph.nodeCount());
+                Dijkstra.Result reference = Dijkstra.compute(map, (long) source, (long) target);
+                double expected = reference.cost == Double.MAX_VALUE ? Double.POSITIVE_INFINITY : reference.cost;
+
+                assertEquals(expected, Dijkstra.distance(graph, source, target), 1e-6, source + "->" + target);
+                Dijkstra.Path path = Dijkstra.route(graph, source, target);
+                if (expected == Double.POSITIVE_INFINITY) {
+                    assertNull(path);
+                } else {
+                    TestNetworks.assertPath(graph, path, source, target, expected);
+                    assertTrue(path.getSettled() > 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    void searchStateIsReusedAcrossGraphsOfDifferentSizes() {
+        RoadGraph small = TestNetworks.random(21, 20).getGraph();
+        RoadGraph large = TestNetworks.random(22, 300).getGraph();
+        Map<Long, Map<Long, Double>> smallMap = asMap(small);
+        Map<Long, Map<Long, Double>> largeMap = asMap(large);
+
+        for (int i = 0; i < 50; i++) {
+            RoadGraph graph = i % 2 == 0 ? small : large;
+            Map<Long, Map<Long, Double>> map = i % 2 == 0 ? smallMap : largeMap;
+            int target = graph.nodeCount() - 1 - i % 10;
+            double reference = Dijkstra.compute(map, 0L, (long) target).cost;
+            double expected = reference == Double.MAX_VALUE ? Double.POSITIVE_INFINITY : reference;
+            assertEquals(expected, Dijkstra.distance(graph, 0, target), 1e-6);
+        }
+    }
+
+    @Test
+    void sourceEqualToTargetIsASingleNodePath() {
+        RoadGraph graph = TestNetworks.random(3, 10).getGraph();
+        Dijkstra.Path path = Dijkstra.route(graph, 4, 4);
+        assertArrayEquals(new int[]{4}, path.getNodes());
+        assertEquals(0, path.getEdges().length);
+        assertEquals(0, path.getCost());
+    }
+
+    @Test
+    void mapBasedComputeFollowsEdgesIntoNodesWithoutOutgoingEdges() {
+        Map<Long, Map<Long, Double>> graph = Map.of(
+            1L, Map.of(2L, 1.0, 3L, 5.0),
+            2L, Map.of(3L, 1.0));
+        Dijkstra.Result result = Dijkstra.compute(graph, 1L, 3L);
+        assertEquals(List.of(1L, 2L, 3L), result.path);
+        assertEquals(2.0, result.cost);
+    }
+}
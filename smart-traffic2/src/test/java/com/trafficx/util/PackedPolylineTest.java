@@ -0,0 +1,113 @@
+package com.trafficx.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedPolylineTest {
+
+    private static PackedPolyline polyline(double... latLon) {
+        PackedPolyline.Builder builder = new PackedPolyline.Builder(1);
+        for (int i = 0; i < latLon.length; i += 2) {
+            builder.add(latLon[i], latLon[i + 1]);
+        }
+        return builder.build();
+    }
+
+    private static void assertSamePoints(PackedPolyline expected, PackedPolyline actual, double tolerance) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.lat(i), actual.lat(i), tolerance, "lat " + i);
+            assertEquals(expected.lon(i), actual.lon(i), tolerance, "lon " + i);
+        }
+    }
+
+    @Test
+    void encodesTheReferenceVector() {
+        // The example from Google's encoded polyline algorithm format description
+        PackedPolyline points = polyline(38.5, -120.2, 40.7, -120.95, 43.252, -126.453);
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", points.encode());
+
+        PackedPolyline decoded = PackedPolyline.decode("_p~iF~ps|U_ulLnnqC_mqNvxq`@");
+        assertSamePoints(points, decoded, 1e-9);
+    }
+
+    @Test
+    void negativeDeltasAndSignsRoundTrip() {
+        // Crosses both the equator and the prime meridian, with deltas of both signs
+        PackedPolyline points = polyline(
+            0.00001, -0.00001,
+            -0.00001, 0.00001,
+            -33.86785, 151.20732,
+            51.50735, -0.12776,
+            -89.99999, -179.99999,
+            89.99999, 179.99999,
+            0, 0);
+        PackedPolyline decoded = PackedPolyline.decode(points.encode());
+        assertSamePoints(points, decoded, 1e-9);
+        assertEquals(points.encode(), decoded.encode());
+    }
+
+    @Test
+    void randomPolylinesRoundTripToTheEncodedPrecision() {
+        Random random = new Random(19);
+        for (int n = 0; n < 200; n++) {
+            PackedPolyline.Builder builder = new PackedPolyline.Builder();
+            double lat = -80 + random.nextDouble() * 160;
+            double lon = -170 + random.nextDouble() * 340;
+            for (int i = random.nextInt(50); i >= 0; i--) {
+                builder.add(lat, lon);
+                lat += random.nextGaussian() * (random.nextBoolean() ? 0.001 : 0.5);
+                lon += random.nextGaussian() * (random.nextBoolean() ? 0.001 : 0.5);
+            }
+            PackedPolyline points = builder.build();
+            String encoded = points.encode();
+            for (int i = 0; i < encoded.length(); i++) {
+                assertTrue(encoded.charAt(i) >= 63 && encoded.charAt(i) <= 126, "character " + (int) encoded.charAt(i));
+            }
+            // Half a unit of the fifth decimal, plus the rounding of the division
+            assertSamePoints(points, PackedPolyline.decode(encoded), 0.5e-5 + 1e-12);
+        }
+    }
+
+    @Test
+    void emptyPolylineEncodesToTheEmptyString() {
+        assertEquals("", PackedPolyline.EMPTY.encode());
+        assertEquals("", new PackedPolyline.Builder().build().encode());
+        PackedPolyline decoded = PackedPolyline.decode("");
+        assertTrue(decoded.isEmpty());
+        assertEquals(0, decoded.size());
+    }
+
+    @Test
+    void decodeIntoAppendsAndBuilderCanBeReused() {
+        PackedPolyline.Builder builder = new PackedPolyline.Builder(1);
+        builder.add(1, 2);
+        PackedPolyline.decodeInto("_p~iF~ps|U_ulLnnqC_mqNvxq`@", builder);
+        assertEquals(4, builder.size());
+        PackedPolyline points = builder.build();
+        assertEquals(1, points.lat(0));
+        assertEquals(2, points.lon(0));
+        assertEquals(43.252, points.lat(3), 1e-9);
+        assertEquals(-126.453, points.lon(3), 1e-9);
+
+        // build() hands over its array, so what it built must not change afterwards
+        assertEquals(0, builder.size());
+        builder.add(5, 6);
+        PackedPolyline next = builder.build();
+        assertEquals(1, next.size());
+        assertEquals(1, points.lat(0));
+        assertEquals(4, points.size());
+    }
+
+    @Test
+    void serializesAsLatLonPairs() throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals("[[38.5,-120.2],[40.7,-120.95]]", mapper.writeValueAsString(polyline(38.5, -120.2, 40.7, -120.95)));
+        assertEquals("[]", mapper.writeValueAsString(PackedPolyline.EMPTY));
+    }
+}
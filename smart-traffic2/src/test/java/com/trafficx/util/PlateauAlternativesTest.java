@@ -0,0 +1,114 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlateauAlternativesTest {
+
+    private static final double MAX_STRETCH = 1.3;
+    private static final double MAX_OVERLAP = 0.6;
+    private static final double MIN_PLATEAU = 0.1;
+
+    private static double sharedCost(RoadGraph graph, Dijkstra.Path a, Dijkstra.Path b) {
+        Set<Integer> edges = new HashSet<>();
+        for (int e : b.getEdges()) {
+            edges.add(e);
+        }
+        double shared = 0;
+        for (int e : a.getEdges()) {
+            if (edges.contains(e)) {
+                shared += graph.weight(e);
+            }
+        }
+        return shared;
+    }
+
+    @Test
+    void routesAreOptimalFirstAndWithinStretchAndOverlapLimits() {
+        int withAlternatives = 0;
+        for (long seed = 1; seed <= 5; seed++) {
+            RoadNetwork network = TestNetworks.random(seed, 250);
+            RoadGraph graph = network.getGraph();
+            PlateauAlternatives alternatives = new PlateauAlternatives(BidirectionalAStar.create(network, 4, 1));
+            Random random = new Random(seed);
+
+            for (int q = 0; q < 100; q++) {
+                int source = random.nextInt(graph.nodeCount());
+                int target = random.nextInt(graph.nodeCount());
+                if (source == target) {
+                    continue;
+                }
+                double best = Dijkstra.distance(graph, source, target);
+                List<PlateauAlternatives.Alternative> routes =
+                    alternatives.find(source, target, 3, MAX_STRETCH, MAX_OVERLAP, MIN_PLATEAU);
+
+                if (best == Double.POSITIVE_INFINITY) {
+                    assertTrue(routes.isEmpty());
+                    continue;
+                }
+                assertFalse(routes.isEmpty(), source + "->" + target);
+                assertTrue(routes.size() <= 3);
+                if (routes.size() > 1) {
+                    withAlternatives++;
+                }
+
+                TestNetworks.assertPath(graph, routes.get(0).getPath(), source, target, best);
+                assertEquals(1, routes.get(0).getStretch(), 1e-6);
+                for (int r = 0; r < routes.size(); r++) {
+                    PlateauAlternatives.Alternative route = routes.get(r);
+                    Dijkstra.Path path = route.getPath();
+                    TestNetworks.assertPath(graph, path, source, target, path.getCost());
+                    assertEquals(path.getCost() / best, route.getStretch(), 1e-6);
+                    assertTrue(route.getStretch() <= MAX_STRETCH + 1e-9);
+                    assertTrue(route.getPlateau() >= MIN_PLATEAU - 1e-9 || r == 0);
+
+                    int[] nodes = path.getNodes();
+                    Set<Integer> visited = new HashSet<>();
+                    for (int node : nodes) {
+                        assertTrue(visited.add(node), "route " + r + " revisits node " + node);
+                    }
+                    for (int earlier = 0; earlier < r; earlier++) {
+                        Dijkstra.Path other = routes.get(earlier).getPath();
+                        assertFalse(Arrays.equals(path.getEdges(), other.getEdges()), "duplicate route");
+                        double shared = sharedCost(graph, path, other);
+                        assertTrue(shared <= MAX_OVERLAP * Math.min(path.getCost(), other.getCost()) * (1 + 1e-6),
+                            "routes " + earlier + " and " + r + " share " + shared);
+                    }
+                }
+            }
+        }
+        assertTrue(withAlternatives > 0, "no query produced an alternative");
+    }
+
+    @Test
+    void kLimitsTheNumberOfRoutes() {
+        RoadNetwork network = TestNetworks.random(6, 250);
+        RoadGraph graph = network.getGraph();
+        PlateauAlternatives alternatives = new PlateauAlternatives(BidirectionalAStar.create(network, 0, 1));
+        Random random = new Random(6);
+        for (int q = 0; q < 50; q++) {
+            int source = random.nextInt(graph.nodeCount());
+            int target = random.nextInt(graph.nodeCount());
+            List<PlateauAlternatives.Alternative> one = alternatives.find(source, target, 1, 2, 0.9, 0);
+            assertTrue(one.size() <= 1);
+            if (!one.isEmpty()) {
+                TestNetworks.assertCost(Dijkstra.distance(graph, source, target), one.get(0).getPath().getCost(),
+                    source + "->" + target);
+            }
+            assertTrue(alternatives.find(source, target, 0, 2, 0.9, 0).isEmpty());
+        }
+    }
+
+    @Test
+    void sourceEqualToTargetIsTheEmptyRoute() {
+        RoadNetwork network = TestNetworks.random(7, 30);
+        PlateauAlternatives alternatives = new PlateauAlternatives(BidirectionalAStar.create(network, 0, 1));
+        List<PlateauAlternatives.Alternative> routes = alternatives.find(5, 5, 3, MAX_STRETCH, MAX_OVERLAP, MIN_PLATEAU);
+        assertEquals(1, routes.size());
+        assertArrayEquals(new int[]{5}, routes.get(0).getPath().getNodes());
+        assertEquals(0, routes.get(0).getPath().getCost());
+    }
+}
@@ -0,0 +1,145 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoadNetworkFileTest {
+
+    @TempDir
+    Path dir;
+
+    private static void assertSameNetwork(RoadNetwork expected, RoadNetwork actual) {
+        RoadGraph a = expected.getGraph();
+        RoadGraph b = actual.getGraph();
+        assertEquals(a.nodeCount(), b.nodeCount());
+        assertEquals(a.edgeCount(), b.edgeCount());
+        for (int u = 0; u < a.nodeCount(); u++) {
+            assertEquals(a.firstEdge(u), b.firstEdge(u));
+            assertEquals(a.endEdge(u), b.endEdge(u));
+            assertEquals(expected.lat(u), actual.lat(u));
+            assertEquals(expected.lon(u), actual.lon(u));
+        }
+        for (int e = 0; e < a.edgeCount(); e++) {
+            assertEquals(a.target(e), b.target(e));
+            assertEquals(a.weight(e), b.weight(e));
+            assertEquals(expected.length(e), actual.length(e));
+            assertEquals(expected.speed(e), actual.speed(e));
+            assertEquals(expected.roadClass(e), actual.roadClass(e));
+        }
+    }
+
+    @Test
+    void networkAndHierarchySurviveARoundTrip() throws IOException {
+        RoadNetwork network = TestNetworks.random(1, 200);
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(network.getGraph(), 2);
+        Path path = dir.resolve("network.stxg");
+        RoadNetworkFile.write(path, network, hierarchy);
+        assertFalse(Files.exists(dir.resolve("network.stxg.tmp")));
+
+        RoadNetworkFile file = RoadNetworkFile.open(path, true);
+        assertEquals(Files.size(path), file.getSizeBytes());
+        assertTrue(file.getCreatedAt() > 0);
+        assertSameNetwork(network, file.getNetwork());
+
+        ContractionHierarchy loaded = file.getHierarchy();
+        assertNotNull(loaded);
+        assertEquals(hierarchy.getShortcutCount(), loaded.getShortcutCount());
+        RoadGraph graph = file.getNetwork().getGraph();
+        Random random = new Random(1);
+        for (int q = 0; q < 200; q++) {
+            int source = random.nextInt(graph.nodeCount());
+            int target = random.nextInt(graph.nodeCount());
+            assertEquals(hierarchy.rank(source), loaded.rank(source));
+            double expected = Dijkstra.distance(graph, source, target);
+            TestNetworks.assertCost(expected, loaded.distance(source, target), source + "->" + target);
+            Dijkstra.Path route = loaded.route(source, target);
+            if (route != null) {
+                TestNetworks.assertPath(graph, route, source, target, expected);
+            }
+        }
+    }
+
+    @Test
+    void networkWithoutHierarchyRoundTrips() throws IOException {
+        RoadNetwork network = TestNetworks.random(2, 50);
+        Path path = dir.resolve("plain.stxg");
+        RoadNetworkFile.write(path, network, null);
+
+        RoadNetworkFile file = RoadNetworkFile.open(path, true);
+        assertNull(file.getHierarchy());
+        assertSameNetwork(network, file.getNetwork());
+    }
+
+    @Test
+    void rewritingReplacesTheFile() throws IOException {
+        Path path = dir.resolve("network.stxg");
+        RoadNetworkFile.write(path, TestNetworks.random(3, 40), null);
+        RoadNetwork second = TestNetworks.random(4, 60);
+        RoadNetworkFile.write(path, second, null);
+        assertSameNetwork(second, RoadNetworkFile.open(path, true).getNetwork());
+    }
+
+    @Test
+    void flippedSectionByteFailsTheChecksum() throws IOException {
+        Path path = dir.resolve("network.stxg");
+        RoadNetwork network = TestNetworks.random(5, 100);
+        RoadNetworkFile.write(path, network, ContractionHierarchy.build(network.getGraph(), 1));
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 0x40;
+        Files.write(path, bytes);
+
+        IOException error = assertThrows(IOException.class, () -> RoadNetworkFile.open(path, true));
+        assertTrue(error.getMessage().contains("Checksum"), error.getMessage());
+        // Skipping verification is the caller's choice; the file still maps
+        assertNotNull(RoadNetworkFile.open(path, false).getNetwork());
+    }
+
+    @Test
+    void wrongMagicOrVersionIsRejected() throws IOException {
+        Path path = dir.resolve("network.stxg");
+        RoadNetworkFile.write(path, TestNetworks.random(6, 30), null);
+        byte[] original = Files.readAllBytes(path);
+
+        byte[] badMagic = original.clone();
+        badMagic[0] = 'X';
+        Files.write(path, badMagic);
+        assertTrue(assertThrows(IOException.class, () -> RoadNetworkFile.open(path, false))
+            .getMessage().contains("magic"));
+
+        byte[] badVersion = original.clone();
+        ByteBuffer.wrap(badVersion).order(ByteOrder.LITTLE_ENDIAN).putInt(4, RoadNetworkFile.VERSION + 1);
+        Files.write(path, badVersion);
+        assertTrue(assertThrows(IOException.class, () -> RoadNetworkFile.open(path, false))
+            .getMessage().contains("version"));
+    }
+
+    @Test
+    void truncatedFilesAreRejected() throws IOException {
+        Path path = dir.resolve("network.stxg");
+        RoadNetworkFile.write(path, TestNetworks.random(7, 80), null);
+        byte[] original = Files.readAllBytes(path);
+
+        Files.write(path, Arrays.copyOf(original, 16));
+        assertThrows(IOException.class, () -> RoadNetworkFile.open(path, false));
+
+        Files.write(path, Arrays.copyOf(original, original.length / 2));
+        assertThrows(IOException.class, () -> RoadNetworkFile.open(path, false));
+    }
+
+    @Test
+    void notAFileAtAllIsRejected() throws IOException {
+        Path path = dir.resolve("text.stxg");
+        Files.writeString(path, "this is not a road network file, just some text that is long enough ".repeat(3));
+        assertThrows(IOException.class, () -> RoadNetworkFile.open(path, true));
+    }
+}
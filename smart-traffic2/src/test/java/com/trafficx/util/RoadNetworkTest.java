@@ -0,0 +1,279 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoadNetworkTest {
+
+    // The squared equirectangular distance the index ranks by, in degrees of latitude
+    private static double squared(double lat, double lon, double pointLat, double pointLon) {
+        double dLat = pointLat - lat;
+        double dLon = (pointLon - lon) * Math.cos(Math.toRadians(lat));
+        return dLat * dLat + dLon * dLon;
+    }
+
+    private static double limit(double maxMeters) {
+        double degrees = maxMeters / GeoUtils.METERS_PER_DEGREE;
+        return degrees * degrees;
+    }
+
+    private static double nodeDistance(RoadNetwork network, int node, double lat, double lon) {
+        return squared(lat, lon, network.lat(node), network.lon(node));
+    }
+
+    private static double edgeDistance(RoadNetwork network, int u, int v, double lat, double lon) {
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double x = (network.lon(v) - network.lon(u)) * cosLat;
+        double y = network.lat(v) - network.lat(u);
+        double lengthSq = x * x + y * y;
+        double t = lengthSq == 0 ? 0
+            : Math.max(0, Math.min(1, ((lon - network.lon(u)) * cosLat * x + (lat - network.lat(u)) * y) / lengthSq));
+        return squared(lat, lon, network.lat(u) + (network.lat(v) - network.lat(u)) * t,
+            network.lon(u) + (network.lon(v) - network.lon(u)) * t);
+    }
+
+    private static double nearestNodeScan(RoadNetwork network, double lat, double lon) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int node = 0; node < network.nodeCount(); node++) {
+            best = Math.min(best, nodeDistance(network, node, lat, lon));
+        }
+        return best;
+    }
+
+    private static double nearestEdgeScan(RoadNetwork network, double lat, double lon) {
+        RoadGraph graph = network.getGraph();
+        double best = Double.POSITIVE_INFINITY;
+        for (int u = 0; u < network.nodeCount(); u++) {
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                if (graph.target(e) != u) {
+                    best = Math.min(best, edgeDistance(network, u, graph.target(e), lat, lon));
+                }
+            }
+        }
+        return best;
+    }
+
+    private static Set<Integer> within(RoadNetwork network, double lat, double lon, double maxMeters) {
+        Set<Integer> found = new HashSet<>();
+        network.forEachNodeWithin(lat, lon, maxMeters, node -> assertTrue(found.add(node), "node " + node + " twice"));
+        return found;
+    }
+
+    private static RoadNetwork indexed(long seed, int nodeCount) {
+        RoadNetwork network = TestNetworks.random(seed, nodeCount);
+        network.buildSpatialIndex();
+        return network;
+    }
+
+    @Test
+    void nearestNodeAndForEachNodeWithinMatchLinearScan() {
+        Random random = new Random(3);
+        RoadNetwork network = indexed(1, 600);
+        assertTrue(network.hasSpatialIndex());
+
+        for (int q = 0; q < 300; q++) {
+            // Some queries fall outside the network
+            double lat = 52.49 + random.nextDouble() * 0.07;
+            double lon = 13.34 + random.nextDouble() * 0.10;
+            double maxMeters = 20 + random.nextDouble() * 1500;
+
+            double best = nearestNodeScan(network, lat, lon);
+            int nearest = network.nearestNode(lat, lon, maxMeters);
+            if (best > limit(maxMeters)) {
+                assertEquals(-1, nearest);
+            } else {
+                assertTrue(nearest >= 0, "query " + q);
+                assertEquals(best, nodeDistance(network, nearest, lat, lon), 1e-15);
+            }
+
+            Set<Integer> expected = new HashSet<>();
+            for (int node = 0; node < network.nodeCount(); node++) {
+                if (nodeDistance(network, node, lat, lon) <= limit(maxMeters)) {
+                    expected.add(node);
+                }
+            }
+            assertEquals(expected, within(network, lat, lon, maxMeters), "query " + q);
+        }
+    }
+
+    @Test
+    void snapToEdgeAndSnapNodeMatchLinearScanOverEdges() {
+        Random random = new Random(5);
+        RoadNetwork network = indexed(2, 600);
+        RoadGraph graph = network.getGraph();
+        RoadNetwork.EdgeSnap snap = new RoadNetwork.EdgeSnap();
+
+        for (int q = 0; q < 300; q++) {
+            double lat = 52.49 + random.nextDouble() * 0.07;
+            double lon = 13.34 + random.nextDouble() * 0.10;
+            double maxMeters = 20 + random.nextDouble() * 1500;
+
+            double best = nearestEdgeScan(network, lat, lon);
+            boolean snapped = network.snapToEdge(lat, lon, maxMeters, snap);
+            int node = network.snapNode(lat, lon, maxMeters);
+            if (best > limit(maxMeters)) {
+                assertFalse(snapped, "query " + q);
+                assertEquals(-1, node);
+                continue;
+            }
+            assertTrue(snapped, "query " + q);
+            int edge = snap.getEdge();
+            assertTrue(edge >= graph.firstEdge(snap.getSource()) && edge < graph.endEdge(snap.getSource()));
+            assertEquals(snap.getTarget(), graph.target(edge));
+            assertEquals(best, squared(lat, lon, snap.getLat(), snap.getLon()), 1e-15);
+            assertEquals(best, edgeDistance(network, snap.getSource(), snap.getTarget(), lat, lon), 1e-15);
+            assertTrue(snap.getFraction() >= 0 && snap.getFraction() <= 1);
+            assertEquals(GeoUtils.haversineMeters(lat, lon, snap.getLat(), snap.getLon()), snap.getMeters(), 1e-9);
+            assertEquals(snap.nearerNode(), node);
+        }
+    }
+
+    @Test
+    void scansBeforeTheIndexIsBuiltAgreeWithTheIndex() {
+        Random random = new Random(7);
+        RoadNetwork scanned = TestNetworks.random(3, 400);
+        RoadNetwork indexed = indexed(3, 400);
+        assertFalse(scanned.hasSpatialIndex());
+
+        for (int q = 0; q < 200; q++) {
+            double lat = 52.49 + random.nextDouble() * 0.07;
+            double lon = 13.34 + random.nextDouble() * 0.10;
+            double maxMeters = 20 + random.nextDouble() * 1500;
+            int expected = indexed.nearestNode(lat, lon, maxMeters);
+            int found = scanned.nearestNode(lat, lon, maxMeters);
+            if (expected < 0) {
+                assertEquals(-1, found);
+            } else {
+                assertEquals(nodeDistance(indexed, expected, lat, lon), nodeDistance(scanned, found, lat, lon), 1e-15);
+            }
+            assertEquals(within(indexed, lat, lon, maxMeters), within(scanned, lat, lon, maxMeters));
+        }
+    }
+
+    @Test
+    void maxMetersCutsOffAtTheRadius() {
+        RoadNetwork network = indexed(4, 300);
+        RoadNetwork.EdgeSnap snap = new RoadNetwork.EdgeSnap();
+        int node = 17;
+        double lat = network.lat(node);
+        double lon = network.lon(node);
+
+        // Straight north of a node, 500 m from it
+        double north = lat + 500 / GeoUtils.METERS_PER_DEGREE;
+        double nearestMeters = Math.sqrt(nearestNodeScan(network, north, lon)) * GeoUtils.METERS_PER_DEGREE;
+        assertEquals(-1, network.nearestNode(north, lon, nearestMeters * 0.999));
+        assertTrue(network.nearestNode(north, lon, nearestMeters * 1.001) >= 0);
+        assertFalse(within(network, north, lon, 500.5).isEmpty());
+
+        // Two kilometres beyond the network's southern edge
+        double south = 52.50 - 2000 / GeoUtils.METERS_PER_DEGREE;
+        assertEquals(-1, network.nearestNode(south, 13.39, 1000));
+        assertEquals(-1, network.snapNode(south, 13.39, 1000));
+        assertFalse(network.snapToEdge(south, 13.39, 1000, snap));
+        assertEquals(-1, snap.getEdge());
+        assertTrue(within(network, south, 13.39, 1000).isEmpty());
+        assertTrue(network.snapNode(south, 13.39, 3000) >= 0);
+        assertTrue(network.snapToEdge(south, 13.39, 3000, snap));
+        assertTrue(snap.getMeters() > 1900 && snap.getMeters() < 3000);
+    }
+
+    @Test
+    void snapNodesMatchesSnapNodeAndSkipsNaN() {
+        Random random = new Random(9);
+        RoadNetwork network = indexed(5, 500);
+        int count = 400;
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            lats[i] = 52.49 + random.nextDouble() * 0.07;
+            lons[i] = 13.34 + random.nextDouble() * 0.10;
+        }
+        lats[3] = Double.NaN;
+        lons[10] = Double.NaN;
+        lats[11] = lons[11] = Double.NaN;
+
+        int[] nodes = new int[count];
+        network.snapNodes(lats, lons, 300, nodes);
+        for (int i = 0; i < count; i++) {
+            if (i == 3 || i == 10 || i == 11) {
+                assertEquals(-1, nodes[i], "point " + i);
+            } else {
+                assertEquals(network.snapNode(lats[i], lons[i], 300), nodes[i], "point " + i);
+            }
+        }
+
+        int[] allNaN = {5, 5};
+        network.snapNodes(new double[]{Double.NaN, Double.NaN}, new double[]{1, Double.NaN}, 300, allNaN);
+        assertArrayEquals(new int[]{-1, -1}, allNaN);
+    }
+
+    @Test
+    void emptyNetworkFindsNothing() {
+        RoadGraph graph = new RoadGraph.Builder(0).build(new int[0]);
+        RoadNetwork network = new RoadNetwork(graph, new double[0], new double[0], new float[0], new float[0], new byte[0]);
+        RoadNetwork.EdgeSnap snap = new RoadNetwork.EdgeSnap();
+
+        for (int pass = 0; pass < 2; pass++) {
+            assertEquals(-1, network.nearestNode(52.5, 13.4, 1e7));
+            assertEquals(-1, network.snapNode(52.5, 13.4, 1e7));
+            assertFalse(network.snapToEdge(52.5, 13.4, 1e7, snap));
+            assertTrue(within(network, 52.5, 13.4, 1e7).isEmpty());
+            int[] nodes = {7};
+            network.snapNodes(new double[]{52.5}, new double[]{13.4}, 1e7, nodes);
+            assertArrayEquals(new int[]{-1}, nodes);
+            network.snapNodes(new double[0], new double[0], 1e7, new int[0]);
+            network.buildSpatialIndex();
+        }
+        assertTrue(network.hasSpatialIndex());
+    }
+
+    @Test
+    void packedTreeMatchesLinearScanAcrossLevelBoundaries() {
+        Random random = new Random(11);
+        for (int count : new int[]{1, PackedHilbertRTree.NODE_SIZE, PackedHilbertRTree.NODE_SIZE + 1, 257, 1000}) {
+            double[] lats = new double[count];
+            double[] lons = new double[count];
+            int[] ids = new int[count];
+            double[] boxes = new double[count * 4];
+            for (int i = 0; i < count; i++) {
+                lats[i] = 40 + random.nextDouble();
+                lons[i] = -74 + random.nextDouble();
+                // Ids need not be positions
+                ids[i] = i * 3 + 1;
+                boxes[i * 4] = boxes[i * 4 + 2] = lats[i];
+                boxes[i * 4 + 1] = boxes[i * 4 + 3] = lons[i];
+            }
+            PackedHilbertRTree tree = new PackedHilbertRTree(ids, boxes,
+                (item, lat, lon, cosLat) -> squared(lat, lon, lats[(item - 1) / 3], lons[(item - 1) / 3]));
+            assertEquals(count, tree.size());
+
+            for (int q = 0; q < 100; q++) {
+                double lat = 39.9 + random.nextDouble() * 1.2;
+                double lon = -74.1 + random.nextDouble() * 1.2;
+                double maxDegrees = random.nextDouble() * 0.2;
+
+                double best = Double.POSITIVE_INFINITY;
+                Set<Integer> expected = new HashSet<>();
+                for (int i = 0; i < count; i++) {
+                    double d = squared(lat, lon, lats[i], lons[i]);
+                    best = Math.min(best, d);
+                    if (d <= maxDegrees * maxDegrees) {
+                        expected.add(ids[i]);
+                    }
+                }
+                int nearest = tree.nearest(lat, lon, maxDegrees);
+                if (best > maxDegrees * maxDegrees) {
+                    assertEquals(-1, nearest);
+                } else {
+                    assertEquals(best, squared(lat, lon, lats[(nearest - 1) / 3], lons[(nearest - 1) / 3]), 1e-15);
+                }
+                Set<Integer> found = new HashSet<>();
+                tree.forEachWithin(lat, lon, maxDegrees, found::add);
+                assertEquals(expected, found, count + " items, query " + q);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpatialGridIndexTest {
+
+    private static List<double[]> randomPoints(Random random, int count) {
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // Clustered around a few centres, as incidents are, plus some spread
+            double lat = 48.8 + (i % 3) * 0.05 + random.nextGaussian() * 0.02;
+            double lon = 2.3 + (i % 3) * 0.07 + random.nextGaussian() * 0.03;
+            points.add(new double[]{lat, lon});
+        }
+        return points;
+    }
+
+    private static SpatialGridIndex<double[]> index(List<double[]> points) {
+        return SpatialGridIndex.build(points, p -> p[0], p -> p[1]);
+    }
+
+    private static double distance(double lat, double lon, double[] point) {
+        return GeoUtils.haversineMeters(lat, lon, point[0], point[1]);
+    }
+
+    @Test
+    void queryMatchesLinearScan() {
+        Random random = new Random(7);
+        List<double[]> points = randomPoints(random, 500);
+        SpatialGridIndex<double[]> index = index(points);
+        assertEquals(points.size(), index.size());
+
+        for (int q = 0; q < 200; q++) {
+            double lat = 48.7 + random.nextDouble() * 0.3;
+            double lon = 2.2 + random.nextDouble() * 0.4;
+            BoundingBox box = new BoundingBox(lon, lat, lon + random.nextDouble() * 0.2, lat + random.nextDouble() * 0.2);
+
+            Set<double[]> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (double[] p : points) {
+                if (box.contains(p[1], p[0])) {
+                    expected.add(p);
+                }
+            }
+            List<double[]> found = index.query(box);
+            assertEquals(expected.size(), found.size(), "box " + box);
+            assertTrue(expected.containsAll(found), "box " + box);
+        }
+    }
+
+    @Test
+    void withinRadiusMatchesLinearScanNearestFirst() {
+        Random random = new Random(11);
+        List<double[]> points = randomPoints(random, 500);
+        SpatialGridIndex<double[]> index = index(points);
+
+        for (int q = 0; q < 200; q++) {
+            double lat = 48.7 + random.nextDouble() * 0.3;
+            double lon = 2.2 + random.nextDouble() * 0.4;
+            double radius = 100 + random.nextDouble() * 5000;
+
+            long expected = points.stream().filter(p -> distance(lat, lon, p) <= radius).count();
+            List<double[]> found = index.withinRadius(lat, lon, radius);
+            assertEquals(expected, found.size(), "radius " + radius);
+            for (int i = 0; i < found.size(); i++) {
+                assertTrue(distance(lat, lon, found.get(i)) <= radius);
+                if (i > 0) {
+                    assertTrue(distance(lat, lon, found.get(i - 1)) <= distance(lat, lon, found.get(i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void nearestMatchesSortedLinearScanInsideAndOutsideTheGrid() {
+        Random random = new Random(13);
+        List<double[]> points = randomPoints(random, 300);
+        SpatialGridIndex<double[]> index = index(points);
+
+        for (int q = 0; q < 200; q++) {
+            // Some queries fall well outside the indexed area
+            double lat = 48.5 + random.nextDouble() * 0.8;
+            double lon = 1.9 + random.nextDouble() * 1.0;
+            int n = 1 + random.nextInt(20);
+
+            List<Double> expected = points.stream()
+                .map(p -> distance(lat, lon, p))
+                .sorted()
+                .limit(n)
+                .toList();
+            List<double[]> found = index.nearest(lat, lon, n);
+            assertEquals(expected.size(), found.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals(expected.get(i), distance(lat, lon, found.get(i)), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void emptyIndexAnswersEverythingEmpty() {
+        SpatialGridIndex<double[]> index = index(List.of());
+        assertTrue(index.query(new BoundingBox(0, 0, 1, 1)).isEmpty());
+        assertTrue(index.withinRadius(0, 0, 1000).isEmpty());
+        assertTrue(index.nearest(0, 0, 3).isEmpty());
+    }
+}
@@ -0,0 +1,187 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpeedProfilesTest {
+
+    private static final int SLOT_SECONDS = 3600;
+    private static final int SLOTS = SpeedProfiles.WEEK_SECONDS / SLOT_SECONDS;
+
+    private static float[] unrecorded() {
+        float[] slowdown = new float[SLOTS];
+        Arrays.fill(slowdown, Float.NaN);
+        return slowdown;
+    }
+
+    /**
+     * Profiles around a handful of nodes, with rush hours that swing between free flow and the
+     * maximum slowdown from one breakpoint to the next, where FIFO waiting matters
+     */
+    static SpeedProfiles randomProfiles(RoadNetwork network, long seed) {
+        Random random = new Random(seed);
+        List<SpeedProfiles.Observed> locations = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            int node = random.nextInt(network.nodeCount());
+            float[] slowdown = unrecorded();
+            for (int k = 0; k < SLOTS; k++) {
+                int pick = random.nextInt(10);
+                if (pick < 3) {
+                    slowdown[k] = (float) SpeedProfiles.MAX_SLOWDOWN;
+                } else if (pick < 7) {
+                    slowdown[k] = 1 + random.nextFloat() * 4;
+                }
+            }
+            locations.add(new SpeedProfiles.Observed(network.lat(node), network.lon(node), slowdown));
+        }
+        return SpeedProfiles.build(network, locations, 400, SLOT_SECONDS, 3);
+    }
+
+    @Test
+    void quantiseLeavesAnUnrecordedWeekAtFreeFlow() {
+        assertArrayEquals(new byte[SLOTS], SpeedProfiles.quantise(unrecorded(), SLOTS, SLOTS));
+    }
+
+    @Test
+    void quantiseClampsToTheEncodableRange() {
+        float[] slowdown = unrecorded();
+        slowdown[0] = 0.5f;
+        slowdown[1] = 1;
+        slowdown[2] = 100;
+        slowdown[3] = (float) SpeedProfiles.MAX_SLOWDOWN;
+        byte[] shape = SpeedProfiles.quantise(slowdown, SLOTS, 0);
+        assertEquals(0, shape[0]);
+        assertEquals(0, shape[1]);
+        assertEquals((byte) 255, shape[2]);
+        assertEquals((byte) 255, shape[3]);
+        assertEquals(SpeedProfiles.encode(4), SpeedProfiles.quantise(new float[]{4}, 1, 0)[0]);
+    }
+
+    @Test
+    void quantiseInterpolatesShortGapsAndLeavesLongOnesAtFreeFlow() {
+        float[] slowdown = unrecorded();
+        slowdown[10] = 2;
+        slowdown[13] = 5;   // gap of 2 slots: filled
+        slowdown[20] = 3;   // gap of 6 slots: left at free flow
+        byte[] shape = SpeedProfiles.quantise(slowdown, SLOTS, 2);
+
+        assertEquals(SpeedProfiles.encode(2), shape[10]);
+        assertEquals(SpeedProfiles.encode(2 + (5 - 2) / 3.0), shape[11]);
+        assertEquals(SpeedProfiles.encode(2 + (5 - 2) * 2 / 3.0), shape[12]);
+        assertEquals(SpeedProfiles.encode(5), shape[13]);
+        for (int k = 14; k < 20; k++) {
+            assertEquals(0, shape[k], "slot " + k);
+        }
+        assertEquals(SpeedProfiles.encode(3), shape[20]);
+        // The gap from slot 20 round the week back to slot 10 is far too long as well
+        for (int k = 21; k < SLOTS; k++) {
+            assertEquals(0, shape[k], "slot " + k);
+        }
+        for (int k = 0; k < 10; k++) {
+            assertEquals(0, shape[k], "slot " + k);
+        }
+    }
+
+    @Test
+    void quantiseInterpolatesAcrossTheEndOfTheWeek() {
+        float[] slowdown = unrecorded();
+        slowdown[SLOTS - 2] = 4;
+        slowdown[1] = 1;
+        byte[] shape = SpeedProfiles.quantise(slowdown, SLOTS, 2);
+        assertEquals(SpeedProfiles.encode(4), shape[SLOTS - 2]);
+        assertEquals(SpeedProfiles.encode(4 + (1 - 4) / 3.0), shape[SLOTS - 1]);
+        assertEquals(SpeedProfiles.encode(4 + (1 - 4) * 2 / 3.0), shape[0]);
+        assertEquals(SpeedProfiles.encode(1), shape[1]);
+        assertEquals(0, shape[2]);
+
+        // A single recorded slot with a long enough gap allowance covers the whole week
+        float[] once = unrecorded();
+        once[5] = 3;
+        byte[] constant = SpeedProfiles.quantise(once, SLOTS, SLOTS);
+        for (int k = 0; k < SLOTS; k++) {
+            assertEquals(SpeedProfiles.encode(3), constant[k], "slot " + k);
+        }
+    }
+
+    @Test
+    void slowdownDecodesWithinOneQuantisationStep() {
+        RoadNetwork network = TestNetworks.random(1, 100);
+        float[] slowdown = unrecorded();
+        for (int k = 0; k < SLOTS; k++) {
+            slowdown[k] = 1 + (k % 7) * 2.5f;
+        }
+        SpeedProfiles profiles = SpeedProfiles.build(network,
+            List.of(new SpeedProfiles.Observed(network.lat(0), network.lon(0), slowdown)), 1, SLOT_SECONDS, 0);
+        RoadGraph graph = network.getGraph();
+        assertTrue(graph.endEdge(0) > graph.firstEdge(0));
+        assertEquals(graph.endEdge(0) - graph.firstEdge(0), profiles.getProfiledEdges());
+        assertEquals(2, profiles.shapeCount());
+
+        double step = Math.pow(SpeedProfiles.MAX_SLOWDOWN, 1 / 255.0);
+        int edge = graph.firstEdge(0);
+        for (int k = 0; k < SLOTS; k++) {
+            double decoded = profiles.slowdown(edge, k * SLOT_SECONDS);
+            assertTrue(decoded / slowdown[k] <= Math.sqrt(step) + 1e-9 && slowdown[k] / decoded <= Math.sqrt(step) + 1e-9,
+                "slot " + k + ": " + decoded + " for " + slowdown[k]);
+            // Times wrap around the week
+            assertEquals(decoded, profiles.slowdown(edge, k * SLOT_SECONDS + 3.0 * SpeedProfiles.WEEK_SECONDS), 1e-9);
+        }
+    }
+
+    @Test
+    void travelTimeIsFifoAndNeverBeatsFreeFlow() {
+        RoadNetwork network = TestNetworks.random(2, 300);
+        RoadGraph graph = network.getGraph();
+        SpeedProfiles profiles = randomProfiles(network, 2);
+        assertTrue(profiles.getProfiledEdges() > 0);
+        Random random = new Random(2);
+
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            double freeFlow = graph.weight(e);
+            // Some edges take longer than a slot, so waits can span several breakpoints
+            double seconds = random.nextBoolean() ? freeFlow : freeFlow * 100;
+            double previousArrival = Double.NEGATIVE_INFINITY;
+            // Ascending entry times, including the breakpoints themselves and the week's end
+            double time = SpeedProfiles.WEEK_SECONDS - 3 * SLOT_SECONDS + random.nextDouble() * 60;
+            for (int i = 0; i < 200; i++) {
+                double travel = profiles.travelTime(e, seconds, time);
+                assertTrue(travel >= seconds * (1 - 1e-12), "edge " + e + " faster than free flow");
+                assertTrue(travel <= seconds * profiles.slowdown(e, time) * (1 + 1e-12),
+                    "edge " + e + " slower than entering at once");
+                double arrival = time + travel;
+                assertTrue(arrival >= previousArrival - 1e-6, "edge " + e + " overtaken at " + time);
+                previousArrival = arrival;
+                time = i % 5 == 0 ? (Math.floor(time / SLOT_SECONDS) + 1) * SLOT_SECONDS : time + random.nextDouble() * 900;
+            }
+        }
+    }
+
+    @Test
+    void unprofiledAndClosedEdgesKeepTheirFreeFlowTime() {
+        RoadNetwork network = TestNetworks.random(3, 100);
+        SpeedProfiles profiles = SpeedProfiles.build(network, List.of(), 400, SLOT_SECONDS, 3);
+        assertEquals(1, profiles.shapeCount());
+        assertEquals(0, profiles.getProfiledEdges());
+        assertEquals(network.edgeCount(), profiles.edgeCount());
+        assertEquals(42.5, profiles.travelTime(0, 42.5, 12345));
+        assertEquals(1, profiles.slowdown(0, 12345));
+
+        SpeedProfiles slowed = randomProfiles(network, 3);
+        for (int e = 0; e < network.edgeCount(); e++) {
+            assertEquals(Double.POSITIVE_INFINITY, slowed.travelTime(e, Double.POSITIVE_INFINITY, 1000));
+        }
+    }
+
+    @Test
+    void slotLengthMustDivideAWeek() {
+        RoadNetwork network = TestNetworks.random(4, 20);
+        assertThrows(IllegalArgumentException.class, () -> SpeedProfiles.build(network, List.of(), 400, 1000, 3));
+        assertThrows(IllegalArgumentException.class, () -> SpeedProfiles.build(network, List.of(), 400, 0, 3));
+    }
+}
@@ -0,0 +1,170 @@
+package com.trafficx.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Small random road networks for checking the speed-up techniques against plain Dijkstra.
+ * Nodes are scattered over a few kilometres and wired to near neighbours, mostly both
+ * ways, with some parallel edges and one-way streets, so that not every pair is connected.
+ */
+final class TestNetworks {
+
+    private static final float[] CLASS_SPEEDS = {110, 90, 70, 60, 50, 40, 30, 10, 20};
+
+    private TestNetworks() {
+    }
+
+    static RoadNetwork random(long seed, int nodeCount) {
+        Random random = new Random(seed);
+        double[] lats = new double[nodeCount];
+        double[] lons = new double[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            lats[i] = 52.50 + random.nextDouble() * 0.05;
+            lons[i] = 13.35 + random.nextDouble() * 0.08;
+        }
+
+        RoadGraph.Builder builder = new RoadGraph.Builder(nodeCount);
+        FloatList lengths = new FloatList();
+        FloatList speeds = new FloatList();
+        FloatList classes = new FloatList();
+        for (int u = 0; u < nodeCount; u++) {
+            int links = 1 + random.nextInt(3);
+            for (int[] near = nearest(lats, lons, u, 6); links > 0; links--) {
+                int v = near[random.nextInt(near.length)];
+                int roadClass = random.nextInt(CLASS_SPEEDS.length);
+                // Roads are never shorter than the straight line, which the A* bound relies on
+                float length = (float) (GeoUtils.haversineMeters(lats[u], lons[u], lats[v], lons[v])
+                    * (1 + random.nextDouble() * 0.4) + 1);
+                float speed = CLASS_SPEEDS[roadClass];
+                float weight = length / (speed / 3.6f);
+                builder.addEdge(u, v, weight);
+                lengths.add(length);
+                speeds.add(speed);
+                classes.add(roadClass);
+                if (random.nextInt(10) < 7) {
+                    builder.addEdge(v, u, weight);
+                    lengths.add(length);
+                    speeds.add(speed);
+                    classes.add(roadClass);
+                }
+            }
+        }
+
+        int[] slots = new int[builder.edgeCount()];
+        RoadGraph graph = builder.build(slots);
+        float[] edgeLength = new float[slots.length];
+        float[] edgeSpeed = new float[slots.length];
+        byte[] edgeClass = new byte[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            edgeLength[slots[i]] = lengths.get(i);
+            edgeSpeed[slots[i]] = speeds.get(i);
+            edgeClass[slots[i]] = (byte) classes.get(i);
+        }
+        return new RoadNetwork(graph, lats, lons, edgeLength, edgeSpeed, edgeClass);
+    }
+
+    private static int[] nearest(double[] lats, double[] lons, int u, int k) {
+        int[] best = new int[Math.min(k, lats.length - 1)];
+        double[] bestDistance = new double[best.length];
+        Arrays.fill(bestDistance, Double.POSITIVE_INFINITY);
+        for (int v = 0; v < lats.length; v++) {
+            if (v == u) {
+                continue;
+            }
+            double d = GeoUtils.haversineMeters(lats[u], lons[u], lats[v], lons[v]);
+            for (int i = 0; i < best.length; i++) {
+                if (d < bestDistance[i]) {
+                    System.arraycopy(best, i, best, i + 1, best.length - i - 1);
+                    System.arraycopy(bestDistance, i, bestDistance, i + 1, best.length - i - 1);
+                    best[i] = v;
+                    bestDistance[i] = d;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Assert that path is a real source->target walk over graph edges whose weights add up to expected
+     */
+    static void assertPath(RoadGraph graph, Dijkstra.Path path, int source, int target, double expected) {
+        assertNotNull(path, "no path " + source + "->" + target);
+        int[] nodes = path.getNodes();
+        int[] edges = path.getEdges();
+        assertEquals(source, nodes[0]);
+        assertEquals(target, nodes[nodes.length - 1]);
+        assertEquals(nodes.length - 1, edges.length);
+        double cost = 0;
+        for (int i = 0; i < edges.length; i++) {
+            int e = edges[i];
+            assertTrue(e >= graph.firstEdge(nodes[i]) && e < graph.endEdge(nodes[i]),
+                "edge " + e + " does not leave node " + nodes[i]);
+            assertEquals(nodes[i + 1], graph.target(e));
+            cost += graph.weight(e);
+        }
+        assertCost(expected, cost, source + "->" + target + " walked");
+        assertCost(expected, path.getCost(), source + "->" + target + " reported");
+    }
+
+    @FunctionalInterface
+    interface DistanceQuery {
+        double distance(int source, int target);
+    }
+
+    @FunctionalInterface
+    interface RouteQuery {
+        Dijkstra.Path route(int source, int target);
+    }
+
+    /**
+     * Assert that distance and route agree with plain Dijkstra on graph for queries random
+     * source/target pairs, route returning null exactly when target is unreachable
+     */
+    static void assertMatchesDijkstra(RoadGraph graph, DistanceQuery distance, RouteQuery route,
+                                      Random random, int queries) {
+        for (int q = 0; q < queries; q++) {
+            int source = random.nextInt(graph.nodeCount());
+            int target = random.nextInt(graph.nodeCount());
+            double expected = Dijkstra.distance(graph, source, target);
+
+            assertCost(expected, distance.distance(source, target), source + "->" + target);
+            Dijkstra.Path path = route.route(source, target);
+            if (expected == Double.POSITIVE_INFINITY) {
+                assertNull(path);
+            } else {
+                assertPath(graph, path, source, target, expected);
+            }
+        }
+    }
+
+    /**
+     * Costs agree up to float rounding of summed edge and shortcut weights
+     */
+    static void assertCost(double expected, double actual, String message) {
+        if (expected == Double.POSITIVE_INFINITY) {
+            assertEquals(expected, actual, message);
+        } else {
+            assertEquals(expected, actual, 1e-4 * Math.max(1, expected), message);
+        }
+    }
+
+    private static final class FloatList {
+        private float[] values = new float[64];
+        private int size;
+
+        void add(float value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        float get(int i) {
+            return values[i];
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeDependentAStarTest {
+
+    /**
+     * Assert that path is a source->target walk whose profiled travel times, leaving at
+     * departure, add up to its reported cost
+     */
+    private static void assertTimedPath(RoadGraph graph, SpeedProfiles profiles, Dijkstra.Path path,
+                                        int source, int target, double departure) {
+        int[] nodes = path.getNodes();
+        int[] edges = path.getEdges();
+        assertEquals(source, nodes[0]);
+        assertEquals(target, nodes[nodes.length - 1]);
+        double elapsed = 0;
+        for (int i = 0; i < edges.length; i++) {
+            int e = edges[i];
+            assertTrue(e >= graph.firstEdge(nodes[i]) && e < graph.endEdge(nodes[i]));
+            assertEquals(nodes[i + 1], graph.target(e));
+            elapsed += profiles.travelTime(e, graph.weight(e), departure + elapsed);
+        }
+        TestNetworks.assertCost(elapsed, path.getCost(), source + "->" + target + " walked");
+    }
+
+    @Test
+    void boundsMatchTimeDependentDijkstra() {
+        for (long seed = 1; seed <= 4; seed++) {
+            RoadNetwork network = TestNetworks.random(seed, 250);
+            RoadGraph graph = network.getGraph();
+            SpeedProfiles profiles = SpeedProfilesTest.randomProfiles(network, seed);
+            BidirectionalAStar bounds = BidirectionalAStar.create(network, 8, 2);
+            Random random = new Random(seed);
+
+            for (int q = 0; q < 200; q++) {
+                int source = random.nextInt(graph.nodeCount());
+                int target = random.nextInt(graph.nodeCount());
+                double departure = random.nextDouble() * SpeedProfiles.WEEK_SECONDS;
+
+                Dijkstra.Path expected = TimeDependentAStar.route(graph, profiles, null, source, target, departure);
+                Dijkstra.Path found = TimeDependentAStar.route(graph, profiles, bounds, source, target, departure);
+                if (expected == null) {
+                    assertEquals(Double.POSITIVE_INFINITY, Dijkstra.distance(graph, source, target));
+                    assertNull(found, source + "->" + target);
+                    continue;
+                }
+                assertNotNull(found, source + "->" + target);
+                TestNetworks.assertCost(expected.getCost(), found.getCost(), source + "->" + target);
+                assertTimedPath(graph, profiles, expected, source, target, departure);
+                assertTimedPath(graph, profiles, found, source, target, departure);
+                // Profiles only slow edges down
+                assertTrue(found.getCost() >= Dijkstra.distance(graph, source, target) * (1 - 1e-6));
+            }
+        }
+    }
+
+    @Test
+    void freeFlowProfilesMatchStaticDijkstra() {
+        RoadNetwork network = TestNetworks.random(5, 200);
+        RoadGraph graph = network.getGraph();
+        SpeedProfiles profiles = SpeedProfiles.build(network, List.of(), 400, 3600, 3);
+        BidirectionalAStar bounds = BidirectionalAStar.create(network, 4, 1);
+        Random random = new Random(5);
+        for (int q = 0; q < 200; q++) {
+            int source = random.nextInt(graph.nodeCount());
+            int target = random.nextInt(graph.nodeCount());
+            double expected = Dijkstra.distance(graph, source, target);
+            double departure = random.nextDouble() * SpeedProfiles.WEEK_SECONDS;
+            for (BidirectionalAStar b : new BidirectionalAStar[]{null, bounds}) {
+                Dijkstra.Path path = TimeDependentAStar.route(graph, profiles, b, source, target, departure);
+                if (expected == Double.POSITIVE_INFINITY) {
+                    assertNull(path);
+                } else {
+                    TestNetworks.assertPath(graph, path, source, target, expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    void sourceEqualsTargetTakesNoTime() {
+        RoadNetwork network = TestNetworks.random(6, 50);
+        SpeedProfiles profiles = SpeedProfilesTest.randomProfiles(network, 6);
+        Dijkstra.Path path = TimeDependentAStar.route(network.getGraph(), profiles, null, 7, 7, 1000);
+        assertNotNull(path);
+        assertEquals(0, path.getCost());
+        assertArrayEquals(new int[]{7}, path.getNodes());
+        assertEquals(0, path.getEdges().length);
+    }
+}
@@ -0,0 +1,74 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TravelTimeMatrixTest {
+
+    private static double pathLength(RoadNetwork network, Dijkstra.Path path) {
+        double meters = 0;
+        for (int e : path.getEdges()) {
+            meters += network.length(e);
+        }
+        return meters;
+    }
+
+    @Test
+    void cellsMatchDijkstraDistancesAndRouteLengths() {
+        for (long seed = 1; seed <= 4; seed++) {
+            RoadNetwork network = TestNetworks.random(seed, 200);
+            RoadGraph graph = network.getGraph();
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, 2);
+            TravelTimeMatrix matrix = new TravelTimeMatrix(hierarchy, network);
+            Random random = new Random(seed);
+
+            int[] sources = random.ints(15, 0, graph.nodeCount()).toArray();
+            int[] targets = random.ints(20, 0, graph.nodeCount()).toArray();
+            // Unsnapped points are passed as -1
+            sources[3] = -1;
+            targets[7] = -1;
+            double[][] seconds = new double[sources.length][];
+            double[][] meters = new double[sources.length][];
+            matrix.compute(sources, targets, 3, (row, rowSeconds, rowMeters) -> {
+                seconds[row] = rowSeconds;
+                meters[row] = rowMeters;
+            });
+
+            for (int i = 0; i < sources.length; i++) {
+                assertNotNull(seconds[i], "row " + i + " never delivered");
+                for (int j = 0; j < targets.length; j++) {
+                    if (sources[i] < 0 || targets[j] < 0) {
+                        assertEquals(Double.POSITIVE_INFINITY, seconds[i][j]);
+                        assertEquals(Double.POSITIVE_INFINITY, meters[i][j]);
+                        continue;
+                    }
+                    String cell = sources[i] + "->" + targets[j];
+                    double expected = Dijkstra.distance(graph, sources[i], targets[j]);
+                    TestNetworks.assertCost(expected, seconds[i][j], cell);
+                    if (expected == Double.POSITIVE_INFINITY) {
+                        assertEquals(Double.POSITIVE_INFINITY, meters[i][j], cell);
+                    } else {
+                        // Meters follow the fastest path the hierarchy found
+                        double length = pathLength(network, hierarchy.route(sources[i], targets[j]));
+                        assertEquals(length, meters[i][j], 1e-3 * Math.max(1, length), cell);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void diagonalOfIdenticalSourcesAndTargetsIsZero() {
+        RoadNetwork network = TestNetworks.random(5, 100);
+        TravelTimeMatrix matrix = new TravelTimeMatrix(ContractionHierarchy.build(network.getGraph(), 1), network);
+        int[] nodes = {0, 10, 20, 30};
+        double[][] seconds = new double[nodes.length][];
+        matrix.compute(nodes, nodes, 1, (row, rowSeconds, rowMeters) -> seconds[row] = rowSeconds);
+        for (int i = 0; i < nodes.length; i++) {
+            assertEquals(0, seconds[i][i]);
+        }
+    }
+}
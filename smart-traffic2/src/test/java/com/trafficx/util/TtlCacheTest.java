@@ -0,0 +1,92 @@
+package com.trafficx.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TtlCacheTest {
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        TtlCache<String, String> cache = new TtlCache<>("test", Duration.ofMinutes(1), 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> first = pool.submit(() -> cache.get("k", key -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return "v";
+            }));
+            loading.await();
+            Future<String> second = pool.submit(() -> cache.get("k", key -> {
+                loads.incrementAndGet();
+                return "other";
+            }));
+            Thread.sleep(50);
+            release.countDown();
+
+            assertEquals("v", first.get(5, TimeUnit.SECONDS));
+            assertEquals("v", second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+            assertEquals("v", cache.get("k", key -> "reloaded"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void loaderErrorReleasesWaitingCallers() throws Exception {
+        TtlCache<String, String> cache = new TtlCache<>("test", Duration.ofMinutes(1), 10);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = pool.submit(() -> cache.get("k", key -> {
+                loading.countDown();
+                await(release);
+                throw new AssertionError("loader failed");
+            }));
+            loading.await();
+            Future<String> waiter = pool.submit(() -> cache.get("k", key -> "unused"));
+            Thread.sleep(50);
+            release.countDown();
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertTrue(error.getCause() instanceof AssertionError);
+            // The waiter must fail (or reload) rather than hang
+            try {
+                assertEquals("unused", waiter.get(5, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof CompletionException);
+            }
+            assertNull(cache.getIfPresent("k"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void runtimeFailuresAreNotCached() {
+        TtlCache<String, String> cache = new TtlCache<>("test", Duration.ofMinutes(1), 10);
+        assertThrows(IllegalStateException.class, () -> cache.get("k", key -> {
+            throw new IllegalStateException("upstream down");
+        }));
+        assertEquals("v", cache.get("k", key -> "v"));
+        assertEquals(1, cache.stats().getLoadFailures());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}